@@ -189,8 +189,10 @@ public class DialogPresenter {
             DialogFeature feature) {
         Context context = FacebookSdk.getApplicationContext();
         String action = feature.getAction();
+        long startNanos = System.nanoTime();
         NativeProtocol.ProtocolVersionQueryResult protocolVersionResult =
                 getProtocolVersionForNativeDialog(feature);
+        DialogPreparationMetrics.recordProtocolResolution(System.nanoTime() - startNanos);
         int protocolVersion = protocolVersionResult.getProtocolVersion();
         if (protocolVersion == NativeProtocol.NO_PROTOCOL_AVAILABLE) {
             throw new FacebookException(
@@ -199,6 +201,7 @@ public class DialogPresenter {
         }
 
         Bundle params;
+        startNanos = System.nanoTime();
         if (NativeProtocol.isVersionCompatibleWithBucketedIntent(protocolVersion)) {
             // Facebook app supports the new bucketed protocol
             params = parameterProvider.getParameters();
@@ -206,6 +209,7 @@ public class DialogPresenter {
             // Facebook app only supports the old flat protocol
             params = parameterProvider.getLegacyParameters();
         }
+        DialogPreparationMetrics.recordParameterBuilding(System.nanoTime() - startNanos);
         if (params == null) {
             params = new Bundle();
         }
@@ -22,6 +22,8 @@ package com.facebook.internal;
 
 import android.app.Activity;
 import android.content.Intent;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 
 import com.facebook.CallbackManager;
@@ -53,6 +55,7 @@ public abstract class FacebookDialogBase<CONTENT, RESULT>
     private final FragmentWrapper fragmentWrapper;
     private List<ModeHandler> modeHandlers;
     private int requestCode;
+    private DialogPreparationMetrics.Listener preparationMetricsListener;
 
     protected FacebookDialogBase(final Activity activity, int requestCode) {
         Validate.notNull(activity, "activity");
@@ -121,6 +124,16 @@ public abstract class FacebookDialogBase<CONTENT, RESULT>
         return requestCode;
     }
 
+    /**
+     * Sets a listener that receives the per-stage timings of every dialog launched by this
+     * instance.
+     *
+     * @param listener the listener, or null to stop reporting
+     */
+    public void setPreparationMetricsListener(DialogPreparationMetrics.Listener listener) {
+        this.preparationMetricsListener = listener;
+    }
+
     @Override
     public boolean canShow(CONTENT content) {
         return canShowImpl(content, BASE_AUTOMATIC_MODE);
@@ -149,15 +162,85 @@ public abstract class FacebookDialogBase<CONTENT, RESULT>
         showImpl(content, BASE_AUTOMATIC_MODE);
     }
 
+    /**
+     * Shows the dialog like {@link #show(Object)}, but validates the content, builds the dialog
+     * parameters, stages attachments and resolves the protocol version on the SDK's executor.
+     * Only starting the dialog's intent happens on the main thread. Should the activity be
+     * finishing by then, the dialog is not shown.
+     *
+     * @param content the content to show
+     */
+    public void showAsync(final CONTENT content) {
+        showAsyncImpl(content, BASE_AUTOMATIC_MODE);
+    }
+
     // Pass in BASE_AUTOMATIC_MODE when Automatic mode choice is desired
     protected void showImpl(final CONTENT content, final Object mode) {
-        AppCall appCall = createAppCallForMode(content, mode);
+        DialogPreparationMetrics metrics = DialogPreparationMetrics.startPreparation(false);
+        AppCall appCall;
+        try {
+            appCall = createAppCallForMode(content, mode);
+        } finally {
+            metrics.finishPreparation();
+        }
+        presentAppCall(appCall, metrics);
+    }
+
+    // Pass in BASE_AUTOMATIC_MODE when Automatic mode choice is desired
+    protected void showAsyncImpl(final CONTENT content, final Object mode) {
+        // Resolved here so the handlers are never built concurrently with canShow()
+        cachedModeHandlers();
+        final Handler handler = new Handler(Looper.getMainLooper());
+        FacebookSdk.getExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                final DialogPreparationMetrics metrics =
+                        DialogPreparationMetrics.startPreparation(true);
+                AppCall appCall;
+                try {
+                    appCall = createAppCallForMode(content, mode);
+                } catch (RuntimeException e) {
+                    // Nobody is there to catch this on a background thread, so it is reported
+                    // through the dialog's callback instead.
+                    appCall = createBaseAppCall();
+                    DialogPresenter.setupAppCallForValidationError(
+                            appCall,
+                            new FacebookException(e));
+                } finally {
+                    metrics.finishPreparation();
+                }
+
+                final AppCall preparedAppCall = appCall;
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        Activity activityContext = getActivityContext();
+                        if (activityContext == null || activityContext.isFinishing()) {
+                            Log.w(TAG, "Not showing the dialog, the activity is gone");
+                            if (preparedAppCall != null) {
+                                NativeAppCallAttachmentStore.cleanupAttachmentsForCall(
+                                        preparedAppCall.getCallId());
+                            }
+                            return;
+                        }
+                        presentAppCall(preparedAppCall, metrics);
+                    }
+                });
+            }
+        });
+    }
+
+    private void presentAppCall(AppCall appCall, DialogPreparationMetrics metrics) {
         if (appCall != null) {
             if (fragmentWrapper != null) {
                 DialogPresenter.present(appCall, fragmentWrapper);
             } else {
                 DialogPresenter.present(appCall, activity);
             }
+            metrics.finishLaunch();
+            if (preparationMetricsListener != null) {
+                preparationMetricsListener.onMetricsRecorded(metrics);
+            }
         } else {
             // If we got a null appCall, then the derived dialog code is doing something wrong
             String errorMessage = "No code path should ever result in a null appCall";
@@ -25,6 +25,7 @@ import android.content.*;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Looper;
+import android.text.TextUtils;
 import android.support.v4.content.LocalBroadcastManager;
 import android.util.Log;
 
@@ -57,10 +58,16 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
@@ -122,6 +129,9 @@ public class LikeActionController {
 
     private static final int LIKE_ACTION_CONTROLLER_VERSION = 3;
     private static final int MAX_CACHE_SIZE = 128;
+    // How long a serialized controller waits before being written out. Updates that arrive in
+    // the meantime replace the pending write instead of adding another one.
+    private static final long DISK_WRITE_DELAY_MILLIS = 1000;
     // MAX_OBJECT_SUFFIX basically accommodates for 1000 access token changes before the async
     // disk-cache-clear finishes. The value is reasonably arbitrary.
     private static final int MAX_OBJECT_SUFFIX = 1000;
@@ -156,12 +166,25 @@ public class LikeActionController {
 
     private static final int ERROR_CODE_OBJECT_ALREADY_LIKED = 3501;
 
+    // A prefetch batch carries one like-status request per object plus a single multi-id
+    // engagement request, and the server rejects batches of more than 50 requests.
+    private static final int PREFETCH_BATCH_SIZE = 49;
+
     private static FileLruCache controllerDiskCache;
-    private static final ConcurrentHashMap<String, LikeActionController> cache =
+    // Access ordered, so the least recently used controller is evicted once the cache is full.
+    // Guarded by itself.
+    private static final LinkedHashMap<String, LikeActionController> cache =
+            new LinkedHashMap<String, LikeActionController>(MAX_CACHE_SIZE, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(
+                        Map.Entry<String, LikeActionController> eldest) {
+                    return size() > MAX_CACHE_SIZE;
+                }
+            };
+    // Serialized controllers that have not been written to disk yet, keyed by cache key.
+    private static final ConcurrentHashMap<String, String> pendingDiskWrites =
             new ConcurrentHashMap<>();
 
-    // This MUST be 1 for proper synchronization
-    private static WorkQueue mruCacheWorkQueue = new WorkQueue(1);
     // This MUST be 1 for proper synchronization
     private static WorkQueue diskIOWorkQueue = new WorkQueue(1);
 
@@ -260,6 +283,38 @@ public class LikeActionController {
         }
     }
 
+    /**
+     * Warms the controller caches for a list of objects before their LikeViews are bound. Cached
+     * state is loaded from disk, and the like status and engagement of every object that was not
+     * already in memory is refreshed with a handful of batched requests instead of one batch per
+     * object. Subsequent calls to getControllerForObjectId for these objects are cache hits.
+     *
+     * @deprecated
+     * LikeView is deprecated
+     */
+    @Deprecated
+    public static void prefetchControllersForObjectIds(
+            Collection<String> objectIds,
+            LikeView.ObjectType objectType) {
+        if (objectIds == null || objectIds.isEmpty()) {
+            return;
+        }
+
+        if (!isInitialized) {
+            performFirstInitialize();
+        }
+
+        ArrayList<String> objectIdsToPrefetch = new ArrayList<String>();
+        for (String objectId : new LinkedHashSet<String>(objectIds)) {
+            if (!Utility.isNullOrEmpty(objectId)) {
+                objectIdsToPrefetch.add(objectId);
+            }
+        }
+
+        diskIOWorkQueue.addActiveWorkItem(
+                new PrefetchControllersWorkItem(objectIdsToPrefetch, objectType));
+    }
+
     private static void verifyControllerAndInvokeCallback(
             LikeActionController likeActionController,
             LikeView.ObjectType objectType,
@@ -328,6 +383,54 @@ public class LikeActionController {
         invokeCallbackWithController(callback, controllerToRefresh, null);
     }
 
+    /**
+     * NOTE: This MUST be called ONLY via the PrefetchControllersWorkItem class to ensure that it
+     * happens on the right thread, at the right time.
+     */
+    private static void prefetchControllersForObjectIdsAndType(
+            List<String> objectIds,
+            LikeView.ObjectType objectType) {
+        final ArrayList<LikeActionController> controllersToRefresh =
+                new ArrayList<LikeActionController>();
+        for (String objectId : objectIds) {
+            // Controllers that are already in memory were refreshed when they were created.
+            if (getControllerFromInMemoryCache(objectId) != null) {
+                continue;
+            }
+
+            LikeActionController controllerForObject = deserializeFromDiskSynchronously(objectId);
+            if (controllerForObject == null) {
+                controllerForObject = new LikeActionController(objectId, objectType);
+                serializeToDiskAsync(controllerForObject);
+            } else {
+                // As in verifyControllerAndInvokeCallback, but there is no callback to report an
+                // incompatible type to, so that object is left for getControllerForObjectId.
+                LikeView.ObjectType bestObjectType = ShareInternalUtility.getMostSpecificObjectType(
+                        objectType,
+                        controllerForObject.objectType);
+                if (bestObjectType == null) {
+                    continue;
+                }
+                controllerForObject.objectType = bestObjectType;
+            }
+
+            putControllerInMemoryCache(objectId, controllerForObject);
+            controllersToRefresh.add(controllerForObject);
+        }
+
+        if (controllersToRefresh.isEmpty()) {
+            return;
+        }
+
+        // Refresh the controllers on the Main thread.
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                refreshStatusesAsync(controllersToRefresh);
+            }
+        });
+    }
+
     private synchronized static void performFirstInitialize() {
         if (isInitialized) {
             return;
@@ -403,10 +506,12 @@ public class LikeActionController {
                             .putInt(LIKE_ACTION_CONTROLLER_STORE_OBJECT_SUFFIX_KEY, objectSuffix)
                             .apply();
 
-                    // Only clearing the actual caches. The MRU index will self-clean with usage.
                     // Clearing the caches is necessary to prevent leaking like-state across
                     // users.
-                    cache.clear();
+                    synchronized (cache) {
+                        cache.clear();
+                    }
+                    pendingDiskWrites.clear();
                     controllerDiskCache.clearCache();
                 }
                 broadcastAction(null, ACTION_LIKE_ACTION_CONTROLLER_DID_RESET);
@@ -418,22 +523,18 @@ public class LikeActionController {
             String objectId,
             LikeActionController controllerForObject) {
         String cacheKey = getCacheKeyForObjectId(objectId);
-        // Move this object to the front. Also trim cache if necessary
-        mruCacheWorkQueue.addActiveWorkItem(new MRUCacheWorkItem(cacheKey, true));
-
-        cache.put(cacheKey, controllerForObject);
+        // Moves this object to the front, and evicts the oldest one if the cache is full
+        synchronized (cache) {
+            cache.put(cacheKey, controllerForObject);
+        }
     }
 
     private static LikeActionController getControllerFromInMemoryCache(String objectId) {
         String cacheKey = getCacheKeyForObjectId(objectId);
-
-        LikeActionController controller = cache.get(cacheKey);
-        if (controller != null) {
-            // Move this object to the front
-            mruCacheWorkQueue.addActiveWorkItem(new MRUCacheWorkItem(cacheKey, false));
+        // Moves this object to the front
+        synchronized (cache) {
+            return cache.get(cacheKey);
         }
-
-        return controller;
     }
 
     //
@@ -444,9 +545,19 @@ public class LikeActionController {
         String controllerJson = serializeToJson(controller);
         String cacheKey = getCacheKeyForObjectId(controller.objectId);
 
-        if (!Utility.isNullOrEmpty(controllerJson) && !Utility.isNullOrEmpty(cacheKey)) {
-            diskIOWorkQueue.addActiveWorkItem(
-                    new SerializeToDiskWorkItem(cacheKey, controllerJson));
+        if (Utility.isNullOrEmpty(controllerJson) || Utility.isNullOrEmpty(cacheKey)) {
+            return;
+        }
+
+        // If a write for this controller is already pending, it will pick up the new state.
+        if (pendingDiskWrites.put(cacheKey, controllerJson) == null) {
+            final SerializeToDiskWorkItem workItem = new SerializeToDiskWorkItem(cacheKey);
+            handler.postDelayed(new Runnable() {
+                @Override
+                public void run() {
+                    diskIOWorkQueue.addActiveWorkItem(workItem);
+                }
+            }, DISK_WRITE_DELAY_MILLIS);
         }
     }
 
@@ -475,12 +586,17 @@ public class LikeActionController {
     private static LikeActionController deserializeFromDiskSynchronously(String objectId) {
         LikeActionController controller = null;
 
-        InputStream inputStream = null;
         try {
             String cacheKey = getCacheKeyForObjectId(objectId);
-            inputStream = controllerDiskCache.get(cacheKey);
-            if (inputStream != null) {
-                String controllerJsonString = Utility.readStreamToString(inputStream);
+            // A pending write is newer than anything on disk
+            String pendingControllerJson = pendingDiskWrites.get(cacheKey);
+            if (pendingControllerJson != null) {
+                return deserializeFromJson(pendingControllerJson);
+            }
+
+            ByteBuffer buffer = controllerDiskCache.getBuffer(cacheKey);
+            if (buffer != null) {
+                String controllerJsonString = Utility.readBufferToString(buffer);
                 if (!Utility.isNullOrEmpty(controllerJsonString)) {
                     controller = deserializeFromJson(controllerJsonString);
                 }
@@ -488,10 +604,6 @@ public class LikeActionController {
         } catch (IOException e) {
             Log.e(TAG, "Unable to deserialize controller from disk", e);
             controller = null;
-        } finally {
-            if (inputStream != null) {
-                Utility.closeQuietly(inputStream);
-            }
         }
 
         return controller;
@@ -1151,6 +1263,23 @@ public class LikeActionController {
         });
     }
 
+    private static void refreshStatusesAsync(List<LikeActionController> controllers) {
+        if (!AccessToken.isCurrentAccessTokenActive()) {
+            // The like status service only answers for one object at a time.
+            for (LikeActionController controller : controllers) {
+                controller.refreshStatusViaService();
+            }
+            return;
+        }
+
+        for (int start = 0; start < controllers.size(); start += PREFETCH_BATCH_SIZE) {
+            int end = Math.min(start + PREFETCH_BATCH_SIZE, controllers.size());
+            new BulkRefreshOperation(
+                    new ArrayList<LikeActionController>(controllers.subList(start, end)))
+                    .start();
+        }
+    }
+
     private void refreshStatusViaService() {
         LikeStatusClient likeStatusClient = new LikeStatusClient(
                 FacebookSdk.getApplicationContext(),
@@ -1728,50 +1857,291 @@ public class LikeActionController {
         protected abstract void processSuccess(GraphResponse response);
     }
 
-    // Performs cache re-ordering/trimming to keep most-recently-used items up front
-    // ** NOTE ** It is expected that only _ONE_ MRUCacheWorkItem is ever running. This is enforced
-    // by setting the concurrency of the WorkQueue to 1. Changing the concurrency will most likely
-    // lead to errors.
-    private static class MRUCacheWorkItem implements Runnable {
-        private static ArrayList<String> mruCachedItems = new ArrayList<String>();
-        private String cacheItem;
-        private boolean shouldTrim;
+    private static class SerializeToDiskWorkItem implements Runnable {
+        private String cacheKey;
 
-        MRUCacheWorkItem(String cacheItem, boolean shouldTrim) {
-            this.cacheItem = cacheItem;
-            this.shouldTrim = shouldTrim;
+        SerializeToDiskWorkItem(String cacheKey) {
+            this.cacheKey = cacheKey;
         }
 
         @Override
         public void run() {
-            if (cacheItem != null) {
-                mruCachedItems.remove(cacheItem);
-                mruCachedItems.add(0, cacheItem);
+            // Writes the latest state queued for this controller, if it wasn't cleared meanwhile
+            String controllerJson = pendingDiskWrites.remove(cacheKey);
+            if (controllerJson != null) {
+                serializeToDiskSynchronously(cacheKey, controllerJson);
+            }
+        }
+    }
+
+    /**
+     * Refreshes the state of up to PREFETCH_BATCH_SIZE controllers. Object ids are resolved with
+     * one multi-id request per kind of id, and engagement is fetched with one multi-id request.
+     * Only the viewer's like status needs a request per object, and those all travel in the same
+     * batch. Any object that the bulk requests cannot account for falls back to the regular
+     * per-object refresh.
+     */
+    private static class BulkRefreshOperation {
+        private final List<LikeActionController> controllers;
+
+        BulkRefreshOperation(List<LikeActionController> controllers) {
+            this.controllers = controllers;
+        }
+
+        void start() {
+            final ArrayList<LikeActionController> unverifiedPages =
+                    new ArrayList<LikeActionController>();
+            final ArrayList<LikeActionController> unverifiedObjects =
+                    new ArrayList<LikeActionController>();
+            ArrayList<LikeActionController> unverifiedControllers =
+                    new ArrayList<LikeActionController>();
+            for (LikeActionController controller : controllers) {
+                if (!Utility.isNullOrEmpty(controller.verifiedObjectId)) {
+                    continue;
+                }
+                unverifiedControllers.add(controller);
+                if (controller.objectType == LikeView.ObjectType.PAGE) {
+                    unverifiedPages.add(controller);
+                } else {
+                    unverifiedObjects.add(controller);
+                }
+            }
+
+            if (unverifiedControllers.isEmpty()) {
+                fetchStatuses();
+                return;
+            }
+
+            // Pages only have a page id, so they are kept out of the og_object lookup; a single
+            // page in that request would fail it for every object.
+            final Map<String, JSONObject> ogObjectResults = new HashMap<String, JSONObject>();
+            final Map<String, JSONObject> pageResults = new HashMap<String, JSONObject>();
+            final FacebookRequestError[] ogObjectError = new FacebookRequestError[1];
+
+            GraphRequestBatch requestBatch = new GraphRequestBatch();
+            if (!unverifiedObjects.isEmpty()) {
+                requestBatch.add(newMultipleIdRequest(
+                        unverifiedObjects,
+                        false,
+                        "og_object.fields(id)",
+                        ogObjectResults,
+                        ogObjectError));
             }
-            if (shouldTrim && mruCachedItems.size() >= MAX_CACHE_SIZE) {
-                int targetSize = MAX_CACHE_SIZE / 2; // Optimize for fewer trim-passes.
-                while (targetSize < mruCachedItems.size()) {
-                    String cacheKey = mruCachedItems.remove(mruCachedItems.size() - 1);
+            requestBatch.add(newMultipleIdRequest(
+                    unverifiedControllers,
+                    false,
+                    "id",
+                    pageResults,
+                    null));
+
+            requestBatch.addCallback(new GraphRequestBatch.Callback() {
+                @Override
+                public void onBatchCompleted(GraphRequestBatch batch) {
+                    for (LikeActionController controller : unverifiedObjects) {
+                        if (ogObjectError[0] != null) {
+                            // Most likely one of the objects is a page. Let each object resolve
+                            // its own id.
+                            continue;
+                        }
+                        JSONObject ogObject = getResult(ogObjectResults, controller.objectId)
+                                .optJSONObject("og_object");
+                        if (ogObject != null) {
+                            controller.verifiedObjectId = ogObject.optString("id");
+                        }
+                        if (Utility.isNullOrEmpty(controller.verifiedObjectId)) {
+                            verifyAsPage(controller, pageResults);
+                        }
+                    }
+                    for (LikeActionController controller : unverifiedPages) {
+                        verifyAsPage(controller, pageResults);
+                    }
+
+                    fetchStatuses();
+                }
+            });
+
+            requestBatch.executeAsync();
+        }
+
+        private void fetchStatuses() {
+            final ArrayList<LikeActionController> verifiedControllers =
+                    new ArrayList<LikeActionController>();
+            final ArrayList<LikeRequestWrapper> likeRequests = new ArrayList<LikeRequestWrapper>();
+            GraphRequestBatch requestBatch = new GraphRequestBatch();
+            for (LikeActionController controller : controllers) {
+                if (Utility.isNullOrEmpty(controller.verifiedObjectId)) {
+                    // Either the bulk lookup could not tell, or the id is invalid. The regular
+                    // refresh will retry and report the latter.
+                    controller.refreshStatusAsync();
+                    continue;
+                }
+
+                LikeRequestWrapper likeRequest;
+                switch (controller.objectType) {
+                    case PAGE:
+                        likeRequest = controller.new GetPageLikesRequestWrapper(
+                                controller.verifiedObjectId);
+                        break;
+                    default:
+                        likeRequest = controller.new GetOGObjectLikesRequestWrapper(
+                                controller.verifiedObjectId,
+                                controller.objectType);
+                        break;
+                }
+                likeRequest.addToBatch(requestBatch);
+                likeRequests.add(likeRequest);
+                verifiedControllers.add(controller);
+            }
+
+            if (verifiedControllers.isEmpty()) {
+                return;
+            }
+
+            final Map<String, JSONObject> engagementResults = new HashMap<String, JSONObject>();
+            final FacebookRequestError[] engagementError = new FacebookRequestError[1];
+            requestBatch.add(newMultipleIdRequest(
+                    verifiedControllers,
+                    true,
+                    "engagement.fields(" +
+                            "count_string_with_like," +
+                            "count_string_without_like," +
+                            "social_sentence_with_like," +
+                            "social_sentence_without_like)",
+                    engagementResults,
+                    engagementError));
+
+            requestBatch.addCallback(new GraphRequestBatch.Callback() {
+                @Override
+                public void onBatchCompleted(GraphRequestBatch batch) {
+                    for (int i = 0; i < verifiedControllers.size(); i++) {
+                        LikeActionController controller = verifiedControllers.get(i);
+                        LikeRequestWrapper likeRequest = likeRequests.get(i);
+                        if (engagementError[0] != null) {
+                            // One bad id fails the multi-id request for everyone, so fall back
+                            // to fetching this object on its own.
+                            controller.refreshStatusAsync();
+                            continue;
+                        }
+                        if (likeRequest.getError() != null) {
+                            // Refreshing is best-effort. If the refresh fails, don't lose old
+                            // state.
+                            Logger.log(
+                                    LoggingBehavior.REQUESTS,
+                                    TAG,
+                                    "Unable to refresh like state for id: '%s'",
+                                    controller.objectId);
+                            continue;
+                        }
 
-                    // Here is where we actually remove from the cache of LikeActionControllers.
-                    cache.remove(cacheKey);
+                        // Missing properties in the response should default to cached state
+                        JSONObject engagement =
+                                getResult(engagementResults, controller.verifiedObjectId)
+                                        .optJSONObject("engagement");
+                        if (engagement == null) {
+                            engagement = new JSONObject();
+                        }
+                        controller.updateState(
+                                likeRequest.isObjectLiked(),
+                                engagement.optString(
+                                        "count_string_with_like",
+                                        controller.likeCountStringWithLike),
+                                engagement.optString(
+                                        "count_string_without_like",
+                                        controller.likeCountStringWithoutLike),
+                                engagement.optString(
+                                        "social_sentence_with_like",
+                                        controller.socialSentenceWithLike),
+                                engagement.optString(
+                                        "social_sentence_without_like",
+                                        controller.socialSentenceWithoutLike),
+                                likeRequest.getUnlikeToken());
+                    }
                 }
+            });
+
+            requestBatch.executeAsync();
+        }
+
+        private static void verifyAsPage(
+                LikeActionController controller,
+                Map<String, JSONObject> pageResults) {
+            controller.verifiedObjectId = getResult(pageResults, controller.objectId)
+                    .optString("id");
+            controller.objectIsPage = !Utility.isNullOrEmpty(controller.verifiedObjectId);
+            if (!controller.objectIsPage) {
+                controller.verifiedObjectId = null;
             }
         }
+
+        private static JSONObject getResult(Map<String, JSONObject> results, String id) {
+            JSONObject result = results.get(id);
+            return result != null ? result : new JSONObject();
+        }
+
+        private static GraphRequest newMultipleIdRequest(
+                List<LikeActionController> controllers,
+                boolean useVerifiedIds,
+                String fields,
+                final Map<String, JSONObject> results,
+                final FacebookRequestError[] error) {
+            final ArrayList<String> ids = new ArrayList<String>();
+            for (LikeActionController controller : controllers) {
+                ids.add(useVerifiedIds ? controller.verifiedObjectId : controller.objectId);
+            }
+
+            Bundle requestParams = new Bundle();
+            requestParams.putString("fields", fields);
+            requestParams.putString("ids", TextUtils.join(",", ids));
+            // Ensure that any social sentences returned are localized
+            requestParams.putString("locale", Locale.getDefault().toString());
+
+            GraphRequest request = new GraphRequest(
+                    AccessToken.getCurrentAccessToken(),
+                    "",
+                    requestParams,
+                    HttpMethod.GET);
+            request.setVersion(FacebookSdk.getGraphApiVersion());
+            request.setCallback(new GraphRequest.Callback() {
+                @Override
+                public void onCompleted(GraphResponse response) {
+                    if (response.getError() != null) {
+                        if (error != null) {
+                            error[0] = response.getError();
+                        }
+                        Logger.log(LoggingBehavior.REQUESTS,
+                                TAG,
+                                "Error running bulk request for ids '%s' : %s",
+                                ids,
+                                response.getError());
+                        return;
+                    }
+
+                    for (String id : ids) {
+                        JSONObject result = Utility.tryGetJSONObjectFromResponse(
+                                response.getJSONObject(),
+                                id);
+                        if (result != null) {
+                            results.put(id, result);
+                        }
+                    }
+                }
+            });
+            return request;
+        }
     }
 
-    private static class SerializeToDiskWorkItem implements Runnable {
-        private String cacheKey;
-        private String controllerJson;
+    private static class PrefetchControllersWorkItem implements Runnable {
+        private List<String> objectIds;
+        private LikeView.ObjectType objectType;
 
-        SerializeToDiskWorkItem(String cacheKey, String controllerJson) {
-            this.cacheKey = cacheKey;
-            this.controllerJson = controllerJson;
+        PrefetchControllersWorkItem(List<String> objectIds, LikeView.ObjectType objectType) {
+            this.objectIds = objectIds;
+            this.objectType = objectType;
         }
 
         @Override
         public void run() {
-            serializeToDiskSynchronously(cacheKey, controllerJson);
+            prefetchControllersForObjectIdsAndType(objectIds, objectType);
         }
     }
 
@@ -25,6 +25,7 @@ import android.net.Uri;
 
 import com.facebook.FacebookException;
 import com.facebook.FacebookSdk;
+import com.facebook.internal.DialogPreparationMetrics;
 import com.facebook.internal.Utility;
 import com.facebook.internal.Validate;
 import com.facebook.share.model.ShareCameraEffectContent;
@@ -46,9 +47,14 @@ import com.facebook.share.model.SharePhotoContent;
 import com.facebook.share.model.ShareVideo;
 import com.facebook.share.model.ShareVideoContent;
 
+import java.util.EnumMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 /**
  * com.facebook.share.internal is solely for the use of other packages within the
@@ -57,53 +63,159 @@ import java.util.Set;
  */
 public class ShareContentValidation {
 
-    private static Validator WebShareValidator;
-    private static Validator DefaultValidator;
-    private static Validator ApiValidator;
+    private enum ValidatorKind {
+        DEFAULT,
+        WEB,
+        API
+    }
+
+    // Share content can't change once built, so the outcome of validating an instance is kept
+    // for as long as the instance is alive. A null error means the content is valid. The models
+    // don't override equals, so content is matched by identity. Guarded by itself.
+    private static final WeakHashMap<ShareContent, EnumMap<ValidatorKind, FacebookException>>
+            results = new WeakHashMap<>();
 
     public static void validateForMessage(ShareContent content) {
-        validate(content, getDefaultValidator());
+        validate(content, ValidatorKind.DEFAULT);
     }
 
     public static void validateForNativeShare(ShareContent content) {
-        validate(content, getDefaultValidator());
+        validate(content, ValidatorKind.DEFAULT);
     }
 
     public static void validateForWebShare(ShareContent content) {
-        validate(content, getWebShareValidator());
+        validate(content, ValidatorKind.WEB);
     }
 
     public static void validateForApiShare(ShareContent content) {
-        validate(content, getApiValidator());
-    }
+        validate(content, ValidatorKind.API);
+    }
+
+    /**
+     * Validates the content for the message dialog on the SDK's executor, or right away if the
+     * outcome is already known. The other modes have matching variants.
+     *
+     * @param content the content to validate
+     * @return a future that fails with the validation error, if any
+     */
+    public static Future<Void> validateForMessageAsync(ShareContent content) {
+        return validateAsync(content, ValidatorKind.DEFAULT);
+    }
+
+    /**
+     * Asynchronous version of {@link #validateForNativeShare(ShareContent)}.
+     */
+    public static Future<Void> validateForNativeShareAsync(ShareContent content) {
+        return validateAsync(content, ValidatorKind.DEFAULT);
+    }
+
+    /**
+     * Asynchronous version of {@link #validateForWebShare(ShareContent)}.
+     */
+    public static Future<Void> validateForWebShareAsync(ShareContent content) {
+        return validateAsync(content, ValidatorKind.WEB);
+    }
+
+    /**
+     * Asynchronous version of {@link #validateForApiShare(ShareContent)}.
+     */
+    public static Future<Void> validateForApiShareAsync(ShareContent content) {
+        return validateAsync(content, ValidatorKind.API);
+    }
+
+    // Validators remember whether they are inside Open Graph content, so each validation gets
+    // its own.
+    private static Validator newValidator(ValidatorKind kind) {
+        switch (kind) {
+            case WEB:
+                return new WebShareValidator();
+            case API:
+                return new ApiValidator();
+            default:
+                return new Validator();
+        }
+    }
+
+    private static Future<Void> validateAsync(
+            final ShareContent content,
+            final ValidatorKind kind) {
+        FutureTask<Void> task = new FutureTask<Void>(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                validate(content, kind);
+                return null;
+            }
+        });
 
-    private static Validator getDefaultValidator() {
-        if (DefaultValidator == null) {
-            DefaultValidator = new Validator();
+        if (content == null || isValidated(content, kind)) {
+            task.run();
+        } else {
+            FacebookSdk.getExecutor().execute(task);
         }
-        return DefaultValidator;
+        return task;
     }
 
-    private static Validator getApiValidator() {
-        if (ApiValidator == null) {
-            ApiValidator = new ApiValidator();
+    private static boolean isValidated(ShareContent content, ValidatorKind kind) {
+        synchronized (results) {
+            EnumMap<ValidatorKind, FacebookException> contentResults = results.get(content);
+            return contentResults != null && contentResults.containsKey(kind);
         }
-        return ApiValidator;
     }
 
-    private static Validator getWebShareValidator() {
-        if (WebShareValidator == null) {
-            WebShareValidator = new WebShareValidator();
+    private static void validate(ShareContent content, ValidatorKind kind)
+            throws FacebookException {
+        long startNanos = System.nanoTime();
+        try {
+            validateContent(content, kind);
+        } finally {
+            DialogPreparationMetrics.recordValidation(System.nanoTime() - startNanos);
         }
-        return WebShareValidator;
     }
 
-    private static void validate(ShareContent content, Validator validator)
+    private static void validateContent(ShareContent content, ValidatorKind kind)
             throws FacebookException {
         if (content == null) {
             throw new FacebookException("Must provide non-null content to share");
         }
 
+        FacebookException error;
+        synchronized (results) {
+            EnumMap<ValidatorKind, FacebookException> contentResults = results.get(content);
+            if (contentResults != null && contentResults.containsKey(kind)) {
+                error = contentResults.get(kind);
+                if (error != null) {
+                    throw error;
+                }
+                return;
+            }
+        }
+
+        // Anything other than a FacebookException, e.g. a missing content provider, isn't a
+        // property of the content, so it is left to surface again next time.
+        error = null;
+        try {
+            validate(content, newValidator(kind));
+        } catch (FacebookException e) {
+            error = e;
+        }
+
+        synchronized (results) {
+            EnumMap<ValidatorKind, FacebookException> contentResults = results.get(content);
+            if (contentResults == null) {
+                contentResults = new EnumMap<>(ValidatorKind.class);
+                results.put(content, contentResults);
+            }
+            contentResults.put(kind, error);
+        }
+
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    private static void validate(ShareContent content, Validator validator)
+            throws FacebookException {
+
         if (content instanceof ShareLinkContent) {
             validator.validate((ShareLinkContent) content);
         } else if (content instanceof SharePhotoContent) {
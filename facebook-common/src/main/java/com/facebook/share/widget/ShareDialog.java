@@ -298,6 +298,16 @@ public final class ShareDialog
         showImpl(content, isAutomaticMode ? BASE_AUTOMATIC_MODE : mode);
     }
 
+    /**
+     * Call this to show the Share Dialog in a specific mode, preparing it off the main thread
+     * @param mode Mode of the Share Dialog
+     */
+    public void showAsync(ShareContent content, Mode mode) {
+        isAutomaticMode = (mode == Mode.AUTOMATIC);
+
+        showAsyncImpl(content, isAutomaticMode ? BASE_AUTOMATIC_MODE : mode);
+    }
+
     @Override
     protected AppCall createBaseAppCall() {
         return new AppCall(getRequestCode());
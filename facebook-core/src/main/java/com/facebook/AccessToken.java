@@ -42,6 +42,7 @@ import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Future;
 
 /**
  * This class represents an immutable access token for using Facebook APIs. It also includes
@@ -145,15 +146,38 @@ public final class AccessToken implements Parcelable {
      * @return The access token that is current for the application.
      */
     public static AccessToken getCurrentAccessToken() {
+        FacebookSdk.ensureAccessTokenLoaded();
         return AccessTokenManager.getInstance().getCurrentAccessToken();
     }
 
+    /**
+     * Returns a future that completes once the access token cached by a previous run of the app
+     * has been loaded, which happens in the background while the SDK initializes. Its value is
+     * the current access token at that point, or null if there is none; use it instead of
+     * {@link #getCurrentAccessToken()} when code runs early enough to race that load.
+     *
+     * @return The future for the loaded access token.
+     */
+    public static Future<AccessToken> getCurrentAccessTokenLoadedFuture() {
+        if (FacebookSdk.isLazyInitializationEnabled()) {
+            // In lazy initialization mode the token is only loaded on first use, so start now.
+            FacebookSdk.getExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    FacebookSdk.loadAccessTokenAndProfile();
+                }
+            });
+        }
+        return AccessTokenManager.getInstance().getCurrentAccessTokenLoadedFuture();
+    }
+
     /**
      * Returns whether the current {@link AccessToken} is active or not.
      *
      * @return true if the current AccessToken exists and has not expired; false, otherwise.
      */
     public static boolean isCurrentAccessTokenActive() {
+        FacebookSdk.ensureAccessTokenLoaded();
         final AccessToken accessToken = AccessTokenManager.getInstance().getCurrentAccessToken();
         return accessToken != null && !accessToken.isExpired();
     }
@@ -24,23 +24,65 @@ import android.content.Context;
 import android.content.SharedPreferences;
 import android.os.Bundle;
 
+import com.facebook.internal.StartupTrace;
+import com.facebook.internal.Utility;
 import com.facebook.internal.Validate;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Besides the JSON in SharedPreferences, which older SDK versions read, the current token is
+// kept in memory and in a small binary snapshot file. load() answers from memory after the first
+// call, and reads the snapshot before it falls back to parsing JSON or migrating a legacy token.
+// The JSON stays authoritative: the snapshot records a hash of the JSON it was written with, and
+// is ignored once the JSON differs, e.g. because an older SDK logged out after a downgrade.
 class AccessTokenCache {
     static final String CACHED_ACCESS_TOKEN_KEY
             = "com.facebook.AccessTokenManager.CachedAccessToken";
+    static final String SNAPSHOT_FILE_NAME = "com.facebook.AccessTokenManager.CachedAccessToken";
+    private static final String TAG = AccessTokenCache.class.getCanonicalName();
+    private static final int SNAPSHOT_VERSION = 2;
 
     private final SharedPreferences sharedPreferences;
     private final SharedPreferencesTokenCachingStrategyFactory tokenCachingStrategyFactory;
+    private final File snapshotFile;
+    private final Executor snapshotExecutor;
     private LegacyTokenHelper tokenCachingStrategy;
+    private final Object snapshotLock = new Object();
+    private volatile boolean snapshotLoaded;
+    private volatile AccessToken snapshot;
+    // Snapshot writes run on snapshotExecutor. Only the most recent save or clear touches the file.
+    private final Object snapshotFileLock = new Object();
+    private final AtomicInteger snapshotGeneration = new AtomicInteger();
 
     AccessTokenCache(SharedPreferences sharedPreferences,
                      SharedPreferencesTokenCachingStrategyFactory tokenCachingStrategyFactory) {
+        this(sharedPreferences, tokenCachingStrategyFactory, null, null);
+    }
+
+    AccessTokenCache(SharedPreferences sharedPreferences,
+                     SharedPreferencesTokenCachingStrategyFactory tokenCachingStrategyFactory,
+                     File snapshotFile,
+                     Executor snapshotExecutor) {
         this.sharedPreferences = sharedPreferences;
         this.tokenCachingStrategyFactory = tokenCachingStrategyFactory;
+        this.snapshotFile = snapshotFile;
+        this.snapshotExecutor = snapshotExecutor;
     }
 
     public AccessTokenCache() {
@@ -48,48 +90,92 @@ class AccessTokenCache {
                 FacebookSdk.getApplicationContext().getSharedPreferences(
                         AccessTokenManager.SHARED_PREFERENCES_NAME,
                         Context.MODE_PRIVATE),
-                new SharedPreferencesTokenCachingStrategyFactory()
+                new SharedPreferencesTokenCachingStrategyFactory(),
+                new File(FacebookSdk.getApplicationContext().getFilesDir(), SNAPSHOT_FILE_NAME),
+                FacebookSdk.getExecutor()
         );
     }
 
     public AccessToken load() {
-        AccessToken accessToken = null;
-        if (hasCachedAccessToken()) {
-            // If we have something cached, we try to use it; even if it is invalid, do not fall
-            // back to a legacy caching strategy.
-            accessToken = getCachedAccessToken();
-        } else if (shouldCheckLegacyToken()) {
-            accessToken = getLegacyAccessToken();
+        if (snapshotLoaded) {
+            return snapshot;
+        }
 
-            if (accessToken != null) {
-                save(accessToken);
-                getTokenCachingStrategy().clear();
+        synchronized (snapshotLock) {
+            if (!snapshotLoaded) {
+                snapshot = loadFromDisk();
+                snapshotLoaded = true;
             }
+            return snapshot;
         }
-
-        return accessToken;
     }
 
     public void save(AccessToken accessToken) {
         Validate.notNull(accessToken, "accessToken");
 
+        synchronized (snapshotLock) {
+            snapshot = accessToken;
+            snapshotLoaded = true;
+        }
+
         JSONObject jsonObject = null;
         try {
             jsonObject = accessToken.toJSONObject();
-            sharedPreferences.edit().putString(CACHED_ACCESS_TOKEN_KEY, jsonObject.toString())
-                    .apply();
+            String jsonString = jsonObject.toString();
+            sharedPreferences.edit().putString(CACHED_ACCESS_TOKEN_KEY, jsonString).apply();
+            updateSnapshotFileAsync(accessToken, jsonString);
         } catch (JSONException e) {
             // Can't recover
+            updateSnapshotFileAsync(null, null);
         }
     }
 
     public void clear() {
+        synchronized (snapshotLock) {
+            snapshot = null;
+            snapshotLoaded = true;
+        }
+        updateSnapshotFileAsync(null, null);
+
         sharedPreferences.edit().remove(CACHED_ACCESS_TOKEN_KEY).apply();
         if (shouldCheckLegacyToken()) {
             getTokenCachingStrategy().clear();
         }
     }
 
+    private AccessToken loadFromDisk() {
+        AccessToken accessToken = null;
+        String jsonString = sharedPreferences.getString(CACHED_ACCESS_TOKEN_KEY, null);
+        if (jsonString != null) {
+            StartupTrace.Section section = StartupTrace.begin("access_token_snapshot");
+            accessToken = readSnapshot(jsonString.hashCode());
+            section.end();
+            if (accessToken != null) {
+                return accessToken;
+            }
+        }
+
+        if (hasCachedAccessToken()) {
+            // If we have something cached, we try to use it; even if it is invalid, do not fall
+            // back to a legacy caching strategy.
+            StartupTrace.Section section = StartupTrace.begin("access_token_json");
+            accessToken = getCachedAccessToken();
+            updateSnapshotFileAsync(accessToken, accessToken != null ? jsonString : null);
+            section.end();
+        } else if (shouldCheckLegacyToken()) {
+            StartupTrace.Section section = StartupTrace.begin("access_token_legacy");
+            accessToken = getLegacyAccessToken();
+
+            if (accessToken != null) {
+                save(accessToken);
+                getTokenCachingStrategy().clear();
+            }
+            section.end();
+        }
+
+        return accessToken;
+    }
+
     private boolean hasCachedAccessToken() {
         return sharedPreferences.contains(CACHED_ACCESS_TOKEN_KEY);
     }
@@ -107,6 +193,139 @@ class AccessTokenCache {
         return null;
     }
 
+    private AccessToken readSnapshot(int jsonHash) {
+        if (snapshotFile == null || !snapshotFile.exists()) {
+            return null;
+        }
+
+        FileInputStream input = null;
+        try {
+            input = new FileInputStream(snapshotFile);
+            byte[] data = new byte[(int) snapshotFile.length()];
+            int offset = 0;
+            int count;
+            while (offset < data.length
+                    && (count = input.read(data, offset, data.length - offset)) != -1) {
+                offset += count;
+            }
+            return decode(data, jsonHash);
+        } catch (IOException | RuntimeException e) {
+            // A corrupt or unreadable snapshot is rebuilt from the JSON copy.
+            Utility.logd(TAG, e);
+            return null;
+        } finally {
+            Utility.closeQuietly(input);
+        }
+    }
+
+    // Writes the snapshot for accessToken, or deletes it if accessToken is null, off the caller's
+    // thread. A write that was superseded by a later save or clear before it ran is skipped.
+    private void updateSnapshotFileAsync(
+            final AccessToken accessToken,
+            final String jsonString) {
+        if (snapshotFile == null) {
+            return;
+        }
+
+        final int generation = snapshotGeneration.incrementAndGet();
+        snapshotExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (snapshotFileLock) {
+                    if (generation != snapshotGeneration.get()) {
+                        return;
+                    }
+                    if (accessToken == null) {
+                        snapshotFile.delete();
+                    } else {
+                        writeSnapshot(accessToken, jsonString.hashCode());
+                    }
+                }
+            }
+        });
+    }
+
+    // Writes to a temporary file and renames it into place, so a crash mid-write never leaves a
+    // truncated snapshot behind.
+    private void writeSnapshot(AccessToken accessToken, int jsonHash) {
+        File tempFile = new File(snapshotFile.getPath() + ".tmp");
+        FileOutputStream output = null;
+        try {
+            output = new FileOutputStream(tempFile);
+            output.write(encode(accessToken, jsonHash));
+            output.getFD().sync();
+            output.close();
+            output = null;
+            if (!tempFile.renameTo(snapshotFile)) {
+                tempFile.delete();
+            }
+        } catch (IOException e) {
+            Utility.logd(TAG, e);
+            tempFile.delete();
+        } finally {
+            Utility.closeQuietly(output);
+        }
+    }
+
+    static byte[] encode(AccessToken accessToken, int jsonHash) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(bytes);
+        output.writeInt(SNAPSHOT_VERSION);
+        output.writeInt(jsonHash);
+        output.writeUTF(accessToken.getToken());
+        output.writeUTF(accessToken.getApplicationId());
+        output.writeUTF(accessToken.getUserId());
+        writeStrings(output, accessToken.getPermissions());
+        writeStrings(output, accessToken.getDeclinedPermissions());
+        output.writeUTF(accessToken.getSource().name());
+        output.writeLong(accessToken.getExpires().getTime());
+        output.writeLong(accessToken.getLastRefresh().getTime());
+        output.flush();
+        return bytes.toByteArray();
+    }
+
+    // Returns null unless the snapshot was written along with the JSON that hashes to jsonHash.
+    static AccessToken decode(byte[] data, int jsonHash) throws IOException {
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(data));
+        if (input.readInt() != SNAPSHOT_VERSION || input.readInt() != jsonHash) {
+            return null;
+        }
+        String token = input.readUTF();
+        String applicationId = input.readUTF();
+        String userId = input.readUTF();
+        List<String> permissions = readStrings(input);
+        List<String> declinedPermissions = readStrings(input);
+        AccessTokenSource source = AccessTokenSource.valueOf(input.readUTF());
+        Date expires = new Date(input.readLong());
+        Date lastRefresh = new Date(input.readLong());
+        return new AccessToken(
+                token,
+                applicationId,
+                userId,
+                permissions,
+                declinedPermissions,
+                source,
+                expires,
+                lastRefresh);
+    }
+
+    private static void writeStrings(DataOutputStream output, Collection<String> strings)
+            throws IOException {
+        output.writeInt(strings.size());
+        for (String string : strings) {
+            output.writeUTF(string);
+        }
+    }
+
+    private static List<String> readStrings(DataInputStream input) throws IOException {
+        int count = input.readInt();
+        List<String> strings = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            strings.add(input.readUTF());
+        }
+        return strings;
+    }
+
     private boolean shouldCheckLegacyToken() {
         return FacebookSdk.isLegacyTokenUpgradeSupported();
     }
@@ -36,10 +36,15 @@ import com.facebook.internal.Validate;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Locale;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 final public class AccessTokenManager {
@@ -65,8 +70,17 @@ final public class AccessTokenManager {
 
     private final LocalBroadcastManager localBroadcastManager;
     private final AccessTokenCache accessTokenCache;
-    private AccessToken currentAccessToken;
-    private AtomicBoolean tokenRefreshInProgress = new AtomicBoolean(false);
+    private volatile AccessToken currentAccessToken;
+    private final FutureTask<AccessToken> currentAccessTokenLoaded =
+            new FutureTask<>(new Callable<AccessToken>() {
+                @Override
+                public AccessToken call() throws Exception {
+                    return currentAccessToken;
+                }
+            });
+    private final Object refreshLock = new Object();
+    private RefreshOperation refreshOperation;
+    private final AccessTokenRefreshScheduler refreshScheduler;
     private Date lastAttemptedTokenExtendDate = new Date(0);
 
     AccessTokenManager(LocalBroadcastManager localBroadcastManager,
@@ -77,6 +91,15 @@ final public class AccessTokenManager {
 
         this.localBroadcastManager = localBroadcastManager;
         this.accessTokenCache = accessTokenCache;
+        this.refreshScheduler = new AccessTokenRefreshScheduler(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        refreshCurrentAccessToken(null);
+                    }
+                },
+                TOKEN_EXTEND_THRESHOLD_SECONDS * 1000L,
+                TOKEN_EXTEND_RETRY_SECONDS * 1000L);
     }
 
     static AccessTokenManager getInstance() {
@@ -101,14 +124,22 @@ final public class AccessTokenManager {
     }
 
     boolean loadCurrentAccessToken() {
-        AccessToken accessToken = accessTokenCache.load();
+        try {
+            AccessToken accessToken = accessTokenCache.load();
+
+            if (accessToken != null) {
+                setCurrentAccessToken(accessToken, false);
+                return true;
+            }
 
-        if (accessToken != null) {
-            setCurrentAccessToken(accessToken, false);
-            return true;
+            return false;
+        } finally {
+            currentAccessTokenLoaded.run();
         }
+    }
 
-        return false;
+    Future<AccessToken> getCurrentAccessTokenLoadedFuture() {
+        return currentAccessTokenLoaded;
     }
 
     void setCurrentAccessToken(AccessToken currentAccessToken) {
@@ -118,7 +149,6 @@ final public class AccessTokenManager {
     private void setCurrentAccessToken(AccessToken currentAccessToken, boolean saveToCache) {
         AccessToken oldAccessToken = this.currentAccessToken;
         this.currentAccessToken = currentAccessToken;
-        tokenRefreshInProgress.set(false);
         this.lastAttemptedTokenExtendDate = new Date(0);
 
         if (saveToCache) {
@@ -127,12 +157,14 @@ final public class AccessTokenManager {
             } else {
                 accessTokenCache.clear();
                 Utility.clearFacebookCookies(FacebookSdk.getApplicationContext());
+                Utility.clearProfileInformationCache();
             }
         }
 
         if (!Utility.areObjectsEqual(oldAccessToken, currentAccessToken)) {
             sendCurrentAccessTokenChangedBroadcastIntent(oldAccessToken, currentAccessToken);
             setTokenExpirationBroadcastAlarm();
+            refreshScheduler.schedule(currentAccessToken);
         }
     }
 
@@ -226,40 +258,68 @@ final public class AccessTokenManager {
         public int expiresAt;
     }
 
-    void refreshCurrentAccessToken(final AccessToken.AccessTokenRefreshCallback callback) {
-        if (Looper.getMainLooper().equals(Looper.myLooper())) {
-            refreshCurrentAccessTokenImpl(callback);
-        } else {
-            Handler mainHandler = new Handler(Looper.getMainLooper());
-            mainHandler.post(new Runnable() {
-                @Override
-                public void run() {
-                    refreshCurrentAccessTokenImpl(callback);
-                }
-            });
+    // A refresh in flight, with every callback that asked for it while it was running.
+    private static class RefreshOperation {
+        final AccessToken accessToken;
+        final List<AccessToken.AccessTokenRefreshCallback> callbacks = new ArrayList<>();
+
+        RefreshOperation(AccessToken accessToken) {
+            this.accessToken = accessToken;
         }
     }
 
-    private void refreshCurrentAccessTokenImpl(
-            final AccessToken.AccessTokenRefreshCallback callback) {
+    void refreshCurrentAccessToken(final AccessToken.AccessTokenRefreshCallback callback) {
         final AccessToken accessToken = currentAccessToken;
         if (accessToken == null) {
+            final RefreshOperation operation = new RefreshOperation(null);
             if (callback != null) {
-                callback.OnTokenRefreshFailed(
-                        new FacebookException("No current access token to refresh"));
+                operation.callbacks.add(callback);
             }
+            completeRefresh(
+                    operation,
+                    null,
+                    new FacebookException("No current access token to refresh"),
+                    false);
             return;
         }
-        if (!tokenRefreshInProgress.compareAndSet(false, true)) {
+
+        final RefreshOperation operation;
+        synchronized (refreshLock) {
+            if (refreshOperation != null && refreshOperation.accessToken == accessToken) {
+                // Share the refresh already in flight for this token rather than failing.
+                if (callback != null) {
+                    refreshOperation.callbacks.add(callback);
+                }
+                return;
+            }
+            operation = new RefreshOperation(accessToken);
             if (callback != null) {
-                callback.OnTokenRefreshFailed(
-                        new FacebookException("Refresh already in progress"));
+                operation.callbacks.add(callback);
             }
-            return;
+            refreshOperation = operation;
         }
 
         lastAttemptedTokenExtendDate = new Date();
+        FacebookSdk.getExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                refreshCurrentAccessTokenImpl(operation);
+            }
+        });
+    }
+
+    private void refreshCurrentAccessTokenImpl(final RefreshOperation operation) {
+        try {
+            executeRefresh(operation);
+        } catch (Exception e) {
+            // Otherwise the operation would never complete, and every later refresh of this
+            // token would wait on it.
+            completeRefresh(operation, null, new FacebookException(e), true);
+        }
+    }
 
+    private void executeRefresh(final RefreshOperation operation) {
+        final AccessToken accessToken = operation.accessToken;
         final Set<String> permissions = new HashSet<>();
         final Set<String> declinedPermissions = new HashSet<>();
         final AtomicBoolean permissionsCallSucceeded = new AtomicBoolean(false);
@@ -312,53 +372,87 @@ final public class AccessTokenManager {
                 })
         );
 
-        batch.addCallback(new GraphRequestBatch.Callback() {
+        // We are already off the main thread, so run the batch here; its callbacks run on this
+        // thread too, before executeAndWait returns.
+        batch.executeAndWait();
+
+        // Apply the result on the main thread, where token changes have always been made.
+        new Handler(Looper.getMainLooper()).post(new Runnable() {
             @Override
-            public void onBatchCompleted(GraphRequestBatch batch) {
-                AccessToken newAccessToken = null;
-                try {
-                    if (getInstance().getCurrentAccessToken() == null ||
-                            getInstance().getCurrentAccessToken().getUserId()
-                                    != accessToken.getUserId()) {
-                        if (callback != null) {
-                            callback.OnTokenRefreshFailed(
-                                    new FacebookException("No current access token to refresh"));
-                        }
-                        return;
-                    }
-                    if (permissionsCallSucceeded.get() == false &&
-                            refreshResult.accessToken == null &&
-                            refreshResult.expiresAt == 0) {
-                        if (callback != null) {
-                            callback.OnTokenRefreshFailed(
-                                    new FacebookException("Failed to refresh access token"));
-                        }
-                        return;
-                    }
-                    newAccessToken = new AccessToken(
-                            refreshResult.accessToken != null ? refreshResult.accessToken :
-                                    accessToken.getToken(),
-                            accessToken.getApplicationId(),
-                            accessToken.getUserId(),
-                            permissionsCallSucceeded.get()
-                                    ? permissions : accessToken.getPermissions(),
-                            permissionsCallSucceeded.get()
-                                    ? declinedPermissions : accessToken.getDeclinedPermissions(),
-                            accessToken.getSource(),
-                            refreshResult.expiresAt != 0
-                                    ? new Date(refreshResult.expiresAt * 1000l)
-                                    : accessToken.getExpires(),
-                            new Date()
-                    );
-                    getInstance().setCurrentAccessToken(newAccessToken);
-                } finally {
-                    tokenRefreshInProgress.set(false);
-                    if (callback != null && newAccessToken != null) {
-                        callback.OnTokenRefreshed(newAccessToken);
-                    }
+            public void run() {
+                AccessToken current = currentAccessToken;
+                if (current == null || !current.getUserId().equals(accessToken.getUserId())) {
+                    completeRefresh(
+                            operation,
+                            null,
+                            new FacebookException("No current access token to refresh"),
+                            false);
+                    return;
+                }
+                if (permissionsCallSucceeded.get() == false &&
+                        refreshResult.accessToken == null &&
+                        refreshResult.expiresAt == 0) {
+                    completeRefresh(
+                            operation,
+                            null,
+                            new FacebookException("Failed to refresh access token"),
+                            true);
+                    return;
                 }
+                AccessToken newAccessToken = new AccessToken(
+                        refreshResult.accessToken != null ? refreshResult.accessToken :
+                                accessToken.getToken(),
+                        accessToken.getApplicationId(),
+                        accessToken.getUserId(),
+                        permissionsCallSucceeded.get()
+                                ? permissions : accessToken.getPermissions(),
+                        permissionsCallSucceeded.get()
+                                ? declinedPermissions : accessToken.getDeclinedPermissions(),
+                        accessToken.getSource(),
+                        refreshResult.expiresAt != 0
+                                ? new Date(refreshResult.expiresAt * 1000l)
+                                : accessToken.getExpires(),
+                        new Date()
+                );
+                setCurrentAccessToken(newAccessToken);
+                completeRefresh(operation, newAccessToken, null, false);
             }
         });
-        batch.executeAsync();
+    }
+
+    // Delivers the result to every callback waiting on operation, on the main thread.
+    private void completeRefresh(
+            final RefreshOperation operation,
+            final AccessToken newAccessToken,
+            final FacebookException error,
+            final boolean retry) {
+        if (!Looper.getMainLooper().equals(Looper.myLooper())) {
+            new Handler(Looper.getMainLooper()).post(new Runnable() {
+                @Override
+                public void run() {
+                    completeRefresh(operation, newAccessToken, error, retry);
+                }
+            });
+            return;
+        }
+
+        List<AccessToken.AccessTokenRefreshCallback> callbacks;
+        synchronized (refreshLock) {
+            if (refreshOperation == operation) {
+                refreshOperation = null;
+            }
+            callbacks = new ArrayList<>(operation.callbacks);
+        }
+        if (retry) {
+            refreshScheduler.onRefreshFailed();
+        }
+
+        for (AccessToken.AccessTokenRefreshCallback callback : callbacks) {
+            if (newAccessToken != null) {
+                callback.OnTokenRefreshed(newAccessToken);
+            } else {
+                callback.OnTokenRefreshFailed(error);
+            }
+        }
     }
 }
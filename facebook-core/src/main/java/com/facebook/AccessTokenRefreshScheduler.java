@@ -0,0 +1,117 @@
+/**
+ * Copyright (c) 2014-present, Facebook, Inc. All rights reserved.
+ *
+ * You are hereby granted a non-exclusive, worldwide, royalty-free license to use,
+ * copy, modify, and distribute this software in source code or binary form for use
+ * in connection with the web services and APIs provided by Facebook.
+ *
+ * As with any software that integrates with the Facebook platform, your use of
+ * this software is subject to the Facebook Developer Principles and Policies
+ * [http://developers.facebook.com/policy/]. This copyright notice shall be
+ * included in all copies or substantial portions of the software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.facebook;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.Random;
+
+// Plans proactive refreshes of the current access token, rather than waiting for a Graph request
+// to happen to notice that it is due for extension.
+//
+// A refresh is planned for some random point in the hour before the token becomes due, which is
+// the extend threshold after its last refresh, so clients that logged in together don't all
+// refresh together. A token that is already due is refreshed within a minute. Failed refreshes
+// are retried with exponential backoff, also jittered, starting at the extend retry interval.
+//
+// Refreshes are posted to the main looper so no thread is kept around just to wait for them;
+// the refresh itself only hands the Graph requests off to the SDK executor.
+final class AccessTokenRefreshScheduler {
+    static final long DUE_JITTER_MILLIS = 60 * 1000;
+    static final long LEAD_JITTER_MILLIS = 60 * 60 * 1000;
+    static final long MAX_BACKOFF_MILLIS = 24 * 60 * 60 * 1000;
+
+    private final Runnable refreshTask;
+    private final long thresholdMillis;
+    private final long retryMillis;
+    private final Random random;
+    private Handler handler;
+    private boolean refreshScheduled;
+    private int failureCount;
+
+    AccessTokenRefreshScheduler(
+            Runnable refreshTask,
+            long thresholdMillis,
+            long retryMillis,
+            Handler handler,
+            Random random) {
+        this.refreshTask = refreshTask;
+        this.thresholdMillis = thresholdMillis;
+        this.retryMillis = retryMillis;
+        this.handler = handler;
+        this.random = random;
+    }
+
+    AccessTokenRefreshScheduler(Runnable refreshTask, long thresholdMillis, long retryMillis) {
+        this(refreshTask, thresholdMillis, retryMillis, null, new Random());
+    }
+
+    // Plans the next refresh for accessToken, replacing any planned one, and returns its delay in
+    // milliseconds, or -1 if the token can't be extended.
+    synchronized long schedule(AccessToken accessToken) {
+        cancel();
+        failureCount = 0;
+        if (accessToken == null
+                || accessToken.isExpired()
+                || !accessToken.getSource().canExtendToken()) {
+            return -1;
+        }
+
+        long dueIn = accessToken.getLastRefresh().getTime() + thresholdMillis
+                - System.currentTimeMillis();
+        long delay = dueIn > LEAD_JITTER_MILLIS
+                ? dueIn - nextLong(LEAD_JITTER_MILLIS)
+                : nextLong(Math.max(dueIn, DUE_JITTER_MILLIS));
+        scheduleRefresh(delay);
+        return delay;
+    }
+
+    // Plans a retry after a failed refresh and returns its delay in milliseconds.
+    synchronized long onRefreshFailed() {
+        cancel();
+        long backoff = retryMillis << Math.min(failureCount, 16);
+        backoff = Math.min(backoff, MAX_BACKOFF_MILLIS);
+        failureCount++;
+
+        long delay = backoff / 2 + nextLong(backoff / 2);
+        scheduleRefresh(delay);
+        return delay;
+    }
+
+    synchronized void cancel() {
+        if (refreshScheduled) {
+            handler.removeCallbacks(refreshTask);
+            refreshScheduled = false;
+        }
+    }
+
+    private void scheduleRefresh(long delay) {
+        if (handler == null) {
+            handler = new Handler(Looper.getMainLooper());
+        }
+        refreshScheduled = handler.postDelayed(refreshTask, delay);
+    }
+
+    private long nextLong(long bound) {
+        return bound > 0 ? (long) (random.nextDouble() * bound) : 0;
+    }
+}
@@ -41,6 +41,7 @@ import com.facebook.internal.BoltsMeasurementEventListener;
 import com.facebook.internal.AttributionIdentifiers;
 import com.facebook.internal.NativeProtocol;
 import com.facebook.internal.ServerProtocol;
+import com.facebook.internal.StartupTrace;
 import com.facebook.internal.Utility;
 import com.facebook.internal.Validate;
 
@@ -74,6 +75,8 @@ public final class FacebookSdk {
     private static volatile String applicationName;
     private static volatile String appClientToken;
     private static volatile Boolean autoLogAppEventsEnabled;
+    private static volatile Boolean lazyInitializationEnabled;
+    private static volatile boolean profileInformationPersistenceEnabled = false;
     private static final String FACEBOOK_COM = "facebook.com";
     private static volatile String facebookDomain = FACEBOOK_COM;
     private static AtomicLong onProgressThreshold = new AtomicLong(65536);
@@ -86,6 +89,9 @@ public final class FacebookSdk {
     private static final int DEFAULT_KEEP_ALIVE = 1;
     private static int callbackRequestCodeOffset = DEFAULT_CALLBACK_REQUEST_CODE_OFFSET;
     private static final Object LOCK = new Object();
+    private static final Object ACCESS_TOKEN_LOCK = new Object();
+    private static boolean accessTokenLoadStarted = false;
+    private static volatile boolean accessTokenLoaded = false;
     private static String graphApiVersion = ServerProtocol.getDefaultAPIVersion();
 
     private static final int MAX_REQUEST_CODE_RANGE = 100;
@@ -138,6 +144,12 @@ public final class FacebookSdk {
     public static final String AUTO_LOG_APP_EVENTS_ENABLED_PROPERTY =
             "com.facebook.sdk.AutoLogAppEventsEnabled";
 
+    /**
+     * The key for the lazy initialization flag in the Android manifest.
+     */
+    public static final String LAZY_INITIALIZATION_ENABLED_PROPERTY =
+            "com.facebook.sdk.LazyInitializationEnabled";
+
     /**
      * The key for the callback off set in the Android manifest.
      */
@@ -259,17 +271,19 @@ public final class FacebookSdk {
             return;
         }
 
+        StartupTrace.Section initializeSection = StartupTrace.begin("sdk_initialize");
         Validate.notNull(applicationContext, "applicationContext");
 
-        // Don't throw for these validations here, just log an error. We'll throw when we actually
-        // need them
-        Validate.hasFacebookActivity(applicationContext, false);
-        Validate.hasInternetPermissions(applicationContext, false);
-
         FacebookSdk.applicationContext = applicationContext.getApplicationContext();
 
         // Make sure we've loaded default settings if we haven't already.
+        StartupTrace.Section section = StartupTrace.begin("load_metadata");
         FacebookSdk.loadDefaultsFromMetadata(FacebookSdk.applicationContext);
+        section.end();
+
+        if (!isLazyInitializationEnabled()) {
+            validateManifest();
+        }
 
         // We should have an application id by now if not throw
         if (Utility.isNullOrEmpty(applicationId)) {
@@ -280,23 +294,18 @@ public final class FacebookSdk {
 
         // Register ActivityLifecycleTracker callbacks now, so will log activate app event properly
         if ((FacebookSdk.applicationContext instanceof Application) && autoLogAppEventsEnabled) {
+            section = StartupTrace.begin("activity_lifecycle");
             ActivityLifecycleTracker.startTracking(
                     (Application) FacebookSdk.applicationContext,
                     applicationId
             );
+            section.end();
         }
 
         // Set sdkInitialized to true now so the bellow async tasks don't throw not initialized
         // exceptions.
         sdkInitialized = true;
 
-        // Load app settings from network so that dialog configs are available
-        FetchedAppSettingsManager.loadAppSettingsAsync();
-        // Fetch available protocol versions from the apps on the device
-        NativeProtocol.updateAllAvailableProtocolVersionsAsync();
-
-        BoltsMeasurementEventListener.getInstance(FacebookSdk.applicationContext);
-
         cacheDir = new LockOnGetVariable<File>(
                 new Callable<File>() {
                     @Override
@@ -304,35 +313,121 @@ public final class FacebookSdk {
                         return FacebookSdk.applicationContext.getCacheDir();
                     }
                 });
-        FutureTask<Void> futureTask =
+
+        final boolean deferInitialization = isLazyInitializationEnabled();
+        if (!deferInitialization) {
+            loadAppSettings();
+
+            // Fetch available protocol versions from the apps on the device
+            section = StartupTrace.begin("native_protocol");
+            NativeProtocol.updateAllAvailableProtocolVersionsAsync();
+            section.end();
+
+            registerMeasurementEventListener();
+        }
+
+        final FutureTask<Void> futureTask =
                 new FutureTask<>(new Callable<Void>() {
                     @Override
                     public Void call() throws Exception {
-                        AccessTokenManager.getInstance().loadCurrentAccessToken();
-                        ProfileManager.getInstance().loadCurrentProfile();
-                        if (AccessToken.isCurrentAccessTokenActive() &&
-                                Profile.getCurrentProfile() == null) {
-                            // Access token and profile went out of sync due to a network or caching
-                            // issue, retry
-                            Profile.fetchProfileForCurrentAccessToken();
+                        if (deferInitialization) {
+                            validateManifest();
+                            loadAppSettings();
+                            registerMeasurementEventListener();
                         }
+                        initializeDeferredSubsystems(callback);
+                        return null;
+                    }
+                });
+        if (deferInitialization) {
+            // Everything else waits until the main thread first goes idle, which is after the
+            // first frame. Native protocol versions are probed when a dialog first asks for them,
+            // and the access token and profile load as soon as either is asked for.
+            Utility.runOnMainThreadWhenIdle(new Runnable() {
+                @Override
+                public void run() {
+                    getExecutor().execute(futureTask);
+                }
+            });
+        } else {
+            getExecutor().execute(futureTask);
+        }
+        initializeSection.end();
+    }
 
-                        if (callback != null) {
-                            callback.onInitialized();
-                        }
+    private static void validateManifest() {
+        // Don't throw for these validations here, just log an error. We'll throw when we actually
+        // need them
+        StartupTrace.Section section = StartupTrace.begin("validate_manifest");
+        Validate.hasFacebookActivity(applicationContext, false);
+        Validate.hasInternetPermissions(applicationContext, false);
+        section.end();
+    }
 
-                        AppEventsLogger.initializeLib(
-                                FacebookSdk.applicationContext,
-                                applicationId);
+    private static void loadAppSettings() {
+        // Load app settings from network so that dialog configs are available
+        StartupTrace.Section section = StartupTrace.begin("app_settings");
+        FetchedAppSettingsManager.loadAppSettingsAsync();
+        section.end();
+    }
 
-                        // Flush any app events that might have been persisted during last run.
-                        AppEventsLogger.newLogger(
-                                applicationContext.getApplicationContext()).flush();
+    private static void registerMeasurementEventListener() {
+        StartupTrace.Section section = StartupTrace.begin("measurement_event_listener");
+        BoltsMeasurementEventListener.getInstance(applicationContext);
+        section.end();
+    }
 
-                        return null;
-                    }
-                });
-        getExecutor().execute(futureTask);
+    private static void initializeDeferredSubsystems(InitializeCallback callback) {
+        loadAccessTokenAndProfile();
+
+        if (callback != null) {
+            callback.onInitialized();
+        }
+
+        StartupTrace.Section section = StartupTrace.begin("app_events");
+        AppEventsLogger.initializeLib(applicationContext, applicationId);
+
+        // Flush any app events that might have been persisted during last run.
+        AppEventsLogger.newLogger(applicationContext).flush();
+        section.end();
+
+        StartupTrace.logSummary();
+    }
+
+    /**
+     * Loads the cached access token and profile unless that has already happened. In lazy
+     * initialization mode this is also called on first use of either.
+     */
+    static void loadAccessTokenAndProfile() {
+        if (accessTokenLoaded) {
+            return;
+        }
+        synchronized (ACCESS_TOKEN_LOCK) {
+            // Loading the token broadcasts it, which reads it back on this thread; only the first
+            // call does the load, and other threads wait here until it is done.
+            if (accessTokenLoadStarted) {
+                return;
+            }
+            accessTokenLoadStarted = true;
+
+            StartupTrace.Section section = StartupTrace.begin("access_token");
+            AccessTokenManager.getInstance().loadCurrentAccessToken();
+            ProfileManager.getInstance().loadCurrentProfile();
+            if (AccessToken.isCurrentAccessTokenActive() &&
+                    Profile.getCurrentProfile() == null) {
+                // Access token and profile went out of sync due to a network or caching
+                // issue, retry
+                Profile.fetchProfileForCurrentAccessToken();
+            }
+            section.end();
+            accessTokenLoaded = true;
+        }
+    }
+
+    static void ensureAccessTokenLoaded() {
+        if (!accessTokenLoaded && isLazyInitializationEnabled() && isInitialized()) {
+            loadAccessTokenAndProfile();
+        }
     }
 
     /**
@@ -718,6 +813,12 @@ public final class FacebookSdk {
                 AUTO_LOG_APP_EVENTS_ENABLED_PROPERTY,
                 true);
         }
+
+        if (lazyInitializationEnabled == null) {
+            lazyInitializationEnabled = ai.metaData.getBoolean(
+                LAZY_INITIALIZATION_ENABLED_PROPERTY,
+                false);
+        }
     }
 
     /**
@@ -833,6 +934,44 @@ public final class FacebookSdk {
         autoLogAppEventsEnabled = flag;
     }
 
+    /**
+     * Indicates whether lazy initialization is enabled. In this mode sdkInitialize only reads the
+     * manifest and registers for activity lifecycle callbacks; app settings, app events, native
+     * protocol probing and access token loading happen after the first frame or on first use.
+     * @return true if lazy initialization is enabled
+     */
+    public static boolean isLazyInitializationEnabled() {
+        return lazyInitializationEnabled != null && lazyInitializationEnabled;
+    }
+
+    /**
+     * Sets the lazy initialization flag. This only takes effect if set before the SDK is
+     * initialized, so when relying on automatic initialization use the
+     * {@link #LAZY_INITIALIZATION_ENABLED_PROPERTY} manifest setting instead.
+     * @param flag true or false
+     */
+    public static void setLazyInitializationEnabled(boolean flag) {
+        lazyInitializationEnabled = flag;
+    }
+
+    /**
+     * Indicates whether cached profile information of logged in users is also written to disk.
+     * @return true if profile information is persisted
+     */
+    public static boolean isProfileInformationPersistenceEnabled() {
+        return profileInformationPersistenceEnabled;
+    }
+
+    /**
+     * Sets whether the profile information the SDK caches for logged in users, such as their
+     * names, is also written to the app's shared preferences so it is available right after a
+     * restart. It is kept in memory only by default.
+     * @param flag true or false
+     */
+    public static void setProfileInformationPersistenceEnabled(boolean flag) {
+        profileInformationPersistenceEnabled = flag;
+    }
+
     /**
      * Gets the cache directory to use for caching responses, etc. The default will be the value
      * returned by Context.getCacheDir() when the SDK was initialized, but it can be overridden.
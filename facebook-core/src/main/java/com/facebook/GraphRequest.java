@@ -40,10 +40,12 @@ import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLEncoder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.text.SimpleDateFormat;
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.zip.GZIPOutputStream;
 
 /**
@@ -125,9 +127,10 @@ public class GraphRequest {
     private static final String GRAPH_PATH_FORMAT = "%s/%s";
 
     private static String defaultBatchApplicationId;
-
-    // Group 1 in the pattern is the path without the version info
-    private static Pattern versionPattern = Pattern.compile("^/?v\\d+\\.\\d+/(.*)");
+    private static final List<GraphRequestInterceptor> interceptors =
+            new CopyOnWriteArrayList<>();
+    private static final List<GraphRequestInterceptor> networkInterceptors =
+            new CopyOnWriteArrayList<>();
 
     private AccessToken accessToken;
     private HttpMethod httpMethod;
@@ -135,6 +138,8 @@ public class GraphRequest {
     private JSONObject graphObject;
     private String batchEntryName;
     private String batchEntryDependsOn;
+    private GraphRequestRetryPolicy retryPolicy;
+    private Boolean retryable;
     private boolean batchEntryOmitResultOnSuccess = true;
     private Bundle parameters;
     private Callback callback;
@@ -862,6 +867,51 @@ public class GraphRequest {
         this.batchEntryOmitResultOnSuccess = batchEntryOmitResultOnSuccess;
     }
 
+    /**
+     * Returns the retry policy of this request.
+     *
+     * @return the retry policy, or null if the policy of the batch the request is executed in
+     * applies
+     */
+    public final GraphRequestRetryPolicy getRetryPolicy() {
+        return this.retryPolicy;
+    }
+
+    /**
+     * Sets how this request is retried after a transient or connectivity failure. Requests
+     * without a policy use the one of the batch they are executed in, if any. Only requests that
+     * are {@link #isRetryable() retryable} are retried.
+     *
+     * @param retryPolicy the retry policy, or null to use the batch's policy
+     */
+    public final void setRetryPolicy(GraphRequestRetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    /**
+     * Returns whether this request may safely be sent more than once. Unless set explicitly, this
+     * is true for GET and DELETE requests.
+     *
+     * @return whether this request may be retried
+     */
+    public final boolean isRetryable() {
+        if (this.retryable != null) {
+            return this.retryable;
+        }
+        return this.httpMethod == HttpMethod.GET || this.httpMethod == HttpMethod.DELETE;
+    }
+
+    /**
+     * Marks whether this request may safely be sent more than once, for instance a POST whose
+     * effect is idempotent on the server. Requests with ParcelFileDescriptor or
+     * ParcelableFileRegion attachments are never retried, as those are closed once sent.
+     *
+     * @param retryable whether this request may be retried
+     */
+    public final void setRetryable(boolean retryable) {
+        this.retryable = retryable;
+    }
+
     /**
      * Gets the default Facebook application ID that will be used to submit batched requests.
      * Batched requests require an application ID, so either at least one request in a batch must
@@ -1042,7 +1092,12 @@ public class GraphRequest {
      * @throws IllegalArgumentException
      */
     public static HttpURLConnection toHttpConnection(GraphRequestBatch requests) {
+        HttpURLConnection connection = openConnection(requests);
+        serializeOrDisconnect(requests, connection, null);
+        return connection;
+    }
 
+    static HttpURLConnection openConnection(GraphRequestBatch requests) {
         validateFieldsParamForGetRequests(requests);
 
         URL url;
@@ -1062,18 +1117,56 @@ public class GraphRequest {
             throw new FacebookException("could not construct URL for request", e);
         }
 
-        HttpURLConnection connection = null;
         try {
-            connection = createConnection(url);
+            return createConnection(url);
+        } catch (IOException e) {
+            throw new FacebookException("could not construct request body", e);
+        }
+    }
 
-            serializeToUrlConnection(requests, connection);
+    private static void serializeOrDisconnect(
+            GraphRequestBatch requests,
+            HttpURLConnection connection,
+            GraphRequestMetrics metrics) {
+        try {
+            serializeToUrlConnection(requests, connection, metrics);
         } catch (IOException | JSONException e) {
             Utility.disconnectQuietly(connection);
 
             throw new FacebookException("could not construct request body", e);
         }
+    }
 
-        return connection;
+    /**
+     * Serializes the requests into an opened connection, reads the responses and closes the
+     * connection. This is the innermost step of {@link GraphRequestInterceptorChain}.
+     */
+    static List<GraphResponse> executeOnConnection(
+            GraphRequestBatch requests,
+            HttpURLConnection connection,
+            boolean serialize,
+            GraphRequestMetrics metrics) {
+        if (serialize) {
+            try {
+                serializeOrDisconnect(requests, connection, metrics);
+            } catch (FacebookException e) {
+                if (metrics != null) {
+                    metrics.finish();
+                }
+                return GraphResponse.constructErrorResponses(
+                        requests.getRequests(),
+                        null,
+                        new FacebookException(e));
+            }
+        }
+
+        List<GraphResponse> responses =
+                GraphResponse.fromHttpConnection(connection, requests, metrics);
+        Utility.disconnectQuietly(connection);
+        if (metrics != null) {
+            metrics.finish();
+        }
+        return responses;
     }
 
     /**
@@ -1149,25 +1242,7 @@ public class GraphRequest {
     public static List<GraphResponse> executeBatchAndWait(GraphRequestBatch requests) {
         Validate.notEmptyAndContainsNoNulls(requests, "requests");
 
-        HttpURLConnection connection = null;
-        try {
-            try {
-                connection = toHttpConnection(requests);
-            } catch (Exception ex) {
-                List<GraphResponse> responses = GraphResponse.constructErrorResponses(
-                        requests.getRequests(),
-                        null,
-                        new FacebookException(ex));
-                runCallbacks(requests, responses);
-                return responses;
-            }
-
-            List<GraphResponse> responses = executeConnectionAndWait(connection, requests);
-
-            return responses;
-        } finally {
-            Utility.disconnectQuietly(connection);
-        }
+        return executeWithInterceptors(requests, null);
     }
 
     /**
@@ -1264,27 +1339,83 @@ public class GraphRequest {
     public static List<GraphResponse> executeConnectionAndWait(
             HttpURLConnection connection,
             GraphRequestBatch requests) {
-        List<GraphResponse> responses = GraphResponse.fromHttpConnection(connection, requests);
+        return executeWithInterceptors(requests, connection);
+    }
 
-        Utility.disconnectQuietly(connection);
+    private static List<GraphResponse> executeWithInterceptors(
+            GraphRequestBatch requests,
+            HttpURLConnection serializedConnection) {
+        GraphRequestInterceptorChain chain = new GraphRequestInterceptorChain(
+                requests,
+                serializedConnection,
+                interceptors,
+                networkInterceptors);
+        List<GraphResponse> responses;
+        try {
+            responses = chain.proceed(requests);
+        } finally {
+            chain.disconnect();
+        }
 
         int numRequests = requests.size();
-        if (numRequests != responses.size()) {
+        if (responses == null || numRequests != responses.size()) {
             throw new FacebookException(
                     String.format(Locale.US,
                             "Received %d responses while expecting %d",
-                            responses.size(),
+                            responses == null ? 0 : responses.size(),
                             numRequests));
         }
 
         runCallbacks(requests, responses);
 
-        // Try extending the current access token in case it's needed.
-        AccessTokenManager.getInstance().extendAccessTokenIfNeeded();
+        if (chain.hasConnected()) {
+            // Try extending the current access token in case it's needed.
+            AccessTokenManager.getInstance().extendAccessTokenIfNeeded();
+        }
 
         return responses;
     }
 
+    /**
+     * Adds an application interceptor, which wraps the execution of every batch before a
+     * connection is opened. Interceptors run in the order they were added.
+     *
+     * @param interceptor the interceptor to add
+     */
+    public static void addInterceptor(GraphRequestInterceptor interceptor) {
+        Validate.notNull(interceptor, "interceptor");
+        interceptors.add(interceptor);
+    }
+
+    /**
+     * Removes an application interceptor added with {@link #addInterceptor}.
+     *
+     * @param interceptor the interceptor to remove
+     */
+    public static void removeInterceptor(GraphRequestInterceptor interceptor) {
+        interceptors.remove(interceptor);
+    }
+
+    /**
+     * Adds a network interceptor, which runs once a connection has been opened for a batch and
+     * before its request body is written. Interceptors run in the order they were added.
+     *
+     * @param interceptor the interceptor to add
+     */
+    public static void addNetworkInterceptor(GraphRequestInterceptor interceptor) {
+        Validate.notNull(interceptor, "interceptor");
+        networkInterceptors.add(interceptor);
+    }
+
+    /**
+     * Removes a network interceptor added with {@link #addNetworkInterceptor}.
+     *
+     * @param interceptor the interceptor to remove
+     */
+    public static void removeNetworkInterceptor(GraphRequestInterceptor interceptor) {
+        networkInterceptors.remove(interceptor);
+    }
+
     /**
      * Asynchronously executes requests that have already been serialized into an HttpURLConnection.
      * No validation is done that the contents of the connection actually reflect the serialized
@@ -1442,51 +1573,13 @@ public class GraphRequest {
         }
     }
 
-    private String appendParametersToBaseUrl(String baseUrl, Boolean isBatch) {
-        if (!isBatch && httpMethod == HttpMethod.POST) {
-            return baseUrl;
-        }
-
-        Uri.Builder uriBuilder = Uri.parse(baseUrl).buildUpon();
-
-        Set<String> keys = this.parameters.keySet();
-        for (String key : keys) {
-            Object value = this.parameters.get(key);
-
-            if (value == null) {
-                value = "";
-            }
-
-            if (isSupportedParameterType(value)) {
-                value = parameterToString(value);
-            } else {
-                if (httpMethod == HttpMethod.GET) {
-                    throw new IllegalArgumentException(
-                            String.format(
-                                    Locale.US,
-                                    "Unsupported parameter type for GET request: %s",
-                                    value.getClass().getSimpleName()));
-                }
-                continue;
-            }
-
-            uriBuilder.appendQueryParameter(key, value.toString());
-        }
-
-        return uriBuilder.toString();
-    }
-
     final String getRelativeUrlForBatchedRequest() {
         if (overriddenURL != null) {
             throw new FacebookException("Can't override URL for a batch request");
         }
 
-        String baseUrl =
-                String.format("%s/%s", ServerProtocol.getGraphUrlBase(), getGraphPathWithVersion());
         addCommonParameters();
-        String fullUrl = appendParametersToBaseUrl(baseUrl, true);
-        Uri uri = Uri.parse(fullUrl);
-        return String.format("%s?%s", uri.getPath(), uri.getQuery());
+        return GraphRequestUrlBuilder.build("", version, graphPath, parameters, httpMethod);
     }
 
     final String getUrlForSingleRequest() {
@@ -1502,18 +1595,15 @@ public class GraphRequest {
         } else {
             graphBaseUrlBase = ServerProtocol.getGraphUrlBase();
         }
-        String baseUrl = String.format("%s/%s", graphBaseUrlBase, getGraphPathWithVersion());
 
         addCommonParameters();
-        return appendParametersToBaseUrl(baseUrl, false);
-    }
-
-    private String getGraphPathWithVersion() {
-        Matcher matcher = versionPattern.matcher(this.graphPath);
-        if (matcher.matches()) {
-            return this.graphPath;
-        }
-        return String.format("%s/%s", this.version, this.graphPath);
+        // POST requests send their parameters in the body.
+        return GraphRequestUrlBuilder.build(
+                graphBaseUrlBase,
+                version,
+                graphPath,
+                httpMethod == HttpMethod.POST ? null : parameters,
+                httpMethod);
     }
 
     private static class Attachment {
@@ -1679,7 +1769,8 @@ public class GraphRequest {
 
     final static void serializeToUrlConnection(
             GraphRequestBatch requests,
-            HttpURLConnection connection
+            HttpURLConnection connection,
+            GraphRequestMetrics metrics
     ) throws IOException, JSONException {
         Logger logger = new Logger(LoggingBehavior.REQUESTS, "Request");
 
@@ -1706,6 +1797,9 @@ public class GraphRequest {
         // HttpURLConnection will turn it into a POST.
         boolean isPost = (connectionHttpMethod == HttpMethod.POST);
         if (!isPost) {
+            if (metrics != null) {
+                connect(connection, metrics);
+            }
             logger.log();
             return;
         }
@@ -1713,8 +1807,17 @@ public class GraphRequest {
         connection.setDoOutput(true);
 
         OutputStream outputStream = null;
+        CountingOutputStream countingStream = null;
+        long serializeStartNanos = 0;
         try {
-            outputStream = new BufferedOutputStream(connection.getOutputStream());
+            if (metrics != null) {
+                connect(connection, metrics);
+                serializeStartNanos = System.nanoTime();
+                countingStream = new CountingOutputStream(connection.getOutputStream());
+                outputStream = new BufferedOutputStream(countingStream);
+            } else {
+                outputStream = new BufferedOutputStream(connection.getOutputStream());
+            }
             if (shouldUseGzip) {
                 outputStream = new GZIPOutputStream(outputStream);
             }
@@ -1737,9 +1840,23 @@ public class GraphRequest {
             }
         }
 
+        if (metrics != null) {
+            metrics.setSerializeNanos(System.nanoTime() - serializeStartNanos);
+            metrics.setBytesSent(countingStream.getCount());
+        }
         logger.log();
     }
 
+    private static void connect(
+            HttpURLConnection connection,
+            GraphRequestMetrics metrics) throws IOException {
+        // Connecting explicitly, rather than on first use of the streams, lets connection setup
+        // be timed separately from writing the body and waiting for the response.
+        long connectStartNanos = System.nanoTime();
+        connection.connect();
+        metrics.setConnectNanos(System.nanoTime() - connectStartNanos);
+    }
+
     private static void processRequest(GraphRequestBatch requests, Logger logger, int numRequests,
                                        URL url, OutputStream outputStream, boolean shouldUseGzip)
             throws IOException, JSONException {
@@ -1791,10 +1908,9 @@ public class GraphRequest {
     }
 
     private static boolean isMeRequest(String path) {
-        Matcher matcher = versionPattern.matcher(path);
-        if (matcher.matches()) {
-            // Group 1 contains the path aside from version
-            path = matcher.group(1);
+        int versionPrefixLength = GraphRequestUrlBuilder.getVersionPrefixLength(path);
+        if (versionPrefixLength >= 0) {
+            path = path.substring(versionPrefixLength);
         }
         if (path.startsWith("me/") || path.startsWith("/me/")) {
             return true;
@@ -1989,15 +2105,16 @@ public class GraphRequest {
                 value instanceof byte[] ||
                 value instanceof Uri ||
                 value instanceof ParcelFileDescriptor ||
-                value instanceof ParcelableResourceWithMimeType;
+                value instanceof ParcelableResourceWithMimeType ||
+                value instanceof ParcelableFileRegion;
     }
 
-    private static boolean isSupportedParameterType(Object value) {
+    static boolean isSupportedParameterType(Object value) {
         return value instanceof String || value instanceof Boolean || value instanceof Number ||
                 value instanceof Date;
     }
 
-    private static String parameterToString(Object value) {
+    static String parameterToString(Object value) {
         if (value instanceof String) {
             return (String) value;
         } else if (value instanceof Boolean || value instanceof Number) {
@@ -2010,6 +2127,30 @@ public class GraphRequest {
         throw new IllegalArgumentException("Unsupported parameter type.");
     }
 
+    private static class CountingOutputStream extends FilterOutputStream {
+        private long count;
+
+        CountingOutputStream(OutputStream outputStream) {
+            super(outputStream);
+        }
+
+        long getCount() {
+            return count;
+        }
+
+        @Override
+        public void write(int oneByte) throws IOException {
+            out.write(oneByte);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int length) throws IOException {
+            out.write(buffer, offset, length);
+            count += length;
+        }
+    }
+
     private interface KeyValueSerializer {
         void writeString(String key, String value) throws IOException;
     }
@@ -2053,6 +2194,8 @@ public class GraphRequest {
                 } else {
                     throw getInvalidTypeError();
                 }
+            } else if (value instanceof ParcelableFileRegion) {
+                writeFileRegion(key, (ParcelableFileRegion) value);
             } else {
                 throw getInvalidTypeError();
             }
@@ -2183,6 +2326,46 @@ public class GraphRequest {
             }
         }
 
+        public void writeFileRegion(String key, ParcelableFileRegion region) throws IOException {
+            String mimeType = region.getMimeType();
+            if (mimeType == null) {
+                mimeType = "content/unknown";
+            }
+            writeContentDisposition(key, key, mimeType);
+
+            if (outputStream instanceof ProgressNoopOutputStream) {
+                // If we are only counting bytes then skip reading the file
+                ((ProgressNoopOutputStream) outputStream).addProgress(region.getLength());
+            } else {
+                // Transfer straight from the file channel so the region is never materialized
+                // on the heap, whatever its size.
+                ParcelFileDescriptor.AutoCloseInputStream inputStream =
+                        new ParcelFileDescriptor.AutoCloseInputStream(region.getDescriptor());
+                try {
+                    FileChannel channel = inputStream.getChannel();
+                    WritableByteChannel target = Channels.newChannel(outputStream);
+                    long position = region.getOffset();
+                    long end = position + region.getLength();
+                    while (position < end) {
+                        long transferred = channel.transferTo(position, end - position, target);
+                        if (transferred <= 0) {
+                            throw new EOFException("File region extends past the end of the file");
+                        }
+                        position += transferred;
+                    }
+                } finally {
+                    inputStream.close();
+                }
+            }
+            writeLine("");
+            writeRecordBoundary();
+            if (logger != null) {
+                logger.appendKeyValue(
+                        "    " + key,
+                        String.format(Locale.ROOT, "<Data: %d>", region.getLength()));
+            }
+        }
+
         public void writeRecordBoundary() throws IOException {
             if (!useUrlEncode) {
                 writeLine("--%s", MIME_BOUNDARY);
@@ -2350,4 +2533,85 @@ public class GraphRequest {
             resource = in.readParcelable(FacebookSdk.getApplicationContext().getClassLoader());
         }
     }
+
+    /**
+     * A region of a file used as an attachment during serialization for the graph request. The
+     * region is streamed straight from the file, and the descriptor is closed once the request
+     * has been serialized, as it is for ParcelFileDescriptor parameters.
+     */
+    public static class ParcelableFileRegion implements Parcelable {
+        private final ParcelFileDescriptor descriptor;
+        private final long offset;
+        private final long length;
+        private final String mimeType;
+
+        public ParcelFileDescriptor getDescriptor() {
+            return descriptor;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+
+        public long getLength() {
+            return length;
+        }
+
+        public String getMimeType() {
+            return mimeType;
+        }
+
+        public int describeContents() {
+            return CONTENTS_FILE_DESCRIPTOR;
+        }
+
+        public void writeToParcel(Parcel out, int flags) {
+            out.writeParcelable(descriptor, flags);
+            out.writeLong(offset);
+            out.writeLong(length);
+            out.writeString(mimeType);
+        }
+
+        @SuppressWarnings("unused")
+        public static final Parcelable.Creator<ParcelableFileRegion> CREATOR
+                = new Parcelable.Creator<ParcelableFileRegion>() {
+            public ParcelableFileRegion createFromParcel(Parcel in) {
+                return new ParcelableFileRegion(in);
+            }
+
+            public ParcelableFileRegion[] newArray(int size) {
+                return new ParcelableFileRegion[size];
+            }
+        };
+
+        /**
+         * The constructor.
+         * @param descriptor The file to read the region from, must be seekable.
+         * @param offset The offset of the region in the file.
+         * @param length The length of the region.
+         * @param mimeType The mime type, or null.
+         */
+        public ParcelableFileRegion(
+                ParcelFileDescriptor descriptor,
+                long offset,
+                long length,
+                String mimeType
+        ) {
+            Validate.notNull(descriptor, "descriptor");
+            if (offset < 0 || length < 0) {
+                throw new IllegalArgumentException("offset and length must not be negative");
+            }
+            this.descriptor = descriptor;
+            this.offset = offset;
+            this.length = length;
+            this.mimeType = mimeType;
+        }
+
+        private ParcelableFileRegion(Parcel in) {
+            descriptor = in.readParcelable(FacebookSdk.getApplicationContext().getClassLoader());
+            offset = in.readLong();
+            length = in.readLong();
+            mimeType = in.readString();
+        }
+    }
 }
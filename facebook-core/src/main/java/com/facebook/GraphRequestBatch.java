@@ -38,6 +38,7 @@ public class GraphRequestBatch extends AbstractList<GraphRequest> {
     private final String id = Integer.valueOf(idGenerator.incrementAndGet()).toString();
     private List<Callback> callbacks = new ArrayList<Callback>();
     private String batchApplicationId;
+    private GraphRequestRetryPolicy retryPolicy;
 
     /**
      * Constructor. Creates an empty batch.
@@ -71,6 +72,7 @@ public class GraphRequestBatch extends AbstractList<GraphRequest> {
         this.callbackHandler = requests.callbackHandler;
         this.timeoutInMilliseconds = requests.timeoutInMilliseconds;
         this.callbacks = new ArrayList<Callback>(requests.callbacks);
+        this.retryPolicy = requests.retryPolicy;
     }
 
     /**
@@ -184,6 +186,23 @@ public class GraphRequestBatch extends AbstractList<GraphRequest> {
         this.batchApplicationId = batchApplicationId;
     }
 
+    /**
+     * Gets the retry policy applied to requests of this batch that don't have their own.
+     * @return the retry policy, or null if such requests are not retried
+     */
+    public GraphRequestRetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * Sets the retry policy applied to requests of this batch that don't have their own. When
+     * only some entries fail, only those entries are sent again.
+     * @param retryPolicy the retry policy, or null to not retry such requests
+     */
+    public void setRetryPolicy(GraphRequestRetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
     /**
      * Executes this batch on the current thread and returns the responses.
      * <p/>
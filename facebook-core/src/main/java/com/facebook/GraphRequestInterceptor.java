@@ -0,0 +1,94 @@
+/**
+ * Copyright (c) 2014-present, Facebook, Inc. All rights reserved.
+ *
+ * You are hereby granted a non-exclusive, worldwide, royalty-free license to use,
+ * copy, modify, and distribute this software in source code or binary form for use
+ * in connection with the web services and APIs provided by Facebook.
+ *
+ * As with any software that integrates with the Facebook platform, your use of
+ * this software is subject to the Facebook Developer Principles and Policies
+ * [http://developers.facebook.com/policy/]. This copyright notice shall be
+ * included in all copies or substantial portions of the software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.facebook;
+
+import java.net.HttpURLConnection;
+import java.util.List;
+
+/**
+ * Observes, and optionally modifies, the execution of graph request batches.
+ * <p/>
+ * Application interceptors, registered with
+ * {@link GraphRequest#addInterceptor(GraphRequestInterceptor)}, wrap the whole execution of a
+ * batch once, before a connection is opened. They may proceed with a different batch, replace the
+ * returned responses or short-circuit the batch by not calling
+ * {@link Chain#proceed(GraphRequestBatch)} at all.
+ * <p/>
+ * Network interceptors, registered with
+ * {@link GraphRequest#addNetworkInterceptor(GraphRequestInterceptor)}, run once a connection has
+ * been opened and before the request body is written, so they can set headers on
+ * {@link Chain#getConnection()}. They are skipped if no connection could be opened or if an
+ * application interceptor short-circuited the batch. When a {@link GraphRequestRetryPolicy}
+ * applies, they run once per attempt and only see the entries sent in that attempt.
+ * <p/>
+ * Request callbacks run after the interceptor chain has returned, with the responses returned by
+ * the outermost interceptor. Interceptors are invoked on the thread executing the batch.
+ */
+public interface GraphRequestInterceptor {
+    /**
+     * Intercepts the execution of a batch.
+     *
+     * @param chain the chain to proceed with
+     * @return one response per request in the batch, in the same order
+     */
+    List<GraphResponse> intercept(Chain chain);
+
+    /**
+     * The remainder of the execution of a batch, as seen by an interceptor.
+     */
+    interface Chain {
+        /**
+         * Gets the batch being executed.
+         *
+         * @return the batch
+         */
+        GraphRequestBatch getRequests();
+
+        /**
+         * Gets the connection the batch is executed on.
+         *
+         * @return the connection, or null for application interceptors
+         */
+        HttpURLConnection getConnection();
+
+        /**
+         * Gets the metrics recorded for this execution so far. They are complete once
+         * {@link #proceed(GraphRequestBatch)} has returned.
+         *
+         * @return the metrics
+         */
+        GraphRequestMetrics getMetrics();
+
+        /**
+         * Continues with the next interceptor, or executes the batch if this is the last one.
+         * <p/>
+         * Application interceptors may pass a batch other than {@link #getRequests()}, which is
+         * then the one later interceptors see and the one executed; the interceptor must still
+         * return one response per request of its own batch. Network interceptors must pass the
+         * batch they were given, since the connection has already been opened for it.
+         *
+         * @param requests the batch to continue with
+         * @return one response per request in requests, in the same order
+         * @throws IllegalStateException if a network interceptor passes a different batch
+         */
+        List<GraphResponse> proceed(GraphRequestBatch requests);
+    }
+}
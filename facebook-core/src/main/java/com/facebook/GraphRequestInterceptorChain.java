@@ -0,0 +1,195 @@
+/**
+ * Copyright (c) 2014-present, Facebook, Inc. All rights reserved.
+ *
+ * You are hereby granted a non-exclusive, worldwide, royalty-free license to use,
+ * copy, modify, and distribute this software in source code or binary form for use
+ * in connection with the web services and APIs provided by Facebook.
+ *
+ * As with any software that integrates with the Facebook platform, your use of
+ * this software is subject to the Facebook Developer Principles and Policies
+ * [http://developers.facebook.com/policy/]. This copyright notice shall be
+ * included in all copies or substantial portions of the software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.facebook;
+
+import com.facebook.internal.Utility;
+import com.facebook.internal.Validate;
+
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Runs the application interceptors, applies the retry policies of the batch, and for every
+ * attempt opens a connection, runs the network interceptors and executes the attempted requests
+ * on that connection.
+ *
+ * A chain is immutable per step, so an application interceptor may call
+ * {@link #proceed(GraphRequestBatch)} more than once; every call past the last application
+ * interceptor opens a new connection.
+ */
+final class GraphRequestInterceptorChain implements GraphRequestInterceptor.Chain {
+    private final Execution execution;
+    private final int index;
+    private final GraphRequestBatch requests;
+    private final HttpURLConnection connection;
+
+    GraphRequestInterceptorChain(
+            GraphRequestBatch requests,
+            HttpURLConnection serializedConnection,
+            List<GraphRequestInterceptor> applicationInterceptors,
+            List<GraphRequestInterceptor> networkInterceptors) {
+        this(new Execution(
+                requests,
+                serializedConnection,
+                snapshot(applicationInterceptors),
+                snapshot(networkInterceptors)), 0, requests, null);
+    }
+
+    private GraphRequestInterceptorChain(
+            Execution execution,
+            int index,
+            GraphRequestBatch requests,
+            HttpURLConnection connection) {
+        this.execution = execution;
+        this.index = index;
+        this.requests = requests;
+        this.connection = connection;
+    }
+
+    @Override
+    public GraphRequestBatch getRequests() {
+        return requests;
+    }
+
+    @Override
+    public HttpURLConnection getConnection() {
+        return connection;
+    }
+
+    @Override
+    public GraphRequestMetrics getMetrics() {
+        return execution.metrics;
+    }
+
+    @Override
+    public List<GraphResponse> proceed(GraphRequestBatch requests) {
+        Validate.notEmptyAndContainsNoNulls(requests, "requests");
+        if (connection != null && requests != this.requests) {
+            throw new IllegalStateException(
+                    "Network interceptors must proceed with the batch they were given");
+        }
+
+        List<GraphRequestInterceptor> applicationInterceptors =
+                execution.applicationInterceptors;
+        if (index < applicationInterceptors.size()) {
+            return applicationInterceptors.get(index).intercept(
+                    new GraphRequestInterceptorChain(execution, index + 1, requests, null));
+        }
+
+        if (connection == null) {
+            if (!GraphRequestRetryEngine.hasRetryPolicy(requests)) {
+                return executeAttempt(requests);
+            }
+            return GraphRequestRetryEngine.execute(
+                    requests,
+                    new GraphRequestRetryEngine.Attempt() {
+                        @Override
+                        public List<GraphResponse> execute(GraphRequestBatch attempted) {
+                            return executeAttempt(attempted);
+                        }
+                    });
+        }
+
+        List<GraphRequestInterceptor> networkInterceptors = execution.networkInterceptors;
+        int networkIndex = index - applicationInterceptors.size();
+        if (networkIndex < networkInterceptors.size()) {
+            return networkInterceptors.get(networkIndex).intercept(
+                    new GraphRequestInterceptorChain(execution, index + 1, requests, connection));
+        }
+
+        boolean preSerialized = connection == execution.serializedConnection;
+        return GraphRequest.executeOnConnection(
+                requests,
+                connection,
+                !preSerialized,
+                execution.metrics);
+    }
+
+    boolean hasConnected() {
+        return !execution.connections.isEmpty();
+    }
+
+    void disconnect() {
+        for (HttpURLConnection opened : execution.connections) {
+            Utility.disconnectQuietly(opened);
+        }
+    }
+
+    private List<GraphResponse> executeAttempt(GraphRequestBatch attempted) {
+        HttpURLConnection opened;
+        if (execution.serializedConnection != null
+                && execution.connections.isEmpty()
+                && attempted == execution.requests) {
+            // The caller's connection already carries the original batch; it can only be used
+            // for the first attempt, and only if no interceptor replaced the batch. Otherwise
+            // the attempted batch is serialized on a connection of its own.
+            opened = execution.serializedConnection;
+        } else {
+            try {
+                opened = GraphRequest.openConnection(attempted);
+            } catch (Exception e) {
+                if (execution.metrics != null) {
+                    execution.metrics.finish();
+                }
+                return GraphResponse.constructErrorResponses(
+                        attempted.getRequests(),
+                        null,
+                        new FacebookException(e));
+            }
+        }
+        execution.connections.add(opened);
+        return new GraphRequestInterceptorChain(execution, index, attempted, opened)
+                .proceed(attempted);
+    }
+
+    private static List<GraphRequestInterceptor> snapshot(
+            List<GraphRequestInterceptor> interceptors) {
+        return interceptors.isEmpty()
+                ? Collections.<GraphRequestInterceptor>emptyList()
+                : new ArrayList<>(interceptors);
+    }
+
+    private static final class Execution {
+        private final GraphRequestBatch requests;
+        private final HttpURLConnection serializedConnection;
+        private final List<GraphRequestInterceptor> applicationInterceptors;
+        private final List<GraphRequestInterceptor> networkInterceptors;
+        private final GraphRequestMetrics metrics;
+        private final List<HttpURLConnection> connections = new ArrayList<>(1);
+
+        Execution(
+                GraphRequestBatch requests,
+                HttpURLConnection serializedConnection,
+                List<GraphRequestInterceptor> applicationInterceptors,
+                List<GraphRequestInterceptor> networkInterceptors) {
+            this.requests = requests;
+            this.serializedConnection = serializedConnection;
+            this.applicationInterceptors = applicationInterceptors;
+            this.networkInterceptors = networkInterceptors;
+            // Metrics are only needed, and only recorded, when someone can observe them.
+            this.metrics = applicationInterceptors.isEmpty() && networkInterceptors.isEmpty()
+                    ? null
+                    : new GraphRequestMetrics(requests);
+        }
+    }
+}
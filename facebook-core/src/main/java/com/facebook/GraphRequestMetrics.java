@@ -0,0 +1,209 @@
+/**
+ * Copyright (c) 2014-present, Facebook, Inc. All rights reserved.
+ *
+ * You are hereby granted a non-exclusive, worldwide, royalty-free license to use,
+ * copy, modify, and distribute this software in source code or binary form for use
+ * in connection with the web services and APIs provided by Facebook.
+ *
+ * As with any software that integrates with the Facebook platform, your use of
+ * this software is subject to the Facebook Developer Principles and Policies
+ * [http://developers.facebook.com/policy/]. This copyright notice shall be
+ * included in all copies or substantial portions of the software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.facebook;
+
+import java.util.Locale;
+
+/**
+ * Per-phase timings and sizes recorded while executing a graph request batch.
+ * <p/>
+ * Connection setup covers DNS, TCP and TLS together, as HttpURLConnection does not expose them
+ * separately. A phase that did not happen, for instance because a network interceptor was never
+ * reached, reports -1.
+ */
+public final class GraphRequestMetrics {
+    private final String batchId;
+    private final int batchSize;
+    private final long startNanos;
+    private long connectNanos = -1;
+    private long serializeNanos = -1;
+    private long timeToFirstByteNanos = -1;
+    private long downloadNanos = -1;
+    private long parseNanos = -1;
+    private long totalNanos = -1;
+    private long bytesSent = -1;
+    private long bytesReceived = -1;
+    private int responseCode = -1;
+
+    GraphRequestMetrics(GraphRequestBatch requests) {
+        this.batchId = requests.getId();
+        this.batchSize = requests.size();
+        this.startNanos = System.nanoTime();
+    }
+
+    /**
+     * Gets the id of the batch these metrics were recorded for.
+     *
+     * @return the batch id
+     */
+    public String getBatchId() {
+        return batchId;
+    }
+
+    /**
+     * Gets the number of requests in the batch.
+     *
+     * @return the batch size
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Gets the time spent establishing the connection.
+     *
+     * @return the connection setup time in nanoseconds, or -1
+     */
+    public long getConnectNanos() {
+        return connectNanos;
+    }
+
+    /**
+     * Gets the time spent writing the request body.
+     *
+     * @return the serialization time in nanoseconds, or -1
+     */
+    public long getSerializeNanos() {
+        return serializeNanos;
+    }
+
+    /**
+     * Gets the time between the request having been sent and the response status being
+     * available.
+     *
+     * @return the time to first byte in nanoseconds, or -1
+     */
+    public long getTimeToFirstByteNanos() {
+        return timeToFirstByteNanos;
+    }
+
+    /**
+     * Gets the time spent reading the response body.
+     *
+     * @return the download time in nanoseconds, or -1
+     */
+    public long getDownloadNanos() {
+        return downloadNanos;
+    }
+
+    /**
+     * Gets the time spent parsing the response body into responses.
+     *
+     * @return the parse time in nanoseconds, or -1
+     */
+    public long getParseNanos() {
+        return parseNanos;
+    }
+
+    /**
+     * Gets the time from the start of the execution until the responses were available, not
+     * including request callbacks.
+     *
+     * @return the total time in nanoseconds, or -1
+     */
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    /**
+     * Gets the number of bytes of request body written to the connection.
+     *
+     * @return the number of bytes sent, or -1
+     */
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    /**
+     * Gets the number of bytes of response body read from the connection.
+     *
+     * @return the number of bytes received, or -1
+     */
+    public long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    /**
+     * Gets the HTTP status code of the response.
+     *
+     * @return the status code, or -1
+     */
+    public int getResponseCode() {
+        return responseCode;
+    }
+
+    void setConnectNanos(long connectNanos) {
+        this.connectNanos = connectNanos;
+    }
+
+    void setSerializeNanos(long serializeNanos) {
+        this.serializeNanos = serializeNanos;
+    }
+
+    void setTimeToFirstByteNanos(long timeToFirstByteNanos) {
+        this.timeToFirstByteNanos = timeToFirstByteNanos;
+    }
+
+    void setDownloadNanos(long downloadNanos) {
+        this.downloadNanos = downloadNanos;
+    }
+
+    void setParseNanos(long parseNanos) {
+        this.parseNanos = parseNanos;
+    }
+
+    void setBytesSent(long bytesSent) {
+        this.bytesSent = bytesSent;
+    }
+
+    void setBytesReceived(long bytesReceived) {
+        this.bytesReceived = bytesReceived;
+    }
+
+    void setResponseCode(int responseCode) {
+        this.responseCode = responseCode;
+    }
+
+    void finish() {
+        this.totalNanos = System.nanoTime() - startNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                Locale.US,
+                "{GraphRequestMetrics: batchId: %s, batchSize: %d, connectNanos: %d, " +
+                        "serializeNanos: %d, timeToFirstByteNanos: %d, downloadNanos: %d, " +
+                        "parseNanos: %d, totalNanos: %d, bytesSent: %d, bytesReceived: %d, " +
+                        "responseCode: %d}",
+                batchId,
+                batchSize,
+                connectNanos,
+                serializeNanos,
+                timeToFirstByteNanos,
+                downloadNanos,
+                parseNanos,
+                totalNanos,
+                bytesSent,
+                bytesReceived,
+                responseCode);
+    }
+}
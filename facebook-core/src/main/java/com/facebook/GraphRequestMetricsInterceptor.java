@@ -0,0 +1,64 @@
+/**
+ * Copyright (c) 2014-present, Facebook, Inc. All rights reserved.
+ *
+ * You are hereby granted a non-exclusive, worldwide, royalty-free license to use,
+ * copy, modify, and distribute this software in source code or binary form for use
+ * in connection with the web services and APIs provided by Facebook.
+ *
+ * As with any software that integrates with the Facebook platform, your use of
+ * this software is subject to the Facebook Developer Principles and Policies
+ * [http://developers.facebook.com/policy/]. This copyright notice shall be
+ * included in all copies or substantial portions of the software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.facebook;
+
+import java.util.List;
+
+/**
+ * An application interceptor that reports the {@link GraphRequestMetrics} of every executed
+ * batch to a {@link Sink}.
+ * <p/>
+ * Register it with {@link GraphRequest#addInterceptor(GraphRequestInterceptor)} so that batches
+ * which fail before a connection is opened are reported as well.
+ */
+public class GraphRequestMetricsInterceptor implements GraphRequestInterceptor {
+    /**
+     * Receives the metrics of executed batches. Called on the thread executing the batch.
+     */
+    public interface Sink {
+        /**
+         * Called once per executed batch, after its responses are available and before request
+         * callbacks are run.
+         *
+         * @param metrics the metrics recorded for the batch
+         */
+        void onMetricsRecorded(GraphRequestMetrics metrics);
+    }
+
+    private final Sink sink;
+
+    /**
+     * Constructor.
+     *
+     * @param sink the sink to report metrics to
+     */
+    public GraphRequestMetricsInterceptor(Sink sink) {
+        this.sink = sink;
+    }
+
+    @Override
+    public List<GraphResponse> intercept(Chain chain) {
+        List<GraphResponse> responses = chain.proceed(chain.getRequests());
+        GraphRequestMetrics metrics = chain.getMetrics();
+        sink.onMetricsRecorded(metrics);
+        return responses;
+    }
+}
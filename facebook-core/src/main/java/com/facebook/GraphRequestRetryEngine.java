@@ -0,0 +1,230 @@
+/**
+ * Copyright (c) 2014-present, Facebook, Inc. All rights reserved.
+ *
+ * You are hereby granted a non-exclusive, worldwide, royalty-free license to use,
+ * copy, modify, and distribute this software in source code or binary form for use
+ * in connection with the web services and APIs provided by Facebook.
+ *
+ * As with any software that integrates with the Facebook platform, your use of
+ * this software is subject to the Facebook Developer Principles and Policies
+ * [http://developers.facebook.com/policy/]. This copyright notice shall be
+ * included in all copies or substantial portions of the software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.facebook;
+
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+
+import com.facebook.internal.Utility;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Executes a batch and sends its failed entries again according to their
+ * {@link GraphRequestRetryPolicy}.
+ */
+final class GraphRequestRetryEngine {
+    private static final String TAG = GraphRequestRetryEngine.class.getSimpleName();
+
+    // Retries are only allowed while more than half of the budget is left. Every retried entry
+    // costs a token and every successful entry returns a tenth of one. A process that starts
+    // during an outage therefore gets 4 retries in total, and then one more for every 10 entries
+    // that succeed. In steady state, retries stop once more than about one in ten entries fails
+    // across the SDK, and resume as requests succeed again.
+    static final int BUDGET_MAX_TOKENS = 10;
+    private static final float BUDGET_SUCCESS_REFUND = 0.1f;
+
+    private static final int HTTP_BAD_GATEWAY = 502;
+    private static final int HTTP_SERVICE_UNAVAILABLE = 503;
+    private static final int HTTP_GATEWAY_TIMEOUT = 504;
+
+    private static final Random random = new Random();
+    private static final Object budgetLock = new Object();
+    private static float budgetTokens = BUDGET_MAX_TOKENS;
+
+    interface Attempt {
+        List<GraphResponse> execute(GraphRequestBatch requests);
+    }
+
+    private GraphRequestRetryEngine() {
+    }
+
+    static boolean hasRetryPolicy(GraphRequestBatch requests) {
+        if (requests.getRetryPolicy() != null) {
+            return true;
+        }
+        for (GraphRequest request : requests) {
+            if (request.getRetryPolicy() != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static List<GraphResponse> execute(GraphRequestBatch requests, Attempt attempt) {
+        List<GraphResponse> firstResponses = attempt.execute(requests);
+        if (firstResponses == null || firstResponses.size() != requests.size()) {
+            return firstResponses;
+        }
+
+        List<GraphResponse> responses = new ArrayList<>(firstResponses);
+        int[] retries = new int[requests.size()];
+        for (int round = 1; ; round++) {
+            List<Integer> retryIndices = new ArrayList<>();
+            long delayMillis = 0;
+            for (int i = 0; i < requests.size(); i++) {
+                GraphRequest request = requests.get(i);
+                GraphRequestRetryPolicy policy = getRetryPolicy(requests, request);
+                if (policy == null
+                        || retries[i] >= policy.getMaxRetries()
+                        || !canRetry(requests, request)
+                        || !isRetryableError(responses.get(i).getError())) {
+                    continue;
+                }
+                retryIndices.add(i);
+                delayMillis = Math.max(delayMillis, policy.getBackoffMillis(round, random));
+            }
+
+            int granted = retryIndices.isEmpty() ? 0 : acquireBudget(retryIndices.size());
+            if (granted == 0) {
+                break;
+            }
+            retryIndices = retryIndices.subList(0, granted);
+
+            try {
+                Thread.sleep(delayMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+
+            GraphRequestBatch retryBatch = new GraphRequestBatch();
+            retryBatch.setTimeout(requests.getTimeout());
+            retryBatch.setBatchApplicationId(requests.getBatchApplicationId());
+            for (int index : retryIndices) {
+                retryBatch.add(requests.get(index));
+                retries[index]++;
+            }
+
+            List<GraphResponse> retryResponses = attempt.execute(retryBatch);
+            if (retryResponses == null || retryResponses.size() != retryBatch.size()) {
+                Utility.logd(TAG, "Discarding retry with a mismatched number of responses");
+                break;
+            }
+            for (int i = 0; i < retryIndices.size(); i++) {
+                responses.set(retryIndices.get(i), retryResponses.get(i));
+            }
+        }
+
+        int succeeded = 0;
+        for (GraphResponse response : responses) {
+            if (response.getError() == null) {
+                succeeded++;
+            }
+        }
+        refundBudget(succeeded);
+        return responses;
+    }
+
+    static boolean isRetryableError(FacebookRequestError error) {
+        if (error == null) {
+            return false;
+        }
+        if (error.getCategory() == FacebookRequestError.Category.TRANSIENT) {
+            return true;
+        }
+
+        int statusCode = error.getRequestStatusCode();
+        if (error.getErrorCode() == FacebookRequestError.INVALID_ERROR_CODE
+                && (statusCode == HTTP_BAD_GATEWAY
+                || statusCode == HTTP_SERVICE_UNAVAILABLE
+                || statusCode == HTTP_GATEWAY_TIMEOUT)) {
+            return true;
+        }
+
+        // Local failures to reach the service are wrapped, look for the underlying IOException.
+        Throwable cause = error.getException();
+        while (cause != null) {
+            if (cause instanceof IOException) {
+                return true;
+            }
+            cause = cause.getCause();
+        }
+        return false;
+    }
+
+    static void resetBudget() {
+        synchronized (budgetLock) {
+            budgetTokens = BUDGET_MAX_TOKENS;
+        }
+    }
+
+    private static GraphRequestRetryPolicy getRetryPolicy(
+            GraphRequestBatch requests,
+            GraphRequest request) {
+        return request.getRetryPolicy() != null
+                ? request.getRetryPolicy()
+                : requests.getRetryPolicy();
+    }
+
+    private static boolean canRetry(GraphRequestBatch requests, GraphRequest request) {
+        if (!request.isRetryable() || hasOneShotAttachment(request)) {
+            return false;
+        }
+        if (requests.size() == 1) {
+            return true;
+        }
+        // Entries linked by batch dependencies can't be resent on their own.
+        return request.getBatchEntryName() == null && request.getBatchEntryDependsOn() == null;
+    }
+
+    // File descriptors are closed once the request has been serialized, so a request carrying
+    // one can only be sent once.
+    private static boolean hasOneShotAttachment(GraphRequest request) {
+        Bundle parameters = request.getParameters();
+        for (String key : parameters.keySet()) {
+            Object value = parameters.get(key);
+            if (value instanceof GraphRequest.ParcelableResourceWithMimeType) {
+                value = ((GraphRequest.ParcelableResourceWithMimeType) value).getResource();
+            }
+            if (value instanceof ParcelFileDescriptor
+                    || value instanceof GraphRequest.ParcelableFileRegion) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int acquireBudget(int retries) {
+        synchronized (budgetLock) {
+            int granted = 0;
+            while (granted < retries && budgetTokens - 1 > BUDGET_MAX_TOKENS / 2f) {
+                budgetTokens--;
+                granted++;
+            }
+            return granted;
+        }
+    }
+
+    private static void refundBudget(int succeeded) {
+        if (succeeded == 0) {
+            return;
+        }
+        synchronized (budgetLock) {
+            budgetTokens = Math.min(
+                    BUDGET_MAX_TOKENS,
+                    budgetTokens + succeeded * BUDGET_SUCCESS_REFUND);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/**
+ * Copyright (c) 2014-present, Facebook, Inc. All rights reserved.
+ *
+ * You are hereby granted a non-exclusive, worldwide, royalty-free license to use,
+ * copy, modify, and distribute this software in source code or binary form for use
+ * in connection with the web services and APIs provided by Facebook.
+ *
+ * As with any software that integrates with the Facebook platform, your use of
+ * this software is subject to the Facebook Developer Principles and Policies
+ * [http://developers.facebook.com/policy/]. This copyright notice shall be
+ * included in all copies or substantial portions of the software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.facebook;
+
+import java.util.Random;
+
+/**
+ * Describes how a graph request is retried after a transient or connectivity failure.
+ * <p/>
+ * A policy can be set on a {@link GraphRequest} or on a {@link GraphRequestBatch}; a request
+ * without its own policy uses the one of the batch it is executed in. Only requests that are
+ * {@link GraphRequest#isRetryable() retryable} are retried, which by default means GET and DELETE
+ * requests. When only some entries of a batch fail, only those entries are sent again. Retries
+ * across the whole SDK are additionally limited by a shared budget, so that a failing service is
+ * not flooded with retries: a process gets 4 retries up front, and earns one more for every 10
+ * requests that succeed.
+ * <p/>
+ * The delay before the n-th retry is drawn uniformly from the upper half of
+ * min(maxBackoff, initialBackoff * 2^(n-1)). Retries wait on the thread executing the request.
+ */
+public final class GraphRequestRetryPolicy {
+    /**
+     * A policy that retries up to twice, starting with a one second backoff.
+     */
+    public static final GraphRequestRetryPolicy DEFAULT =
+            new GraphRequestRetryPolicy(2, 1000, 10 * 1000);
+
+    /**
+     * A policy that never retries. Set it on a request to opt it out of its batch's policy.
+     */
+    public static final GraphRequestRetryPolicy NONE = new GraphRequestRetryPolicy(0, 0, 0);
+
+    private final int maxRetries;
+    private final long initialBackoffMillis;
+    private final long maxBackoffMillis;
+
+    /**
+     * Constructor.
+     *
+     * @param maxRetries the maximum number of times a request is sent again
+     * @param initialBackoffMillis the backoff before the first retry, in milliseconds
+     * @param maxBackoffMillis the maximum backoff before any retry, in milliseconds
+     */
+    public GraphRequestRetryPolicy(
+            int maxRetries,
+            long initialBackoffMillis,
+            long maxBackoffMillis) {
+        if (maxRetries < 0) {
+            throw new IllegalArgumentException("Argument maxRetries must be >= 0.");
+        }
+        if (initialBackoffMillis < 0 || maxBackoffMillis < initialBackoffMillis) {
+            throw new IllegalArgumentException(
+                    "Backoffs must satisfy 0 <= initialBackoffMillis <= maxBackoffMillis.");
+        }
+        this.maxRetries = maxRetries;
+        this.initialBackoffMillis = initialBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+    }
+
+    /**
+     * Gets the maximum number of times a request is sent again.
+     *
+     * @return the maximum number of retries
+     */
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    /**
+     * Gets the backoff before the first retry.
+     *
+     * @return the initial backoff, in milliseconds
+     */
+    public long getInitialBackoffMillis() {
+        return initialBackoffMillis;
+    }
+
+    /**
+     * Gets the maximum backoff before any retry.
+     *
+     * @return the maximum backoff, in milliseconds
+     */
+    public long getMaxBackoffMillis() {
+        return maxBackoffMillis;
+    }
+
+    long getBackoffMillis(int retry, Random random) {
+        long backoff = initialBackoffMillis;
+        for (int i = 1; i < retry && backoff < maxBackoffMillis; i++) {
+            backoff *= 2;
+        }
+        backoff = Math.min(backoff, maxBackoffMillis);
+        long half = backoff / 2;
+        return half + (half > 0 ? (long) (random.nextDouble() * half) : 0);
+    }
+}
@@ -0,0 +1,224 @@
+/**
+ * Copyright (c) 2014-present, Facebook, Inc. All rights reserved.
+ *
+ * You are hereby granted a non-exclusive, worldwide, royalty-free license to use,
+ * copy, modify, and distribute this software in source code or binary form for use
+ * in connection with the web services and APIs provided by Facebook.
+ *
+ * As with any software that integrates with the Facebook platform, your use of
+ * this software is subject to the Facebook Developer Principles and Policies
+ * [http://developers.facebook.com/policy/]. This copyright notice shall be
+ * included in all copies or substantial portions of the software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.facebook;
+
+import android.os.Bundle;
+
+import java.util.Locale;
+
+/**
+ * Builds the URLs of graph requests in a single pass over the graph path and parameters.
+ *
+ * Versioned base URLs are cached so that requests against the same host and API version only
+ * pay for appending their own path and query string. Query parameters are percent-encoded the
+ * same way {@link android.net.Uri#encode(String)} encodes them.
+ */
+final class GraphRequestUrlBuilder {
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+    private static final int ESTIMATED_PARAMETER_LENGTH = 32;
+
+    private static volatile VersionedBaseUrl cachedVersionedBaseUrl;
+
+    private GraphRequestUrlBuilder() {
+    }
+
+    /**
+     * Builds the URL for a graph path, prefixing it with the API version unless it already has
+     * one.
+     *
+     * @param baseUrl the scheme and host, or an empty string for a URL relative to the host
+     * @param version the API version to use when the graph path does not specify one
+     * @param graphPath the graph path
+     * @param parameters the parameters to append as the query string, or null for none
+     * @param httpMethod the method of the request; GET requests reject non-scalar parameters
+     * @return the URL
+     */
+    static String build(
+            String baseUrl,
+            String version,
+            String graphPath,
+            Bundle parameters,
+            HttpMethod httpMethod) {
+        int parameterCount = parameters != null ? parameters.size() : 0;
+        StringBuilder url = new StringBuilder(baseUrl.length()
+                + (version != null ? version.length() : 4)
+                + graphPath.length()
+                + 2
+                + parameterCount * ESTIMATED_PARAMETER_LENGTH);
+
+        if (getVersionPrefixLength(graphPath) >= 0) {
+            url.append(baseUrl).append('/');
+        } else {
+            url.append(getVersionedBaseUrl(baseUrl, version));
+        }
+        url.append(graphPath);
+
+        if (parameters != null) {
+            appendQueryParameters(url, graphPath.indexOf('?') >= 0, parameters, httpMethod);
+        }
+        return url.toString();
+    }
+
+    /**
+     * Returns the length of the leading "v{major}.{minor}/" segment of a graph path, including
+     * an optional leading slash, or -1 if the path is not versioned.
+     */
+    static int getVersionPrefixLength(String path) {
+        int length = path.length();
+        int index = 0;
+        if (index < length && path.charAt(index) == '/') {
+            index++;
+        }
+        if (index >= length || path.charAt(index) != 'v') {
+            return -1;
+        }
+        index = skipDigits(path, index + 1);
+        if (index < 0 || index >= length || path.charAt(index) != '.') {
+            return -1;
+        }
+        index = skipDigits(path, index + 1);
+        if (index < 0 || index >= length || path.charAt(index) != '/') {
+            return -1;
+        }
+        return index + 1;
+    }
+
+    static void appendEncoded(StringBuilder builder, String value) {
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (isUnreserved(c)) {
+                builder.append(c);
+                continue;
+            }
+
+            int codePoint = c;
+            if (Character.isHighSurrogate(c)
+                    && i + 1 < length
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                codePoint = Character.toCodePoint(c, value.charAt(++i));
+            } else if (Character.isSurrogate(c)) {
+                // Unpaired surrogates are replaced the same way String.getBytes does.
+                codePoint = '?';
+            }
+            appendUtf8Escaped(builder, codePoint);
+        }
+    }
+
+    private static void appendQueryParameters(
+            StringBuilder url,
+            boolean hasQuery,
+            Bundle parameters,
+            HttpMethod httpMethod) {
+        boolean first = !hasQuery;
+        for (String key : parameters.keySet()) {
+            Object value = parameters.get(key);
+
+            if (value == null) {
+                value = "";
+            }
+
+            if (!GraphRequest.isSupportedParameterType(value)) {
+                if (httpMethod == HttpMethod.GET) {
+                    throw new IllegalArgumentException(
+                            String.format(
+                                    Locale.US,
+                                    "Unsupported parameter type for GET request: %s",
+                                    value.getClass().getSimpleName()));
+                }
+                continue;
+            }
+
+            url.append(first ? '?' : '&');
+            first = false;
+            appendEncoded(url, key);
+            url.append('=');
+            appendEncoded(url, GraphRequest.parameterToString(value));
+        }
+    }
+
+    private static String getVersionedBaseUrl(String baseUrl, String version) {
+        VersionedBaseUrl cached = cachedVersionedBaseUrl;
+        if (cached == null || !cached.matches(baseUrl, version)) {
+            cached = new VersionedBaseUrl(baseUrl, version);
+            cachedVersionedBaseUrl = cached;
+        }
+        return cached.url;
+    }
+
+    private static int skipDigits(String path, int start) {
+        int index = start;
+        while (index < path.length()
+                && path.charAt(index) >= '0'
+                && path.charAt(index) <= '9') {
+            index++;
+        }
+        return index > start ? index : -1;
+    }
+
+    private static boolean isUnreserved(char c) {
+        return (c >= 'a' && c <= 'z')
+                || (c >= 'A' && c <= 'Z')
+                || (c >= '0' && c <= '9')
+                || "_-!.~'()*".indexOf(c) >= 0;
+    }
+
+    private static void appendUtf8Escaped(StringBuilder builder, int codePoint) {
+        if (codePoint < 0x80) {
+            appendEscapedByte(builder, codePoint);
+        } else if (codePoint < 0x800) {
+            appendEscapedByte(builder, 0xC0 | (codePoint >> 6));
+            appendEscapedByte(builder, 0x80 | (codePoint & 0x3F));
+        } else if (codePoint < 0x10000) {
+            appendEscapedByte(builder, 0xE0 | (codePoint >> 12));
+            appendEscapedByte(builder, 0x80 | ((codePoint >> 6) & 0x3F));
+            appendEscapedByte(builder, 0x80 | (codePoint & 0x3F));
+        } else {
+            appendEscapedByte(builder, 0xF0 | (codePoint >> 18));
+            appendEscapedByte(builder, 0x80 | ((codePoint >> 12) & 0x3F));
+            appendEscapedByte(builder, 0x80 | ((codePoint >> 6) & 0x3F));
+            appendEscapedByte(builder, 0x80 | (codePoint & 0x3F));
+        }
+    }
+
+    private static void appendEscapedByte(StringBuilder builder, int b) {
+        builder.append('%')
+                .append(HEX_DIGITS[(b >> 4) & 0xF])
+                .append(HEX_DIGITS[b & 0xF]);
+    }
+
+    private static class VersionedBaseUrl {
+        private final String baseUrl;
+        private final String version;
+        private final String url;
+
+        VersionedBaseUrl(String baseUrl, String version) {
+            this.baseUrl = baseUrl;
+            this.version = version;
+            this.url = baseUrl + "/" + version + "/";
+        }
+
+        boolean matches(String baseUrl, String version) {
+            return this.baseUrl.equals(baseUrl)
+                    && (this.version == null ? version == null : this.version.equals(version));
+        }
+    }
+}
@@ -30,6 +30,7 @@ import org.json.JSONException;
 import org.json.JSONObject;
 import org.json.JSONTokener;
 
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.HttpURLConnection;
@@ -251,17 +252,25 @@ public class GraphResponse {
     @SuppressWarnings("resource")
     static List<GraphResponse> fromHttpConnection(
             HttpURLConnection connection,
-            GraphRequestBatch requests) {
+            GraphRequestBatch requests,
+            GraphRequestMetrics metrics) {
         InputStream stream = null;
 
         try {
-            if (connection.getResponseCode() >= 400) {
+            long requestSentNanos = System.nanoTime();
+            int responseCode = connection.getResponseCode();
+            if (metrics != null) {
+                metrics.setTimeToFirstByteNanos(System.nanoTime() - requestSentNanos);
+                metrics.setResponseCode(responseCode);
+            }
+
+            if (responseCode >= 400) {
                 stream = connection.getErrorStream();
             } else {
                 stream = connection.getInputStream();
             }
 
-            return createResponsesFromStream(stream, connection, requests);
+            return createResponsesFromStream(stream, connection, requests, metrics);
         } catch (FacebookException facebookException) {
             Logger.log(
                     LoggingBehavior.REQUESTS,
@@ -288,15 +297,33 @@ public class GraphResponse {
     static List<GraphResponse> createResponsesFromStream(
             InputStream stream,
             HttpURLConnection connection,
-            GraphRequestBatch requests
+            GraphRequestBatch requests,
+            GraphRequestMetrics metrics
     ) throws FacebookException, JSONException, IOException {
+        CountingInputStream countingStream = null;
+        if (metrics != null && stream != null) {
+            countingStream = new CountingInputStream(stream);
+            stream = countingStream;
+        }
 
+        long downloadStartNanos = System.nanoTime();
         String responseString = Utility.readStreamToString(stream);
         Logger.log(LoggingBehavior.INCLUDE_RAW_RESPONSES, RESPONSE_LOG_TAG,
                 "Response (raw)\n  Size: %d\n  Response:\n%s\n", responseString.length(),
                 responseString);
+        if (metrics == null) {
+            return createResponsesFromString(responseString, connection, requests);
+        }
 
-        return createResponsesFromString(responseString, connection, requests);
+        long parseStartNanos = System.nanoTime();
+        metrics.setDownloadNanos(parseStartNanos - downloadStartNanos);
+        if (countingStream != null) {
+            metrics.setBytesReceived(countingStream.getCount());
+        }
+        List<GraphResponse> responses =
+                createResponsesFromString(responseString, connection, requests);
+        metrics.setParseNanos(System.nanoTime() - parseStartNanos);
+        return responses;
     }
 
     static List<GraphResponse> createResponsesFromString(
@@ -461,4 +488,41 @@ public class GraphResponse {
         }
         return responses;
     }
+
+    private static final class CountingInputStream extends FilterInputStream {
+        private long count;
+
+        CountingInputStream(InputStream input) {
+            super(input);
+        }
+
+        long getCount() {
+            return count;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int readCount = super.read(buffer, offset, length);
+            if (readCount > 0) {
+                count += readCount;
+            }
+            return readCount;
+        }
+
+        @Override
+        public long skip(long byteCount) throws IOException {
+            long skipped = super.skip(byteCount);
+            count += skipped;
+            return skipped;
+        }
+    }
 }
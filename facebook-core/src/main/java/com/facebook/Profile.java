@@ -60,6 +60,7 @@ public final class Profile implements Parcelable {
      */
     public static Profile getCurrentProfile()
     {
+        FacebookSdk.ensureAccessTokenLoaded();
         return ProfileManager.getInstance().getCurrentProfile();
     }
 
@@ -35,6 +35,7 @@ import com.facebook.internal.FetchedAppSettingsManager;
 import com.facebook.internal.Logger;
 import com.facebook.internal.Utility;
 
+import java.lang.ref.WeakReference;
 import java.util.UUID;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
@@ -60,6 +61,10 @@ public class ActivityLifecycleTracker {
     private static String appId;
     private static long currentActivityAppearTime;
     private static final CodelessMatcher codelessMatcher = new CodelessMatcher();
+    private static final AtomicBoolean codelessDeferred = new AtomicBoolean(false);
+    // The most recently resumed activity that has not paused since. Only accessed on the main
+    // thread.
+    private static WeakReference<Activity> resumedActivity;
 
     public static void startTracking(Application application, final String appId) {
         if (!tracking.compareAndSet(false, true)) {
@@ -160,14 +165,29 @@ public class ActivityLifecycleTracker {
     }
 
     // Public in order to allow unity sdk to correctly log app events
-    public static void onActivityResumed(Activity activity) {
+    public static void onActivityResumed(final Activity activity) {
         foregroundActivityCount.incrementAndGet();
+        resumedActivity = new WeakReference<>(activity);
         cancelCurrentTask();
         final long currentTime = System.currentTimeMillis();
         ActivityLifecycleTracker.currentActivityAppearTime = currentTime;
         final Context applicationContext = activity.getApplicationContext();
         final String activityName = Utility.getActivityName(activity);
-        codelessMatcher.add(activity);
+        if (FacebookSdk.isLazyInitializationEnabled()
+                && codelessDeferred.compareAndSet(false, true)) {
+            // Walking the first activity's view tree waits until after its first frame.
+            Utility.runOnMainThreadWhenIdle(new Runnable() {
+                @Override
+                public void run() {
+                    // The activity may have paused while another one resumed in the meantime.
+                    if (isResumedActivity(activity) && !activity.isFinishing()) {
+                        codelessMatcher.add(activity);
+                    }
+                }
+            });
+        } else {
+            codelessMatcher.add(activity);
+        }
         Runnable handleActivityResume = new Runnable() {
             @Override
             public void run() {
@@ -208,6 +228,10 @@ public class ActivityLifecycleTracker {
         singleThreadExecutor.execute(handleActivityResume);
     }
 
+    private static boolean isResumedActivity(Activity activity) {
+        return resumedActivity != null && resumedActivity.get() == activity;
+    }
+
     private static void onActivityPaused(Activity activity) {
         int count = foregroundActivityCount.decrementAndGet();
         if (count < 0) {
@@ -218,6 +242,10 @@ public class ActivityLifecycleTracker {
             Log.w(TAG, INCORRECT_IMPL_WARNING);
         }
 
+        if (isResumedActivity(activity)) {
+            resumedActivity = null;
+        }
+
         cancelCurrentTask();
         final long currentTime = System.currentTimeMillis();
 
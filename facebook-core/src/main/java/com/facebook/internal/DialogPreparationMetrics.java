@@ -0,0 +1,220 @@
+/**
+ * Copyright (c) 2014-present, Facebook, Inc. All rights reserved.
+ *
+ * You are hereby granted a non-exclusive, worldwide, royalty-free license to use,
+ * copy, modify, and distribute this software in source code or binary form for use
+ * in connection with the web services and APIs provided by Facebook.
+ *
+ * As with any software that integrates with the Facebook platform, your use of
+ * this software is subject to the Facebook Developer Principles and Policies
+ * [http://developers.facebook.com/policy/]. This copyright notice shall be
+ * included in all copies or substantial portions of the software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.facebook.internal;
+
+import java.util.Locale;
+
+/**
+ * com.facebook.internal is solely for the use of other packages within the Facebook SDK for
+ * Android. Use of any of the classes in this package is unsupported, and they may be modified or
+ * removed without warning at any time.
+ *
+ * Per-stage timings recorded while preparing and launching a dialog. Stages record into the
+ * metrics of the preparation running on the current thread, so code that is not aware of a
+ * dialog, such as validation or attachment staging, can contribute to them. A stage that did
+ * not happen reports -1.
+ */
+public final class DialogPreparationMetrics {
+    /**
+     * Receives the metrics of launched dialogs. Called on the main thread.
+     */
+    public interface Listener {
+        /**
+         * Called once per dialog, right after its intent was started.
+         *
+         * @param metrics the metrics recorded for the dialog
+         */
+        void onMetricsRecorded(DialogPreparationMetrics metrics);
+    }
+
+    private static final ThreadLocal<DialogPreparationMetrics> current =
+            new ThreadLocal<DialogPreparationMetrics>();
+
+    private final long startNanos;
+    private final boolean isAsync;
+    private long validationNanos = -1;
+    private long protocolResolutionNanos = -1;
+    private long parameterBuildingNanos = -1;
+    private long attachmentStagingNanos = -1;
+    private long preparationNanos = -1;
+    private long launchDelayNanos = -1;
+    private long totalNanos = -1;
+
+    private DialogPreparationMetrics(boolean isAsync) {
+        this.startNanos = System.nanoTime();
+        this.isAsync = isAsync;
+    }
+
+    /**
+     * Starts recording the preparation of a dialog on the current thread.
+     *
+     * @param isAsync whether the dialog is prepared off the thread that launches it
+     * @return the metrics the stages on this thread will record into
+     */
+    public static DialogPreparationMetrics startPreparation(boolean isAsync) {
+        DialogPreparationMetrics metrics = new DialogPreparationMetrics(isAsync);
+        current.set(metrics);
+        return metrics;
+    }
+
+    public static void recordValidation(long nanos) {
+        DialogPreparationMetrics metrics = current.get();
+        if (metrics != null) {
+            metrics.validationNanos = add(metrics.validationNanos, nanos);
+        }
+    }
+
+    public static void recordProtocolResolution(long nanos) {
+        DialogPreparationMetrics metrics = current.get();
+        if (metrics != null) {
+            metrics.protocolResolutionNanos = add(metrics.protocolResolutionNanos, nanos);
+        }
+    }
+
+    public static void recordParameterBuilding(long nanos) {
+        DialogPreparationMetrics metrics = current.get();
+        if (metrics != null) {
+            metrics.parameterBuildingNanos = add(metrics.parameterBuildingNanos, nanos);
+        }
+    }
+
+    public static void recordAttachmentStaging(long nanos) {
+        DialogPreparationMetrics metrics = current.get();
+        if (metrics != null) {
+            metrics.attachmentStagingNanos = add(metrics.attachmentStagingNanos, nanos);
+        }
+    }
+
+    private static long add(long total, long nanos) {
+        return total < 0 ? nanos : total + nanos;
+    }
+
+    /**
+     * Ends the preparation on the current thread. Stages run afterwards are not recorded.
+     */
+    public void finishPreparation() {
+        preparationNanos = System.nanoTime() - startNanos;
+        if (current.get() == this) {
+            current.remove();
+        }
+    }
+
+    /**
+     * Marks the dialog's intent as started.
+     */
+    public void finishLaunch() {
+        totalNanos = System.nanoTime() - startNanos;
+        if (preparationNanos >= 0) {
+            launchDelayNanos = totalNanos - preparationNanos;
+        }
+    }
+
+    /**
+     * Gets whether the dialog was prepared off the thread that launched it.
+     *
+     * @return true if the preparation was asynchronous
+     */
+    public boolean isAsync() {
+        return isAsync;
+    }
+
+    /**
+     * Gets the time spent validating the content.
+     *
+     * @return the validation time in nanoseconds, or -1
+     */
+    public long getValidationNanos() {
+        return validationNanos;
+    }
+
+    /**
+     * Gets the time spent finding the protocol version supported by the Facebook app.
+     *
+     * @return the protocol resolution time in nanoseconds, or -1
+     */
+    public long getProtocolResolutionNanos() {
+        return protocolResolutionNanos;
+    }
+
+    /**
+     * Gets the time spent building the dialog parameters, including attachment staging.
+     *
+     * @return the parameter building time in nanoseconds, or -1
+     */
+    public long getParameterBuildingNanos() {
+        return parameterBuildingNanos;
+    }
+
+    /**
+     * Gets the time spent staging attachments for the Facebook app.
+     *
+     * @return the attachment staging time in nanoseconds, or -1
+     */
+    public long getAttachmentStagingNanos() {
+        return attachmentStagingNanos;
+    }
+
+    /**
+     * Gets the time from the start of the preparation until the dialog was ready to launch.
+     *
+     * @return the preparation time in nanoseconds, or -1
+     */
+    public long getPreparationNanos() {
+        return preparationNanos;
+    }
+
+    /**
+     * Gets the time between the dialog being ready and its intent being started, which is
+     * mostly spent waiting for the main thread.
+     *
+     * @return the launch delay in nanoseconds, or -1
+     */
+    public long getLaunchDelayNanos() {
+        return launchDelayNanos;
+    }
+
+    /**
+     * Gets the time from the start of the preparation until the intent was started.
+     *
+     * @return the total time in nanoseconds, or -1
+     */
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                Locale.US,
+                "{DialogPreparationMetrics: isAsync: %b, validationNanos: %d, " +
+                        "protocolResolutionNanos: %d, parameterBuildingNanos: %d, " +
+                        "attachmentStagingNanos: %d, preparationNanos: %d, " +
+                        "launchDelayNanos: %d, totalNanos: %d}",
+                isAsync,
+                validationNanos,
+                protocolResolutionNanos,
+                parameterBuildingNanos,
+                attachmentStagingNanos,
+                preparationNanos,
+                launchDelayNanos,
+                totalNanos);
+    }
+}
@@ -40,15 +40,19 @@ public final class FetchedAppSettings {
     private boolean customTabsEnabled;
     private int sessionTimeoutInSeconds;
     private EnumSet<SmartLoginOption> smartLoginOptions;
-    private Map<String, Map<String, DialogFeatureConfig>> dialogConfigMap;
+    private volatile Map<String, Map<String, DialogFeatureConfig>> dialogConfigMap;
     private boolean automaticLoggingEnabled;
-    private FacebookRequestErrorClassification errorClassification;
+    private volatile FacebookRequestErrorClassification errorClassification;
     private String smartLoginBookmarkIconURL;
     private String smartLoginMenuIconURL;
     private boolean IAPAutomaticLoggingEnabled;
     private boolean codelessEventsEnabled;
     private String sdkUpdateMessage;
-    private JSONArray eventBindings;
+    private volatile JSONArray eventBindings;
+    private volatile boolean eventBindingsLoaded = true;
+    // Set when the settings were loaded from a snapshot; the sections above that are still null
+    // are decoded from it on first use.
+    private FetchedAppSettingsSnapshot.Sections lazySections;
 
     public FetchedAppSettings(boolean supportsImplicitLogging,
                                String nuxContent,
@@ -112,10 +116,16 @@ public final class FetchedAppSettings {
     }
 
     public Map<String, Map<String, DialogFeatureConfig>> getDialogConfigurations() {
+        if (dialogConfigMap == null && lazySections != null) {
+            dialogConfigMap = lazySections.decodeDialogConfigurations();
+        }
         return dialogConfigMap;
     }
 
     public FacebookRequestErrorClassification getErrorClassification() {
+        if (errorClassification == null && lazySections != null) {
+            errorClassification = lazySections.decodeErrorClassification();
+        }
         return errorClassification;
     }
 
@@ -131,11 +141,21 @@ public final class FetchedAppSettings {
     }
 
     public JSONArray getEventBindings() {
+        if (!eventBindingsLoaded) {
+            eventBindings = lazySections.decodeEventBindings();
+            eventBindingsLoaded = true;
+        }
         return eventBindings;
     }
 
     public String getSdkUpdateMessage() { return sdkUpdateMessage; }
 
+    // Decoding a section twice from racing threads gives equal results, so no locking is needed.
+    void setLazySections(FetchedAppSettingsSnapshot.Sections lazySections) {
+        this.lazySections = lazySections;
+        this.eventBindingsLoaded = false;
+    }
+
     public static class DialogFeatureConfig {
         private static final String DIALOG_CONFIG_DIALOG_NAME_FEATURE_NAME_SEPARATOR = "\\|";
         private static final String DIALOG_CONFIG_NAME_KEY = "name";
@@ -213,7 +233,7 @@ public final class FetchedAppSettings {
         private Uri fallbackUrl;
         private int[] featureVersionSpec;
 
-        private DialogFeatureConfig(
+        DialogFeatureConfig(
                 String dialogName,
                 String featureName,
                 Uri fallbackUrl,
@@ -39,9 +39,14 @@ import org.json.JSONObject;
 
 import java.util.Arrays;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
@@ -55,6 +60,13 @@ public final class FetchedAppSettingsManager {
             "com.facebook.internal.preferences.APP_SETTINGS";
     private static final String APP_SETTINGS_PREFS_KEY_FORMAT =
             "com.facebook.internal.APP_SETTINGS.%s";
+    private static final String APP_SETTINGS_FETCH_TIME_PREFS_KEY_FORMAT =
+            "com.facebook.internal.APP_SETTINGS_FETCH_TIME.%s";
+    private static final long DEFAULT_APP_SETTINGS_TTL_MILLIS = 60 * 60 * 1000;
+    // After a failed fetch, background refreshes wait this long, doubling with every further
+    // failure up to the maximum.
+    private static final long MIN_REFRESH_BACKOFF_MILLIS = 30 * 1000;
+    private static final long MAX_REFRESH_BACKOFF_MILLIS = 60 * 60 * 1000;
     private static final String APP_SETTING_SUPPORTS_IMPLICIT_SDK_LOGGING =
             "supports_implicit_sdk_logging";
     private static final String APP_SETTING_NUX_CONTENT = "gdpv4_nux_content";
@@ -99,50 +111,53 @@ public final class FetchedAppSettingsManager {
 
     private static Map<String, FetchedAppSettings> fetchedAppSettings =
             new ConcurrentHashMap<String, FetchedAppSettings>();
+    // When the settings in fetchedAppSettings were fetched from the server, which may have been in
+    // a previous run of the app if they were loaded from the cache.
+    private static Map<String, Long> fetchedAppSettingsTimes =
+            new ConcurrentHashMap<String, Long>();
+    // In-flight Graph queries, so concurrent callers share a single fetch per app.
+    private static ConcurrentHashMap<String, FutureTask<FetchedAppSettings>> pendingQueries =
+            new ConcurrentHashMap<String, FutureTask<FetchedAppSettings>>();
+    // Apps with a background refresh scheduled or running, so stale hits schedule only one.
+    private static Set<String> pendingRefreshes =
+            Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    // The last failed fetch per app and the number of failures in a row since the last success.
+    private static Map<String, Long> lastFailedFetchTimes = new ConcurrentHashMap<String, Long>();
+    private static Map<String, Integer> consecutiveFetchFailures =
+            new ConcurrentHashMap<String, Integer>();
     private static AtomicBoolean loadingSettings = new AtomicBoolean(false);
+    private static volatile long appSettingsTtlMillis = DEFAULT_APP_SETTINGS_TTL_MILLIS;
 
     private static boolean printedSDKUpdatedMessage = false;
 
+    /**
+     * Sets how long fetched app settings are used before they are fetched again. Stale settings
+     * are still returned while a refresh runs in the background.
+     *
+     * @param ttlMillis the time to live of fetched settings, in milliseconds
+     */
+    public static void setAppSettingsTtl(long ttlMillis) {
+        appSettingsTtlMillis = ttlMillis;
+    }
+
     public static void loadAppSettingsAsync() {
         final Context context = FacebookSdk.getApplicationContext();
         final String applicationId = FacebookSdk.getApplicationId();
-        boolean canStartLoading = loadingSettings.compareAndSet(false, true);
         if (Utility.isNullOrEmpty(applicationId) ||
-                fetchedAppSettings.containsKey(applicationId) ||
-                !canStartLoading) {
+                (fetchedAppSettings.containsKey(applicationId) && isFresh(applicationId)) ||
+                !loadingSettings.compareAndSet(false, true)) {
             return;
         }
 
-        final String settingsKey = String.format(APP_SETTINGS_PREFS_KEY_FORMAT, applicationId);
-
         FacebookSdk.getExecutor().execute(new Runnable() {
             @Override
             public void run() {
                 // See if we had a cached copy and use that immediately.
-                SharedPreferences sharedPrefs = context.getSharedPreferences(
-                        APP_SETTINGS_PREFS_STORE,
-                        Context.MODE_PRIVATE);
-                String settingsJSONString = sharedPrefs.getString(settingsKey, null);
-                FetchedAppSettings appSettings = null;
-                if (!Utility.isNullOrEmpty(settingsJSONString)) {
-                    JSONObject settingsJSON = null;
-                    try {
-                        settingsJSON = new JSONObject(settingsJSONString);
-                    } catch (JSONException je) {
-                        Utility.logd(Utility.LOG_TAG, je);
-                    }
-                    if (settingsJSON != null) {
-                        appSettings = parseAppSettingsFromJSON(applicationId, settingsJSON);
-                    }
-                }
+                FetchedAppSettings appSettings = loadCachedAppSettings(context, applicationId);
 
-                JSONObject resultJSON = getAppSettingsQueryResponse(applicationId);
-                if (resultJSON != null) {
-                    parseAppSettingsFromJSON(applicationId, resultJSON);
-
-                    sharedPrefs.edit()
-                            .putString(settingsKey, resultJSON.toString())
-                            .apply();
+                // Only go to the network if the cached copy is missing or has expired.
+                if (!isFresh(applicationId)) {
+                    fetchAppSettings(applicationId);
                 }
 
                 // Print log to notify developers to upgrade SDK when version is too old
@@ -172,22 +187,202 @@ public final class FetchedAppSettingsManager {
         return applicationId != null ? fetchedAppSettings.get(applicationId) : null;
     }
 
-    // Note that this method makes a synchronous Graph API call, so should not be called from the
-    // main thread.
+    // Note that this method may make a synchronous Graph API call, so should not be called from
+    // the main thread.  Settings that are in memory or in the cache are returned without waiting
+    // for the network, even if they are stale; a refresh is then started in the background.
     public static FetchedAppSettings queryAppSettings(
             final String applicationId,
             final boolean forceRequery) {
-        // Cache the last app checked results.
-        if (!forceRequery && fetchedAppSettings.containsKey(applicationId)) {
-            return fetchedAppSettings.get(applicationId);
+        if (!forceRequery) {
+            FetchedAppSettings appSettings = fetchedAppSettings.get(applicationId);
+            if (appSettings == null) {
+                appSettings = loadCachedAppSettings(
+                        FacebookSdk.getApplicationContext(),
+                        applicationId);
+            }
+            if (appSettings != null) {
+                if (!isFresh(applicationId)) {
+                    refreshAppSettingsAsync(applicationId);
+                }
+                return appSettings;
+            }
+        }
+
+        return fetchAppSettings(applicationId);
+    }
+
+    private static boolean isFresh(String applicationId) {
+        Long fetchTime = fetchedAppSettingsTimes.get(applicationId);
+        return fetchTime != null &&
+                System.currentTimeMillis() - fetchTime < appSettingsTtlMillis;
+    }
+
+    // Returns the settings already in memory, or else loads them from the cache written by the
+    // last fetch, if any.  The binary snapshot is preferred; the JSON copy in SharedPreferences is
+    // only parsed if there is no usable snapshot, and a snapshot is then written from it.
+    private static FetchedAppSettings loadCachedAppSettings(
+            Context context,
+            String applicationId) {
+        FetchedAppSettings loadedAppSettings = fetchedAppSettings.get(applicationId);
+        if (loadedAppSettings != null) {
+            return loadedAppSettings;
+        }
+
+        long startTime = System.nanoTime();
+        FetchedAppSettingsSnapshot snapshot = FetchedAppSettingsSnapshot.read(applicationId);
+        if (snapshot != null) {
+            FetchedAppSettings appSettings = snapshot.getAppSettings();
+            fetchedAppSettings.put(applicationId, appSettings);
+            if (snapshot.getFetchTime() > 0 &&
+                    !fetchedAppSettingsTimes.containsKey(applicationId)) {
+                fetchedAppSettingsTimes.put(applicationId, snapshot.getFetchTime());
+            }
+            logLoadTime("snapshot", startTime);
+            return appSettings;
+        }
+
+        SharedPreferences sharedPrefs = context.getSharedPreferences(
+                APP_SETTINGS_PREFS_STORE,
+                Context.MODE_PRIVATE);
+        String settingsJSONString = sharedPrefs.getString(
+                String.format(APP_SETTINGS_PREFS_KEY_FORMAT, applicationId),
+                null);
+        if (Utility.isNullOrEmpty(settingsJSONString)) {
+            return null;
+        }
+
+        JSONObject settingsJSON;
+        try {
+            settingsJSON = new JSONObject(settingsJSONString);
+        } catch (JSONException je) {
+            Utility.logd(Utility.LOG_TAG, je);
+            return null;
+        }
+
+        // Settings cached before fetch times were recorded count as stale.
+        long fetchTime = sharedPrefs.getLong(
+                String.format(APP_SETTINGS_FETCH_TIME_PREFS_KEY_FORMAT, applicationId),
+                0);
+        FetchedAppSettings appSettings = parseAppSettingsFromJSON(applicationId, settingsJSON);
+        if (fetchTime > 0 && !fetchedAppSettingsTimes.containsKey(applicationId)) {
+            fetchedAppSettingsTimes.put(applicationId, fetchTime);
+        }
+        logLoadTime("JSON", startTime);
+
+        FetchedAppSettingsSnapshot.write(applicationId, appSettings, fetchTime);
+        return appSettings;
+    }
+
+    // Logs how long loading the cached settings took, so the snapshot and JSON paths can be
+    // compared on a device with debug logging enabled.
+    private static void logLoadTime(String source, long startTime) {
+        long elapsedMicros = (System.nanoTime() - startTime) / 1000;
+        Utility.logd(TAG, "Loaded cached app settings from " + source +
+                " in " + elapsedMicros + "us");
+    }
+
+    private static void refreshAppSettingsAsync(final String applicationId) {
+        if (pendingQueries.containsKey(applicationId) || isBackingOff(applicationId)) {
+            return;
+        }
+        if (!pendingRefreshes.add(applicationId)) {
+            return;
+        }
+        FacebookSdk.getExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    fetchAppSettings(applicationId);
+                } finally {
+                    pendingRefreshes.remove(applicationId);
+                }
+            }
+        });
+    }
+
+    // Whether a recent failure means a background refresh should not be attempted yet, e.g.
+    // because the device is offline.
+    private static boolean isBackingOff(String applicationId) {
+        Long lastFailedFetchTime = lastFailedFetchTimes.get(applicationId);
+        Integer failures = consecutiveFetchFailures.get(applicationId);
+        if (lastFailedFetchTime == null || failures == null) {
+            return false;
+        }
+
+        long backoff = MIN_REFRESH_BACKOFF_MILLIS << Math.min(failures - 1, 16);
+        backoff = Math.min(backoff, MAX_REFRESH_BACKOFF_MILLIS);
+        return System.currentTimeMillis() - lastFailedFetchTime < backoff;
+    }
+
+    // Fetches the settings from the server and caches them.  If a fetch for the same app is
+    // already running, this waits for it and returns its result instead of starting another one.
+    private static FetchedAppSettings fetchAppSettings(final String applicationId) {
+        FutureTask<FetchedAppSettings> query = new FutureTask<FetchedAppSettings>(
+                new Callable<FetchedAppSettings>() {
+                    @Override
+                    public FetchedAppSettings call() {
+                        return queryAndCacheAppSettings(applicationId);
+                    }
+                });
+
+        FutureTask<FetchedAppSettings> pendingQuery =
+                pendingQueries.putIfAbsent(applicationId, query);
+        if (pendingQuery == null) {
+            pendingQuery = query;
+            try {
+                query.run();
+            } finally {
+                pendingQueries.remove(applicationId, query);
+            }
         }
 
+        try {
+            return pendingQuery.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            // The query only throws unchecked exceptions, so rethrow them as if it had run on
+            // this thread.
+            Throwable cause = e.getCause();
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw (RuntimeException) cause;
+        }
+    }
+
+    // Note that this method makes a synchronous Graph API call, so should not be called from the
+    // main thread.
+    private static FetchedAppSettings queryAndCacheAppSettings(String applicationId) {
         JSONObject response = getAppSettingsQueryResponse(applicationId);
         if (response == null) {
+            Integer failures = consecutiveFetchFailures.get(applicationId);
+            consecutiveFetchFailures.put(applicationId, failures == null ? 1 : failures + 1);
+            lastFailedFetchTimes.put(applicationId, System.currentTimeMillis());
             return null;
         }
-
-        return parseAppSettingsFromJSON(applicationId, response);
+        consecutiveFetchFailures.remove(applicationId);
+        lastFailedFetchTimes.remove(applicationId);
+
+        FetchedAppSettings appSettings = parseAppSettingsFromJSON(applicationId, response);
+        long fetchTime = System.currentTimeMillis();
+        fetchedAppSettingsTimes.put(applicationId, fetchTime);
+        FetchedAppSettingsSnapshot.write(applicationId, appSettings, fetchTime);
+
+        SharedPreferences sharedPrefs = FacebookSdk.getApplicationContext().getSharedPreferences(
+                APP_SETTINGS_PREFS_STORE,
+                Context.MODE_PRIVATE);
+        sharedPrefs.edit()
+                .putString(
+                        String.format(APP_SETTINGS_PREFS_KEY_FORMAT, applicationId),
+                        response.toString())
+                .putLong(
+                        String.format(APP_SETTINGS_FETCH_TIME_PREFS_KEY_FORMAT, applicationId),
+                        fetchTime)
+                .apply();
+
+        return appSettings;
     }
 
     private static FetchedAppSettings parseAppSettingsFromJSON(
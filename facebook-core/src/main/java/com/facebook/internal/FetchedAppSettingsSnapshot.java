@@ -0,0 +1,455 @@
+/**
+ * Copyright (c) 2014-present, Facebook, Inc. All rights reserved.
+ *
+ * You are hereby granted a non-exclusive, worldwide, royalty-free license to use,
+ * copy, modify, and distribute this software in source code or binary form for use
+ * in connection with the web services and APIs provided by Facebook.
+ *
+ * As with any software that integrates with the Facebook platform, your use of
+ * this software is subject to the Facebook Developer Principles and Policies
+ * [http://developers.facebook.com/policy/]. This copyright notice shall be
+ * included in all copies or substantial portions of the software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.facebook.internal;
+
+import android.net.Uri;
+
+import com.facebook.FacebookRequestError;
+import com.facebook.FacebookSdk;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+// Persists already-parsed FetchedAppSettings in a compact binary form, so that loading them at
+// startup doesn't have to re-parse the settings JSON.
+//
+// The format is as follows, with all numbers big-endian and strings stored as an int UTF-8 length
+// (-1 for null) followed by the UTF-8 bytes:
+//     int: snapshot version
+//    long: fetch time, in milliseconds since the epoch
+//     ...: scalar settings, decoded when the snapshot is read
+//     ...: dialog configurations section
+//     ...: error classification section
+//     ...: event bindings section
+//
+// Each section is prefixed with its int length, so reading the snapshot only records where the
+// sections are.  A section is decoded the first time FetchedAppSettings needs it, so cheap lookups
+// like getSessionTimeoutInSeconds() never pay for decoding event bindings they don't use.
+final class FetchedAppSettingsSnapshot {
+    private static final String TAG = FetchedAppSettingsSnapshot.class.getCanonicalName();
+    private static final int SNAPSHOT_VERSION = 1;
+    private static final String SNAPSHOT_FILE_NAME_FORMAT =
+            "com.facebook.internal.APP_SETTINGS_SNAPSHOT.%s";
+    private static final String UTF8 = "UTF-8";
+
+    private final FetchedAppSettings appSettings;
+    private final long fetchTime;
+
+    private FetchedAppSettingsSnapshot(FetchedAppSettings appSettings, long fetchTime) {
+        this.appSettings = appSettings;
+        this.fetchTime = fetchTime;
+    }
+
+    FetchedAppSettings getAppSettings() {
+        return appSettings;
+    }
+
+    long getFetchTime() {
+        return fetchTime;
+    }
+
+    // Returns null if there is no snapshot for the app, or it was written by a different version.
+    static FetchedAppSettingsSnapshot read(String applicationId) {
+        File file = getSnapshotFile(applicationId);
+        if (!file.exists()) {
+            return null;
+        }
+
+        FileInputStream input = null;
+        try {
+            input = new FileInputStream(file);
+            byte[] data = new byte[(int) file.length()];
+            int count = 0;
+            while (count < data.length) {
+                int readCount = input.read(data, count, data.length - count);
+                if (readCount < 1) {
+                    return null;
+                }
+                count += readCount;
+            }
+            return decode(data);
+        } catch (IOException e) {
+            Utility.logd(TAG, e);
+            return null;
+        } finally {
+            Utility.closeQuietly(input);
+        }
+    }
+
+    // Writes to a temporary file first, so a reader never sees a partially written snapshot.
+    static void write(String applicationId, FetchedAppSettings appSettings, long fetchTime) {
+        File file = getSnapshotFile(applicationId);
+        File temporaryFile = new File(file.getPath() + ".tmp");
+        FileOutputStream output = null;
+        try {
+            byte[] data = encode(appSettings, fetchTime);
+            output = new FileOutputStream(temporaryFile);
+            output.write(data);
+            output.close();
+            output = null;
+            if (!temporaryFile.renameTo(file)) {
+                temporaryFile.delete();
+            }
+        } catch (IOException e) {
+            Utility.logd(TAG, e);
+            temporaryFile.delete();
+        } finally {
+            Utility.closeQuietly(output);
+        }
+    }
+
+    private static File getSnapshotFile(String applicationId) {
+        return new File(
+                FacebookSdk.getCacheDir(),
+                String.format(SNAPSHOT_FILE_NAME_FORMAT, applicationId));
+    }
+
+    static byte[] encode(FetchedAppSettings appSettings, long fetchTime) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(bytes);
+
+        output.writeInt(SNAPSHOT_VERSION);
+        output.writeLong(fetchTime);
+
+        output.writeBoolean(appSettings.supportsImplicitLogging());
+        writeString(output, appSettings.getNuxContent());
+        output.writeBoolean(appSettings.getNuxEnabled());
+        output.writeBoolean(appSettings.getCustomTabsEnabled());
+        output.writeInt(appSettings.getSessionTimeoutInSeconds());
+        long smartLoginOptions = 0;
+        for (SmartLoginOption option : appSettings.getSmartLoginOptions()) {
+            smartLoginOptions |= option.getValue();
+        }
+        output.writeLong(smartLoginOptions);
+        output.writeBoolean(appSettings.getAutomaticLoggingEnabled());
+        writeString(output, appSettings.getSmartLoginBookmarkIconURL());
+        writeString(output, appSettings.getSmartLoginMenuIconURL());
+        output.writeBoolean(appSettings.getIAPAutomaticLoggingEnabled());
+        output.writeBoolean(appSettings.getCodelessEventsEnabled());
+        writeString(output, appSettings.getSdkUpdateMessage());
+
+        writeSection(output, encodeDialogConfigurations(appSettings.getDialogConfigurations()));
+        writeSection(output, encodeErrorClassification(appSettings.getErrorClassification()));
+        JSONArray eventBindings = appSettings.getEventBindings();
+        writeSection(output, encodeString(eventBindings != null ? eventBindings.toString() : null));
+
+        output.flush();
+        return bytes.toByteArray();
+    }
+
+    static FetchedAppSettingsSnapshot decode(byte[] data) throws IOException {
+        ByteArrayInputStream bytes = new ByteArrayInputStream(data);
+        DataInputStream input = new DataInputStream(bytes);
+
+        if (input.readInt() != SNAPSHOT_VERSION) {
+            return null;
+        }
+        long fetchTime = input.readLong();
+
+        boolean supportsImplicitLogging = input.readBoolean();
+        String nuxContent = readString(input);
+        boolean nuxEnabled = input.readBoolean();
+        boolean customTabsEnabled = input.readBoolean();
+        int sessionTimeoutInSeconds = input.readInt();
+        EnumSet<SmartLoginOption> smartLoginOptions =
+                SmartLoginOption.parseOptions(input.readLong());
+        boolean automaticLoggingEnabled = input.readBoolean();
+        String smartLoginBookmarkIconURL = readString(input);
+        String smartLoginMenuIconURL = readString(input);
+        boolean IAPAutomaticLoggingEnabled = input.readBoolean();
+        boolean codelessEventsEnabled = input.readBoolean();
+        String sdkUpdateMessage = readString(input);
+
+        Sections sections = new Sections(data);
+        sections.dialogConfigurationsOffset = skipSection(input, bytes, data.length);
+        sections.errorClassificationOffset = skipSection(input, bytes, data.length);
+        sections.eventBindingsOffset = skipSection(input, bytes, data.length);
+
+        FetchedAppSettings appSettings = new FetchedAppSettings(
+                supportsImplicitLogging,
+                nuxContent,
+                nuxEnabled,
+                customTabsEnabled,
+                sessionTimeoutInSeconds,
+                smartLoginOptions,
+                null,
+                automaticLoggingEnabled,
+                null,
+                smartLoginBookmarkIconURL,
+                smartLoginMenuIconURL,
+                IAPAutomaticLoggingEnabled,
+                codelessEventsEnabled,
+                null,
+                sdkUpdateMessage);
+        appSettings.setLazySections(sections);
+
+        return new FetchedAppSettingsSnapshot(appSettings, fetchTime);
+    }
+
+    // The undecoded sections of a snapshot.  Each section's offset points just past its length.
+    static final class Sections {
+        private final byte[] data;
+        private int dialogConfigurationsOffset;
+        private int errorClassificationOffset;
+        private int eventBindingsOffset;
+
+        private Sections(byte[] data) {
+            this.data = data;
+        }
+
+        Map<String, Map<String, FetchedAppSettings.DialogFeatureConfig>>
+                decodeDialogConfigurations() {
+            Map<String, Map<String, FetchedAppSettings.DialogFeatureConfig>> dialogConfigMap =
+                    new HashMap<String, Map<String, FetchedAppSettings.DialogFeatureConfig>>();
+            try {
+                DataInputStream input = openSection(dialogConfigurationsOffset);
+                int count = input.readInt();
+                for (int i = 0; i < count; i++) {
+                    String dialogName = readString(input);
+                    String featureName = readString(input);
+                    String urlString = readString(input);
+                    int[] versionSpec = null;
+                    int versionCount = input.readInt();
+                    if (versionCount >= 0) {
+                        versionSpec = new int[versionCount];
+                        for (int j = 0; j < versionCount; j++) {
+                            versionSpec[j] = input.readInt();
+                        }
+                    }
+
+                    Map<String, FetchedAppSettings.DialogFeatureConfig> featureMap =
+                            dialogConfigMap.get(dialogName);
+                    if (featureMap == null) {
+                        featureMap = new HashMap<String, FetchedAppSettings.DialogFeatureConfig>();
+                        dialogConfigMap.put(dialogName, featureMap);
+                    }
+                    featureMap.put(featureName, new FetchedAppSettings.DialogFeatureConfig(
+                            dialogName,
+                            featureName,
+                            urlString != null ? Uri.parse(urlString) : null,
+                            versionSpec));
+                }
+            } catch (IOException e) {
+                Utility.logd(TAG, e);
+            }
+            return dialogConfigMap;
+        }
+
+        FacebookRequestErrorClassification decodeErrorClassification() {
+            try {
+                DataInputStream input = openSection(errorClassificationOffset);
+                if (input.readBoolean()) {
+                    return FacebookRequestErrorClassification.getDefaultErrorClassification();
+                }
+                return new FacebookRequestErrorClassification(
+                        readErrorMap(input),
+                        readErrorMap(input),
+                        readErrorMap(input),
+                        readString(input),
+                        readString(input),
+                        readString(input));
+            } catch (IOException e) {
+                Utility.logd(TAG, e);
+                return FacebookRequestErrorClassification.getDefaultErrorClassification();
+            }
+        }
+
+        JSONArray decodeEventBindings() {
+            try {
+                String eventBindings = readString(openSection(eventBindingsOffset));
+                return eventBindings != null ? new JSONArray(eventBindings) : null;
+            } catch (IOException e) {
+                Utility.logd(TAG, e);
+            } catch (JSONException e) {
+                Utility.logd(TAG, e);
+            }
+            return null;
+        }
+
+        private DataInputStream openSection(int offset) {
+            return new DataInputStream(
+                    new ByteArrayInputStream(data, offset, data.length - offset));
+        }
+    }
+
+    private static byte[] encodeDialogConfigurations(
+            Map<String, Map<String, FetchedAppSettings.DialogFeatureConfig>> dialogConfigMap)
+            throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(bytes);
+
+        int count = 0;
+        for (Map<String, FetchedAppSettings.DialogFeatureConfig> featureMap :
+                dialogConfigMap.values()) {
+            count += featureMap.size();
+        }
+        output.writeInt(count);
+        for (Map<String, FetchedAppSettings.DialogFeatureConfig> featureMap :
+                dialogConfigMap.values()) {
+            for (FetchedAppSettings.DialogFeatureConfig config : featureMap.values()) {
+                writeString(output, config.getDialogName());
+                writeString(output, config.getFeatureName());
+                Uri fallbackUrl = config.getFallbackUrl();
+                writeString(output, fallbackUrl != null ? fallbackUrl.toString() : null);
+                int[] versionSpec = config.getVersionSpec();
+                if (versionSpec == null) {
+                    output.writeInt(-1);
+                } else {
+                    output.writeInt(versionSpec.length);
+                    for (int version : versionSpec) {
+                        output.writeInt(version);
+                    }
+                }
+            }
+        }
+
+        output.flush();
+        return bytes.toByteArray();
+    }
+
+    private static byte[] encodeErrorClassification(
+            FacebookRequestErrorClassification errorClassification) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(bytes);
+
+        boolean isDefault = errorClassification ==
+                FacebookRequestErrorClassification.getDefaultErrorClassification();
+        output.writeBoolean(isDefault);
+        if (!isDefault) {
+            writeErrorMap(output, errorClassification.getOtherErrors());
+            writeErrorMap(output, errorClassification.getTransientErrors());
+            writeErrorMap(output, errorClassification.getLoginRecoverableErrors());
+            writeString(output, errorClassification.getRecoveryMessage(
+                    FacebookRequestError.Category.OTHER));
+            writeString(output, errorClassification.getRecoveryMessage(
+                    FacebookRequestError.Category.TRANSIENT));
+            writeString(output, errorClassification.getRecoveryMessage(
+                    FacebookRequestError.Category.LOGIN_RECOVERABLE));
+        }
+
+        output.flush();
+        return bytes.toByteArray();
+    }
+
+    private static byte[] encodeString(String value) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(bytes);
+        writeString(output, value);
+        output.flush();
+        return bytes.toByteArray();
+    }
+
+    // A null map means the category has no codes; a null set means every subcode matches.
+    private static void writeErrorMap(DataOutputStream output, Map<Integer, Set<Integer>> errors)
+            throws IOException {
+        if (errors == null) {
+            output.writeInt(-1);
+            return;
+        }
+        output.writeInt(errors.size());
+        for (Map.Entry<Integer, Set<Integer>> entry : errors.entrySet()) {
+            output.writeInt(entry.getKey());
+            Set<Integer> subcodes = entry.getValue();
+            if (subcodes == null) {
+                output.writeInt(-1);
+            } else {
+                output.writeInt(subcodes.size());
+                for (Integer subcode : subcodes) {
+                    output.writeInt(subcode);
+                }
+            }
+        }
+    }
+
+    private static Map<Integer, Set<Integer>> readErrorMap(DataInputStream input)
+            throws IOException {
+        int count = input.readInt();
+        if (count < 0) {
+            return null;
+        }
+        Map<Integer, Set<Integer>> errors = new HashMap<Integer, Set<Integer>>();
+        for (int i = 0; i < count; i++) {
+            int code = input.readInt();
+            Set<Integer> subcodes = null;
+            int subcodeCount = input.readInt();
+            if (subcodeCount >= 0) {
+                subcodes = new HashSet<Integer>();
+                for (int j = 0; j < subcodeCount; j++) {
+                    subcodes.add(input.readInt());
+                }
+            }
+            errors.put(code, subcodes);
+        }
+        return errors;
+    }
+
+    private static void writeSection(DataOutputStream output, byte[] section) throws IOException {
+        output.writeInt(section.length);
+        output.write(section);
+    }
+
+    // Returns the offset of the section's contents and leaves input positioned after it.
+    private static int skipSection(
+            DataInputStream input,
+            ByteArrayInputStream bytes,
+            int dataLength) throws IOException {
+        int length = input.readInt();
+        int offset = dataLength - bytes.available();
+        if (length < 0 || input.skipBytes(length) != length) {
+            throw new IOException("Truncated app settings snapshot");
+        }
+        return offset;
+    }
+
+    private static void writeString(DataOutputStream output, String value) throws IOException {
+        if (value == null) {
+            output.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(UTF8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    private static String readString(DataInputStream input) throws IOException {
+        int length = input.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        input.readFully(bytes);
+        return new String(bytes, UTF8);
+    }
+}
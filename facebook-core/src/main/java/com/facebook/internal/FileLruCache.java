@@ -30,9 +30,17 @@ import org.json.JSONObject;
 import org.json.JSONTokener;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.security.InvalidParameterException;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicLong;
 
 // This class is intended to be thread-safe.
@@ -58,6 +66,27 @@ import java.util.concurrent.atomic.AtomicLong;
 // the corresponding file has been deleted.  Given this and that cache files never change other than
 // deleting in trim() or clear(),  we only have to ensure that there is at most one trim() or
 // clear() process deleting files at any given time.
+//
+// Access recency is tracked in memory by default: get() only records the access time in
+// pendingAccessTimes, and the times are written back to the files' lastModified lazily on the
+// executor (once enough accesses have accumulated, or whenever trim() runs).  trim() merges the
+// pending times with lastModified so the LRU order is the same as if each get() had touched the
+// file, but a cache hit no longer pays for a synchronous metadata write.  Limits can opt back into
+// the old behavior of updating lastModified on every get().
+//
+// The cache can optionally be split into shards: subdirectories chosen by the hash of the cache
+// file name, each with its own share of the limits, its own lock and its own trim.  Writers that
+// land in different shards never wait on each other's trims, and each directory stays small.  A
+// single shard (the default) keeps the original flat layout, with the files directly in the cache
+// directory.  When the shard count changes, files from the previous layout are moved into the
+// shard they now belong to on the executor; until that finishes they are simply cache misses, and
+// clearCache() deletes them instead of letting the move bring them back.
+//
+// Which entries trim() removes is decided together with the EvictionPolicy in Limits.  Entries
+// written since the last trim are candidates: before evicting the least recently used entries to
+// make room for a candidate, trim() asks the policy whether the candidate is worth more than those
+// victims, and drops the candidate instead if it is not.  The default policy always admits, which
+// is plain LRU.  Anything still over quota after that is evicted in LRU order as before.
 
 /**
  * com.facebook.internal is solely for the use of other packages within the Facebook SDK for
@@ -68,28 +97,64 @@ public final class FileLruCache {
     static final String TAG = FileLruCache.class.getSimpleName();
     private static final String HEADER_CACHEKEY_KEY = "key";
     private static final String HEADER_CACHE_CONTENT_TAG_KEY = "tag";
+    private static final int ACCESS_TIME_FLUSH_THRESHOLD = 64;
+    // Entries at least this large are memory-mapped by getBuffer() rather than read onto the heap.
+    private static final int MAPPED_READ_THRESHOLD = 64 * 1024;
+    private static final int HEADER_READ_BUFFER_SIZE = 512;
+    private static final String SHARD_DIRECTORY_PREFIX = "shard";
 
     private static final AtomicLong bufferIndex = new AtomicLong();
 
     private final String tag;
     private final Limits limits;
     private final File directory;
-    private boolean isTrimPending;
-    private boolean isTrimInProgress;
-    private final Object lock;
+    private final Shard[] shards;
     private AtomicLong lastClearCacheTime = new AtomicLong(0);
+    // Orders clearCache() against migrateLayout() moving a file into a shard directory.
+    private final Object migrationLock = new Object();
+    private final AtomicLong lookupCount = new AtomicLong();
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+    private final AtomicLong rejectionCount = new AtomicLong();
 
     // The value of tag should be a final String that works as a directory name.
     public FileLruCache(String tag, Limits limits) {
         this.tag = tag;
         this.limits = limits;
         this.directory = new File(FacebookSdk.getCacheDir(), tag);
-        this.lock = new Object();
 
-        // Ensure the cache dir exists
+        int shardCount = limits.getShardCount();
+        this.shards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            File shardDirectory = (shardCount == 1)
+                    ? this.directory
+                    : new File(this.directory, getShardDirectoryName(shardCount, i));
+            this.shards[i] = new Shard(
+                    shardDirectory,
+                    divideRoundingUp(limits.getByteCount(), shardCount),
+                    divideRoundingUp(limits.getFileCount(), shardCount));
+        }
+
+        // Ensure the cache dirs exist
         if (this.directory.mkdirs() || this.directory.isDirectory()) {
             // Remove any stale partially-written files from a previous run
             BufferFile.deleteAll(this.directory);
+            if (shardCount > 1) {
+                for (Shard shard : shards) {
+                    if (shard.directory.mkdirs() || shard.directory.isDirectory()) {
+                        BufferFile.deleteAll(shard.directory);
+                    }
+                }
+            }
+
+            if (hasFilesFromOtherLayout()) {
+                FacebookSdk.getExecutor().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        migrateLayout();
+                    }
+                });
+            }
         }
     }
 
@@ -100,21 +165,25 @@ public final class FileLruCache {
     //
     // Also, since trim() runs asynchronously now, this blocks until any pending trim has completed.
     long sizeInBytesForTest() {
-        synchronized (lock) {
-            while (isTrimPending || isTrimInProgress) {
-                try {
-                    lock.wait();
-                } catch (InterruptedException e) {
-                    // intentional no-op
+        long total = 0;
+        for (Shard shard : shards) {
+            synchronized (shard.lock) {
+                while (shard.isTrimPending ||
+                        shard.isTrimInProgress ||
+                        shard.isAccessTimeFlushPending) {
+                    try {
+                        shard.lock.wait();
+                    } catch (InterruptedException e) {
+                        // intentional no-op
+                    }
                 }
             }
-        }
 
-        File[] files = this.directory.listFiles();
-        long total = 0;
-        if (files != null) {
-            for (File file : files) {
-                total += file.length();
+            File[] files = shard.directory.listFiles(BufferFile.excludeShardDirectories());
+            if (files != null) {
+                for (File file : files) {
+                    total += file.length();
+                }
             }
         }
         return total;
@@ -125,7 +194,8 @@ public final class FileLruCache {
     }
 
     public InputStream get(String key, String contentTag) throws IOException {
-        File file = new File(this.directory, Utility.md5hash(key));
+        File file = getFile(key);
+        onLookup(file);
 
         FileInputStream input;
         try {
@@ -139,30 +209,11 @@ public final class FileLruCache {
         boolean success = false;
 
         try {
-            JSONObject header = StreamHeader.readHeader(buffered);
-            if (header == null) {
-                return null;
-            }
-
-            String foundKey = header.optString(HEADER_CACHEKEY_KEY);
-            if ((foundKey == null) || !foundKey.equals(key)) {
+            if (!StreamHeader.readAndMatchHeader(buffered, key, contentTag)) {
                 return null;
             }
 
-            String headerContentTag = header.optString(HEADER_CACHE_CONTENT_TAG_KEY, null);
-
-            if ((contentTag == null && headerContentTag != null) ||
-                    (contentTag != null && !contentTag.equals(headerContentTag))) {
-                return null;
-            }
-
-            long accessTime = new Date().getTime();
-            Logger.log(
-                    LoggingBehavior.CACHE,
-                    TAG,
-                    "Setting lastModified to " + Long.valueOf(accessTime) + " for " +
-                            file.getName());
-            file.setLastModified(accessTime);
+            onEntryAccessed(file);
 
             success = true;
             return buffered;
@@ -173,12 +224,93 @@ public final class FileLruCache {
         }
     }
 
+    public ByteBuffer getBuffer(String key) throws IOException {
+        return getBuffer(key, null);
+    }
+
+    // Returns the entry's data, without the header, as a buffer positioned at the start of the
+    // data, or null if there is no matching entry.  Small entries are read onto the heap in a
+    // single read so the buffer has a backing array; large entries are memory-mapped.
+    public ByteBuffer getBuffer(String key, String contentTag) throws IOException {
+        File file = getFile(key);
+        onLookup(file);
+
+        FileInputStream input;
+        try {
+            input = new FileInputStream(file);
+        } catch (IOException e) {
+            return null;
+        }
+
+        try {
+            FileChannel channel = input.getChannel();
+            long fileLength = channel.size();
+            ByteBuffer buffer;
+            if (fileLength < MAPPED_READ_THRESHOLD) {
+                byte[] bytes = new byte[(int) fileLength];
+                int count = 0;
+                while (count < bytes.length) {
+                    int readCount = input.read(bytes, count, bytes.length - count);
+                    if (readCount < 1) {
+                        return null;
+                    }
+                    count += readCount;
+                }
+
+                ByteArrayInputStream bytesInput = new ByteArrayInputStream(bytes);
+                if (!StreamHeader.readAndMatchHeader(bytesInput, key, contentTag)) {
+                    return null;
+                }
+                int headerLength = bytes.length - bytesInput.available();
+                buffer = ByteBuffer.wrap(bytes, headerLength, bytes.length - headerLength).slice();
+            } else {
+                long headerLength = readMatchingHeaderLength(input, key, contentTag);
+                if (headerLength < 0) {
+                    return null;
+                }
+                // The mapping stays valid after the channel is closed.
+                buffer = channel.map(
+                        FileChannel.MapMode.READ_ONLY,
+                        headerLength,
+                        fileLength - headerLength);
+            }
+
+            onEntryAccessed(file);
+            return buffer;
+        } finally {
+            input.close();
+        }
+    }
+
+    // Returns the length of the entry's data, excluding the header, or -1 if there is no matching
+    // entry.
+    public long getEntryLength(String key, String contentTag) throws IOException {
+        File file = getFile(key);
+
+        FileInputStream input;
+        try {
+            input = new FileInputStream(file);
+        } catch (IOException e) {
+            return -1;
+        }
+
+        try {
+            long headerLength = readMatchingHeaderLength(input, key, contentTag);
+            if (headerLength < 0) {
+                return -1;
+            }
+            return input.getChannel().size() - headerLength;
+        } finally {
+            input.close();
+        }
+    }
+
     public OutputStream openPutStream(final String key) throws IOException {
         return openPutStream(key, null);
     }
 
     public OutputStream openPutStream(final String key, String contentTag) throws IOException {
-        final File buffer = BufferFile.newFile(this.directory);
+        final File buffer = BufferFile.newFile(getFile(key).getParentFile());
         buffer.delete();
         if (!buffer.createNewFile()) {
             throw new IOException("Could not create file at " + buffer.getAbsolutePath());
@@ -218,24 +350,10 @@ public final class FileLruCache {
 
         try {
             // Prefix the stream with the actual key, since there could be collisions
-            JSONObject header = new JSONObject();
-            header.put(HEADER_CACHEKEY_KEY, key);
-            if (!Utility.isNullOrEmpty(contentTag)) {
-                header.put(HEADER_CACHE_CONTENT_TAG_KEY, contentTag);
-            }
-
-            StreamHeader.writeHeader(buffered, header);
+            StreamHeader.writeHeader(buffered, key, contentTag);
 
             success = true;
             return buffered;
-        } catch (JSONException e) {
-            // JSON is an implementation detail of the cache, so don't let JSON exceptions out.
-            Logger.log(
-                    LoggingBehavior.CACHE,
-                    Log.WARN,
-                    TAG,
-                    "Error creating JSON header for cache file: " + e);
-            throw new IOException(e.getMessage());
         } finally {
             if (!success) {
                 buffered.close();
@@ -245,18 +363,57 @@ public final class FileLruCache {
 
     public void clearCache() {
         // get the current directory listing of files to delete
-        final File[] filesToDelete = directory.listFiles(BufferFile.excludeBufferFiles());
-        lastClearCacheTime.set(System.currentTimeMillis());
-        if (filesToDelete != null) {
-            FacebookSdk.getExecutor().execute(new Runnable() {
-                @Override
-                public void run() {
-                    for (File file : filesToDelete) {
-                        file.delete();
+        final File[][] filesToDelete = new File[shards.length][];
+        synchronized (migrationLock) {
+            for (int i = 0; i < shards.length; i++) {
+                filesToDelete[i] = shards[i].directory.listFiles(BufferFile.excludeBufferFiles());
+            }
+            lastClearCacheTime.set(System.currentTimeMillis());
+        }
+        for (Shard shard : shards) {
+            shard.pendingAccessTimes.clear();
+            shard.pendingCandidates.clear();
+        }
+        FacebookSdk.getExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                for (File[] shardFiles : filesToDelete) {
+                    if (shardFiles != null) {
+                        for (File file : shardFiles) {
+                            file.delete();
+                        }
                     }
                 }
-            });
-        }
+            }
+        });
+    }
+
+    // The number of get() and getBuffer() calls, hits and misses alike.
+    public long getLookupCount() {
+        return lookupCount.get();
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return lookupCount.get() - hitCount.get();
+    }
+
+    // The number of entries removed by trim() to stay within the limits.
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    // The number of newly written entries the eviction policy dropped instead of admitting.
+    public long getRejectionCount() {
+        return rejectionCount.get();
+    }
+
+    public double getHitRatio() {
+        long lookups = lookupCount.get();
+        return (lookups == 0) ? 0 : (double) hitCount.get() / lookups;
     }
 
     /**
@@ -268,7 +425,7 @@ public final class FileLruCache {
     }
 
     private void renameToTargetAndTrim(String key, File buffer) {
-        final File target = new File(directory, Utility.md5hash(key));
+        final File target = getFile(key);
 
         // This is triggered by close().  By the time close() returns, the file should be cached, so
         // this needs to happen synchronously on this thread.
@@ -280,7 +437,9 @@ public final class FileLruCache {
             buffer.delete();
         }
 
-        postTrim();
+        Shard shard = getShard(target.getName());
+        shard.pendingCandidates.add(target.getName());
+        shard.postTrim();
     }
 
     // Opens an output stream for the key, and creates an input stream wrapper to copy
@@ -295,57 +454,335 @@ public final class FileLruCache {
         return "{FileLruCache:" + " tag:" + this.tag + " file:" + this.directory.getName() + "}";
     }
 
-    private void postTrim() {
-        synchronized (lock) {
-            if (!isTrimPending) {
-                isTrimPending = true;
-                FacebookSdk.getExecutor().execute(new Runnable() {
-                    @Override
-                    public void run() {
-                        trim();
-                    }
-                });
+    private File getFile(String key) {
+        String fileName = Utility.md5hash(key);
+        return new File(getShard(fileName).directory, fileName);
+    }
+
+    private Shard getShard(String fileName) {
+        if (shards.length == 1) {
+            return shards[0];
+        }
+        return shards[(fileName.hashCode() & Integer.MAX_VALUE) % shards.length];
+    }
+
+    // The shard count is part of the name, so directories from a layout with a different shard
+    // count never collide with the current ones and can be migrated wholesale.
+    private static String getShardDirectoryName(int shardCount, int index) {
+        return SHARD_DIRECTORY_PREFIX + shardCount + "_" + index;
+    }
+
+    private static int divideRoundingUp(int dividend, int divisor) {
+        return (int) (((long) dividend + divisor - 1) / divisor);
+    }
+
+    // Whether the cache directory holds anything migrateLayout() would move: directories of a
+    // different shard count, or, when sharded, files of the flat layout.
+    private boolean hasFilesFromOtherLayout() {
+        File[] children = this.directory.listFiles();
+        if (children == null) {
+            return false;
+        }
+        for (File child : children) {
+            String name = child.getName();
+            if (name.startsWith(SHARD_DIRECTORY_PREFIX)) {
+                if (!isCurrentShardDirectory(child)) {
+                    return true;
+                }
+            } else if (shards.length > 1 && !name.startsWith(BufferFile.FILE_NAME_PREFIX)) {
+                return true;
             }
         }
+        return false;
     }
 
-    private void trim() {
-        synchronized (lock) {
-            isTrimPending = false;
-            isTrimInProgress = true;
+    // Moves cache files left over from a layout with a different shard count into the shard they
+    // belong to now, and removes the old shard directories.
+    private void migrateLayout() {
+        File[] children = this.directory.listFiles();
+        if (children == null) {
+            return;
         }
-        try {
-            Logger.log(LoggingBehavior.CACHE, TAG, "trim started");
-            PriorityQueue<ModifiedFile> heap = new PriorityQueue<ModifiedFile>();
-            long size = 0;
-            long count = 0;
-            File[] filesToTrim =this.directory.listFiles(BufferFile.excludeBufferFiles());
-            if (filesToTrim != null) {
-                for (File file : filesToTrim) {
-                    ModifiedFile modified = new ModifiedFile(file);
-                    heap.add(modified);
-                    Logger.log(
-                            LoggingBehavior.CACHE,
-                            TAG,
-                            "  trim considering time=" + Long.valueOf(modified.getModified()) +
-                                    " name=" + modified.getFile().getName());
 
-                    size += file.length();
-                    count++;
+        boolean migrated = false;
+        for (File child : children) {
+            String name = child.getName();
+            if (name.startsWith(SHARD_DIRECTORY_PREFIX)) {
+                if (isCurrentShardDirectory(child)) {
+                    continue;
+                }
+                File[] files = child.listFiles(BufferFile.excludeBufferFiles());
+                if (files != null) {
+                    for (File file : files) {
+                        moveToCurrentShard(file);
+                    }
                 }
+                Utility.deleteDirectory(child);
+                migrated = true;
+            } else if (shards.length > 1 && !name.startsWith(BufferFile.FILE_NAME_PREFIX)) {
+                moveToCurrentShard(child);
+                migrated = true;
             }
+        }
 
-            while ((size > limits.getByteCount()) || (count > limits.getFileCount())) {
-                File file = heap.remove().getFile();
-                Logger.log(LoggingBehavior.CACHE, TAG, "  trim removing " + file.getName());
-                size -= file.length();
-                count--;
+        if (migrated) {
+            Logger.log(LoggingBehavior.CACHE, TAG, "migrated cache layout for " + this.tag);
+            for (Shard shard : shards) {
+                shard.postTrim();
+            }
+        }
+    }
+
+    private boolean isCurrentShardDirectory(File file) {
+        for (Shard shard : shards) {
+            if (shard.directory.equals(file)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // An entry written to the current layout since startup is newer than the one being migrated,
+    // so it wins.  Every file being migrated predates this cache, so once clearCache() has run
+    // none of them survive.
+    private void moveToCurrentShard(File file) {
+        File target = new File(getShard(file.getName()).directory, file.getName());
+        synchronized (migrationLock) {
+            if (lastClearCacheTime.get() > 0 || target.exists() || !file.renameTo(target)) {
                 file.delete();
             }
-        } finally {
+        }
+    }
+
+    // Reads the header from the start of input and returns its length, or -1 if it does not match.
+    // input is left at an unspecified position.
+    private static long readMatchingHeaderLength(InputStream input, String key, String contentTag)
+            throws IOException {
+        CountingInputStream counting = new CountingInputStream(
+                new BufferedInputStream(input, HEADER_READ_BUFFER_SIZE));
+        if (!StreamHeader.readAndMatchHeader(counting, key, contentTag)) {
+            return -1;
+        }
+        return counting.getCount();
+    }
+
+    private void onLookup(File file) {
+        lookupCount.incrementAndGet();
+        limits.getEvictionPolicy().recordAccess(file.getName());
+    }
+
+    private void onEntryAccessed(File file) {
+        hitCount.incrementAndGet();
+        long accessTime = new Date().getTime();
+        if (limits.getPersistAccessTimeOnRead()) {
+            Logger.log(
+                    LoggingBehavior.CACHE,
+                    TAG,
+                    "Setting lastModified to " + Long.valueOf(accessTime) + " for " +
+                            file.getName());
+            file.setLastModified(accessTime);
+        } else {
+            getShard(file.getName()).recordAccessTime(file.getName(), accessTime);
+        }
+    }
+
+    // One directory of the cache with its own share of the limits and its own trim state.  See the
+    // threading notes at the top of this class; they apply to each shard independently.
+    private final class Shard {
+        private final File directory;
+        private final int byteCount;
+        private final int fileCount;
+        private final Object lock = new Object();
+        private boolean isTrimPending;
+        private boolean isTrimInProgress;
+        private boolean isAccessTimeFlushPending;
+        private final ConcurrentHashMap<String, Long> pendingAccessTimes =
+                new ConcurrentHashMap<String, Long>();
+        private final ConcurrentLinkedQueue<String> pendingCandidates =
+                new ConcurrentLinkedQueue<String>();
+
+        Shard(File directory, int byteCount, int fileCount) {
+            this.directory = directory;
+            this.byteCount = byteCount;
+            this.fileCount = fileCount;
+        }
+
+        void recordAccessTime(String fileName, long accessTime) {
+            pendingAccessTimes.put(fileName, accessTime);
+            if (pendingAccessTimes.size() >= ACCESS_TIME_FLUSH_THRESHOLD) {
+                postFlushAccessTimes();
+            }
+        }
+
+        private void postFlushAccessTimes() {
             synchronized (lock) {
-                isTrimInProgress = false;
-                lock.notifyAll();
+                if (!isAccessTimeFlushPending) {
+                    isAccessTimeFlushPending = true;
+                    FacebookSdk.getExecutor().execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                flushAccessTimes();
+                            } finally {
+                                synchronized (lock) {
+                                    isAccessTimeFlushPending = false;
+                                    lock.notifyAll();
+                                }
+                            }
+                        }
+                    });
+                }
+            }
+        }
+
+        // Writes the in-memory access times back to the files so recency survives a restart.  An
+        // entry is only dropped if it was not updated by a concurrent get() in the meantime, and is
+        // kept if the file system refuses to update lastModified so trim() can still use it.
+        private void flushAccessTimes() {
+            for (Map.Entry<String, Long> entry : pendingAccessTimes.entrySet()) {
+                String fileName = entry.getKey();
+                Long accessTime = entry.getValue();
+                File file = new File(directory, fileName);
+                if (!file.exists()) {
+                    pendingAccessTimes.remove(fileName, accessTime);
+                    continue;
+                }
+
+                Logger.log(
+                        LoggingBehavior.CACHE,
+                        TAG,
+                        "Setting lastModified to " + accessTime + " for " + fileName);
+                if (file.lastModified() >= accessTime || file.setLastModified(accessTime)) {
+                    pendingAccessTimes.remove(fileName, accessTime);
+                }
+            }
+        }
+
+        private void evict(File file) {
+            Logger.log(LoggingBehavior.CACHE, TAG, "  trim removing " + file.getName());
+            file.delete();
+            pendingAccessTimes.remove(file.getName());
+            evictionCount.incrementAndGet();
+        }
+
+        private long getLastAccessTime(File file) {
+            long modified = file.lastModified();
+            Long accessTime = pendingAccessTimes.get(file.getName());
+            return (accessTime != null) ? Math.max(modified, accessTime) : modified;
+        }
+
+        void postTrim() {
+            synchronized (lock) {
+                if (!isTrimPending) {
+                    isTrimPending = true;
+                    FacebookSdk.getExecutor().execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            trim();
+                        }
+                    });
+                }
+            }
+        }
+
+        private void trim() {
+            synchronized (lock) {
+                isTrimPending = false;
+                isTrimInProgress = true;
+            }
+            try {
+                Logger.log(LoggingBehavior.CACHE, TAG, "trim started for " + directory.getName());
+                PriorityQueue<ModifiedFile> heap = new PriorityQueue<ModifiedFile>();
+                Map<String, ModifiedFile> candidates = new HashMap<String, ModifiedFile>();
+                for (String candidate = pendingCandidates.poll();
+                     candidate != null;
+                     candidate = pendingCandidates.poll()) {
+                    candidates.put(candidate, null);
+                }
+                long size = 0;
+                long count = 0;
+                File[] filesToTrim = directory.listFiles(BufferFile.excludeBufferFiles());
+                if (filesToTrim != null) {
+                    for (File file : filesToTrim) {
+                        ModifiedFile modified = new ModifiedFile(file, getLastAccessTime(file));
+                        heap.add(modified);
+                        if (candidates.containsKey(file.getName())) {
+                            candidates.put(file.getName(), modified);
+                        }
+                        Logger.log(
+                                LoggingBehavior.CACHE,
+                                TAG,
+                                "  trim considering time=" + Long.valueOf(modified.getModified()) +
+                                        " name=" + modified.getFile().getName());
+
+                        size += file.length();
+                        count++;
+                    }
+                }
+
+                EvictionPolicy evictionPolicy = limits.getEvictionPolicy();
+                for (ModifiedFile candidate : candidates.values()) {
+                    if ((size <= byteCount) && (count <= fileCount)) {
+                        break;
+                    }
+                    if (candidate == null) {
+                        // Already replaced or removed since it was written.
+                        continue;
+                    }
+
+                    // Find the least recently used entries that would have to go to make room.
+                    List<ModifiedFile> victims = new ArrayList<ModifiedFile>();
+                    List<ModifiedFile> skipped = new ArrayList<ModifiedFile>();
+                    List<String> victimNames = new ArrayList<String>();
+                    long victimsSize = 0;
+                    while (((size - victimsSize > byteCount) ||
+                            (count - victims.size() > fileCount)) && !heap.isEmpty()) {
+                        ModifiedFile entry = heap.remove();
+                        if (candidates.containsKey(entry.getFile().getName())) {
+                            skipped.add(entry);
+                            continue;
+                        }
+                        victims.add(entry);
+                        victimNames.add(entry.getFile().getName());
+                        victimsSize += entry.getFile().length();
+                    }
+                    heap.addAll(skipped);
+
+                    if (victims.isEmpty()) {
+                        continue;
+                    }
+                    if (evictionPolicy.shouldAdmit(candidate.getFile().getName(), victimNames)) {
+                        for (ModifiedFile victim : victims) {
+                            size -= victim.getFile().length();
+                            count--;
+                            evict(victim.getFile());
+                        }
+                    } else {
+                        heap.addAll(victims);
+                        heap.remove(candidate);
+                        File file = candidate.getFile();
+                        Logger.log(LoggingBehavior.CACHE, TAG, "  trim rejecting " + file.getName());
+                        size -= file.length();
+                        count--;
+                        file.delete();
+                        pendingAccessTimes.remove(file.getName());
+                        rejectionCount.incrementAndGet();
+                    }
+                }
+
+                while ((size > byteCount) || (count > fileCount)) {
+                    File file = heap.remove().getFile();
+                    size -= file.length();
+                    count--;
+                    evict(file);
+                }
+
+                flushAccessTimes();
+            } finally {
+                synchronized (lock) {
+                    isTrimInProgress = false;
+                    lock.notifyAll();
+                }
             }
         }
     }
@@ -355,7 +792,14 @@ public final class FileLruCache {
         private static final FilenameFilter filterExcludeBufferFiles = new FilenameFilter() {
             @Override
             public boolean accept(File dir, String filename) {
-                return !filename.startsWith(FILE_NAME_PREFIX);
+                return !filename.startsWith(FILE_NAME_PREFIX) &&
+                        !filename.startsWith(SHARD_DIRECTORY_PREFIX);
+            }
+        };
+        private static final FilenameFilter filterExcludeShardDirectories = new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String filename) {
+                return !filename.startsWith(SHARD_DIRECTORY_PREFIX);
             }
         };
         private static final FilenameFilter filterExcludeNonBufferFiles = new FilenameFilter() {
@@ -382,44 +826,135 @@ public final class FileLruCache {
             return filterExcludeNonBufferFiles;
         }
 
+        static FilenameFilter excludeShardDirectories() {
+            return filterExcludeShardDirectories;
+        }
+
         static File newFile(final File root) {
             String name = FILE_NAME_PREFIX + Long.valueOf(bufferIndex.incrementAndGet()).toString();
             return new File(root, name);
         }
     }
 
-    // Treats the first part of a stream as a header, reads/writes it as a JSON blob, and
-    // leaves the stream positioned exactly after the header.
+    // Treats the first part of a stream as a header identifying the cache entry, reads/writes it,
+    // and leaves the stream positioned exactly after the header.
     //
-    // The format is as follows:
+    // The current format is as follows:
     //     byte: meaning
     // ---------------------------------
-    //        0: version number
+    //        0: version number (1)
+    //      1-4: big-endian String.hashCode() of the key
+    //      5-8: big-endian UTF-8 key length
+    //      ...: UTF-8 key
+    //      ...: big-endian UTF-8 content tag length, or -1 if there is no content tag
+    //      ...: UTF-8 content tag
+    //      ...: stream data
+    //
+    // Entries written by earlier versions of the SDK use version 0, which is still read:
+    //        0: version number (0)
     //      1-3: big-endian JSON header blob size
     // 4-size+4: UTF-8 JSON header blob
     //      ...: stream data
     private static final class StreamHeader {
-        private static final int HEADER_VERSION = 0;
+        private static final int HEADER_VERSION_JSON = 0;
+        private static final int HEADER_VERSION_BINARY = 1;
+        private static final int NO_CONTENT_TAG = -1;
 
-        static void writeHeader(OutputStream stream, JSONObject header) throws IOException {
-            String headerString = header.toString();
-            byte[] headerBytes = headerString.getBytes();
+        static void writeHeader(OutputStream stream, String key, String contentTag)
+                throws IOException {
+            byte[] keyBytes = key.getBytes("UTF-8");
 
-            // Write version number and big-endian header size
-            stream.write(HEADER_VERSION);
-            stream.write((headerBytes.length >> 16) & 0xff);
-            stream.write((headerBytes.length >> 8) & 0xff);
-            stream.write((headerBytes.length >> 0) & 0xff);
+            stream.write(HEADER_VERSION_BINARY);
+            writeInt(stream, key.hashCode());
+            writeInt(stream, keyBytes.length);
+            stream.write(keyBytes);
 
-            stream.write(headerBytes);
+            if (Utility.isNullOrEmpty(contentTag)) {
+                writeInt(stream, NO_CONTENT_TAG);
+            } else {
+                byte[] contentTagBytes = contentTag.getBytes("UTF-8");
+                writeInt(stream, contentTagBytes.length);
+                stream.write(contentTagBytes);
+            }
         }
 
-        static JSONObject readHeader(InputStream stream) throws IOException {
+        // Returns true if the header was read successfully and matches the key and content tag.
+        static boolean readAndMatchHeader(InputStream stream, String key, String contentTag)
+                throws IOException {
             int version = stream.read();
-            if (version != HEADER_VERSION) {
-                return null;
+            try {
+                if (version == HEADER_VERSION_BINARY) {
+                    return readAndMatchBinaryHeader(stream, key, contentTag);
+                } else if (version == HEADER_VERSION_JSON) {
+                    return readAndMatchJSONHeader(stream, key, contentTag);
+                }
+            } catch (EOFException e) {
+                Logger.log(LoggingBehavior.CACHE, TAG,
+                        "readHeader: stream ended while reading header");
+            }
+            return false;
+        }
+
+        private static boolean readAndMatchBinaryHeader(
+                InputStream stream,
+                String key,
+                String contentTag) throws IOException {
+            if (readInt(stream) != key.hashCode()) {
+                return false;
+            }
+
+            byte[] keyBytes = key.getBytes("UTF-8");
+            if (readInt(stream) != keyBytes.length || !readAndMatchBytes(stream, keyBytes)) {
+                return false;
+            }
+
+            int contentTagLength = readInt(stream);
+            if (contentTagLength == NO_CONTENT_TAG || contentTag == null) {
+                return contentTagLength == NO_CONTENT_TAG && contentTag == null;
+            }
+
+            byte[] contentTagBytes = contentTag.getBytes("UTF-8");
+            return contentTagLength == contentTagBytes.length &&
+                    readAndMatchBytes(stream, contentTagBytes);
+        }
+
+        // Compares the bytes at the current position against expected without allocating a
+        // buffer for them.
+        private static boolean readAndMatchBytes(InputStream stream, byte[] expected)
+                throws IOException {
+            for (byte b : expected) {
+                int read = stream.read();
+                if (read == -1) {
+                    throw new EOFException();
+                }
+                if (read != (b & 0xff)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static boolean readAndMatchJSONHeader(
+                InputStream stream,
+                String key,
+                String contentTag) throws IOException {
+            JSONObject header = readJSONHeader(stream);
+            if (header == null) {
+                return false;
             }
 
+            String foundKey = header.optString(HEADER_CACHEKEY_KEY);
+            if ((foundKey == null) || !foundKey.equals(key)) {
+                return false;
+            }
+
+            String headerContentTag = header.optString(HEADER_CACHE_CONTENT_TAG_KEY, null);
+
+            return !((contentTag == null && headerContentTag != null) ||
+                    (contentTag != null && !contentTag.equals(headerContentTag)));
+        }
+
+        private static JSONObject readJSONHeader(InputStream stream) throws IOException {
             int headerSize = 0;
             for (int i = 0; i < 3; i++) {
                 int b = stream.read();
@@ -467,6 +1002,26 @@ public final class FileLruCache {
 
             return header;
         }
+
+        private static void writeInt(OutputStream stream, int value) throws IOException {
+            stream.write((value >> 24) & 0xff);
+            stream.write((value >> 16) & 0xff);
+            stream.write((value >> 8) & 0xff);
+            stream.write((value >> 0) & 0xff);
+        }
+
+        private static int readInt(InputStream stream) throws IOException {
+            int value = 0;
+            for (int i = 0; i < 4; i++) {
+                int b = stream.read();
+                if (b == -1) {
+                    throw new EOFException();
+                }
+                value <<= 8;
+                value += b & 0xff;
+            }
+            return value;
+        }
     }
 
     private static class CloseCallbackOutputStream extends OutputStream {
@@ -508,6 +1063,50 @@ public final class FileLruCache {
         }
     }
 
+    // Counts the bytes consumed from the wrapped stream, so the caller can tell where a header
+    // ended even though the underlying stream is buffered.
+    private static final class CountingInputStream extends FilterInputStream {
+        private long count;
+
+        CountingInputStream(InputStream input) {
+            super(input);
+        }
+
+        long getCount() {
+            return count;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int readCount = super.read(buffer, offset, length);
+            if (readCount > 0) {
+                count += readCount;
+            }
+            return readCount;
+        }
+
+        @Override
+        public long skip(long byteCount) throws IOException {
+            long skipped = super.skip(byteCount);
+            count += skipped;
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+
     private static final class CopyingInputStream extends InputStream {
         final InputStream input;
         final OutputStream output;
@@ -598,6 +1197,9 @@ public final class FileLruCache {
     public static final class Limits {
         private int byteCount;
         private int fileCount;
+        private boolean persistAccessTimeOnRead;
+        private int shardCount = 1;
+        private EvictionPolicy evictionPolicy = new LruEvictionPolicy();
 
         public Limits() {
             // A Samsung Galaxy Nexus can create 1k files in half a second.  By the time
@@ -619,6 +1221,18 @@ public final class FileLruCache {
             return fileCount;
         }
 
+        boolean getPersistAccessTimeOnRead() {
+            return persistAccessTimeOnRead;
+        }
+
+        int getShardCount() {
+            return shardCount;
+        }
+
+        EvictionPolicy getEvictionPolicy() {
+            return evictionPolicy;
+        }
+
         void setByteCount(int n) {
             if (n < 0) {
                 throw new InvalidParameterException("Cache byte-count limit must be >= 0");
@@ -632,6 +1246,50 @@ public final class FileLruCache {
             }
             fileCount = n;
         }
+
+        // When set, every get() updates the file's lastModified synchronously instead of tracking
+        // the access time in memory and flushing it lazily.
+        void setPersistAccessTimeOnRead(boolean persistAccessTimeOnRead) {
+            this.persistAccessTimeOnRead = persistAccessTimeOnRead;
+        }
+
+        // Splits the cache into n subdirectories, each limited to 1/n of the byte and file counts.
+        void setShardCount(int n) {
+            if (n < 1) {
+                throw new InvalidParameterException("Cache shard count must be >= 1");
+            }
+            shardCount = n;
+        }
+
+        void setEvictionPolicy(EvictionPolicy evictionPolicy) {
+            if (evictionPolicy == null) {
+                throw new InvalidParameterException("Cache eviction policy must not be null");
+            }
+            this.evictionPolicy = evictionPolicy;
+        }
+    }
+
+    // Decides, together with recency, which entries trim() keeps.  Implementations are shared by
+    // all shards of a cache and are called from multiple threads.
+    public interface EvictionPolicy {
+        // Called for every lookup of the cache file, whether it hits or misses.
+        void recordAccess(String fileName);
+
+        // Called when a newly written entry can only stay if the least recently used victims are
+        // evicted.  Returns true to evict the victims, or false to drop the new entry instead.
+        boolean shouldAdmit(String candidateFileName, List<String> victimFileNames);
+    }
+
+    // Always admits new entries, so eviction is purely least recently used.
+    public static final class LruEvictionPolicy implements EvictionPolicy {
+        @Override
+        public void recordAccess(String fileName) {
+        }
+
+        @Override
+        public boolean shouldAdmit(String candidateFileName, List<String> victimFileNames) {
+            return true;
+        }
     }
 
     // Caches the result of lastModified during sort/heap operations
@@ -642,9 +1300,9 @@ public final class FileLruCache {
         private final File file;
         private final long modified;
 
-        ModifiedFile(File file) {
+        ModifiedFile(File file, long modified) {
             this.file = file;
-            this.modified = file.lastModified();
+            this.modified = modified;
         }
 
         File getFile() {
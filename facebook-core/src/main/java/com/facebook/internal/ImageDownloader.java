@@ -33,6 +33,7 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.nio.ByteBuffer;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -191,24 +192,23 @@ public class ImageDownloader {
             RequestKey key,
             Context context,
             boolean allowCachedRedirects) {
-        InputStream cachedStream = null;
+        ByteBuffer cachedBuffer = null;
         boolean isCachedRedirect = false;
         if (allowCachedRedirects) {
             Uri redirectUri = UrlRedirectCache.getRedirectedUri(key.uri);
             if (redirectUri != null) {
-                cachedStream = ImageResponseCache.getCachedImageStream(redirectUri, context);
-                isCachedRedirect = cachedStream != null;
+                cachedBuffer = ImageResponseCache.getCachedImageBuffer(redirectUri, context);
+                isCachedRedirect = cachedBuffer != null;
             }
         }
 
         if (!isCachedRedirect) {
-            cachedStream = ImageResponseCache.getCachedImageStream(key.uri, context);
+            cachedBuffer = ImageResponseCache.getCachedImageBuffer(key.uri, context);
         }
 
-        if (cachedStream != null) {
+        if (cachedBuffer != null) {
             // We were able to find a cached image.
-            Bitmap bitmap = BitmapFactory.decodeStream(cachedStream);
-            Utility.closeQuietly(cachedStream);
+            Bitmap bitmap = decodeBitmap(cachedBuffer);
             issueResponse(key, null, bitmap, isCachedRedirect);
         } else {
             // Once the old downloader context is removed, we are thread-safe since this is the
@@ -220,6 +220,19 @@ public class ImageDownloader {
         }
     }
 
+    private static Bitmap decodeBitmap(ByteBuffer buffer) {
+        if (buffer.hasArray()) {
+            return BitmapFactory.decodeByteArray(
+                    buffer.array(),
+                    buffer.arrayOffset() + buffer.position(),
+                    buffer.remaining());
+        }
+
+        // Memory-mapped entries have no backing array. Stream them to the decoder rather than
+        // copying a large image onto the heap first.
+        return BitmapFactory.decodeStream(new ByteBufferInputStream(buffer.duplicate()));
+    }
+
     private static void download(RequestKey key, Context context) {
         HttpURLConnection connection = null;
         InputStream stream = null;
@@ -303,6 +316,45 @@ public class ImageDownloader {
         }
     }
 
+    // Reads a buffer, such as a memory-mapped cache entry, without copying it onto the heap.
+    static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (length == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, count);
+            return count;
+        }
+
+        @Override
+        public long skip(long count) {
+            int skipped = (int) Math.max(0, Math.min(count, buffer.remaining()));
+            buffer.position(buffer.position() + skipped);
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+
     private static class RequestKey {
         private static final int HASH_SEED = 29; // Some random prime number
         private static final int HASH_MULTIPLIER = 37; // Some random prime number
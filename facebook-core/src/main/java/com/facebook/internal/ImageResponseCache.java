@@ -29,6 +29,7 @@ import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.HttpURLConnection;
+import java.nio.ByteBuffer;
 
 /**
  * com.facebook.internal is solely for the use of other packages within the
@@ -65,6 +66,24 @@ class ImageResponseCache {
         return imageStream;
     }
 
+    // Get the cached image bytes, or return null if the image is not cached.
+    // Does not throw if there was an error.
+    static ByteBuffer getCachedImageBuffer(Uri uri, Context context) {
+        ByteBuffer imageBuffer = null;
+        if (uri != null) {
+            if (isCDNURL(uri)) {
+                try {
+                    FileLruCache cache = getCache(context);
+                    imageBuffer = cache.getBuffer(uri.toString());
+                } catch (IOException e) {
+                    Logger.log(LoggingBehavior.CACHE, Log.WARN, TAG, e.toString());
+                }
+            }
+        }
+
+        return imageBuffer;
+    }
+
     static InputStream interceptAndCacheImageStream(
             Context context,
             HttpURLConnection connection
@@ -20,8 +20,10 @@
 
 package com.facebook.internal;
 
+import android.content.ContentResolver;
 import android.graphics.Bitmap;
 import android.net.Uri;
+import android.os.ParcelFileDescriptor;
 import android.util.Log;
 
 import com.facebook.FacebookContentProvider;
@@ -30,10 +32,22 @@ import com.facebook.FacebookSdk;
 
 import java.io.*;
 import java.net.URLEncoder;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * com.facebook.internal is solely for the use of other packages within the Facebook SDK for
@@ -48,7 +62,24 @@ import java.util.UUID;
 public final class NativeAppCallAttachmentStore {
     private static final String TAG = NativeAppCallAttachmentStore.class.getName();
     static final String ATTACHMENTS_DIR_NAME = "com.facebook.NativeAppCallAttachmentStore.files";
+    // Written in place of a copy, and holds the path of the app file an attachment is served from.
+    private static final String PASS_THROUGH_MARKER_SUFFIX = ".passthrough";
+    // How long the content provider waits for an attachment that is still being staged.
+    private static final long OPEN_PENDING_ATTACHMENT_TIMEOUT_SECONDS = 30;
     private static File attachmentsDirectory;
+    private static final AtomicBoolean staleAttachmentsRemoved = new AtomicBoolean(false);
+
+    private static volatile Bitmap.CompressFormat bitmapCompressFormat =
+            Bitmap.CompressFormat.JPEG;
+    private static volatile int bitmapCompressQuality = 100;
+
+    // Attachments still being staged, and attachments served straight from the app's own files,
+    // keyed by call id and attachment name. The latter are also recorded in marker files, so they
+    // can still be served if the process is restarted while the Facebook app is using them.
+    private static final ConcurrentHashMap<String, Future<Void>> pendingAttachments =
+            new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, File> passThroughFiles =
+            new ConcurrentHashMap<>();
 
     private NativeAppCallAttachmentStore() {}
 
@@ -66,10 +97,29 @@ public final class NativeAppCallAttachmentStore {
         return new Attachment(callId, null, attachmentUri);
     }
 
-    private static void processAttachmentBitmap(Bitmap bitmap, File outputFile) throws IOException {
+    /**
+     * Sets how bitmap attachments are compressed. Defaults to JPEG at quality 100.
+     *
+     * @param format the format to compress bitmaps to
+     * @param quality the compression quality, from 0 to 100
+     */
+    public static void setBitmapCompression(Bitmap.CompressFormat format, int quality) {
+        Validate.notNull(format, "format");
+        if (quality < 0 || quality > 100) {
+            throw new IllegalArgumentException("quality must be between 0 and 100");
+        }
+        bitmapCompressFormat = format;
+        bitmapCompressQuality = quality;
+    }
+
+    private static void processAttachmentBitmap(
+            Bitmap bitmap,
+            Bitmap.CompressFormat format,
+            int quality,
+            File outputFile) throws IOException {
         FileOutputStream outputStream = new FileOutputStream(outputFile);
         try {
-            bitmap.compress(Bitmap.CompressFormat.JPEG, 100, outputStream);
+            bitmap.compress(format, quality, outputStream);
         } finally {
             Utility.closeQuietly(outputStream);
         }
@@ -81,68 +131,231 @@ public final class NativeAppCallAttachmentStore {
             File outputFile) throws IOException {
         FileOutputStream outputStream = new FileOutputStream(outputFile);
         try {
-            InputStream inputStream;
             if (!isContentUri) {
-                inputStream = new FileInputStream(imageUri.getPath());
-            } else {
-                inputStream = FacebookSdk
-                        .getApplicationContext()
-                        .getContentResolver()
-                        .openInputStream(imageUri);
+                copyFile(new FileInputStream(imageUri.getPath()), outputStream);
+                return;
             }
 
+            ContentResolver contentResolver =
+                    FacebookSdk.getApplicationContext().getContentResolver();
+            ParcelFileDescriptor descriptor;
+            try {
+                descriptor = contentResolver.openFileDescriptor(imageUri, "r");
+            } catch (FileNotFoundException e) {
+                // Providers serving part of a file ("Not a whole file") can still be streamed.
+                descriptor = null;
+            }
+            if (descriptor != null && descriptor.getStatSize() >= 0) {
+                copyFile(new ParcelFileDescriptor.AutoCloseInputStream(descriptor), outputStream);
+                return;
+            }
+            // Pipes can only be streamed.
+            if (descriptor != null) {
+                descriptor.close();
+            }
+            InputStream inputStream = contentResolver.openInputStream(imageUri);
             Utility.copyAndCloseInputStream(inputStream, outputStream);
         } finally {
             Utility.closeQuietly(outputStream);
         }
     }
 
+    private static void copyFile(FileInputStream inputStream, FileOutputStream outputStream)
+            throws IOException {
+        try {
+            // Let the kernel move the bytes rather than going through a heap buffer.
+            FileChannel source = inputStream.getChannel();
+            FileChannel destination = outputStream.getChannel();
+            long size = source.size();
+            long position = 0;
+            while (position < size) {
+                long transferred = source.transferTo(position, size - position, destination);
+                if (transferred <= 0) {
+                    break;
+                }
+                position += transferred;
+            }
+        } finally {
+            Utility.closeQuietly(inputStream);
+        }
+    }
+
+    private static File getPassThroughFile(Attachment attachment) {
+        if (attachment.originalUri == null || attachment.isContentUri) {
+            return null;
+        }
+        File file = new File(attachment.originalUri.getPath());
+        return file.isFile() && file.canRead() ? file : null;
+    }
+
+    private static void writePassThroughMarker(File marker, File passThroughFile)
+            throws IOException {
+        FileOutputStream outputStream = new FileOutputStream(marker);
+        try {
+            outputStream.write(passThroughFile.getAbsolutePath().getBytes("UTF-8"));
+        } finally {
+            Utility.closeQuietly(outputStream);
+        }
+    }
+
+    private static File readPassThroughMarker(File marker) {
+        if (marker == null || !marker.isFile()) {
+            return null;
+        }
+        try {
+            File file = new File(Utility.readStreamToString(new FileInputStream(marker)));
+            return file.isFile() && file.canRead() ? file : null;
+        } catch (IOException e) {
+            Log.e(TAG, "Got unexpected exception:" + e);
+            return null;
+        }
+    }
+
+    private static String getAttachmentKey(UUID callId, String attachmentName) {
+        return callId + "/" + attachmentName;
+    }
+
+    /**
+     * Stages the attachments so that the Facebook application can retrieve them, and waits until
+     * they are.
+     *
+     * @param attachments the attachments to stage
+     * @throws FacebookException if an attachment could not be staged
+     */
     public static void addAttachments(Collection<Attachment> attachments) {
+        long startNanos = System.nanoTime();
+        Future<Void> staging = addAttachmentsAsync(attachments);
+        try {
+            staging.get();
+            DialogPreparationMetrics.recordAttachmentStaging(System.nanoTime() - startNanos);
+        } catch (InterruptedException exception) {
+            staging.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new FacebookException(exception);
+        } catch (ExecutionException exception) {
+            Throwable cause = exception.getCause();
+            Log.e(TAG, "Got unexpected exception:" + cause);
+            if (cause instanceof FacebookException) {
+                throw (FacebookException) cause;
+            }
+            throw new FacebookException(cause);
+        }
+    }
+
+    /**
+     * Stages the attachments in parallel on the SDK's executor. The content provider waits for an
+     * attachment that is still being staged, so a dialog can be presented before this completes.
+     * Should staging fail, every file staged by this call is removed, whether or not anyone waits
+     * on the returned future.
+     *
+     * @param attachments the attachments to stage
+     * @return a future completing once every attachment was staged
+     */
+    public static Future<Void> addAttachmentsAsync(Collection<Attachment> attachments) {
         if (attachments == null || attachments.size() == 0) {
-            return;
+            return new StagingFuture(
+                    new ArrayList<FutureTask<Void>>(),
+                    new ArrayList<File>(),
+                    new AtomicReference<Throwable>());
         }
 
         // If this is the first time we've been instantiated, clean up any existing attachments.
-        if (attachmentsDirectory == null) {
+        if (staleAttachmentsRemoved.compareAndSet(false, true)) {
             cleanupAllAttachments();
         }
 
         ensureAttachmentsDirectoryExists();
 
-        List<File> filesToCleanup = new ArrayList<>();
-
+        final Bitmap.CompressFormat format = bitmapCompressFormat;
+        final int quality = bitmapCompressQuality;
+        final List<FutureTask<Void>> tasks = new ArrayList<>();
+        final List<File> filesToCleanup = new ArrayList<>();
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
         try {
-            for (Attachment attachment : attachments) {
+            for (final Attachment attachment : attachments) {
                 if (!attachment.shouldCreateFile) {
                     continue;
                 }
 
-                File file = getAttachmentFile(
+                final String key = getAttachmentKey(attachment.callId, attachment.attachmentName);
+                File passThroughFile = getPassThroughFile(attachment);
+                if (passThroughFile != null) {
+                    // The provider can serve the app's own file as it is.
+                    File marker = getPassThroughMarkerFile(
+                            attachment.callId,
+                            attachment.attachmentName,
+                            true);
+                    filesToCleanup.add(marker);
+                    writePassThroughMarker(marker, passThroughFile);
+                    passThroughFiles.put(key, passThroughFile);
+                    continue;
+                }
+
+                final File file = getAttachmentFile(
                         attachment.callId,
                         attachment.attachmentName,
                         true);
                 filesToCleanup.add(file);
 
-                if (attachment.bitmap != null) {
-                    processAttachmentBitmap(attachment.bitmap, file);
-                } else if (attachment.originalUri != null) {
-                    processAttachmentFile(
-                            attachment.originalUri,
-                            attachment.isContentUri,
-                            file);
-                }
+                final int taskIndex = tasks.size();
+                FutureTask<Void> task = new FutureTask<>(new Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException {
+                        try {
+                            if (attachment.bitmap != null) {
+                                processAttachmentBitmap(attachment.bitmap, format, quality, file);
+                            } else if (attachment.originalUri != null) {
+                                processAttachmentFile(
+                                        attachment.originalUri,
+                                        attachment.isContentUri,
+                                        file);
+                            }
+                            return null;
+                        } catch (IOException | RuntimeException exception) {
+                            // Callers of addAttachmentsAsync may never wait on the staging, so
+                            // the first failing task abandons it and cleans up. Tasks are not
+                            // interrupted, as the caller's thread may be running one of them.
+                            if (failure.compareAndSet(null, exception)) {
+                                for (int i = 0; i < tasks.size(); i++) {
+                                    if (i != taskIndex) {
+                                        tasks.get(i).cancel(false);
+                                    }
+                                }
+                                deleteFiles(filesToCleanup);
+                            }
+                            throw exception;
+                        } finally {
+                            pendingAttachments.remove(key);
+                            if (failure.get() != null) {
+                                // Written after another task failed and cleaned up.
+                                file.delete();
+                            }
+                        }
+                    }
+                });
+                pendingAttachments.put(key, task);
+                tasks.add(task);
             }
         } catch (IOException exception) {
             Log.e(TAG, "Got unexpected exception:" + exception);
-            for (File file : filesToCleanup) {
-                try {
-                    file.delete();
-                } catch (Exception e) {
-                    // Always try to delete other files.
-                }
-            }
+            deleteFiles(filesToCleanup);
             throw new FacebookException(exception);
         }
+
+        for (FutureTask<Void> task : tasks) {
+            FacebookSdk.getExecutor().execute(task);
+        }
+        return new StagingFuture(tasks, filesToCleanup, failure);
+    }
+
+    private static void deleteFiles(List<File> files) {
+        for (File file : files) {
+            try {
+                file.delete();
+            } catch (Exception e) {
+                // Always try to delete other files.
+            }
+        }
     }
 
     /**
@@ -151,12 +364,24 @@ public final class NativeAppCallAttachmentStore {
      * @param callId the unique ID of the call
      */
     public static void cleanupAttachmentsForCall(UUID callId) {
+        String prefix = getAttachmentKey(callId, "");
+        removeKeysWithPrefix(passThroughFiles.keySet().iterator(), prefix);
+        removeKeysWithPrefix(pendingAttachments.keySet().iterator(), prefix);
+
         File dir = getAttachmentsDirectoryForCall(callId, false);
         if (dir != null) {
             Utility.deleteDirectory(dir);
         }
     }
 
+    private static void removeKeysWithPrefix(Iterator<String> keys, String prefix) {
+        while (keys.hasNext()) {
+            if (keys.next().startsWith(prefix)) {
+                keys.remove();
+            }
+        }
+    }
+
     public static File openAttachment(UUID callId, String attachmentName)
             throws FileNotFoundException {
         if (Utility.isNullOrEmpty(attachmentName) ||
@@ -164,7 +389,33 @@ public final class NativeAppCallAttachmentStore {
             throw new FileNotFoundException();
         }
 
+        // A process restarted while the Facebook app was using the attachments may serve them too.
+        getAttachmentsDirectory();
+
+        String key = getAttachmentKey(callId, attachmentName);
+        File passThroughFile = passThroughFiles.get(key);
+        if (passThroughFile != null) {
+            return passThroughFile;
+        }
+        Future<Void> pendingAttachment = pendingAttachments.get(key);
+        if (pendingAttachment != null) {
+            try {
+                pendingAttachment.get(OPEN_PENDING_ATTACHMENT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new FileNotFoundException();
+            } catch (ExecutionException | TimeoutException | CancellationException e) {
+                Log.e(TAG, "Attachment could not be staged: " + e);
+                throw new FileNotFoundException();
+            }
+        }
+
         try {
+            passThroughFile = readPassThroughMarker(
+                    getPassThroughMarkerFile(callId, attachmentName, false));
+            if (passThroughFile != null) {
+                return passThroughFile;
+            }
             return getAttachmentFile(callId, attachmentName, false);
         } catch (IOException e) {
             // We don't try to create the file, so we shouldn't get any IOExceptions. But if we do,
@@ -217,13 +468,110 @@ public final class NativeAppCallAttachmentStore {
         }
     }
 
+    static File getPassThroughMarkerFile(
+            UUID callId,
+            String attachmentName,
+            boolean createDirs
+    ) throws IOException {
+        File file = getAttachmentFile(callId, attachmentName, createDirs);
+        return file != null ? new File(file.getPath() + PASS_THROUGH_MARKER_SUFFIX) : null;
+    }
+
+    static void clearMemoryForTest() {
+        passThroughFiles.clear();
+    }
+
     public static void cleanupAllAttachments() {
         // Attachments directory may or may not exist; we won't create it if not, since we are just
         // going to delete it.
+        passThroughFiles.clear();
         File dir = getAttachmentsDirectory();
         Utility.deleteDirectory(dir);
     }
 
+    /**
+     * Completes once every staging task has. Waiting on it runs the tasks that haven't started
+     * yet on the waiting thread, so that waiting from the executor itself cannot starve.
+     */
+    private static final class StagingFuture implements Future<Void> {
+        private final List<FutureTask<Void>> tasks;
+        private final List<File> files;
+        private final AtomicReference<Throwable> failure;
+
+        StagingFuture(
+                List<FutureTask<Void>> tasks,
+                List<File> files,
+                AtomicReference<Throwable> failure) {
+            this.tasks = tasks;
+            this.files = files;
+            this.failure = failure;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean canceled = false;
+            for (FutureTask<Void> task : tasks) {
+                canceled |= task.cancel(mayInterruptIfRunning);
+            }
+            return canceled;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            for (FutureTask<Void> task : tasks) {
+                if (task.isCancelled()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public boolean isDone() {
+            for (FutureTask<Void> task : tasks) {
+                if (!task.isDone()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public Void get() throws InterruptedException, ExecutionException {
+            try {
+                return get(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                throw new ExecutionException(e);
+            }
+        }
+
+        @Override
+        public Void get(long timeout, TimeUnit unit)
+                throws InterruptedException, ExecutionException, TimeoutException {
+            long deadline = System.nanoTime() + Math.min(unit.toNanos(timeout), Long.MAX_VALUE / 2);
+            try {
+                // Help from the back of the list while the executor works from the front. Running a
+                // task the executor already started is a no-op.
+                for (int i = tasks.size() - 1; i >= 0; i--) {
+                    tasks.get(i).run();
+                }
+                for (FutureTask<Void> task : tasks) {
+                    task.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                }
+                return null;
+            } catch (ExecutionException | CancellationException e) {
+                cancel(false);
+                deleteFiles(files);
+                // Tasks canceled because another one failed report that failure.
+                Throwable cause = failure.get();
+                if (cause != null) {
+                    throw new ExecutionException(cause);
+                }
+                throw e;
+            }
+        }
+    }
+
     public static final class Attachment {
         private final UUID callId;
         private final String attachmentUrl;
@@ -0,0 +1,190 @@
+/**
+ * Copyright (c) 2014-present, Facebook, Inc. All rights reserved.
+ *
+ * You are hereby granted a non-exclusive, worldwide, royalty-free license to use,
+ * copy, modify, and distribute this software in source code or binary form for use
+ * in connection with the web services and APIs provided by Facebook.
+ *
+ * As with any software that integrates with the Facebook platform, your use of
+ * this software is subject to the Facebook Developer Principles and Policies
+ * [http://developers.facebook.com/policy/]. This copyright notice shall be
+ * included in all copies or substantial portions of the software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.facebook.internal;
+
+import android.content.SharedPreferences;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.text.TextUtils;
+
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Remembers which native protocol versions each Facebook app supports, so that dialog feature
+// checks are answered from memory instead of querying the app's content provider every launch.
+//
+// Entries are persisted as "<version code>;<probe time>;<comma separated versions>" and keyed by
+// package name. The installed version code is part of the entry: a refresh only re-probes the
+// provider when the app was installed, updated or removed since the last probe, or when the entry
+// is older than the TTL. Apps that aren't installed are recorded with version code -1 and no
+// versions, without touching their provider at all. An installed app whose provider reported no
+// versions is only remembered in memory, and only briefly, as the provider may just have been
+// slow or busy.
+final class NativeAppVersionCache {
+    static final int NOT_INSTALLED = -1;
+    private static final int UNKNOWN_VERSION_CODE = -2;
+    private static final long EMPTY_RESULT_TTL_MILLIS = 60 * 1000;
+
+    interface Prober {
+        TreeSet<Integer> probe(String packageName);
+    }
+
+    private static final String TAG = NativeAppVersionCache.class.getCanonicalName();
+    private static final String FIELD_SEPARATOR = ";";
+    private static final String VERSION_SEPARATOR = ",";
+
+    private final SharedPreferences preferences;
+    private final PackageManager packageManager;
+    private final Prober prober;
+    private final long ttlMillis;
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+    NativeAppVersionCache(
+            SharedPreferences preferences,
+            PackageManager packageManager,
+            Prober prober,
+            long ttlMillis) {
+        this.preferences = preferences;
+        this.packageManager = packageManager;
+        this.prober = prober;
+        this.ttlMillis = ttlMillis;
+    }
+
+    // Returns the last known versions for packageName from memory, or null if it has never been
+    // probed or the entry expired. App changes are left to refresh and invalidate, so this makes
+    // no IPC at all.
+    TreeSet<Integer> getCachedVersions(String packageName) {
+        Entry entry = getEntry(packageName);
+        if (entry == null || isExpired(entry)) {
+            return null;
+        }
+        return entry.versions;
+    }
+
+    // Re-probes packageName if its version code changed or its entry expired, or always if force
+    // is set, and returns the current versions.
+    TreeSet<Integer> refresh(String packageName, boolean force) {
+        int versionCode = getInstalledVersionCode(packageName);
+        Entry entry = getEntry(packageName);
+        if (!force && entry != null && isCurrent(entry, versionCode)) {
+            return entry.versions;
+        }
+
+        long now = System.currentTimeMillis();
+        TreeSet<Integer> versions = (versionCode == NOT_INSTALLED)
+                ? new TreeSet<Integer>()
+                : prober.probe(packageName);
+        entry = new Entry(versionCode, now, versions);
+        entries.put(packageName, entry);
+        if (isEmptyResult(entry)) {
+            preferences.edit().remove(packageName).apply();
+        } else {
+            preferences.edit().putString(packageName, entry.serialize()).apply();
+        }
+        return versions;
+    }
+
+    void invalidate(String packageName) {
+        entries.remove(packageName);
+        preferences.edit().remove(packageName).apply();
+    }
+
+    private boolean isCurrent(Entry entry, int installedVersionCode) {
+        return entry.versionCode == installedVersionCode && !isExpired(entry);
+    }
+
+    private boolean isExpired(Entry entry) {
+        long entryTtlMillis = isEmptyResult(entry)
+                ? Math.min(ttlMillis, EMPTY_RESULT_TTL_MILLIS)
+                : ttlMillis;
+        return System.currentTimeMillis() - entry.probeTime >= entryTtlMillis;
+    }
+
+    private static boolean isEmptyResult(Entry entry) {
+        return entry.versionCode != NOT_INSTALLED && entry.versions.isEmpty();
+    }
+
+    private Entry getEntry(String packageName) {
+        Entry entry = entries.get(packageName);
+        if (entry == null) {
+            entry = Entry.deserialize(preferences.getString(packageName, null));
+            if (entry != null) {
+                Entry existing = entries.putIfAbsent(packageName, entry);
+                if (existing != null) {
+                    entry = existing;
+                }
+            }
+        }
+        return entry;
+    }
+
+    private int getInstalledVersionCode(String packageName) {
+        try {
+            PackageInfo packageInfo = packageManager.getPackageInfo(packageName, 0);
+            return packageInfo != null ? packageInfo.versionCode : NOT_INSTALLED;
+        } catch (PackageManager.NameNotFoundException e) {
+            return NOT_INSTALLED;
+        } catch (RuntimeException e) {
+            // A dead package manager throws a DeadObjectException wrapped as a RuntimeException;
+            // probe anyway, and since this never matches a real version code, again next time.
+            Utility.logd(TAG, e);
+            return UNKNOWN_VERSION_CODE;
+        }
+    }
+
+    private static final class Entry {
+        final int versionCode;
+        final long probeTime;
+        final TreeSet<Integer> versions;
+
+        Entry(int versionCode, long probeTime, TreeSet<Integer> versions) {
+            this.versionCode = versionCode;
+            this.probeTime = probeTime;
+            this.versions = versions;
+        }
+
+        String serialize() {
+            return versionCode + FIELD_SEPARATOR + probeTime + FIELD_SEPARATOR
+                    + TextUtils.join(VERSION_SEPARATOR, versions);
+        }
+
+        static Entry deserialize(String value) {
+            if (value == null) {
+                return null;
+            }
+            String[] fields = value.split(FIELD_SEPARATOR, -1);
+            if (fields.length != 3) {
+                return null;
+            }
+            try {
+                TreeSet<Integer> versions = new TreeSet<>();
+                if (!fields[2].isEmpty()) {
+                    for (String version : fields[2].split(VERSION_SEPARATOR)) {
+                        versions.add(Integer.parseInt(version));
+                    }
+                }
+                return new Entry(Integer.parseInt(fields[0]), Long.parseLong(fields[1]), versions);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+    }
+}
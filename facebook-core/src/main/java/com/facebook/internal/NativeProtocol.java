@@ -20,9 +20,11 @@
 
 package com.facebook.internal;
 
+import android.content.BroadcastReceiver;
 import android.content.ContentResolver;
 import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.pm.PackageManager;
 import android.content.pm.ProviderInfo;
 import android.content.pm.ResolveInfo;
@@ -42,12 +44,23 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.TreeSet;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * com.facebook.internal is solely for the use of other packages within the Facebook SDK for
@@ -264,23 +277,23 @@ public final class NativeProtocol {
     // Columns returned by PlatformProvider
     private static final String PLATFORM_PROVIDER_VERSION_COLUMN = "version";
 
+    private static final String PROTOCOL_VERSIONS_PREFERENCES =
+            "com.facebook.internal.PROTOCOL_VERSIONS";
+    private static final long PROTOCOL_VERSIONS_TTL_MILLIS = 24 * 60 * 60 * 1000;
+    // How long a dialog feature check waits for apps that have never been probed.
+    private static final long PROTOCOL_VERSIONS_PROBE_TIMEOUT = 2000;
+    // A refresh whose probes haven't all finished after this long no longer keeps a new one from
+    // starting.
+    private static final long PROTOCOL_VERSIONS_REFRESH_TIMEOUT = 10000;
+
     private static abstract class NativeAppInfo {
         abstract protected String getPackage();
         abstract protected String getLoginActivity();
 
-        private TreeSet<Integer> availableVersions;
-
         public TreeSet<Integer> getAvailableVersions() {
-            if (availableVersions == null) {
-                fetchAvailableVersions(false);
-            }
-            return availableVersions;
-        }
-
-        private synchronized void fetchAvailableVersions(boolean force) {
-            if (force || availableVersions == null) {
-                availableVersions = fetchAllAvailableProtocolVersionsForAppInfo(this);
-            }
+            return getAvailableVersionsForPackage(
+                    getPackage(),
+                    System.currentTimeMillis() + PROTOCOL_VERSIONS_PROBE_TIMEOUT);
         }
     }
 
@@ -361,7 +374,13 @@ public final class NativeProtocol {
             buildEffectCameraAppInfoList();
     private static final Map<String, List<NativeAppInfo>> actionToAppInfoMap =
             buildActionToAppInfoMap();
-    private static final AtomicBoolean protocolVersionsAsyncUpdating = new AtomicBoolean(false);
+    // When the running refresh started, or 0 if none is running.
+    private static final AtomicLong protocolVersionsRefreshStartTime = new AtomicLong(0);
+    private static final AtomicBoolean packageChangeReceiverRegistered = new AtomicBoolean(false);
+    private static final ConcurrentHashMap<String, VersionProbe> pendingProbes =
+            new ConcurrentHashMap<>();
+    private static volatile long protocolVersionsRefreshTime;
+    private static NativeAppVersionCache versionCache;
 
     private static List<NativeAppInfo> buildFacebookAppList() {
         List<NativeAppInfo> list = new ArrayList<NativeAppInfo>();
@@ -842,11 +861,19 @@ public final class NativeProtocol {
             return ProtocolVersionQueryResult.createEmpty();
         }
 
+        // Apps missing from the cache are probed in parallel, and waited for together.
+        for (NativeAppInfo appInfo : appInfoList) {
+            if (getVersionCache().getCachedVersions(appInfo.getPackage()) == null) {
+                refreshAvailableVersionsAsync(appInfo.getPackage(), false);
+            }
+        }
+        long deadline = System.currentTimeMillis() + PROTOCOL_VERSIONS_PROBE_TIMEOUT;
+
         // Could potentially cache the NativeAppInfo to latestProtocolVersion
         for (NativeAppInfo appInfo : appInfoList) {
             int protocolVersion =
                     computeLatestAvailableVersionFromVersionSpec(
-                            appInfo.getAvailableVersions(),
+                            getAvailableVersionsForPackage(appInfo.getPackage(), deadline),
                             getLatestKnownVersion(),
                             versionSpec);
 
@@ -859,40 +886,232 @@ public final class NativeProtocol {
     }
 
     public static void updateAllAvailableProtocolVersionsAsync() {
-        if (!protocolVersionsAsyncUpdating.compareAndSet(false, true)) {
+        // Installs, updates and removals are picked up by the package broadcast receiver, so
+        // between those only an expired cache needs checking.
+        final long now = System.currentTimeMillis();
+        if (now - protocolVersionsRefreshTime < PROTOCOL_VERSIONS_TTL_MILLIS) {
+            return;
+        }
+        long runningRefreshStartTime = protocolVersionsRefreshStartTime.get();
+        if (runningRefreshStartTime != 0
+                && now - runningRefreshStartTime < PROTOCOL_VERSIONS_REFRESH_TIMEOUT) {
+            return;
+        }
+        if (!protocolVersionsRefreshStartTime.compareAndSet(runningRefreshStartTime, now)) {
             return;
         }
 
-        FacebookSdk.getExecutor().execute(new Runnable() {
+        registerPackageChangeReceiver();
+
+        // Nothing waits for the probes; the last one to finish completes the refresh. Slow probes
+        // keep running and update the cache when they finish.
+        Set<String> packages = getAllAppPackages();
+        if (packages.isEmpty()) {
+            protocolVersionsRefreshTime = now;
+            protocolVersionsRefreshStartTime.set(0);
+            return;
+        }
+        final AtomicInteger remainingProbes = new AtomicInteger(packages.size());
+        final AtomicBoolean anyProbeFailed = new AtomicBoolean(false);
+        for (String packageName : packages) {
+            refreshAvailableVersionsAsync(packageName, false).addListener(
+                    new VersionProbe.Listener() {
+                        @Override
+                        public void onProbeComplete(VersionProbe probe) {
+                            if (probe.getFailure() != null) {
+                                anyProbeFailed.set(true);
+                                Log.e(TAG,
+                                        "Failed to refresh protocol versions.",
+                                        probe.getFailure());
+                            }
+                            if (remainingProbes.decrementAndGet() != 0) {
+                                return;
+                            }
+                            if (!anyProbeFailed.get()) {
+                                protocolVersionsRefreshTime = System.currentTimeMillis();
+                            }
+                            protocolVersionsRefreshStartTime.compareAndSet(now, 0);
+                        }
+                    });
+        }
+    }
+
+    // Answers from the cache, or waits until deadline for a probe of an app missing from it. A
+    // probe that is still running then finishes in the background, and updates the cache.
+    private static TreeSet<Integer> getAvailableVersionsForPackage(
+            String packageName,
+            long deadline) {
+        TreeSet<Integer> versions = getVersionCache().getCachedVersions(packageName);
+        if (versions != null) {
+            return versions;
+        }
+
+        try {
+            return refreshAvailableVersionsAsync(packageName, false).get(
+                    Math.max(0, deadline - System.currentTimeMillis()),
+                    TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            Log.w(TAG, "Timed out probing protocol versions for " + packageName);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | CancellationException e) {
+            Log.e(TAG, "Failed to probe protocol versions for " + packageName, e);
+        }
+        return new TreeSet<>();
+    }
+
+    private static VersionProbe refreshAvailableVersionsAsync(
+            final String packageName,
+            final boolean force) {
+        VersionProbe probe = new VersionProbe(new Callable<TreeSet<Integer>>() {
             @Override
-            public void run() {
-                try {
-                    for (NativeAppInfo appInfo : facebookAppInfoList) {
-                        appInfo.fetchAvailableVersions(true);
-                    }
-                } finally {
-                    protocolVersionsAsyncUpdating.set(false);
+            public TreeSet<Integer> call() throws Exception {
+                return getVersionCache().refresh(packageName, force);
+            }
+        }) {
+            @Override
+            protected void done() {
+                if (!force) {
+                    pendingProbes.remove(packageName, this);
+                }
+                super.done();
+            }
+        };
+
+        // Forced refreshes follow a package change, so they must not piggyback on a probe that
+        // may have started before it.
+        if (!force) {
+            VersionProbe pendingProbe = pendingProbes.putIfAbsent(packageName, probe);
+            if (pendingProbe != null) {
+                return pendingProbe;
+            }
+        }
+        FacebookSdk.getExecutor().execute(probe);
+        return probe;
+    }
+
+    // A probe of one package's provider that tells listeners when it finishes, so the caller
+    // doesn't need a thread blocked on it.
+    private static class VersionProbe extends FutureTask<TreeSet<Integer>> {
+        interface Listener {
+            void onProbeComplete(VersionProbe probe);
+        }
+
+        private final List<Listener> listeners = new ArrayList<>();
+        private boolean isComplete;
+
+        VersionProbe(Callable<TreeSet<Integer>> callable) {
+            super(callable);
+        }
+
+        // Listeners added after the probe finished are called right away.
+        void addListener(Listener listener) {
+            synchronized (listeners) {
+                if (!isComplete) {
+                    listeners.add(listener);
+                    return;
+                }
+            }
+            listener.onProbeComplete(this);
+        }
+
+        Throwable getFailure() {
+            if (!isDone()) {
+                return null;
+            }
+            try {
+                get();
+                return null;
+            } catch (ExecutionException e) {
+                return e.getCause();
+            } catch (InterruptedException | CancellationException e) {
+                return e;
+            }
+        }
+
+        @Override
+        protected void done() {
+            List<Listener> listenersToCall;
+            synchronized (listeners) {
+                isComplete = true;
+                listenersToCall = new ArrayList<>(listeners);
+                listeners.clear();
+            }
+            for (Listener listener : listenersToCall) {
+                listener.onProbeComplete(this);
+            }
+        }
+    }
+
+    private static synchronized NativeAppVersionCache getVersionCache() {
+        if (versionCache == null) {
+            Context context = FacebookSdk.getApplicationContext();
+            versionCache = new NativeAppVersionCache(
+                    context.getSharedPreferences(
+                            PROTOCOL_VERSIONS_PREFERENCES, Context.MODE_PRIVATE),
+                    context.getPackageManager(),
+                    new NativeAppVersionCache.Prober() {
+                        @Override
+                        public TreeSet<Integer> probe(String packageName) {
+                            return fetchAllAvailableProtocolVersionsForPackage(packageName);
+                        }
+                    },
+                    PROTOCOL_VERSIONS_TTL_MILLIS);
+        }
+        return versionCache;
+    }
+
+    private static Set<String> getAllAppPackages() {
+        Set<String> packages = new HashSet<>();
+        for (NativeAppInfo appInfo : facebookAppInfoList) {
+            packages.add(appInfo.getPackage());
+        }
+        for (List<NativeAppInfo> appInfoList : actionToAppInfoMap.values()) {
+            for (NativeAppInfo appInfo : appInfoList) {
+                packages.add(appInfo.getPackage());
+            }
+        }
+        return packages;
+    }
+
+    private static void registerPackageChangeReceiver() {
+        if (!packageChangeReceiverRegistered.compareAndSet(false, true)) {
+            return;
+        }
+
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        filter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+        filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        filter.addDataScheme("package");
+        FacebookSdk.getApplicationContext().registerReceiver(new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                Uri data = intent.getData();
+                String packageName = data != null ? data.getSchemeSpecificPart() : null;
+                if (packageName != null && getAllAppPackages().contains(packageName)) {
+                    refreshAvailableVersionsAsync(packageName, true);
                 }
             }
-        });
+        }, filter);
     }
 
-    private static TreeSet<Integer> fetchAllAvailableProtocolVersionsForAppInfo(
-            NativeAppInfo appInfo) {
+    private static TreeSet<Integer> fetchAllAvailableProtocolVersionsForPackage(
+            String packageName) {
         TreeSet<Integer> allAvailableVersions = new TreeSet<>();
 
         Context appContext = FacebookSdk.getApplicationContext();
         ContentResolver contentResolver = appContext.getContentResolver();
 
         String [] projection = new String[]{ PLATFORM_PROVIDER_VERSION_COLUMN };
-        Uri uri = buildPlatformProviderVersionURI(appInfo);
+        Uri uri = buildPlatformProviderVersionURI(packageName);
         Cursor c = null;
         try {
             // First see if the base provider exists as a check for whether the native app is
             // installed. We do this prior to querying, to prevent errors from being output to
             // logcat saying that the provider was not found.
             PackageManager pm = FacebookSdk.getApplicationContext().getPackageManager();
-            String contentProviderName = appInfo.getPackage() + PLATFORM_PROVIDER;
+            String contentProviderName = packageName + PLATFORM_PROVIDER;
             ProviderInfo pInfo = null;
             try {
                 pInfo = pm.resolveContentProvider(contentProviderName, 0);
@@ -979,8 +1198,8 @@ public final class NativeProtocol {
         return NO_PROTOCOL_AVAILABLE;
     }
 
-    private static Uri buildPlatformProviderVersionURI(NativeAppInfo appInfo) {
-        return Uri.parse(CONTENT_SCHEME + appInfo.getPackage() + PLATFORM_PROVIDER_VERSIONS);
+    private static Uri buildPlatformProviderVersionURI(String packageName) {
+        return Uri.parse(CONTENT_SCHEME + packageName + PLATFORM_PROVIDER_VERSIONS);
     }
 
     public static class ProtocolVersionQueryResult {
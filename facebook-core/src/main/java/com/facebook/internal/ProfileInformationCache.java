@@ -20,27 +20,249 @@
 
 package com.facebook.internal;
 
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import com.facebook.AccessToken;
+import com.facebook.FacebookSdk;
+
+import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
  * com.facebook.internal is solely for the use of other packages within the Facebook SDK for
  * Android. Use of any of the classes in this package is unsupported, and they may be modified or
  * removed without warning at any time.
  *
- * Caches the profile information associated to a specific access token. This minimizes the number
- * of request we need to make to the server.
+ * Caches the profile information associated to a specific user of an application. This minimizes
+ * the number of request we need to make to the server.
  */
+// Entries are keyed by application id and user id rather than by access token so a refreshed
+// token for the same user still hits. Tokens are mapped to their user once a response has been
+// seen, or resolved through the current access token. Both maps are bounded and access ordered.
+// If the app opted in with FacebookSdk.setProfileInformationPersistenceEnabled, entries are also
+// mirrored to SharedPreferences so profile information is available right after a restart.
 class ProfileInformationCache {
-    final private static ConcurrentHashMap<String, JSONObject> infoCache =
-            new ConcurrentHashMap<>();
+    private static final String TAG = ProfileInformationCache.class.getSimpleName();
+    private static final String PREFERENCES_NAME =
+            "com.facebook.internal.PROFILE_INFORMATION_CACHE";
+    private static final String ID_KEY = "id";
+    private static final char ENTRY_SEPARATOR = ';';
+    static final int MAX_USERS = 16;
+    static final int MAX_TOKENS = 32;
+    static final long TTL_MILLIS = 24 * 60 * 60 * 1000L;
+
+    private static final LinkedHashMap<String, Entry> infoCache =
+            new LinkedHashMap<String, Entry>(MAX_USERS, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                    if (size() <= MAX_USERS) {
+                        return false;
+                    }
+                    removePersistedEntry(eldest.getKey());
+                    return true;
+                }
+            };
+    private static final LinkedHashMap<String, String> tokenToUserKey =
+            new LinkedHashMap<String, String>(MAX_TOKENS, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                    return size() > MAX_TOKENS;
+                }
+            };
+    private static boolean persistedEntriesLoaded;
 
     public static JSONObject getProfileInformation(String accessToken) {
-        return infoCache.get(accessToken);
+        if (accessToken == null) {
+            return null;
+        }
+        // Resolved outside the cache lock, loading the current token may touch the disk.
+        AccessToken currentAccessToken = getCurrentAccessToken(accessToken);
+        String currentUserKey = null;
+        if (currentAccessToken != null) {
+            currentUserKey = getUserKey(
+                    currentAccessToken.getApplicationId(),
+                    currentAccessToken.getUserId());
+        }
+        synchronized (ProfileInformationCache.class) {
+            String userKey = tokenToUserKey.get(accessToken);
+            if (userKey == null) {
+                userKey = currentUserKey;
+            }
+            return userKey != null ? getProfileInformationForUserKey(userKey) : null;
+        }
+    }
+
+    public static synchronized JSONObject getProfileInformation(
+            String applicationId,
+            String userId) {
+        return getProfileInformationForUserKey(getUserKey(applicationId, userId));
+    }
+
+    public static void putProfileInformation(String accessToken, JSONObject value) {
+        putProfileInformation(accessToken, value, System.currentTimeMillis());
+    }
+
+    static void putProfileInformation(
+            String accessToken,
+            JSONObject value,
+            long fetchTime) {
+        String userId = value != null ? value.optString(ID_KEY, null) : null;
+        if (accessToken == null || Utility.isNullOrEmpty(userId)) {
+            // Without the user id there is nothing we can key the information on.
+            return;
+        }
+        // Key the entry by the app the token belongs to, as getProfileInformation() does, so it
+        // can be read back even when that is not the app the SDK was initialized with.
+        AccessToken currentAccessToken = getCurrentAccessToken(accessToken);
+        String applicationId = currentAccessToken != null
+                ? currentAccessToken.getApplicationId()
+                : FacebookSdk.getApplicationId();
+        synchronized (ProfileInformationCache.class) {
+            loadPersistedEntries();
+            String userKey = getUserKey(applicationId, userId);
+            tokenToUserKey.put(accessToken, userKey);
+            infoCache.put(userKey, new Entry(value, fetchTime));
+            persistEntry(userKey, value, fetchTime);
+        }
+    }
+
+    // Returns the current access token if its token string is accessToken, or null.
+    private static AccessToken getCurrentAccessToken(String accessToken) {
+        AccessToken currentAccessToken = FacebookSdk.isInitialized()
+                ? AccessToken.getCurrentAccessToken()
+                : null;
+        if (currentAccessToken != null && accessToken.equals(currentAccessToken.getToken())) {
+            return currentAccessToken;
+        }
+        return null;
+    }
+
+    public static synchronized void clear() {
+        infoCache.clear();
+        tokenToUserKey.clear();
+        persistedEntriesLoaded = true;
+        SharedPreferences preferences = getPreferences();
+        if (preferences != null) {
+            preferences.edit().clear().apply();
+        }
+    }
+
+    static synchronized void clearMemoryForTest() {
+        infoCache.clear();
+        tokenToUserKey.clear();
+        persistedEntriesLoaded = false;
+    }
+
+    private static JSONObject getProfileInformationForUserKey(String userKey) {
+        loadPersistedEntries();
+        Entry entry = infoCache.get(userKey);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.isExpired(System.currentTimeMillis())) {
+            infoCache.remove(userKey);
+            removePersistedEntry(userKey);
+            return null;
+        }
+        return entry.value;
+    }
+
+    private static String getUserKey(String applicationId, String userId) {
+        return applicationId + "|" + userId;
+    }
+
+    private static void loadPersistedEntries() {
+        if (persistedEntriesLoaded || !FacebookSdk.isProfileInformationPersistenceEnabled()) {
+            return;
+        }
+        SharedPreferences preferences = getPreferences();
+        if (preferences == null) {
+            // Try again once the SDK has been initialized.
+            return;
+        }
+        persistedEntriesLoaded = true;
+
+        long now = System.currentTimeMillis();
+        SharedPreferences.Editor editor = null;
+        for (Map.Entry<String, ?> persisted : preferences.getAll().entrySet()) {
+            Entry entry = decodeEntry(persisted.getValue());
+            if (entry == null || entry.isExpired(now)) {
+                if (editor == null) {
+                    editor = preferences.edit();
+                }
+                editor.remove(persisted.getKey());
+                continue;
+            }
+            Entry existing = infoCache.get(persisted.getKey());
+            if (existing == null || existing.fetchTime < entry.fetchTime) {
+                infoCache.put(persisted.getKey(), entry);
+            }
+        }
+        if (editor != null) {
+            editor.apply();
+        }
+    }
+
+    private static void persistEntry(String userKey, JSONObject value, long fetchTime) {
+        if (!FacebookSdk.isProfileInformationPersistenceEnabled()) {
+            return;
+        }
+        SharedPreferences preferences = getPreferences();
+        if (preferences != null) {
+            preferences.edit()
+                    .putString(userKey, Long.toString(fetchTime) + ENTRY_SEPARATOR + value)
+                    .apply();
+        }
     }
 
-    public static void putProfileInformation(String key, JSONObject value) {
-        infoCache.put(key, value);
+    private static void removePersistedEntry(String userKey) {
+        SharedPreferences preferences = getPreferences();
+        if (preferences != null) {
+            preferences.edit().remove(userKey).apply();
+        }
+    }
+
+    private static Entry decodeEntry(Object persisted) {
+        if (!(persisted instanceof String)) {
+            return null;
+        }
+        String encoded = (String) persisted;
+        int separator = encoded.indexOf(ENTRY_SEPARATOR);
+        if (separator <= 0) {
+            return null;
+        }
+        try {
+            long fetchTime = Long.parseLong(encoded.substring(0, separator));
+            return new Entry(new JSONObject(encoded.substring(separator + 1)), fetchTime);
+        } catch (NumberFormatException | JSONException e) {
+            Utility.logd(TAG, e);
+            return null;
+        }
+    }
+
+    private static SharedPreferences getPreferences() {
+        if (!FacebookSdk.isInitialized()) {
+            return null;
+        }
+        return FacebookSdk.getApplicationContext()
+                .getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+    }
+
+    private static class Entry {
+        private final JSONObject value;
+        private final long fetchTime;
+
+        Entry(JSONObject value, long fetchTime) {
+            this.value = value;
+            this.fetchTime = fetchTime;
+        }
+
+        boolean isExpired(long now) {
+            return now - fetchTime >= TTL_MILLIS || now < fetchTime;
+        }
     }
 }
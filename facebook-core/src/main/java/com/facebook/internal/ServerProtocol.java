@@ -79,6 +79,10 @@ public final class ServerProtocol {
     private static final String GRAPH_URL_FORMAT = "https://graph.%s";
     private static final String GRAPH_API_VERSION = "v3.0";
 
+    // Pairs of {domain, url base}, rebuilt only when the domain changes.
+    private static volatile String[] cachedGraphUrlBase;
+    private static volatile String[] cachedGraphVideoUrlBase;
+
     public static final Collection<String> errorsProxyAuthDisabled =
             Utility.unmodifiableCollection("service_disabled", "AndroidAuthKillSwitchException");
     public static final Collection<String> errorsUserCanceled =
@@ -90,11 +94,23 @@ public final class ServerProtocol {
     }
 
     public static final String getGraphUrlBase() {
-        return String.format(GRAPH_URL_FORMAT, FacebookSdk.getFacebookDomain());
+        String domain = FacebookSdk.getFacebookDomain();
+        String[] cached = cachedGraphUrlBase;
+        if (cached == null || !Utility.areObjectsEqual(cached[0], domain)) {
+            cached = new String[] { domain, String.format(GRAPH_URL_FORMAT, domain) };
+            cachedGraphUrlBase = cached;
+        }
+        return cached[1];
     }
 
     public static final String getGraphVideoUrlBase() {
-        return String.format(GRAPH_VIDEO_URL_FORMAT, FacebookSdk.getFacebookDomain());
+        String domain = FacebookSdk.getFacebookDomain();
+        String[] cached = cachedGraphVideoUrlBase;
+        if (cached == null || !Utility.areObjectsEqual(cached[0], domain)) {
+            cached = new String[] { domain, String.format(GRAPH_VIDEO_URL_FORMAT, domain) };
+            cachedGraphVideoUrlBase = cached;
+        }
+        return cached[1];
     }
 
     public static final String getDefaultAPIVersion() {
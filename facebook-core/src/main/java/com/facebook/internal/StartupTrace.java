@@ -0,0 +1,159 @@
+/**
+ * Copyright (c) 2014-present, Facebook, Inc. All rights reserved.
+ *
+ * You are hereby granted a non-exclusive, worldwide, royalty-free license to use,
+ * copy, modify, and distribute this software in source code or binary form for use
+ * in connection with the web services and APIs provided by Facebook.
+ *
+ * As with any software that integrates with the Facebook platform, your use of
+ * this software is subject to the Facebook Developer Principles and Policies
+ * [http://developers.facebook.com/policy/]. This copyright notice shall be
+ * included in all copies or substantial portions of the software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.facebook.internal;
+
+import android.os.Debug;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+// Records how long each step of FacebookSdk initialization took, in wall clock and thread CPU
+// time, so the SDK's share of an app's cold start can be read off a device. Initialization has a
+// fixed handful of steps, so the trace is always on; the summary is logged in debug builds.
+
+/**
+ * com.facebook.internal is solely for the use of other packages within the Facebook SDK for
+ * Android. Use of any of the classes in this package is unsupported, and they may be modified or
+ * removed without warning at any time.
+ */
+public final class StartupTrace {
+    private static final String TAG = StartupTrace.class.getCanonicalName();
+    private static final long ORIGIN_NANOS = System.nanoTime();
+    private static final List<Step> steps = new ArrayList<>();
+
+    private StartupTrace() {
+    }
+
+    public static Section begin(String name) {
+        return new Section(name);
+    }
+
+    public static List<Step> getSteps() {
+        synchronized (steps) {
+            return Collections.unmodifiableList(new ArrayList<>(steps));
+        }
+    }
+
+    public static void logSummary() {
+        StringBuilder builder = new StringBuilder("Startup trace:");
+        for (Step step : getSteps()) {
+            builder.append("\n  ").append(step);
+        }
+        Utility.logd(TAG, builder.toString());
+    }
+
+    private static long threadCpuTimeNanos() {
+        try {
+            return Debug.threadCpuTimeNanos();
+        } catch (RuntimeException e) {
+            // Not available on every runtime.
+            return -1;
+        }
+    }
+
+    public static final class Section {
+        private final String name;
+        private final long startNanos;
+        private final long startCpuNanos;
+        private boolean ended;
+
+        private Section(String name) {
+            this.name = name;
+            this.startNanos = System.nanoTime();
+            this.startCpuNanos = threadCpuTimeNanos();
+        }
+
+        public void end() {
+            if (ended) {
+                return;
+            }
+            ended = true;
+
+            long endCpuNanos = threadCpuTimeNanos();
+            Step step = new Step(
+                    name,
+                    Thread.currentThread().getName(),
+                    startNanos - ORIGIN_NANOS,
+                    System.nanoTime() - startNanos,
+                    (startCpuNanos >= 0 && endCpuNanos >= 0) ? endCpuNanos - startCpuNanos : -1);
+            synchronized (steps) {
+                steps.add(step);
+            }
+        }
+    }
+
+    public static final class Step {
+        private final String name;
+        private final String threadName;
+        private final long startOffsetNanos;
+        private final long wallTimeNanos;
+        private final long cpuTimeNanos;
+
+        private Step(
+                String name,
+                String threadName,
+                long startOffsetNanos,
+                long wallTimeNanos,
+                long cpuTimeNanos) {
+            this.name = name;
+            this.threadName = threadName;
+            this.startOffsetNanos = startOffsetNanos;
+            this.wallTimeNanos = wallTimeNanos;
+            this.cpuTimeNanos = cpuTimeNanos;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getThreadName() {
+            return threadName;
+        }
+
+        // Time from the first traced step to the start of this one.
+        public long getStartOffsetNanos() {
+            return startOffsetNanos;
+        }
+
+        public long getWallTimeNanos() {
+            return wallTimeNanos;
+        }
+
+        // -1 if thread CPU time isn't available.
+        public long getCpuTimeNanos() {
+            return cpuTimeNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                    Locale.ROOT,
+                    "%s [%s] at +%.2fms: wall %.2fms, cpu %.2fms",
+                    name,
+                    threadName,
+                    startOffsetNanos / 1e6,
+                    wallTimeNanos / 1e6,
+                    cpuTimeNanos / 1e6);
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/**
+ * Copyright (c) 2014-present, Facebook, Inc. All rights reserved.
+ *
+ * You are hereby granted a non-exclusive, worldwide, royalty-free license to use,
+ * copy, modify, and distribute this software in source code or binary form for use
+ * in connection with the web services and APIs provided by Facebook.
+ *
+ * As with any software that integrates with the Facebook platform, your use of
+ * this software is subject to the Facebook Developer Principles and Policies
+ * [http://developers.facebook.com/policy/]. This copyright notice shall be
+ * included in all copies or substantial portions of the software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.facebook.internal;
+
+import java.util.List;
+
+// A TinyLFU admission policy for FileLruCache: it estimates how often each cache file has been
+// looked up recently with a count-min sketch, and only admits a new entry if it has been looked up
+// more often than every entry it would push out.  A one-off scan through many new keys therefore
+// can't flush entries that are used over and over.
+//
+// The sketch has four rows of 4-bit counters, stored as bytes for simplicity.  A key's estimate is
+// the minimum of its counters, which can only over-estimate because of collisions.  To let old
+// popularity fade, all counters are halved once the number of recorded accesses reaches ten times
+// the expected number of entries.
+
+/**
+ * com.facebook.internal is solely for the use of other packages within the Facebook SDK for
+ * Android. Use of any of the classes in this package is unsupported, and they may be modified or
+ * removed without warning at any time.
+ */
+public final class TinyLfuEvictionPolicy implements FileLruCache.EvictionPolicy {
+    private static final int DEPTH = 4;
+    private static final int MAX_COUNT = 15;
+    private static final int SAMPLE_SIZE_MULTIPLIER = 10;
+    private static final int[] SEEDS = {
+            0x97cb3127, 0xb492b66f, 0x9ae16a3b, 0xcbf29ce4
+    };
+
+    private final byte[][] counters;
+    private final int mask;
+    private final int sampleSize;
+    private int additions;
+
+    // expectedEntries should be about the file count limit of the cache.  Each row gets four
+    // counters per expected entry, rounded up to a power of two.
+    public TinyLfuEvictionPolicy(int expectedEntries) {
+        int width = Integer.highestOneBit(Math.max(expectedEntries, 16) - 1) << 3;
+        this.counters = new byte[DEPTH][width];
+        this.mask = width - 1;
+        this.sampleSize = Math.max(expectedEntries, 16) * SAMPLE_SIZE_MULTIPLIER;
+    }
+
+    @Override
+    public synchronized void recordAccess(String fileName) {
+        int hash = fileName.hashCode();
+        boolean incremented = false;
+        for (int i = 0; i < DEPTH; i++) {
+            int index = indexOf(hash, i);
+            if (counters[i][index] < MAX_COUNT) {
+                counters[i][index]++;
+                incremented = true;
+            }
+        }
+
+        if (incremented && ++additions >= sampleSize) {
+            reset();
+        }
+    }
+
+    @Override
+    public synchronized boolean shouldAdmit(
+            String candidateFileName,
+            List<String> victimFileNames) {
+        int candidateFrequency = frequency(candidateFileName);
+        for (String victimFileName : victimFileNames) {
+            if (frequency(victimFileName) >= candidateFrequency) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    synchronized int frequency(String fileName) {
+        int hash = fileName.hashCode();
+        int frequency = MAX_COUNT;
+        for (int i = 0; i < DEPTH; i++) {
+            frequency = Math.min(frequency, counters[i][indexOf(hash, i)]);
+        }
+        return frequency;
+    }
+
+    private int indexOf(int hash, int row) {
+        int h = hash * SEEDS[row];
+        h ^= h >>> 16;
+        return h & mask;
+    }
+
+    private void reset() {
+        for (byte[] row : counters) {
+            for (int i = 0; i < row.length; i++) {
+                row[i] >>= 1;
+            }
+        }
+        additions /= 2;
+    }
+}
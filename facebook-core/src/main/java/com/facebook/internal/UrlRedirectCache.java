@@ -25,9 +25,8 @@ import android.util.Log;
 import com.facebook.LoggingBehavior;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 
 /**
  * com.facebook.internal is solely for the use of other packages within the Facebook SDK for
@@ -37,12 +36,17 @@ import java.io.OutputStream;
 class UrlRedirectCache {
     static final String TAG = UrlRedirectCache.class.getSimpleName();
     private static final String REDIRECT_CONTENT_TAG = TAG + "_Redirect";
+    // Redirects are recorded from every image download thread, and each entry is only a URL, so
+    // splitting the budget across shards costs nothing while letting their trims run in parallel.
+    private static final int REDIRECT_CACHE_SHARD_COUNT = 4;
 
     private static FileLruCache urlRedirectCache;
 
     synchronized static FileLruCache getCache() throws IOException{
         if (urlRedirectCache == null) {
-            urlRedirectCache = new FileLruCache(TAG, new FileLruCache.Limits());
+            FileLruCache.Limits limits = new FileLruCache.Limits();
+            limits.setShardCount(REDIRECT_CACHE_SHARD_COUNT);
+            urlRedirectCache = new FileLruCache(TAG, limits);
         }
         return urlRedirectCache;
     }
@@ -53,34 +57,21 @@ class UrlRedirectCache {
         }
 
         String uriString = uri.toString();
-        InputStreamReader reader = null;
         try {
-            InputStream stream;
+            ByteBuffer buffer;
             FileLruCache cache = getCache();
             boolean redirectExists = false;
-            while ((stream = cache.get(uriString, REDIRECT_CONTENT_TAG)) != null) {
+            while ((buffer = cache.getBuffer(uriString, REDIRECT_CONTENT_TAG)) != null) {
                 redirectExists = true;
 
-                // Get the redirected url
-                reader = new InputStreamReader(stream);
-                char[] buffer = new char[128];
-                int bufferLength;
-                StringBuilder urlBuilder = new StringBuilder();
-                while ((bufferLength = reader.read(buffer, 0, buffer.length)) > 0) {
-                    urlBuilder.append(buffer, 0, bufferLength);
-                }
-                Utility.closeQuietly(reader);
-
                 // Iterate to the next url in the redirection
-                uriString = urlBuilder.toString();
+                uriString = Utility.readBufferToString(buffer);
             }
 
             if (redirectExists) {
                 return Uri.parse(uriString);
             }
         } catch (IOException ioe) {
-        } finally {
-            Utility.closeQuietly(reader);
         }
 
         return null;
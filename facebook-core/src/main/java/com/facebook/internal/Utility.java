@@ -28,6 +28,9 @@ import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.Environment;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.MessageQueue;
 import android.os.Parcel;
 import android.os.StatFs;
 import android.provider.OpenableColumns;
@@ -68,6 +71,8 @@ import java.math.BigInteger;
 import java.net.HttpURLConnection;
 import java.net.URLConnection;
 import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
@@ -121,6 +126,9 @@ public final class Utility {
     private static String deviceTimeZoneName = "";
     private static String carrierName = noCarrierConstant;
 
+    private static final Map<String, List<GraphMeRequestWithCacheCallback>>
+            pendingGraphMeRequests = new HashMap<>();
+
     // https://stackoverflow.com/questions/39784415/how-to-detect-programmatically-if-android-app-is-running-in-chrome-book-or-in
     private static final String ARC_DEVICE_PATTERN = ".+_cheets|cheets_.+";
 
@@ -500,6 +508,18 @@ public final class Utility {
         }
     }
 
+    // Decodes the remaining bytes of buffer as UTF-8 without changing its position.
+    public static String readBufferToString(ByteBuffer buffer) throws IOException {
+        if (buffer.hasArray()) {
+            return new String(
+                    buffer.array(),
+                    buffer.arrayOffset() + buffer.position(),
+                    buffer.remaining(),
+                    UTF8);
+        }
+        return Charset.forName(UTF8).decode(buffer.duplicate()).toString();
+    }
+
     public static int copyAndCloseInputStream(InputStream inputStream, OutputStream outputStream)
             throws IOException {
         BufferedInputStream bufferedInputStream = null;
@@ -594,6 +614,28 @@ public final class Utility {
         }
     }
 
+    // Runs runnable on the main thread the next time its queue goes idle. Called during start up
+    // this is after the first frame has been drawn, so deferred work stays off the cold start.
+    public static void runOnMainThreadWhenIdle(final Runnable runnable) {
+        final MessageQueue.IdleHandler idleHandler = new MessageQueue.IdleHandler() {
+            @Override
+            public boolean queueIdle() {
+                runnable.run();
+                return false;
+            }
+        };
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            Looper.myQueue().addIdleHandler(idleHandler);
+        } else {
+            new Handler(Looper.getMainLooper()).post(new Runnable() {
+                @Override
+                public void run() {
+                    Looper.myQueue().addIdleHandler(idleHandler);
+                }
+            });
+        }
+    }
+
     public static <T> boolean areObjectsEqual(T a, T b) {
         if (a == null) {
             return b == null;
@@ -970,16 +1012,37 @@ public final class Utility {
             return;
         }
 
+        // Callers asking for the same token while a request is outstanding share its response.
+        synchronized (pendingGraphMeRequests) {
+            List<GraphMeRequestWithCacheCallback> pending =
+                    pendingGraphMeRequests.get(accessToken);
+            if (pending != null) {
+                pending.add(callback);
+                return;
+            }
+            pending = new ArrayList<>();
+            pending.add(callback);
+            pendingGraphMeRequests.put(accessToken, pending);
+        }
+
         GraphRequest.Callback graphCallback = new GraphRequest.Callback() {
             @Override
             public void onCompleted(GraphResponse response) {
-                if (response.getError() != null) {
-                    callback.onFailure(response.getError().getException());
-                } else {
+                List<GraphMeRequestWithCacheCallback> callbacks;
+                synchronized (pendingGraphMeRequests) {
+                    callbacks = pendingGraphMeRequests.remove(accessToken);
+                }
+                if (response.getError() == null) {
                     ProfileInformationCache.putProfileInformation(
                             accessToken,
                             response.getJSONObject());
-                    callback.onSuccess(response.getJSONObject());
+                }
+                for (GraphMeRequestWithCacheCallback pendingCallback : callbacks) {
+                    if (response.getError() != null) {
+                        pendingCallback.onFailure(response.getError().getException());
+                    } else {
+                        pendingCallback.onSuccess(response.getJSONObject());
+                    }
                 }
             }
         };
@@ -1001,9 +1064,14 @@ public final class Utility {
             return null;
         }
 
+        ProfileInformationCache.putProfileInformation(accessToken, response.getJSONObject());
         return response.getJSONObject();
     }
 
+    public static void clearProfileInformationCache() {
+        ProfileInformationCache.clear();
+    }
+
     private static GraphRequest getGraphMeRequestWithCache(
             final String accessToken) {
         Bundle parameters = new Bundle();
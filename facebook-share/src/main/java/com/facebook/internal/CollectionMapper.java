@@ -22,6 +22,7 @@ package com.facebook.internal;
 
 import com.facebook.FacebookException;
 
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
@@ -32,57 +33,50 @@ import java.util.List;
  * unsupported, and they may be modified or removed without warning at any time.
  */
 public class CollectionMapper {
-    public static <T> void iterate(final Collection<T> collection,
-                                   final ValueMapper valueMapper,
-                                   final OnMapperCompleteListener onMapperCompleteListener) {
-        final Mutable<Boolean> didReturnError = new Mutable<Boolean>(false);
-        final Mutable<Integer> pendingJobCount = new Mutable<Integer>(1);
-        final OnMapperCompleteListener jobCompleteListener = new OnMapperCompleteListener() {
-            @Override
-            public void onComplete() {
-                if (didReturnError.value) {
-                    return;
-                }
-                if (--pendingJobCount.value == 0) {
-                    onMapperCompleteListener.onComplete();
-                }
-            }
+    /**
+     * Lets every value of the collection be mapped at once.
+     */
+    public static final int UNBOUNDED = Integer.MAX_VALUE;
 
-            @Override
-            public void onError(FacebookException exception) {
-                if (didReturnError.value) {
-                    return;
-                }
-                didReturnError.value = true;
-                onMapperCompleteListener.onError(exception);
-            }
-        };
+    public static <T> Mapping<T> iterate(final Collection<T> collection,
+                                         final ValueMapper valueMapper,
+                                         final OnMapperCompleteListener onMapperCompleteListener) {
+        return iterate(collection, valueMapper, onMapperCompleteListener, UNBOUNDED, null);
+    }
 
+    /**
+     * Maps every value of the collection and sets the mapped values back into it. Mappers may
+     * complete on any thread; calls to {@link Collection#set} are serialized, and the listeners
+     * are called on the thread that completed the last mapper, or failed one.
+     *
+     * @param collection the collection to map
+     * @param valueMapper the mapper to apply to each value
+     * @param onMapperCompleteListener told once when every value was mapped, or on the first
+     *                                 error, after which outstanding mappers are canceled
+     * @param maxConcurrentMappers how many values may be mapped at once
+     * @param onProgressListener told every time a value was mapped, can be null
+     * @return a handle to cancel the mapping with
+     */
+    public static <T> Mapping<T> iterate(final Collection<T> collection,
+                                         final ValueMapper valueMapper,
+                                         final OnMapperCompleteListener onMapperCompleteListener,
+                                         int maxConcurrentMappers,
+                                         OnProgressListener onProgressListener) {
         Iterator<T> keyIterator = collection.keyIterator();
         List<T> keys = new LinkedList<>();
         while (keyIterator.hasNext()) {
             keys.add(keyIterator.next());
         }
 
-        for (final T key : keys) {
-            final Object value = collection.get(key);
-            final OnMapValueCompleteListener onMapValueCompleteListener =
-                    new OnMapValueCompleteListener() {
-                        @Override
-                        public void onComplete(Object mappedValue) {
-                            collection.set(key, mappedValue, jobCompleteListener);
-                            jobCompleteListener.onComplete();
-                        }
-
-                        @Override
-                        public void onError(FacebookException exception) {
-                            jobCompleteListener.onError(exception);
-                        }
-                    };
-            pendingJobCount.value++;
-            valueMapper.mapValue(value, onMapValueCompleteListener);
-        }
-        jobCompleteListener.onComplete();
+        Mapping<T> mapping = new Mapping<>(
+                collection,
+                valueMapper,
+                onMapperCompleteListener,
+                onProgressListener,
+                keys,
+                maxConcurrentMappers);
+        mapping.start();
+        return mapping;
     }
 
     public static interface OnErrorListener {
@@ -95,6 +89,25 @@ public class CollectionMapper {
 
     public static interface OnMapValueCompleteListener extends OnErrorListener {
         public void onComplete(Object mappedValue);
+
+        /**
+         * Returns whether the mapping was canceled, in which case the value needn't be mapped.
+         */
+        public boolean isCanceled();
+
+        /**
+         * Sets the listener to call if the mapping is canceled while this value is being mapped.
+         * It is called right away if the mapping already was.
+         */
+        public void setOnCancelListener(OnCancelListener onCancelListener);
+    }
+
+    public static interface OnCancelListener {
+        public void onCancel();
+    }
+
+    public static interface OnProgressListener {
+        public void onProgress(int mappedCount, int totalCount);
     }
 
     public static interface ValueMapper {
@@ -107,5 +120,200 @@ public class CollectionMapper {
         public void set(T key, Object value, OnErrorListener onErrorListener);
     }
 
+    public static final class Mapping<T> {
+        private final Collection<T> collection;
+        private final ValueMapper valueMapper;
+        private final OnMapperCompleteListener onMapperCompleteListener;
+        private final OnProgressListener onProgressListener;
+        private final LinkedList<T> pendingKeys;
+        private final List<ValueCompleteListener> activeListeners = new LinkedList<>();
+        private final int totalCount;
+        private final int maxConcurrentMappers;
+        private int mappedCount;
+        private boolean isDraining;
+        private boolean isFinished;
+        private boolean isCanceled;
+
+        private Mapping(
+                Collection<T> collection,
+                ValueMapper valueMapper,
+                OnMapperCompleteListener onMapperCompleteListener,
+                OnProgressListener onProgressListener,
+                List<T> keys,
+                int maxConcurrentMappers) {
+            this.collection = collection;
+            this.valueMapper = valueMapper;
+            this.onMapperCompleteListener = onMapperCompleteListener;
+            this.onProgressListener = onProgressListener;
+            this.pendingKeys = new LinkedList<>(keys);
+            this.totalCount = keys.size();
+            this.maxConcurrentMappers = Math.max(1, maxConcurrentMappers);
+        }
+
+        /**
+         * Stops mapping: no more values are handed to the mapper, outstanding ones are canceled
+         * and the listener isn't called anymore.
+         */
+        public void cancel() {
+            finish(null);
+        }
+
+        public synchronized boolean isCanceled() {
+            return isCanceled;
+        }
+
+        private void start() {
+            if (totalCount == 0) {
+                synchronized (this) {
+                    isFinished = true;
+                }
+                onMapperCompleteListener.onComplete();
+                return;
+            }
+            drain();
+        }
+
+        private void drain() {
+            synchronized (this) {
+                if (isDraining) {
+                    // Whoever is draining will pick up the slot that was freed.
+                    return;
+                }
+                isDraining = true;
+            }
+            while (true) {
+                T key;
+                ValueCompleteListener listener;
+                synchronized (this) {
+                    if (isFinished
+                            || pendingKeys.isEmpty()
+                            || activeListeners.size() >= maxConcurrentMappers) {
+                        isDraining = false;
+                        return;
+                    }
+                    key = pendingKeys.removeFirst();
+                    listener = new ValueCompleteListener(key);
+                    activeListeners.add(listener);
+                }
+                // Mappers may complete synchronously, which only frees a slot for this loop.
+                valueMapper.mapValue(collection.get(key), listener);
+            }
+        }
+
+        private void onValueMapped(ValueCompleteListener listener, Object mappedValue) {
+            final Mutable<FacebookException> setError = new Mutable<>(null);
+            boolean isComplete;
+            int count;
+            synchronized (this) {
+                if (isFinished || !activeListeners.remove(listener)) {
+                    return;
+                }
+                collection.set(listener.key, mappedValue, new OnErrorListener() {
+                    @Override
+                    public void onError(FacebookException exception) {
+                        setError.value = exception;
+                    }
+                });
+                if (setError.value != null) {
+                    isComplete = false;
+                    count = mappedCount;
+                } else {
+                    count = ++mappedCount;
+                    isComplete = count == totalCount;
+                    if (isComplete) {
+                        isFinished = true;
+                    }
+                }
+            }
+
+            if (setError.value != null) {
+                onError(null, setError.value);
+                return;
+            }
+            if (onProgressListener != null) {
+                onProgressListener.onProgress(count, totalCount);
+            }
+            if (isComplete) {
+                onMapperCompleteListener.onComplete();
+            } else {
+                drain();
+            }
+        }
+
+        private void onError(ValueCompleteListener failedListener, FacebookException exception) {
+            if (finish(failedListener)) {
+                onMapperCompleteListener.onError(exception);
+            }
+        }
+
+        private boolean finish(ValueCompleteListener failedListener) {
+            List<ValueCompleteListener> outstanding;
+            synchronized (this) {
+                if (isFinished) {
+                    return false;
+                }
+                isFinished = true;
+                isCanceled = true;
+                pendingKeys.clear();
+                // The mapper that failed is done already, only the others are canceled.
+                activeListeners.remove(failedListener);
+                outstanding = new ArrayList<>(activeListeners);
+                activeListeners.clear();
+            }
+            for (ValueCompleteListener listener : outstanding) {
+                listener.cancel();
+            }
+            return true;
+        }
+
+        private final class ValueCompleteListener implements OnMapValueCompleteListener {
+            private final T key;
+            private OnCancelListener onCancelListener;
+            private boolean isCanceled;
+
+            ValueCompleteListener(T key) {
+                this.key = key;
+            }
+
+            @Override
+            public void onComplete(Object mappedValue) {
+                onValueMapped(this, mappedValue);
+            }
+
+            @Override
+            public void onError(FacebookException exception) {
+                Mapping.this.onError(this, exception);
+            }
+
+            @Override
+            public synchronized boolean isCanceled() {
+                return isCanceled;
+            }
+
+            @Override
+            public void setOnCancelListener(OnCancelListener onCancelListener) {
+                boolean callNow;
+                synchronized (this) {
+                    this.onCancelListener = onCancelListener;
+                    callNow = isCanceled;
+                }
+                if (callNow && onCancelListener != null) {
+                    onCancelListener.onCancel();
+                }
+            }
+
+            private void cancel() {
+                OnCancelListener listener;
+                synchronized (this) {
+                    isCanceled = true;
+                    listener = onCancelListener;
+                }
+                if (listener != null) {
+                    listener.onCancel();
+                }
+            }
+        }
+    }
+
     private CollectionMapper() {}
 }
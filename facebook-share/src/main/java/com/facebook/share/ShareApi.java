@@ -32,6 +32,8 @@ import com.facebook.FacebookException;
 import com.facebook.FacebookGraphResponseException;
 import com.facebook.FacebookRequestError;
 import com.facebook.GraphRequest;
+import com.facebook.GraphRequestAsyncTask;
+import com.facebook.GraphRequestBatch;
 import com.facebook.GraphResponse;
 import com.facebook.HttpMethod;
 import com.facebook.internal.CollectionMapper;
@@ -46,6 +48,7 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
@@ -61,6 +64,14 @@ public final class ShareApi {
     private static final String PHOTOS_EDGE = "photos";
     private static final String GRAPH_PATH_FORMAT = "%s/%s";
     private static final String DEFAULT_CHARSET = "UTF-8";
+    private static final String STAGING_ENTRY_NAME_FORMAT = "staging%d";
+    private static final String RESULT_REFERENCE_FORMAT = "{result=%s:$.%s}";
+    // Photos are spread over several batches once their attachments add up to this much, so that
+    // large uploads go over parallel connections instead of a single one.
+    private static final long MAX_BATCH_ATTACHMENT_BYTES = 8 * 1024 * 1024;
+    // How many values of an Open Graph collection are staged at once when staging goes through
+    // individual requests.
+    private static final int MAX_CONCURRENT_STAGING_REQUESTS = 4;
 
     private String message;
     private String graphNode;
@@ -227,9 +238,27 @@ public final class ShareApi {
         // another to post the action.  If a local image is supplied with the object or action, that
         // must be staged first and then referenced by the staging URL that is returned by that
         // request.
+        // These requests are planned as a single batch in which each entry refers to the results
+        // of the entries it depends on, so the whole share takes one round trip. Only when the
+        // batch would be too large are they sent one after another.
+        if (!shareOpenGraphContent(openGraphContent, callback, new StagingBatch())) {
+            shareOpenGraphContent(openGraphContent, callback, null);
+        }
+    }
+
+    private boolean shareOpenGraphContent(final ShareOpenGraphContent openGraphContent,
+                                          final FacebookCallback<Sharer.Result> callback,
+                                          final StagingBatch stagingBatch) {
         final GraphRequest.Callback requestCallback = new GraphRequest.Callback() {
             @Override
             public void onCompleted(GraphResponse response) {
+                if (stagingBatch != null && stagingBatch.getError() != null) {
+                    // Report why staging failed rather than the failed dependency.
+                    ShareInternalUtility.invokeCallbackWithException(
+                            callback,
+                            stagingBatch.getError());
+                    return;
+                }
                 final JSONObject data = response.getJSONObject();
                 final String postId = (data == null ? null : data.optString("id"));
                 ShareInternalUtility.invokeCallbackWithResults(callback, postId, response);
@@ -249,13 +278,18 @@ public final class ShareApi {
                 try {
                     handleImagesOnAction(parameters);
 
-                    new GraphRequest(
+                    GraphRequest request = new GraphRequest(
                             AccessToken.getCurrentAccessToken(),
                             getGraphPath(
                                     URLEncoder.encode(action.getActionType(), DEFAULT_CHARSET)),
                             parameters,
                             HttpMethod.POST,
-                            requestCallback).executeAsync();
+                            requestCallback);
+                    if (stagingBatch != null) {
+                        stagingBatch.finish(request);
+                    } else {
+                        request.executeAsync();
+                    }
                 } catch (final UnsupportedEncodingException ex) {
                     ShareInternalUtility.invokeCallbackWithException(callback, ex);
                 }
@@ -266,7 +300,17 @@ public final class ShareApi {
                 ShareInternalUtility.invokeCallbackWithException(callback, exception);
             }
         };
-        this.stageOpenGraphAction(parameters, stageCallback);
+        this.stageOpenGraphAction(parameters, stageCallback, stagingBatch);
+
+        if (stagingBatch == null || !stagingBatch.isFinished()) {
+            // Either the requests are on their way or an error was already reported.
+            return true;
+        }
+        if (stagingBatch.size() > GraphRequest.MAXIMUM_BATCH_SIZE) {
+            return false;
+        }
+        stagingBatch.executeAsync();
+        return true;
     }
 
     private static void handleImagesOnAction(Bundle parameters) {
@@ -323,6 +367,7 @@ public final class ShareApi {
         final Mutable<Integer> requestCount = new Mutable<Integer>(0);
         final AccessToken accessToken = AccessToken.getCurrentAccessToken();
         final ArrayList<GraphRequest> requests = new ArrayList<GraphRequest>();
+        final ArrayList<Long> attachmentSizes = new ArrayList<Long>();
         final ArrayList<JSONObject> results = new ArrayList<JSONObject>();
         final ArrayList<GraphResponse> errorResponses = new ArrayList<GraphResponse>();
         final GraphRequest.Callback requestCallback = new GraphRequest.Callback() {
@@ -375,6 +420,7 @@ public final class ShareApi {
                             caption,
                             params,
                             requestCallback));
+                    attachmentSizes.add((long) bitmap.getRowBytes() * bitmap.getHeight());
                 } else if (photoUri != null) {
                     requests.add(GraphRequest.newUploadPhotoRequest(
                             accessToken,
@@ -383,17 +429,48 @@ public final class ShareApi {
                             caption,
                             params,
                             requestCallback));
+                    attachmentSizes.add(getAttachmentSize(photoUri));
                 }
             }
             requestCount.value += requests.size();
-            for (GraphRequest request : requests) {
-                request.executeAsync();
+            for (GraphRequestBatch batch : toBoundedBatches(requests, attachmentSizes)) {
+                batch.executeAsync();
             }
         } catch (final FileNotFoundException ex) {
             ShareInternalUtility.invokeCallbackWithException(callback, ex);
         }
     }
 
+    private static long getAttachmentSize(Uri uri) {
+        if (Utility.isFileUri(uri)) {
+            return new File(uri.getPath()).length();
+        } else if (Utility.isContentUri(uri)) {
+            return Utility.getContentSize(uri);
+        }
+        return 0;
+    }
+
+    private static List<GraphRequestBatch> toBoundedBatches(
+            List<GraphRequest> requests,
+            List<Long> attachmentSizes) {
+        List<GraphRequestBatch> batches = new ArrayList<GraphRequestBatch>();
+        GraphRequestBatch batch = null;
+        long batchBytes = 0;
+        for (int i = 0; i < requests.size(); i++) {
+            long size = attachmentSizes.get(i);
+            if (batch == null
+                    || batch.size() >= GraphRequest.MAXIMUM_BATCH_SIZE
+                    || batchBytes + size > MAX_BATCH_ATTACHMENT_BYTES) {
+                batch = new GraphRequestBatch();
+                batchBytes = 0;
+                batches.add(batch);
+            }
+            batch.add(requests.get(i));
+            batchBytes += size;
+        }
+        return batches;
+    }
+
     private void shareLinkContent(final ShareLinkContent linkContent,
                                   final FacebookCallback<Sharer.Result> callback) {
         final GraphRequest.Callback requestCallback = new GraphRequest.Callback() {
@@ -458,7 +535,8 @@ public final class ShareApi {
 
     private void stageArrayList(final ArrayList arrayList,
                                        final CollectionMapper.OnMapValueCompleteListener
-                                               onArrayListStagedListener) {
+                                               onArrayListStagedListener,
+                                       final StagingBatch stagingBatch) {
         final JSONArray stagedObject = new JSONArray();
         final CollectionMapper.Collection<Integer> collection = new CollectionMapper
                 .Collection<Integer>() {
@@ -515,36 +593,44 @@ public final class ShareApi {
                         onArrayListStagedListener.onError(exception);
                     }
                 };
-        stageCollectionValues(collection, onStagedArrayMapperCompleteListener);
+        stageCollectionValues(collection, onStagedArrayMapperCompleteListener, stagingBatch);
     }
 
     private <T> void stageCollectionValues(final CollectionMapper.Collection<T> collection,
                                                   final CollectionMapper.OnMapperCompleteListener
-                                                          onCollectionValuesStagedListener) {
+                                                          onCollectionValuesStagedListener,
+                                                  final StagingBatch stagingBatch) {
         final CollectionMapper.ValueMapper valueMapper = new CollectionMapper.ValueMapper() {
             @Override
             public void mapValue(Object value,
                                  CollectionMapper.OnMapValueCompleteListener
                                          onMapValueCompleteListener) {
                 if (value instanceof ArrayList) {
-                    stageArrayList((ArrayList) value, onMapValueCompleteListener);
+                    stageArrayList((ArrayList) value, onMapValueCompleteListener, stagingBatch);
                 } else if (value instanceof ShareOpenGraphObject) {
                     stageOpenGraphObject(
                             (ShareOpenGraphObject) value,
-                            onMapValueCompleteListener);
+                            onMapValueCompleteListener,
+                            stagingBatch);
                 } else if (value instanceof SharePhoto) {
-                    stagePhoto((SharePhoto) value, onMapValueCompleteListener);
+                    stagePhoto((SharePhoto) value, onMapValueCompleteListener, stagingBatch);
                 } else {
                     onMapValueCompleteListener.onComplete(value);
                 }
             }
         };
-        CollectionMapper.iterate(collection, valueMapper, onCollectionValuesStagedListener);
+        CollectionMapper.iterate(
+                collection,
+                valueMapper,
+                onCollectionValuesStagedListener,
+                MAX_CONCURRENT_STAGING_REQUESTS,
+                null);
     }
 
     private void stageOpenGraphAction(final Bundle parameters,
                                              final CollectionMapper.OnMapperCompleteListener
-                                                     onOpenGraphActionStagedListener) {
+                                                     onOpenGraphActionStagedListener,
+                                             final StagingBatch stagingBatch) {
         final CollectionMapper.Collection<String> collection = new CollectionMapper
                 .Collection<String>() {
             @Override
@@ -567,12 +653,13 @@ public final class ShareApi {
                 }
             }
         };
-        stageCollectionValues(collection, onOpenGraphActionStagedListener);
+        stageCollectionValues(collection, onOpenGraphActionStagedListener, stagingBatch);
     }
 
     private void stageOpenGraphObject(final ShareOpenGraphObject object,
                                              final CollectionMapper.OnMapValueCompleteListener
-                                                     onOpenGraphObjectStagedListener) {
+                                                     onOpenGraphObjectStagedListener,
+                                             final StagingBatch stagingBatch) {
         String type = object.getString("type");
         if (type == null) {
             type = object.getString("og:type");
@@ -650,14 +737,23 @@ public final class ShareApi {
                         final Bundle parameters = new Bundle();
                         parameters.putString("object", objectString);
                         try {
-                            new GraphRequest(
+                            GraphRequest request = new GraphRequest(
                                     AccessToken.getCurrentAccessToken(),
                                     getGraphPath(
                                             "objects/" +
                                                     URLEncoder.encode(ogType, DEFAULT_CHARSET)),
                                     parameters,
                                     HttpMethod.POST,
-                                    requestCallback).executeAsync();
+                                    requestCallback);
+                            if (stagingBatch != null) {
+                                String entryName = stagingBatch.stage(
+                                        request,
+                                        "Error staging Open Graph object.");
+                                onOpenGraphObjectStagedListener.onComplete(
+                                        StagingBatch.getResultReference(entryName, "id"));
+                            } else {
+                                executeUnlessCanceled(request, onOpenGraphObjectStagedListener);
+                            }
                         } catch (final UnsupportedEncodingException ex) {
                             String message = ex.getLocalizedMessage();
                             if (message == null) {
@@ -672,12 +768,29 @@ public final class ShareApi {
                         onOpenGraphObjectStagedListener.onError(exception);
                     }
                 };
-        stageCollectionValues(collection, onMapperCompleteListener);
+        stageCollectionValues(collection, onMapperCompleteListener, stagingBatch);
+    }
+
+    private static void executeUnlessCanceled(
+            GraphRequest request,
+            CollectionMapper.OnMapValueCompleteListener onValueStagedListener) {
+        if (onValueStagedListener.isCanceled()) {
+            return;
+        }
+        final GraphRequestAsyncTask task = request.executeAsync();
+        onValueStagedListener.setOnCancelListener(new CollectionMapper.OnCancelListener() {
+            @Override
+            public void onCancel() {
+                // Another value failed to stage, there is no point finishing this one.
+                task.cancel(true);
+            }
+        });
     }
 
     private void stagePhoto(final SharePhoto photo,
                                    final CollectionMapper.OnMapValueCompleteListener
-                                           onPhotoStagedListener) {
+                                           onPhotoStagedListener,
+                                   final StagingBatch stagingBatch) {
         final Bitmap bitmap = photo.getBitmap();
         final Uri imageUrl = photo.getImageUrl();
         if ((bitmap != null) || (imageUrl != null)) {
@@ -722,28 +835,129 @@ public final class ShareApi {
                     onPhotoStagedListener.onComplete(stagedObject);
                 }
             };
+            final GraphRequest request;
             if (bitmap != null) {
-                ShareInternalUtility.newUploadStagingResourceWithImageRequest(
+                request = ShareInternalUtility.newUploadStagingResourceWithImageRequest(
                         AccessToken.getCurrentAccessToken(),
                         bitmap,
-                        requestCallback).executeAsync();
+                        requestCallback);
             } else {
                 try {
-                    ShareInternalUtility.newUploadStagingResourceWithImageRequest(
+                    request = ShareInternalUtility.newUploadStagingResourceWithImageRequest(
                             AccessToken.getCurrentAccessToken(),
                             imageUrl,
-                            requestCallback).executeAsync();
+                            requestCallback);
                 } catch (final FileNotFoundException ex) {
                     String message = ex.getLocalizedMessage();
                     if (message == null) {
                         message = "Error staging photo.";
                     }
                     onPhotoStagedListener.onError(new FacebookException(message));
+                    return;
+                }
+            }
+            if (stagingBatch == null) {
+                executeUnlessCanceled(request, onPhotoStagedListener);
+                return;
+            }
+
+            // The staged photo refers to the uri the server returns for its upload.
+            String entryName = stagingBatch.stage(request, "Error staging photo.");
+            final JSONObject stagedObject = new JSONObject();
+            try {
+                stagedObject.put("url", StagingBatch.getResultReference(entryName, "uri"));
+                stagedObject.put("user_generated", photo.getUserGenerated());
+            } catch (final JSONException ex) {
+                String message = ex.getLocalizedMessage();
+                if (message == null) {
+                    message = "Error staging photo.";
                 }
+                onPhotoStagedListener.onError(new FacebookException(message));
+                return;
             }
+            onPhotoStagedListener.onComplete(stagedObject);
         } else {
             onPhotoStagedListener.onError(
                     new FacebookException("Photos must have an imageURL or bitmap."));
         }
     }
+
+    /**
+     * Collects the requests that stage the resources of an Open Graph action, followed by the
+     * request posting the action, into a single batch. Entries refer to the results of earlier
+     * entries through JSONPath expressions that the server resolves. Each entry depends on the one
+     * before it, so entries run in order and a failure skips everything after it.
+     */
+    private static final class StagingBatch {
+        private final GraphRequestBatch batch = new GraphRequestBatch();
+        private FacebookException error;
+        private boolean isFinished;
+
+        static String getResultReference(String entryName, String field) {
+            return String.format(Locale.ROOT, RESULT_REFERENCE_FORMAT, entryName, field);
+        }
+
+        int size() {
+            return batch.size();
+        }
+
+        boolean isFinished() {
+            return isFinished;
+        }
+
+        FacebookException getError() {
+            return error;
+        }
+
+        /**
+         * Adds a staging request and returns the name its result can be referred to by. The
+         * request's callback is replaced, as its result is only consumed by later entries, on the
+         * server.
+         */
+        String stage(GraphRequest request, String errorMessage) {
+            String entryName = String.format(
+                    Locale.ROOT,
+                    STAGING_ENTRY_NAME_FORMAT,
+                    batch.size());
+            request.setBatchEntryName(entryName);
+            request.setCallback(newStagingCallback(errorMessage));
+            add(request);
+            return entryName;
+        }
+
+        void finish(GraphRequest actionRequest) {
+            add(actionRequest);
+            isFinished = true;
+        }
+
+        void executeAsync() {
+            batch.executeAsync();
+        }
+
+        private GraphRequest.Callback newStagingCallback(final String defaultMessage) {
+            return new GraphRequest.Callback() {
+                @Override
+                public void onCompleted(GraphResponse response) {
+                    FacebookRequestError requestError = response.getError();
+                    if (requestError != null && error == null) {
+                        String message = requestError.getErrorMessage();
+                        error = new FacebookGraphResponseException(
+                                response,
+                                message != null ? message : defaultMessage);
+                    }
+                }
+            };
+        }
+
+        private void add(GraphRequest request) {
+            if (!batch.isEmpty()) {
+                // Without a dependency the server may run entries in parallel, before the
+                // results they refer to exist. Only staging entries come before the action, so
+                // the previous entry always has a name.
+                request.setBatchEntryDependsOn(
+                        batch.get(batch.size() - 1).getBatchEntryName());
+            }
+            batch.add(request);
+        }
+    }
 }
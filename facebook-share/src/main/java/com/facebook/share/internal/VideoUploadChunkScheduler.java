@@ -0,0 +1,181 @@
+/**
+ * Copyright (c) 2014-present, Facebook, Inc. All rights reserved.
+ *
+ * You are hereby granted a non-exclusive, worldwide, royalty-free license to use,
+ * copy, modify, and distribute this software in source code or binary form for use
+ * in connection with the web services and APIs provided by Facebook.
+ *
+ * As with any software that integrates with the Facebook platform, your use of
+ * this software is subject to the Facebook Developer Principles and Policies
+ * [http://developers.facebook.com/policy/]. This copyright notice shall be
+ * included in all copies or substantial portions of the software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.facebook.share.internal;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Hands out the chunks of a video for a transfer that keeps several of them in flight, and sizes
+ * them from the throughput and round trip time observed so far. Chunks are acknowledged in any
+ * order; the transfer is complete once every byte has been acknowledged.
+ */
+final class VideoUploadChunkScheduler {
+    static final long MIN_CHUNK_SIZE = 256 * 1024;
+    static final long MAX_CHUNK_SIZE = 32 * 1024 * 1024;
+    // Chunks should take long enough that the request's round trip is a small part of the cost,
+    // but not so long that a failure throws away much work.
+    static final long MIN_CHUNK_DURATION_MILLIS = 2000;
+    static final int ROUND_TRIPS_PER_CHUNK = 4;
+    private static final double THROUGHPUT_SMOOTHING = 0.3;
+
+    private final long videoSize;
+    private final int maxChunksInFlight;
+    private final long roundTripMillis;
+
+    // Acknowledged ranges past the contiguous offset, keyed by their start.
+    private final Map<Long, Long> acknowledgedRanges = new HashMap<>();
+    private long contiguousOffset;
+    private long nextOffset;
+    private long bytesAcknowledged;
+    private long chunkSize;
+    private double bytesPerMilli = -1;
+    private int chunksInFlight;
+    private boolean isAborted;
+    private boolean isCompletionReported;
+
+    VideoUploadChunkScheduler(
+            long startOffset,
+            long videoSize,
+            long initialChunkSize,
+            int maxChunksInFlight,
+            long roundTripMillis) {
+        this.videoSize = videoSize;
+        this.maxChunksInFlight = Math.max(1, maxChunksInFlight);
+        this.roundTripMillis = Math.max(0, roundTripMillis);
+        this.contiguousOffset = startOffset;
+        this.nextOffset = startOffset;
+        this.bytesAcknowledged = startOffset;
+        this.chunkSize = clampChunkSize(initialChunkSize);
+    }
+
+    /**
+     * Returns the next chunk to transfer, or null if the window is full, every chunk has been
+     * handed out, or the transfer was aborted.
+     */
+    synchronized Chunk next() {
+        if (isAborted || chunksInFlight >= maxChunksInFlight || nextOffset >= videoSize) {
+            return null;
+        }
+        Chunk chunk = new Chunk(nextOffset, Math.min(nextOffset + chunkSize, videoSize));
+        nextOffset = chunk.end;
+        chunksInFlight++;
+        return chunk;
+    }
+
+    /**
+     * Records that the server acknowledged a chunk and adapts the size of the next ones.
+     *
+     * @return true exactly once, when this acknowledgement completes the transfer
+     */
+    synchronized boolean onChunkAcknowledged(Chunk chunk, long durationMillis) {
+        chunksInFlight--;
+        bytesAcknowledged += chunk.getLength();
+        acknowledgedRanges.put(chunk.start, chunk.end);
+        Long end;
+        while ((end = acknowledgedRanges.remove(contiguousOffset)) != null) {
+            contiguousOffset = end;
+        }
+
+        long transferMillis = Math.max(1, durationMillis - roundTripMillis);
+        double sample = (double) chunk.getLength() / transferMillis;
+        bytesPerMilli = bytesPerMilli < 0
+                ? sample
+                : THROUGHPUT_SMOOTHING * sample + (1 - THROUGHPUT_SMOOTHING) * bytesPerMilli;
+        long targetMillis = Math.max(
+                MIN_CHUNK_DURATION_MILLIS,
+                ROUND_TRIPS_PER_CHUNK * roundTripMillis);
+        chunkSize = clampChunkSize((long) (bytesPerMilli * targetMillis));
+
+        if (!isAborted && !isCompletionReported && contiguousOffset >= videoSize) {
+            isCompletionReported = true;
+            return true;
+        }
+        return false;
+    }
+
+    synchronized void abort() {
+        isAborted = true;
+    }
+
+    /**
+     * Aborts the transfer unless it was already aborted.
+     *
+     * @return true if this call aborted the transfer
+     */
+    synchronized boolean tryAbort() {
+        if (isAborted) {
+            return false;
+        }
+        isAborted = true;
+        return true;
+    }
+
+    synchronized boolean isAborted() {
+        return isAborted;
+    }
+
+    /**
+     * Returns whether the offsets the server suggested in reply to an acknowledged chunk agree
+     * with this transfer. The server must have every byte acknowledged in order so far, and must
+     * not ask for more once every byte has been acknowledged. A session that doesn't accept
+     * chunks out of order fails this as soon as it discards one.
+     */
+    synchronized boolean isConsistentWithServer(long startOffset, long endOffset) {
+        if (startOffset < contiguousOffset) {
+            return false;
+        }
+        return contiguousOffset < videoSize || startOffset == endOffset;
+    }
+
+    synchronized long getBytesAcknowledged() {
+        return bytesAcknowledged;
+    }
+
+    /**
+     * Returns the offset below which every byte has been acknowledged.
+     */
+    synchronized long getContiguousOffset() {
+        return contiguousOffset;
+    }
+
+    synchronized long getChunkSize() {
+        return chunkSize;
+    }
+
+    private static long clampChunkSize(long size) {
+        return Math.max(MIN_CHUNK_SIZE, Math.min(MAX_CHUNK_SIZE, size));
+    }
+
+    static final class Chunk {
+        final long start;
+        final long end;
+
+        Chunk(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        long getLength() {
+            return end - start;
+        }
+    }
+}
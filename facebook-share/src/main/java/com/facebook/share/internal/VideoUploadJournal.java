@@ -0,0 +1,224 @@
+/**
+ * Copyright (c) 2014-present, Facebook, Inc. All rights reserved.
+ *
+ * You are hereby granted a non-exclusive, worldwide, royalty-free license to use,
+ * copy, modify, and distribute this software in source code or binary form for use
+ * in connection with the web services and APIs provided by Facebook.
+ *
+ * As with any software that integrates with the Facebook platform, your use of
+ * this software is subject to the Facebook Developer Principles and Policies
+ * [http://developers.facebook.com/policy/]. This copyright notice shall be
+ * included in all copies or substantial portions of the software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.facebook.share.internal;
+
+import android.content.SharedPreferences;
+
+import com.facebook.internal.Utility;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Persists the progress of video uploads so that they can be resumed after the process was
+ * killed. An entry is written when an upload starts, updated whenever the server acknowledges a
+ * phase or chunk, and removed once the upload has finished, failed or was canceled.
+ */
+final class VideoUploadJournal {
+    private static final String TAG = VideoUploadJournal.class.getSimpleName();
+
+    static final String PREFERENCES_NAME = "com.facebook.share.internal.VideoUploadJournal";
+    // Upload sessions don't outlive a day on the server, there is no point resuming older ones.
+    static final long MAX_ENTRY_AGE_MILLIS = 24 * 60 * 60 * 1000L;
+
+    private static final String KEY_VIDEO_URI = "video_uri";
+    private static final String KEY_VIDEO_SIZE = "video_size";
+    private static final String KEY_LAST_MODIFIED = "last_modified";
+    private static final String KEY_GRAPH_NODE = "graph_node";
+    private static final String KEY_USER_ID = "user_id";
+    private static final String KEY_TITLE = "title";
+    private static final String KEY_DESCRIPTION = "description";
+    private static final String KEY_REF = "ref";
+    private static final String KEY_PARAMS = "params";
+    private static final String KEY_CREATED_TIME = "created_time";
+    private static final String KEY_SESSION_ID = "session_id";
+    private static final String KEY_VIDEO_ID = "video_id";
+    private static final String KEY_START_OFFSET = "start_offset";
+    private static final String KEY_END_OFFSET = "end_offset";
+
+    private final SharedPreferences preferences;
+
+    VideoUploadJournal(SharedPreferences preferences) {
+        this.preferences = preferences;
+    }
+
+    void save(Entry entry) {
+        try {
+            preferences.edit().putString(entry.id, entry.toJSON().toString()).apply();
+        } catch (JSONException e) {
+            Utility.logd(TAG, e);
+        }
+    }
+
+    void remove(String id) {
+        preferences.edit().remove(id).apply();
+    }
+
+    /**
+     * Returns the entries that can still be resumed, dropping those that are too old or can't be
+     * read.
+     */
+    List<Entry> getPendingEntries(long now) {
+        List<Entry> entries = new ArrayList<>();
+        SharedPreferences.Editor editor = null;
+        for (Map.Entry<String, ?> persisted : preferences.getAll().entrySet()) {
+            Entry entry = null;
+            if (persisted.getValue() instanceof String) {
+                try {
+                    entry = Entry.fromJSON(
+                            persisted.getKey(),
+                            new JSONObject((String) persisted.getValue()));
+                } catch (JSONException e) {
+                    Utility.logd(TAG, e);
+                }
+            }
+
+            if (entry == null
+                    || now - entry.createdTime > MAX_ENTRY_AGE_MILLIS
+                    || now < entry.createdTime) {
+                if (editor == null) {
+                    editor = preferences.edit();
+                }
+                editor.remove(persisted.getKey());
+            } else {
+                entries.add(entry);
+            }
+        }
+        if (editor != null) {
+            editor.apply();
+        }
+        return entries;
+    }
+
+    static final class Entry {
+        final String id;
+        final String videoUri;
+        final long videoSize;
+        final long lastModified;
+        final String graphNode;
+        final String userId;
+        final String title;
+        final String description;
+        final String ref;
+        final JSONObject params;
+        final long createdTime;
+
+        String sessionId;
+        String videoId;
+        // The next chunk the server asked for; everything before startOffset was acknowledged.
+        String startOffset;
+        String endOffset;
+
+        Entry(
+                String videoUri,
+                long videoSize,
+                long lastModified,
+                String graphNode,
+                String userId,
+                String title,
+                String description,
+                String ref,
+                JSONObject params,
+                long createdTime) {
+            this(
+                    UUID.randomUUID().toString(),
+                    videoUri,
+                    videoSize,
+                    lastModified,
+                    graphNode,
+                    userId,
+                    title,
+                    description,
+                    ref,
+                    params,
+                    createdTime);
+        }
+
+        private Entry(
+                String id,
+                String videoUri,
+                long videoSize,
+                long lastModified,
+                String graphNode,
+                String userId,
+                String title,
+                String description,
+                String ref,
+                JSONObject params,
+                long createdTime) {
+            this.id = id;
+            this.videoUri = videoUri;
+            this.videoSize = videoSize;
+            this.lastModified = lastModified;
+            this.graphNode = graphNode;
+            this.userId = userId;
+            this.title = title;
+            this.description = description;
+            this.ref = ref;
+            this.params = params;
+            this.createdTime = createdTime;
+        }
+
+        JSONObject toJSON() throws JSONException {
+            JSONObject json = new JSONObject();
+            json.put(KEY_VIDEO_URI, videoUri);
+            json.put(KEY_VIDEO_SIZE, videoSize);
+            json.put(KEY_LAST_MODIFIED, lastModified);
+            json.put(KEY_GRAPH_NODE, graphNode);
+            json.put(KEY_USER_ID, userId);
+            json.putOpt(KEY_TITLE, title);
+            json.putOpt(KEY_DESCRIPTION, description);
+            json.putOpt(KEY_REF, ref);
+            json.putOpt(KEY_PARAMS, params);
+            json.put(KEY_CREATED_TIME, createdTime);
+            json.putOpt(KEY_SESSION_ID, sessionId);
+            json.putOpt(KEY_VIDEO_ID, videoId);
+            json.putOpt(KEY_START_OFFSET, startOffset);
+            json.putOpt(KEY_END_OFFSET, endOffset);
+            return json;
+        }
+
+        static Entry fromJSON(String id, JSONObject json) throws JSONException {
+            Entry entry = new Entry(
+                    id,
+                    json.getString(KEY_VIDEO_URI),
+                    json.getLong(KEY_VIDEO_SIZE),
+                    json.getLong(KEY_LAST_MODIFIED),
+                    json.getString(KEY_GRAPH_NODE),
+                    json.getString(KEY_USER_ID),
+                    json.optString(KEY_TITLE, null),
+                    json.optString(KEY_DESCRIPTION, null),
+                    json.optString(KEY_REF, null),
+                    json.optJSONObject(KEY_PARAMS),
+                    json.getLong(KEY_CREATED_TIME));
+            entry.sessionId = json.optString(KEY_SESSION_ID, null);
+            entry.videoId = json.optString(KEY_VIDEO_ID, null);
+            entry.startOffset = json.optString(KEY_START_OFFSET, null);
+            entry.endOffset = json.optString(KEY_END_OFFSET, null);
+            return entry;
+        }
+    }
+}
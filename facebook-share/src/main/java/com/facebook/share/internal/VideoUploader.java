@@ -20,11 +20,21 @@
 
 package com.facebook.share.internal;
 
+import android.content.BroadcastReceiver;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.UriPermission;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
 import android.net.Uri;
+import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Looper;
 import android.os.ParcelFileDescriptor;
+import android.os.SystemClock;
 import android.text.TextUtils;
 import android.util.Log;
 
@@ -38,6 +48,7 @@ import com.facebook.FacebookSdk;
 import com.facebook.GraphRequest;
 import com.facebook.GraphResponse;
 import com.facebook.HttpMethod;
+import com.facebook.internal.BundleJSONConverter;
 import com.facebook.internal.Utility;
 import com.facebook.internal.Validate;
 import com.facebook.internal.WorkQueue;
@@ -48,12 +59,15 @@ import com.facebook.share.model.ShareVideoContent;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Locale;
 import java.util.Set;
 
@@ -83,11 +97,14 @@ public class VideoUploader {
 
     private static final String ERROR_UPLOAD = "Video upload failed";
     private static final String ERROR_BAD_SERVER_RESPONSE = "Unexpected error in server response";
+    private static final String ERROR_CANNOT_RESUME =
+            "Pending video upload can't be resumed: %s";
 
     private static final int UPLOAD_QUEUE_MAX_CONCURRENT = WorkQueue.DEFAULT_MAX_CONCURRENT;
     private static final int MAX_RETRIES_PER_PHASE = 2;
     private static final int RETRY_DELAY_UNIT_MS = 5000;
     private static final int RETRY_DELAY_BACK_OFF_FACTOR = 3;
+    private static final int READ_AHEAD_BUFFER_SIZE = 64 * 1024;
 
     private static boolean initialized;
 
@@ -97,6 +114,25 @@ public class VideoUploader {
     private static Set<UploadContext> pendingUploads = new HashSet<>();
 
     private static AccessTokenTracker accessTokenTracker;
+    private static volatile boolean chunkReadAheadEnabled = true;
+    private static volatile int maxChunksInFlight = 1;
+
+    private static VideoUploadJournal journal;
+    private static BroadcastReceiver unmeteredNetworkReceiver;
+
+    /**
+     * A callback that is also told how much of the video has been uploaded, on the main thread.
+     * Pass it wherever a FacebookCallback is accepted.
+     */
+    public interface ProgressCallback extends FacebookCallback<Sharer.Result> {
+        /**
+         * Called whenever the server acknowledges a chunk of the video.
+         *
+         * @param bytesUploaded the number of bytes the server has acknowledged
+         * @param totalBytes the size of the video
+         */
+        void onProgress(long bytesUploaded, long totalBytes);
+    }
 
     public static synchronized void uploadAsync(
             ShareVideoContent videoContent,
@@ -110,10 +146,7 @@ public class VideoUploader {
             String graphNode,
             FacebookCallback<Sharer.Result> callback)
             throws FileNotFoundException {
-        if (!initialized) {
-            registerAccessTokenTracker();
-            initialized = true;
-        }
+        ensureInitialized();
 
         Validate.notNull(videoContent, "videoContent");
         Validate.notNull(graphNode, "graphNode");
@@ -124,6 +157,10 @@ public class VideoUploader {
 
         UploadContext uploadContext = new UploadContext(videoContent, graphNode, callback);
         uploadContext.initialize();
+        uploadContext.journalEntry = createJournalEntry(uploadContext);
+        if (uploadContext.journalEntry != null) {
+            getJournal().save(uploadContext.journalEntry);
+        }
 
         pendingUploads.add(uploadContext);
 
@@ -132,15 +169,276 @@ public class VideoUploader {
                 0);
     }
 
+    /**
+     * Resumes the uploads that were still in progress when the process was last killed. Each
+     * upload continues from the last chunk acknowledged by the server, provided the video file is
+     * unchanged and the same user is logged in; otherwise it is dropped and reported to the
+     * callback as an error. Must be called on the main thread.
+     *
+     * @param callback the callback to report the outcome of every resumed upload to
+     */
+    public static synchronized void resumePendingUploads(
+            FacebookCallback<Sharer.Result> callback) {
+        resumePendingUploads(callback, false);
+    }
+
+    /**
+     * Resumes the uploads that were still in progress when the process was last killed, see
+     * {@link #resumePendingUploads(FacebookCallback)}.
+     * <p/>
+     * If requireUnmeteredNetwork is true and the active network is metered, resuming is deferred
+     * until an unmetered network becomes active while the process is alive. Evaluating this
+     * requires the ACCESS_NETWORK_STATE permission; without it uploads are resumed immediately.
+     *
+     * @param callback the callback to report the outcome of every resumed upload to
+     * @param requireUnmeteredNetwork whether to wait for an unmetered network
+     */
+    public static synchronized void resumePendingUploads(
+            final FacebookCallback<Sharer.Result> callback,
+            boolean requireUnmeteredNetwork) {
+        if (requireUnmeteredNetwork && isActiveNetworkMetered()) {
+            registerUnmeteredNetworkReceiver(callback);
+            return;
+        }
+
+        ensureInitialized();
+        String userId = AccessToken.getCurrentAccessToken() != null
+                ? AccessToken.getCurrentAccessToken().getUserId()
+                : null;
+        List<VideoUploadJournal.Entry> entries =
+                getJournal().getPendingEntries(System.currentTimeMillis());
+        for (VideoUploadJournal.Entry entry : entries) {
+            if (isUploadInProgress(entry.id)) {
+                continue;
+            }
+            if (!Utility.areObjectsEqual(userId, entry.userId)) {
+                discardJournalEntry(entry, callback, "the user has changed");
+                continue;
+            }
+
+            UploadContext uploadContext;
+            try {
+                uploadContext = new UploadContext(entry, callback);
+                uploadContext.initialize();
+            } catch (JSONException | FileNotFoundException | RuntimeException e) {
+                // Besides FacebookException, this covers a SecurityException from a content
+                // provider whose grant didn't survive the restart.
+                logError(e, "Unable to resume video upload");
+                discardJournalEntry(entry, callback, "the video can't be read");
+                continue;
+            }
+            if (uploadContext.videoSize != entry.videoSize
+                    || uploadContext.lastModified != entry.lastModified) {
+                Utility.closeQuietly(uploadContext.videoStream);
+                discardJournalEntry(entry, callback, "the video has changed");
+                continue;
+            }
+
+            pendingUploads.add(uploadContext);
+            if (entry.sessionId == null || entry.startOffset == null) {
+                enqueueUploadStart(uploadContext, 0);
+            } else if (Utility.areObjectsEqual(entry.startOffset, entry.endOffset)) {
+                enqueueUploadFinish(uploadContext, 0);
+            } else if (!startParallelTransfer(
+                    uploadContext,
+                    entry.startOffset,
+                    entry.endOffset,
+                    0)) {
+                uploadContext.chunkStart = entry.startOffset;
+                uploadContext.bytesToSkip = Long.parseLong(entry.startOffset);
+                enqueueUploadChunk(uploadContext, entry.startOffset, entry.endOffset, 0);
+            }
+        }
+    }
+
+    private static void ensureInitialized() {
+        if (!initialized) {
+            registerAccessTokenTracker();
+            initialized = true;
+        }
+    }
+
+    private static synchronized VideoUploadJournal getJournal() {
+        if (journal == null) {
+            journal = new VideoUploadJournal(FacebookSdk.getApplicationContext()
+                    .getSharedPreferences(
+                            VideoUploadJournal.PREFERENCES_NAME,
+                            Context.MODE_PRIVATE));
+        }
+        return journal;
+    }
+
+    private static VideoUploadJournal.Entry createJournalEntry(UploadContext uploadContext) {
+        if (uploadContext.accessToken == null || !isReadableAfterRestart(uploadContext.videoUri)) {
+            return null;
+        }
+        JSONObject params;
+        try {
+            params = BundleJSONConverter.convertToJSON(uploadContext.params);
+        } catch (JSONException | IllegalArgumentException e) {
+            // Parameters we can't persist make the upload non-resumable, not fail.
+            logError(e, "Video upload parameters can't be journaled");
+            return null;
+        }
+        return new VideoUploadJournal.Entry(
+                uploadContext.videoUri.toString(),
+                uploadContext.videoSize,
+                uploadContext.lastModified,
+                uploadContext.graphNode,
+                uploadContext.accessToken.getUserId(),
+                uploadContext.title,
+                uploadContext.description,
+                uploadContext.ref,
+                params,
+                System.currentTimeMillis());
+    }
+
+    // Access to a content uri is usually granted to the running process only, so a resumed upload
+    // could no longer read it, unless the app took a persistable grant for it.
+    private static boolean isReadableAfterRestart(Uri videoUri) {
+        if (Utility.isFileUri(videoUri)) {
+            return true;
+        }
+        if (!Utility.isContentUri(videoUri)
+                || Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT) {
+            return false;
+        }
+        List<UriPermission> permissions = FacebookSdk.getApplicationContext()
+                .getContentResolver()
+                .getPersistedUriPermissions();
+        for (UriPermission permission : permissions) {
+            if (permission.isReadPermission() && videoUri.equals(permission.getUri())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void recordJournalProgress(
+            UploadContext uploadContext,
+            String startOffset,
+            String endOffset) {
+        VideoUploadJournal.Entry entry = uploadContext.journalEntry;
+        if (entry == null) {
+            return;
+        }
+        synchronized (entry) {
+            entry.sessionId = uploadContext.sessionId;
+            entry.videoId = uploadContext.videoId;
+            entry.startOffset = startOffset;
+            entry.endOffset = endOffset;
+            getJournal().save(entry);
+        }
+    }
+
+    private static void recordParallelJournalProgress(UploadContext uploadContext) {
+        VideoUploadJournal.Entry entry = uploadContext.journalEntry;
+        if (entry == null) {
+            return;
+        }
+        synchronized (entry) {
+            // Only the contiguous prefix is recorded, a resumed upload sends the rest again.
+            VideoUploadChunkScheduler scheduler = uploadContext.chunkScheduler;
+            long start = scheduler.getContiguousOffset();
+            long end = Math.min(start + scheduler.getChunkSize(), uploadContext.videoSize);
+            recordJournalProgress(uploadContext, String.valueOf(start), String.valueOf(end));
+        }
+    }
+
+    private static void discardJournalEntry(
+            VideoUploadJournal.Entry entry,
+            FacebookCallback<Sharer.Result> callback,
+            String reason) {
+        getJournal().remove(entry.id);
+        if (callback != null) {
+            ShareInternalUtility.invokeOnErrorCallback(
+                    callback,
+                    new FacebookException(String.format(Locale.ROOT, ERROR_CANNOT_RESUME, reason)));
+        }
+    }
+
+    private static synchronized boolean isUploadInProgress(String journalId) {
+        for (UploadContext uploadContext : pendingUploads) {
+            if (uploadContext.journalEntry != null
+                    && uploadContext.journalEntry.id.equals(journalId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isActiveNetworkMetered() {
+        try {
+            ConnectivityManager connectivityManager = (ConnectivityManager) FacebookSdk
+                    .getApplicationContext()
+                    .getSystemService(Context.CONNECTIVITY_SERVICE);
+            NetworkInfo networkInfo = connectivityManager.getActiveNetworkInfo();
+            return networkInfo == null
+                    || !networkInfo.isConnected()
+                    || connectivityManager.isActiveNetworkMetered();
+        } catch (SecurityException e) {
+            logError(e, "ACCESS_NETWORK_STATE is required to wait for an unmetered network");
+            return false;
+        }
+    }
+
+    private static synchronized void registerUnmeteredNetworkReceiver(
+            final FacebookCallback<Sharer.Result> callback) {
+        if (unmeteredNetworkReceiver != null) {
+            FacebookSdk.getApplicationContext().unregisterReceiver(unmeteredNetworkReceiver);
+        }
+        unmeteredNetworkReceiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                synchronized (VideoUploader.class) {
+                    if (unmeteredNetworkReceiver != this || isActiveNetworkMetered()) {
+                        return;
+                    }
+                    FacebookSdk.getApplicationContext().unregisterReceiver(this);
+                    unmeteredNetworkReceiver = null;
+                }
+                resumePendingUploads(callback, false);
+            }
+        };
+        FacebookSdk.getApplicationContext().registerReceiver(
+                unmeteredNetworkReceiver,
+                new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+    }
+
+    /**
+     * Sets whether the next chunk of a file-backed video is read ahead while the current one is
+     * being uploaded, so that it is already cached when its request is serialized. Enabled by
+     * default.
+     *
+     * @param enabled whether to read chunks ahead
+     */
+    public static void setChunkReadAheadEnabled(boolean enabled) {
+        chunkReadAheadEnabled = enabled;
+    }
+
+    /**
+     * Sets how many chunks of a file-backed video may be transferred at once. With more than one,
+     * chunks are sent in parallel and sized from the observed throughput and round trip time
+     * instead of following the offsets suggested by the server. Should the upload session not
+     * accept chunks out of order, the transfer follows the server's offsets from the first reply
+     * that disagrees with the chunks sent so far. Defaults to 1, a sequential transfer.
+     *
+     * @param count the number of chunks to keep in flight, capped at the upload queue's
+     *              concurrency
+     */
+    public static void setMaxChunksInFlight(int count) {
+        maxChunksInFlight = Math.max(1, Math.min(count, UPLOAD_QUEUE_MAX_CONCURRENT));
+    }
+
     private static synchronized void cancelAllRequests() {
         for (UploadContext uploadContext : pendingUploads) {
             uploadContext.isCanceled = true;
         }
     }
 
-    private static synchronized void removePendingUpload(
+    private static synchronized boolean removePendingUpload(
             UploadContext uploadContext) {
-        pendingUploads.remove(uploadContext);
+        return pendingUploads.remove(uploadContext);
     }
 
     private static synchronized Handler getHandler() {
@@ -156,7 +454,13 @@ public class VideoUploader {
             final String videoId) {
         // Remove the UploadContext synchronously
         // Once the UploadContext is removed, this is the only reference to it.
-        removePendingUpload(uploadContext);
+        if (!removePendingUpload(uploadContext)) {
+            // Another chunk in flight already ended this upload.
+            return;
+        }
+        if (uploadContext.journalEntry != null) {
+            getJournal().remove(uploadContext.journalEntry.id);
+        }
 
         Utility.closeQuietly(uploadContext.videoStream);
 
@@ -201,12 +505,88 @@ public class VideoUploader {
                         completedRetries));
     }
 
+    private static boolean startParallelTransfer(
+            UploadContext uploadContext,
+            String startOffset,
+            String endOffset,
+            long roundTripMillis) {
+        int chunksInFlight = maxChunksInFlight;
+        if (chunksInFlight <= 1
+                || uploadContext.videoDescriptor == null
+                || Utility.areObjectsEqual(startOffset, endOffset)) {
+            return false;
+        }
+        long start = Long.parseLong(startOffset);
+        uploadContext.chunkScheduler = new VideoUploadChunkScheduler(
+                start,
+                uploadContext.videoSize,
+                Long.parseLong(endOffset) - start,
+                chunksInFlight,
+                roundTripMillis);
+        fillTransferWindow(uploadContext);
+        return true;
+    }
+
+    private static void fillTransferWindow(UploadContext uploadContext) {
+        VideoUploadChunkScheduler.Chunk chunk;
+        while ((chunk = uploadContext.chunkScheduler.next()) != null) {
+            enqueueRequest(uploadContext, new ParallelChunkWorkItem(uploadContext, chunk, 0));
+        }
+    }
+
+    private static void reportProgress(
+            UploadContext uploadContext,
+            final long bytesUploaded) {
+        if (!(uploadContext.callback instanceof ProgressCallback)) {
+            return;
+        }
+        final ProgressCallback callback = (ProgressCallback) uploadContext.callback;
+        final long totalBytes = uploadContext.videoSize;
+        getHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                callback.onProgress(bytesUploaded, totalBytes);
+            }
+        });
+    }
+
     private static synchronized void enqueueRequest(
             UploadContext uploadContext,
             Runnable workItem) {
         uploadContext.workItem = uploadQueue.addActiveWorkItem(workItem);
     }
 
+    private static GraphRequest.ParcelableFileRegion getChunkRegion(
+            UploadContext uploadContext,
+            String chunkStart,
+            String chunkEnd)
+            throws IOException {
+        long chunkStartLong = Long.parseLong(chunkStart);
+        long chunkEndLong = Long.parseLong(chunkEnd);
+        if (chunkStartLong < 0 || chunkEndLong < chunkStartLong) {
+            logError(
+                    null,
+                    "Error reading video chunk. Invalid chunk '%s' - '%s'.",
+                    chunkStart,
+                    chunkEnd);
+            return null;
+        }
+
+        // Reads are positional, the descriptor's offset is irrelevant, so a chunk can be re-sent
+        // after a retry or a resume without any book-keeping.
+        uploadContext.chunkStart = chunkEnd;
+        uploadContext.bytesToSkip = 0;
+        if (chunkReadAheadEnabled) {
+            readAhead(uploadContext, chunkEndLong, chunkEndLong - chunkStartLong);
+        }
+
+        return new GraphRequest.ParcelableFileRegion(
+                uploadContext.videoDescriptor.dup(),
+                chunkStartLong,
+                chunkEndLong - chunkStartLong,
+                null);
+    }
+
     private static byte[] getChunk(
             UploadContext uploadContext,
             String chunkStart,
@@ -222,36 +602,128 @@ public class VideoUploader {
             return null;
         }
 
+        if (uploadContext.bytesToSkip > 0) {
+            // Resuming, move past the part of the video the server already has.
+            skipFully(uploadContext.videoStream, uploadContext.bytesToSkip);
+            uploadContext.bytesToSkip = 0;
+        }
+
         long chunkStartLong = Long.parseLong(chunkStart);
         long chunkEndLong = Long.parseLong(chunkEnd);
         int chunkSize = (int) (chunkEndLong - chunkStartLong);
+        if (chunkSize < 0) {
+            logError(
+                    null,
+                    "Error reading video chunk. Invalid chunk '%s' - '%s'.",
+                    chunkStart,
+                    chunkEnd);
+            return null;
+        }
 
-        ByteArrayOutputStream byteBufferStream = new ByteArrayOutputStream();
-        int bufferSize = Math.min(8192, chunkSize);
-        byte[] buffer = new byte[bufferSize];
-
+        // Read straight into a buffer of the final size rather than copying it around.
+        byte[] chunk = new byte[chunkSize];
+        int read = 0;
         int len;
-        while ((len = uploadContext.videoStream.read(buffer)) != -1) {
-            byteBufferStream.write(buffer, 0, len);
-
-            chunkSize -= len;
-            if (chunkSize == 0) {
-                // Done!
-                break;
-            } else if (chunkSize < 0) {
-                // This should not happen. Signal an error.
-                logError(
-                        null,
-                        "Error reading video chunk. Expected buffer length - '%d'. Actual - '%d'.",
-                        chunkSize + len,
-                        len);
-                return null;
-            }
+        while (read < chunkSize
+                && (len = uploadContext.videoStream.read(chunk, read, chunkSize - read)) != -1) {
+            read += len;
         }
 
         uploadContext.chunkStart = chunkEnd;
 
-        return byteBufferStream.toByteArray();
+        return read == chunkSize ? chunk : Arrays.copyOf(chunk, read);
+    }
+
+    // Pipes and sockets report a negative size and can't be read at an offset.
+    private static boolean isSeekable(ParcelFileDescriptor descriptor) {
+        return descriptor != null && descriptor.getStatSize() >= 0;
+    }
+
+    // Returns null for content that can only be streamed, such as what providers serving part of a
+    // file return ("Not a whole file").
+    static ParcelFileDescriptor openContentDescriptor(
+            ContentResolver contentResolver,
+            Uri videoUri) {
+        try {
+            return contentResolver.openFileDescriptor(videoUri, "r");
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+    }
+
+    // Reads the video through descriptor if it is seekable, otherwise closes it and falls back to
+    // a plain stream of the content.
+    static InputStream openContentStream(
+            ContentResolver contentResolver,
+            Uri videoUri,
+            ParcelFileDescriptor descriptor)
+            throws IOException {
+        if (isSeekable(descriptor)) {
+            return new ParcelFileDescriptor.AutoCloseInputStream(descriptor);
+        }
+        if (descriptor != null) {
+            descriptor.close();
+        }
+        return contentResolver.openInputStream(videoUri);
+    }
+
+    private static void readAhead(
+            UploadContext uploadContext,
+            final long offset,
+            final long length) {
+        final long end = Math.min(offset + length, uploadContext.videoSize);
+        if (end <= offset) {
+            return;
+        }
+        final ParcelFileDescriptor descriptor;
+        try {
+            descriptor = uploadContext.videoDescriptor.dup();
+        } catch (IOException e) {
+            logError(e, "Unable to read ahead video chunk");
+            return;
+        }
+        FacebookSdk.getExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                // Pull the next chunk into the page cache while the current one is uploaded.
+                ParcelFileDescriptor.AutoCloseInputStream inputStream =
+                        new ParcelFileDescriptor.AutoCloseInputStream(descriptor);
+                try {
+                    FileChannel channel = inputStream.getChannel();
+                    ByteBuffer buffer = ByteBuffer.allocateDirect(READ_AHEAD_BUFFER_SIZE);
+                    long position = offset;
+                    while (position < end) {
+                        buffer.clear();
+                        if (end - position < buffer.capacity()) {
+                            buffer.limit((int) (end - position));
+                        }
+                        int read = channel.read(buffer, position);
+                        if (read <= 0) {
+                            break;
+                        }
+                        position += read;
+                    }
+                } catch (IOException e) {
+                    logError(e, "Unable to read ahead video chunk");
+                } finally {
+                    Utility.closeQuietly(inputStream);
+                }
+            }
+        });
+    }
+
+    private static void skipFully(InputStream stream, long byteCount) throws IOException {
+        long remaining = byteCount;
+        while (remaining > 0) {
+            long skipped = stream.skip(remaining);
+            if (skipped <= 0) {
+                if (stream.read() == -1) {
+                    throw new IOException("Video ended before the resumed offset");
+                }
+                skipped = 1;
+            }
+            remaining -= skipped;
+        }
     }
 
     private static void registerAccessTokenTracker() {
@@ -297,11 +769,17 @@ public class VideoUploader {
         public String sessionId;
         public String videoId;
         public InputStream videoStream;
+        // Set when the video is a regular file that chunks can be streamed from directly.
+        public ParcelFileDescriptor videoDescriptor;
         public long videoSize;
+        public long lastModified = -1;
         public String chunkStart = "0";
+        public long bytesToSkip;
         public boolean isCanceled;
         public WorkQueue.WorkItem workItem;
         public Bundle params;
+        public VideoUploadJournal.Entry journalEntry;
+        public VideoUploadChunkScheduler chunkScheduler;
 
         private UploadContext(
                 ShareVideoContent videoContent,
@@ -331,6 +809,25 @@ public class VideoUploader {
             }
         }
 
+        private UploadContext(
+                VideoUploadJournal.Entry journalEntry,
+                FacebookCallback<Sharer.Result> callback)
+                throws JSONException {
+            this.accessToken = AccessToken.getCurrentAccessToken();
+            this.videoUri = Uri.parse(journalEntry.videoUri);
+            this.title = journalEntry.title;
+            this.description = journalEntry.description;
+            this.ref = journalEntry.ref;
+            this.graphNode = journalEntry.graphNode;
+            this.callback = callback;
+            this.params = journalEntry.params != null
+                    ? BundleJSONConverter.convertToBundle(journalEntry.params)
+                    : new Bundle();
+            this.sessionId = journalEntry.sessionId;
+            this.videoId = journalEntry.videoId;
+            this.journalEntry = journalEntry;
+        }
+
         private void initialize()
                 throws FileNotFoundException {
             ParcelFileDescriptor fileDescriptor;
@@ -340,13 +837,18 @@ public class VideoUploader {
                             new File(videoUri.getPath()),
                             ParcelFileDescriptor.MODE_READ_ONLY);
                     videoSize = fileDescriptor.getStatSize();
+                    lastModified = new File(videoUri.getPath()).lastModified();
+                    videoDescriptor = fileDescriptor;
                     videoStream = new ParcelFileDescriptor.AutoCloseInputStream(fileDescriptor);
                 } else if (Utility.isContentUri(videoUri)) {
                     videoSize = Utility.getContentSize(videoUri);
-                    videoStream = FacebookSdk
-                            .getApplicationContext()
-                            .getContentResolver()
-                            .openInputStream(videoUri);
+                    ContentResolver contentResolver =
+                            FacebookSdk.getApplicationContext().getContentResolver();
+                    fileDescriptor = openContentDescriptor(contentResolver, videoUri);
+                    if (isSeekable(fileDescriptor)) {
+                        videoDescriptor = fileDescriptor;
+                    }
+                    videoStream = openContentStream(contentResolver, videoUri, fileDescriptor);
                 } else {
                     throw new FacebookException("Uri must be a content:// or file:// uri");
                 }
@@ -354,6 +856,10 @@ public class VideoUploader {
                 Utility.closeQuietly(videoStream);
 
                 throw e;
+            } catch (IOException e) {
+                Utility.closeQuietly(videoStream);
+
+                throw new FacebookException(e);
             }
         }
     }
@@ -383,12 +889,20 @@ public class VideoUploader {
             uploadContext.videoId = jsonObject.getString(PARAM_VIDEO_ID);
             String startOffset = jsonObject.getString(PARAM_START_OFFSET);
             String endOffset = jsonObject.getString(PARAM_END_OFFSET);
+            recordJournalProgress(uploadContext, startOffset, endOffset);
 
-            enqueueUploadChunk(
+            // The start phase carries no payload, its duration approximates the round trip.
+            if (!startParallelTransfer(
                     uploadContext,
                     startOffset,
                     endOffset,
-                    0);
+                    requestDurationMillis)) {
+                enqueueUploadChunk(
+                        uploadContext,
+                        startOffset,
+                        endOffset,
+                        0);
+            }
         }
 
         @Override
@@ -438,11 +952,21 @@ public class VideoUploader {
             parameters.putString(PARAM_SESSION_ID, uploadContext.sessionId);
             parameters.putString(PARAM_START_OFFSET, chunkStart);
 
-            byte[] chunk = getChunk(uploadContext, chunkStart, chunkEnd);
-            if (chunk != null) {
-                parameters.putByteArray(PARAM_VIDEO_FILE_CHUNK, chunk);
+            if (uploadContext.videoDescriptor != null) {
+                GraphRequest.ParcelableFileRegion chunk =
+                        getChunkRegion(uploadContext, chunkStart, chunkEnd);
+                if (chunk != null) {
+                    parameters.putParcelable(PARAM_VIDEO_FILE_CHUNK, chunk);
+                } else {
+                    throw new FacebookException("Error reading video");
+                }
             } else {
-                throw new FacebookException("Error reading video");
+                byte[] chunk = getChunk(uploadContext, chunkStart, chunkEnd);
+                if (chunk != null) {
+                    parameters.putByteArray(PARAM_VIDEO_FILE_CHUNK, chunk);
+                } else {
+                    throw new FacebookException("Error reading video");
+                }
             }
 
             return parameters;
@@ -453,6 +977,8 @@ public class VideoUploader {
                 throws JSONException {
             String startOffset = jsonObject.getString(PARAM_START_OFFSET);
             String endOffset = jsonObject.getString(PARAM_END_OFFSET);
+            recordJournalProgress(uploadContext, startOffset, endOffset);
+            reportProgress(uploadContext, Long.parseLong(startOffset));
 
             if (Utility.areObjectsEqual(startOffset, endOffset)) {
                 enqueueUploadFinish(
@@ -484,6 +1010,128 @@ public class VideoUploader {
         }
     }
 
+    private static class ParallelChunkWorkItem extends UploadWorkItemBase {
+        private final VideoUploadChunkScheduler.Chunk chunk;
+
+        public ParallelChunkWorkItem(
+                UploadContext uploadContext,
+                VideoUploadChunkScheduler.Chunk chunk,
+                int completedRetries) {
+            super(uploadContext, completedRetries);
+            this.chunk = chunk;
+        }
+
+        @Override
+        public Bundle getParameters()
+                throws IOException {
+            Bundle parameters = new Bundle();
+            parameters.putString(PARAM_UPLOAD_PHASE, PARAM_VALUE_UPLOAD_TRANSFER_PHASE);
+            parameters.putString(PARAM_SESSION_ID, uploadContext.sessionId);
+            parameters.putString(PARAM_START_OFFSET, String.valueOf(chunk.start));
+            parameters.putParcelable(
+                    PARAM_VIDEO_FILE_CHUNK,
+                    new GraphRequest.ParcelableFileRegion(
+                            uploadContext.videoDescriptor.dup(),
+                            chunk.start,
+                            chunk.getLength(),
+                            null));
+
+            return parameters;
+        }
+
+        @Override
+        protected void handleSuccess(JSONObject jsonObject)
+                throws JSONException {
+            // The scheduler decides which chunks are still missing, but the offsets the server
+            // suggests must agree with it. If they don't, the session is not accepting chunks
+            // out of order, so the rest of the video follows the server's offsets instead.
+            VideoUploadChunkScheduler scheduler = uploadContext.chunkScheduler;
+            boolean isComplete = scheduler.onChunkAcknowledged(chunk, requestDurationMillis);
+            String startOffset = jsonObject.getString(PARAM_START_OFFSET);
+            String endOffset = jsonObject.getString(PARAM_END_OFFSET);
+            if (!scheduler.isConsistentWithServer(
+                    Long.parseLong(startOffset),
+                    Long.parseLong(endOffset))) {
+                if (scheduler.tryAbort()) {
+                    fallBackToSequentialTransfer(startOffset, endOffset);
+                }
+                return;
+            }
+            if (scheduler.isAborted()) {
+                // The transfer already fell back, or failed.
+                return;
+            }
+            recordParallelJournalProgress(uploadContext);
+            reportProgress(uploadContext, scheduler.getBytesAcknowledged());
+
+            if (isComplete) {
+                enqueueUploadFinish(
+                        uploadContext,
+                        0);
+            } else {
+                fillTransferWindow(uploadContext);
+            }
+        }
+
+        private void fallBackToSequentialTransfer(String startOffset, String endOffset) {
+            logError(
+                    null,
+                    "Offsets '%s' - '%s' disagree with a parallel transfer of video '%s'",
+                    startOffset,
+                    endOffset,
+                    uploadContext.videoId);
+            recordJournalProgress(uploadContext, startOffset, endOffset);
+            if (Utility.areObjectsEqual(startOffset, endOffset)) {
+                enqueueUploadFinish(
+                        uploadContext,
+                        0);
+            } else {
+                enqueueUploadChunk(
+                        uploadContext,
+                        startOffset,
+                        endOffset,
+                        0);
+            }
+        }
+
+        @Override
+        protected void handleError(FacebookException error) {
+            logError(
+                    error,
+                    "Error uploading chunk %d-%d of video '%s'",
+                    chunk.start,
+                    chunk.end,
+                    uploadContext.videoId);
+            if (uploadContext.chunkScheduler.isAborted()) {
+                // The sequential transfer that took over sends this chunk again if needed.
+                return;
+            }
+            endUploadWithFailure(error);
+        }
+
+        @Override
+        protected void endUploadWithFailure(FacebookException error) {
+            uploadContext.chunkScheduler.abort();
+            super.endUploadWithFailure(error);
+        }
+
+        @Override
+        protected Set<Integer> getTransientErrorCodes() {
+            return TransferChunkWorkItem.transientErrorCodes;
+        }
+
+        @Override
+        protected void enqueueRetry(int retriesCompleted) {
+            if (uploadContext.chunkScheduler.isAborted()) {
+                return;
+            }
+            // Retries are tracked per chunk, the others carry on meanwhile.
+            enqueueRequest(
+                    uploadContext,
+                    new ParallelChunkWorkItem(uploadContext, chunk, retriesCompleted));
+        }
+    }
+
     private static class FinishUploadWorkItem extends UploadWorkItemBase {
         static final Set<Integer> transientErrorCodes = new HashSet<Integer>() {{
             add(1363011);
@@ -538,6 +1186,7 @@ public class VideoUploader {
     private static abstract class UploadWorkItemBase implements Runnable {
         protected UploadContext uploadContext;
         protected int completedRetries;
+        protected long requestDurationMillis;
 
         protected UploadWorkItemBase(
                 UploadContext uploadContext,
@@ -569,7 +1218,9 @@ public class VideoUploader {
                     parameters,
                     HttpMethod.POST,
                     null);
+            long requestStartMillis = SystemClock.elapsedRealtime();
             GraphResponse response = request.executeAndWait();
+            requestDurationMillis = SystemClock.elapsedRealtime() - requestStartMillis;
 
             if (response != null) {
                 FacebookRequestError error = response.getError();
@@ -35,9 +35,12 @@ import org.powermock.api.mockito.PowerMockito;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.robolectric.RuntimeEnvironment;
 
+import java.io.File;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.Executor;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
@@ -73,6 +76,7 @@ public class AccessTokenCacheTest extends FacebookPowerMockTestCase {
     @Mock private LegacyTokenHelper cachingStrategy;
     private AccessTokenCache.SharedPreferencesTokenCachingStrategyFactory
             cachingStrategyFactory;
+    private final List<Runnable> snapshotWrites = new ArrayList<>();
 
     @Before
     public void before() throws Exception {
@@ -228,6 +232,99 @@ public class AccessTokenCacheTest extends FacebookPowerMockTestCase {
         assertEquals(accessToken, savedAccessToken);
     }
 
+    @Test
+    public void testSnapshotRoundTrip() throws Exception {
+        AccessToken accessToken = createAccessToken();
+
+        byte[] data = AccessTokenCache.encode(accessToken, 42);
+        assertEquals(accessToken, AccessTokenCache.decode(data, 42));
+        assertNull(AccessTokenCache.decode(data, 43));
+    }
+
+    @Test
+    public void testLoadWritesSnapshotFromCachedJson() throws JSONException {
+        File snapshotFile = createSnapshotFile();
+        AccessToken accessToken = createAccessToken();
+        sharedPreferences.edit().putString(AccessTokenCache.CACHED_ACCESS_TOKEN_KEY,
+                accessToken.toJSONObject().toString()).commit();
+
+        AccessTokenCache cache = createCache(snapshotFile);
+
+        assertEquals(accessToken, cache.load());
+        runSnapshotWrites();
+        assertTrue(snapshotFile.exists());
+
+        // A new process reads the snapshot while it matches the JSON.
+        cache = createCache(snapshotFile);
+        assertEquals(accessToken, cache.load());
+    }
+
+    @Test
+    public void testSaveWritesSnapshotOffTheCallersThread() {
+        File snapshotFile = createSnapshotFile();
+        AccessTokenCache cache = createCache(snapshotFile);
+
+        cache.save(createAccessToken());
+
+        assertFalse(snapshotFile.exists());
+        runSnapshotWrites();
+        assertTrue(snapshotFile.exists());
+    }
+
+    @Test
+    public void testSnapshotIsIgnoredWhenJsonChanged() throws JSONException {
+        File snapshotFile = createSnapshotFile();
+        createCache(snapshotFile).save(createAccessToken());
+        runSnapshotWrites();
+
+        // What an older SDK saving another token after a downgrade leaves behind.
+        AccessToken otherAccessToken = createAccessToken("another token", "1001");
+        sharedPreferences.edit().putString(AccessTokenCache.CACHED_ACCESS_TOKEN_KEY,
+                otherAccessToken.toJSONObject().toString()).commit();
+
+        assertEquals(otherAccessToken, createCache(snapshotFile).load());
+    }
+
+    @Test
+    public void testSnapshotIsIgnoredWhenJsonCleared() {
+        File snapshotFile = createSnapshotFile();
+        createCache(snapshotFile).save(createAccessToken());
+        runSnapshotWrites();
+
+        // What an older SDK logging out after a downgrade leaves behind.
+        sharedPreferences.edit().remove(AccessTokenCache.CACHED_ACCESS_TOKEN_KEY).commit();
+
+        assertNull(createCache(snapshotFile).load());
+    }
+
+    @Test
+    public void testClearDeletesSnapshot() {
+        File snapshotFile = createSnapshotFile();
+        AccessTokenCache cache = createCache(snapshotFile);
+        cache.save(createAccessToken());
+        runSnapshotWrites();
+        assertTrue(snapshotFile.exists());
+
+        cache.clear();
+        runSnapshotWrites();
+
+        assertFalse(snapshotFile.exists());
+        assertNull(cache.load());
+        assertNull(createCache(snapshotFile).load());
+    }
+
+    @Test
+    public void testClearSupersedesPendingSnapshotWrite() {
+        File snapshotFile = createSnapshotFile();
+        AccessTokenCache cache = createCache(snapshotFile);
+
+        cache.save(createAccessToken());
+        cache.clear();
+        runSnapshotWrites();
+
+        assertFalse(snapshotFile.exists());
+    }
+
     @Test
     public void testClearCacheClearsCache() {
         AccessToken accessToken = createAccessToken();
@@ -256,6 +353,34 @@ public class AccessTokenCacheTest extends FacebookPowerMockTestCase {
         verify(cachingStrategy, times(1)).clear();
     }
 
+    private AccessTokenCache createCache(File snapshotFile) {
+        return new AccessTokenCache(
+                sharedPreferences,
+                cachingStrategyFactory,
+                snapshotFile,
+                new Executor() {
+                    @Override
+                    public void execute(Runnable command) {
+                        snapshotWrites.add(command);
+                    }
+                });
+    }
+
+    private void runSnapshotWrites() {
+        for (Runnable write : snapshotWrites) {
+            write.run();
+        }
+        snapshotWrites.clear();
+    }
+
+    private File createSnapshotFile() {
+        File snapshotFile = new File(
+                RuntimeEnvironment.application.getFilesDir(),
+                AccessTokenCache.SNAPSHOT_FILE_NAME);
+        snapshotFile.delete();
+        return snapshotFile;
+    }
+
     private AccessToken createAccessToken() {
         return createAccessToken(TOKEN_STRING, USER_ID);
     }
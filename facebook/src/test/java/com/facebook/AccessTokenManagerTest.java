@@ -29,14 +29,20 @@ import android.support.v4.content.LocalBroadcastManager;
 import com.facebook.internal.Utility;
 
 import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.robolectric.RuntimeEnvironment;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
@@ -66,6 +72,8 @@ public class AccessTokenManagerTest extends FacebookPowerMockTestCase {
 
     private LocalBroadcastManager localBroadcastManager;
     private AccessTokenCache accessTokenCache;
+    private final List<Runnable> queuedTasks = new ArrayList<>();
+    private GraphRequestInterceptor interceptor;
 
     @Before
     public void before() throws Exception {
@@ -73,9 +81,25 @@ public class AccessTokenManagerTest extends FacebookPowerMockTestCase {
         when(FacebookSdk.isInitialized()).thenReturn(true);
         when(FacebookSdk.getApplicationContext()).thenReturn(RuntimeEnvironment.application);
         suppress(method(Utility.class, "clearFacebookCookies"));
+        suppress(method(Utility.class, "clearProfileInformationCache"));
 
         localBroadcastManager = LocalBroadcastManager.getInstance(RuntimeEnvironment.application);
         accessTokenCache = mock(AccessTokenCache.class);
+
+        // Refreshes are queued here and run by the test, so it controls how they overlap.
+        when(FacebookSdk.getExecutor()).thenReturn(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                queuedTasks.add(command);
+            }
+        });
+    }
+
+    @After
+    public void after() {
+        if (interceptor != null) {
+            GraphRequest.removeInterceptor(interceptor);
+        }
     }
 
     @Test
@@ -186,6 +210,21 @@ public class AccessTokenManagerTest extends FacebookPowerMockTestCase {
         assertEquals(accessToken, accessTokenManager.getCurrentAccessToken());
     }
 
+    @Test
+    public void testLoadedFutureCompletesWithCachedToken() throws Exception {
+        AccessToken accessToken = createAccessToken();
+        when(accessTokenCache.load()).thenReturn(accessToken);
+
+        AccessTokenManager accessTokenManager = createAccessTokenManager();
+        assertFalse(accessTokenManager.getCurrentAccessTokenLoadedFuture().isDone());
+
+        accessTokenManager.loadCurrentAccessToken();
+
+        assertEquals(
+                accessToken,
+                accessTokenManager.getCurrentAccessTokenLoadedFuture().get(1, TimeUnit.SECONDS));
+    }
+
     @Test
     public void testSaveWritesToCacheIfToken() throws JSONException {
         AccessToken accessToken = createAccessToken();
@@ -217,6 +256,90 @@ public class AccessTokenManagerTest extends FacebookPowerMockTestCase {
         verify(accessTokenCache, never()).save(any(AccessToken.class));
     }
 
+    @Test
+    public void testConcurrentRefreshesShareOneBatch() {
+        final AtomicInteger batches = new AtomicInteger();
+        addInterceptor(new GraphRequestInterceptor() {
+            @Override
+            public List<GraphResponse> intercept(Chain chain) {
+                batches.incrementAndGet();
+                List<GraphResponse> responses = new ArrayList<>();
+                for (GraphRequest request : chain.getRequests()) {
+                    responses.add(TestUtils.createResponse(request, new JSONObject()));
+                }
+                return responses;
+            }
+        });
+        AccessTokenManager accessTokenManager = createAccessTokenManager();
+        accessTokenManager.setCurrentAccessToken(createAccessToken());
+        RecordingRefreshCallback first = new RecordingRefreshCallback();
+        RecordingRefreshCallback second = new RecordingRefreshCallback();
+
+        accessTokenManager.refreshCurrentAccessToken(first);
+        accessTokenManager.refreshCurrentAccessToken(second);
+        assertEquals(1, queuedTasks.size());
+        runQueuedTasks();
+
+        assertEquals(1, batches.get());
+        assertNotNull(first.refreshedToken);
+        assertNotNull(second.refreshedToken);
+        assertEquals(first.refreshedToken, second.refreshedToken);
+    }
+
+    @Test
+    public void testRefreshThatThrowsCompletes() {
+        addInterceptor(new GraphRequestInterceptor() {
+            @Override
+            public List<GraphResponse> intercept(Chain chain) {
+                throw new IllegalStateException("batch failed");
+            }
+        });
+        AccessTokenManager accessTokenManager = createAccessTokenManager();
+        accessTokenManager.setCurrentAccessToken(createAccessToken());
+        RecordingRefreshCallback first = new RecordingRefreshCallback();
+        RecordingRefreshCallback second = new RecordingRefreshCallback();
+
+        accessTokenManager.refreshCurrentAccessToken(first);
+        accessTokenManager.refreshCurrentAccessToken(second);
+        runQueuedTasks();
+
+        assertNotNull(first.error);
+        assertNotNull(second.error);
+
+        // The failed operation no longer absorbs new refreshes.
+        accessTokenManager.refreshCurrentAccessToken(new RecordingRefreshCallback());
+        assertEquals(1, queuedTasks.size());
+    }
+
+    private void addInterceptor(GraphRequestInterceptor interceptor) {
+        this.interceptor = interceptor;
+        GraphRequest.addInterceptor(interceptor);
+    }
+
+    private void runQueuedTasks() {
+        List<Runnable> tasks = new ArrayList<>(queuedTasks);
+        queuedTasks.clear();
+        for (Runnable task : tasks) {
+            task.run();
+        }
+    }
+
+    private static class RecordingRefreshCallback
+            implements AccessToken.AccessTokenRefreshCallback {
+        AccessToken refreshedToken;
+        FacebookException error;
+
+        @Override
+        public void OnTokenRefreshed(AccessToken accessToken) {
+            refreshedToken = accessToken;
+        }
+
+        @Override
+        public void OnTokenRefreshFailed(FacebookException exception) {
+            error = exception;
+        }
+    }
+
     private AccessTokenManager createAccessTokenManager() {
         return new AccessTokenManager(localBroadcastManager, accessTokenCache);
     }
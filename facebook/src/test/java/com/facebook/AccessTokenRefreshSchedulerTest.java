@@ -0,0 +1,136 @@
+/**
+ * Copyright (c) 2014-present, Facebook, Inc. All rights reserved.
+ *
+ * You are hereby granted a non-exclusive, worldwide, royalty-free license to use,
+ * copy, modify, and distribute this software in source code or binary form for use
+ * in connection with the web services and APIs provided by Facebook.
+ *
+ * As with any software that integrates with the Facebook platform, your use of
+ * this software is subject to the Facebook Developer Principles and Policies
+ * [http://developers.facebook.com/policy/]. This copyright notice shall be
+ * included in all copies or substantial portions of the software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.facebook;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.robolectric.Robolectric;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.Date;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+public class AccessTokenRefreshSchedulerTest extends FacebookTestCase {
+    private static final long THRESHOLD = 24 * 60 * 60 * 1000;
+    private static final long RETRY = 60 * 60 * 1000;
+
+    private Runnable refreshTask;
+    private AccessTokenRefreshScheduler scheduler;
+
+    @Before
+    public void before() {
+        Robolectric.getForegroundThreadScheduler().reset();
+        refreshTask = mock(Runnable.class);
+        scheduler = new AccessTokenRefreshScheduler(
+                refreshTask,
+                THRESHOLD,
+                RETRY,
+                new Handler(Looper.getMainLooper()),
+                new FixedRandom(0.5));
+    }
+
+    @Test
+    public void testSchedulesAheadOfThreshold() {
+        long lastRefresh = System.currentTimeMillis();
+        long delay = scheduler.schedule(createAccessToken(AccessTokenSource.WEB_VIEW, lastRefresh));
+
+        long dueIn = THRESHOLD - (System.currentTimeMillis() - lastRefresh);
+        assertTrue(delay <= dueIn);
+        assertTrue(delay >= dueIn - AccessTokenRefreshScheduler.LEAD_JITTER_MILLIS);
+        assertEquals(1, Robolectric.getForegroundThreadScheduler().size());
+
+        ShadowLooper.idleMainLooper(delay - 1);
+        verify(refreshTask, never()).run();
+        ShadowLooper.idleMainLooper(1);
+        verify(refreshTask).run();
+    }
+
+    @Test
+    public void testDueTokenIsRefreshedSoon() {
+        long delay = scheduler.schedule(createAccessToken(
+                AccessTokenSource.WEB_VIEW, System.currentTimeMillis() - 2 * THRESHOLD));
+
+        assertTrue(delay >= 0);
+        assertTrue(delay < AccessTokenRefreshScheduler.DUE_JITTER_MILLIS);
+    }
+
+    @Test
+    public void testUnextendableTokenIsNotScheduled() {
+        assertEquals(-1, scheduler.schedule(createAccessToken(
+                AccessTokenSource.NONE, System.currentTimeMillis())));
+        assertEquals(-1, scheduler.schedule(null));
+        assertEquals(0, Robolectric.getForegroundThreadScheduler().size());
+    }
+
+    @Test
+    public void testFailuresBackOff() {
+        assertEquals(RETRY * 3 / 4, scheduler.onRefreshFailed());
+        assertEquals(RETRY * 2 * 3 / 4, scheduler.onRefreshFailed());
+        assertEquals(RETRY * 4 * 3 / 4, scheduler.onRefreshFailed());
+        for (int i = 0; i < 10; i++) {
+            scheduler.onRefreshFailed();
+        }
+        assertEquals(
+                AccessTokenRefreshScheduler.MAX_BACKOFF_MILLIS * 3 / 4,
+                scheduler.onRefreshFailed());
+
+        // A new token starts over.
+        scheduler.schedule(
+                createAccessToken(AccessTokenSource.WEB_VIEW, System.currentTimeMillis()));
+        assertEquals(RETRY * 3 / 4, scheduler.onRefreshFailed());
+        // Each plan replaces the one before it.
+        assertEquals(1, Robolectric.getForegroundThreadScheduler().size());
+    }
+
+    private AccessToken createAccessToken(AccessTokenSource source, long lastRefresh) {
+        return new AccessToken(
+                "token",
+                "1234",
+                "1000",
+                null,
+                null,
+                source,
+                new Date(lastRefresh + 60 * THRESHOLD),
+                new Date(lastRefresh));
+    }
+
+    private static class FixedRandom extends Random {
+        private final double value;
+
+        FixedRandom(double value) {
+            this.value = value;
+        }
+
+        @Override
+        public double nextDouble() {
+            return value;
+        }
+    }
+}
@@ -28,6 +28,7 @@ import android.os.ConditionVariable;
 
 import com.facebook.internal.FetchedAppSettingsManager;
 import com.facebook.internal.ServerProtocol;
+import com.facebook.internal.StartupTrace;
 import com.facebook.internal.Utility;
 
 import org.junit.Before;
@@ -36,6 +37,9 @@ import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.reflect.Whitebox;
 import org.robolectric.RuntimeEnvironment;
 
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 import java.util.concurrent.Executor;
 
 import static org.junit.Assert.assertEquals;
@@ -189,6 +193,28 @@ public final class FacebookSdkPowerMockTest extends FacebookPowerMockTestCase {
         assertEquals(1000, FacebookSdk.getCallbackRequestCodeOffset());
     }
 
+    @Test
+    public void testLazyInitializationDefersStartupWork() {
+        ((List) Whitebox.getInternalState(StartupTrace.class, "steps")).clear();
+        FacebookSdk.setApplicationId("123456789");
+        FacebookSdk.setLazyInitializationEnabled(true);
+        try {
+            FacebookSdk.sdkInitialize(RuntimeEnvironment.application);
+            assertTrue(FacebookSdk.isInitialized());
+
+            Set<String> stepNames = new HashSet<>();
+            for (StartupTrace.Step step : StartupTrace.getSteps()) {
+                stepNames.add(step.getName());
+                assertTrue(step.getWallTimeNanos() >= 0);
+            }
+            assertTrue(stepNames.contains("sdk_initialize"));
+            assertTrue(stepNames.contains("load_metadata"));
+            assertFalse(stepNames.contains("native_protocol"));
+        } finally {
+            FacebookSdk.setLazyInitializationEnabled(false);
+        }
+    }
+
     @Test
     public void testRequestCodeRange() {
         FacebookSdk.setApplicationId("123456789");
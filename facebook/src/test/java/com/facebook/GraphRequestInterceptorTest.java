@@ -0,0 +1,246 @@
+/**
+ * Copyright (c) 2014-present, Facebook, Inc. All rights reserved.
+ *
+ * You are hereby granted a non-exclusive, worldwide, royalty-free license to use,
+ * copy, modify, and distribute this software in source code or binary form for use
+ * in connection with the web services and APIs provided by Facebook.
+ *
+ * As with any software that integrates with the Facebook platform, your use of
+ * this software is subject to the Facebook Developer Principles and Policies
+ * [http://developers.facebook.com/policy/]. This copyright notice shall be
+ * included in all copies or substantial portions of the software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.facebook;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.powermock.api.mockito.PowerMockito.mockStatic;
+import static org.powermock.api.mockito.PowerMockito.when;
+
+@PrepareForTest( { FacebookSdk.class })
+public class GraphRequestInterceptorTest extends FacebookPowerMockTestCase {
+    private final List<String> events = new ArrayList<>();
+    private final List<GraphRequestInterceptor> applicationInterceptors = new ArrayList<>();
+    private final List<GraphRequestInterceptor> networkInterceptors = new ArrayList<>();
+
+    @Before
+    public void before() {
+        mockStatic(FacebookSdk.class);
+        when(FacebookSdk.isInitialized()).thenReturn(true);
+        when(FacebookSdk.getApplicationId()).thenReturn("1234");
+        when(FacebookSdk.getClientToken()).thenReturn("5678");
+        when(FacebookSdk.getFacebookDomain()).thenReturn("facebook.com");
+        when(FacebookSdk.getGraphApiVersion()).thenReturn("v3.0");
+    }
+
+    @After
+    public void after() {
+        for (GraphRequestInterceptor interceptor : applicationInterceptors) {
+            GraphRequest.removeInterceptor(interceptor);
+        }
+        for (GraphRequestInterceptor interceptor : networkInterceptors) {
+            GraphRequest.removeNetworkInterceptor(interceptor);
+        }
+    }
+
+    @Test
+    public void testApplicationInterceptorsRunInOrderAndCanShortCircuit() throws Exception {
+        addInterceptor(new RecordingInterceptor("outer", false));
+        addInterceptor(new RecordingInterceptor("inner", true));
+        addNetworkInterceptor(new RecordingInterceptor("network", false));
+
+        final GraphResponse[] delivered = new GraphResponse[1];
+        GraphRequest request = new GraphRequest(null, "me");
+        request.setCallback(new GraphRequest.Callback() {
+            @Override
+            public void onCompleted(GraphResponse response) {
+                events.add("callback");
+                delivered[0] = response;
+            }
+        });
+
+        GraphResponse response = request.executeAndWait();
+
+        assertEquals(Arrays.asList("outer", "inner", "callback"), events);
+        assertSame(response, delivered[0]);
+        assertEquals("inner", response.getJSONObject().getString("from"));
+    }
+
+    @Test
+    public void testReplacedBatchIsExecuted() throws Exception {
+        final GraphRequest replacement = new GraphRequest(null, "replaced");
+        addInterceptor(new GraphRequestInterceptor() {
+            @Override
+            public List<GraphResponse> intercept(Chain chain) {
+                List<GraphResponse> responses = chain.proceed(new GraphRequestBatch(replacement));
+                // Answer the original request with what the replacement got.
+                GraphResponse response = responses.get(0);
+                return Arrays.asList(new GraphResponse(
+                        chain.getRequests().get(0),
+                        null,
+                        response.getRawResponse(),
+                        response.getJSONObject()));
+            }
+        });
+        final List<GraphRequest> executed = new ArrayList<>();
+        addInterceptor(new GraphRequestInterceptor() {
+            @Override
+            public List<GraphResponse> intercept(Chain chain) {
+                executed.addAll(chain.getRequests());
+                JSONObject result = new JSONObject();
+                try {
+                    result.put("path", chain.getRequests().get(0).getGraphPath());
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+                return Arrays.asList(new GraphResponse(
+                        chain.getRequests().get(0), null, result.toString(), result));
+            }
+        });
+
+        GraphRequest request = new GraphRequest(null, "me");
+        GraphResponse response = request.executeAndWait();
+
+        assertEquals(Arrays.asList(replacement), executed);
+        assertSame(request, response.getRequest());
+        assertEquals("replaced", response.getJSONObject().getString("path"));
+    }
+
+    @Test
+    public void testReplacedBatchIsNotSentOnSerializedConnection() throws Exception {
+        final GraphRequest replacement = new GraphRequest(null, "replaced");
+        final boolean[] replace = new boolean[1];
+        addInterceptor(new GraphRequestInterceptor() {
+            @Override
+            public List<GraphResponse> intercept(Chain chain) {
+                return replace[0]
+                        ? chain.proceed(new GraphRequestBatch(replacement))
+                        : chain.proceed(chain.getRequests());
+            }
+        });
+        final List<HttpURLConnection> connections = new ArrayList<>();
+        addNetworkInterceptor(new GraphRequestInterceptor() {
+            @Override
+            public List<GraphResponse> intercept(Chain chain) {
+                connections.add(chain.getConnection());
+                return Arrays.asList(new GraphResponse(
+                        chain.getRequests().get(0), null, "{}", new JSONObject()));
+            }
+        });
+        HttpURLConnection serializedConnection = mock(HttpURLConnection.class);
+
+        GraphRequestBatch original = new GraphRequestBatch(new GraphRequest(null, "me"));
+        GraphRequest.executeConnectionAndWait(serializedConnection, original);
+        assertSame(serializedConnection, connections.get(0));
+
+        // The caller's connection carries the body of the original batch.
+        replace[0] = true;
+        GraphRequest.executeConnectionAndWait(serializedConnection, original);
+        assertNotSame(serializedConnection, connections.get(1));
+        assertTrue(connections.get(1).getURL().toString().contains("replaced"));
+    }
+
+    @Test
+    public void testMetricsReportedWhenConnectionCannotBeOpened() throws Exception {
+        final List<GraphRequestMetrics> recorded = new ArrayList<>();
+        addInterceptor(new GraphRequestMetricsInterceptor(
+                new GraphRequestMetricsInterceptor.Sink() {
+                    @Override
+                    public void onMetricsRecorded(GraphRequestMetrics metrics) {
+                        recorded.add(metrics);
+                    }
+                }));
+        addNetworkInterceptor(new RecordingInterceptor("network", false));
+
+        // Not an HTTP URL, so no HttpURLConnection can be opened for it.
+        GraphRequest request = new GraphRequest(null, new URL("ftp://example.com/file"));
+        GraphResponse response = request.executeAndWait();
+
+        assertNotNull(response.getError());
+        assertTrue(events.isEmpty());
+        assertEquals(1, recorded.size());
+        GraphRequestMetrics metrics = recorded.get(0);
+        assertEquals(1, metrics.getBatchSize());
+        assertTrue(metrics.getTotalNanos() >= 0);
+        assertEquals(-1, metrics.getConnectNanos());
+        assertEquals(-1, metrics.getResponseCode());
+    }
+
+    @Test
+    public void testRemovedInterceptorIsNotInvoked() {
+        RecordingInterceptor interceptor = new RecordingInterceptor("removed", true);
+        GraphRequest.addInterceptor(interceptor);
+        GraphRequest.removeInterceptor(interceptor);
+        addInterceptor(new RecordingInterceptor("kept", true));
+
+        GraphResponse response = new GraphRequest(null, "me").executeAndWait();
+
+        assertEquals(Arrays.asList("kept"), events);
+        assertNull(response.getError());
+    }
+
+    private void addInterceptor(GraphRequestInterceptor interceptor) {
+        applicationInterceptors.add(interceptor);
+        GraphRequest.addInterceptor(interceptor);
+    }
+
+    private void addNetworkInterceptor(GraphRequestInterceptor interceptor) {
+        networkInterceptors.add(interceptor);
+        GraphRequest.addNetworkInterceptor(interceptor);
+    }
+
+    private class RecordingInterceptor implements GraphRequestInterceptor {
+        private final String name;
+        private final boolean shortCircuit;
+
+        RecordingInterceptor(String name, boolean shortCircuit) {
+            this.name = name;
+            this.shortCircuit = shortCircuit;
+        }
+
+        @Override
+        public List<GraphResponse> intercept(Chain chain) {
+            events.add(name);
+            if (!shortCircuit) {
+                return chain.proceed(chain.getRequests());
+            }
+
+            List<GraphResponse> responses = new ArrayList<>();
+            for (GraphRequest request : chain.getRequests()) {
+                JSONObject result = new JSONObject();
+                try {
+                    result.put("from", name);
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+                responses.add(new GraphResponse(request, null, result.toString(), result));
+            }
+            return responses;
+        }
+    }
+}
@@ -0,0 +1,175 @@
+/**
+ * Copyright (c) 2014-present, Facebook, Inc. All rights reserved.
+ *
+ * You are hereby granted a non-exclusive, worldwide, royalty-free license to use,
+ * copy, modify, and distribute this software in source code or binary form for use
+ * in connection with the web services and APIs provided by Facebook.
+ *
+ * As with any software that integrates with the Facebook platform, your use of
+ * this software is subject to the Facebook Developer Principles and Policies
+ * [http://developers.facebook.com/policy/]. This copyright notice shall be
+ * included in all copies or substantial portions of the software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.facebook;
+
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+
+import com.facebook.internal.FacebookRequestErrorClassification;
+
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+public class GraphRequestRetryEngineTest extends FacebookTestCase {
+    private static final GraphRequestRetryPolicy NO_BACKOFF =
+            new GraphRequestRetryPolicy(2, 0, 0);
+
+    @Before
+    public void before() {
+        GraphRequestRetryEngine.resetBudget();
+    }
+
+    @Test
+    public void testOnlyFailedEntriesAreResent() {
+        GraphRequest first = new GraphRequest(null, "first");
+        GraphRequest second = new GraphRequest(null, "second");
+        GraphRequest third = new GraphRequest(null, "third");
+        GraphRequestBatch batch = new GraphRequestBatch(first, second, third);
+        batch.setRetryPolicy(NO_BACKOFF);
+
+        ScriptedAttempt attempt = new ScriptedAttempt();
+        attempt.failOnce.add(second);
+        List<GraphResponse> responses = GraphRequestRetryEngine.execute(batch, attempt);
+
+        assertEquals(2, attempt.attempts.size());
+        assertEquals(Arrays.asList(first, second, third), attempt.attempts.get(0));
+        assertEquals(Arrays.asList(second), attempt.attempts.get(1));
+        for (GraphResponse response : responses) {
+            assertNull(response.getError());
+        }
+    }
+
+    @Test
+    public void testNonIdempotentRequestsAreOnlyRetriedWhenMarked() {
+        GraphRequest post = new GraphRequest(null, "me/feed", null, HttpMethod.POST);
+        post.setRetryPolicy(NO_BACKOFF);
+        ScriptedAttempt attempt = new ScriptedAttempt();
+        attempt.failOnce.add(post);
+
+        GraphRequestRetryEngine.execute(new GraphRequestBatch(post), attempt);
+        assertEquals(1, attempt.attempts.size());
+
+        post.setRetryable(true);
+        attempt = new ScriptedAttempt();
+        attempt.failOnce.add(post);
+        List<GraphResponse> responses =
+                GraphRequestRetryEngine.execute(new GraphRequestBatch(post), attempt);
+        assertEquals(2, attempt.attempts.size());
+        assertNull(responses.get(0).getError());
+    }
+
+    @Test
+    public void testRequestsWithFileDescriptorsAreNotRetried() {
+        Bundle parameters = new Bundle();
+        parameters.putParcelable("source", mock(ParcelFileDescriptor.class));
+        GraphRequest post = new GraphRequest(null, "me/videos", parameters, HttpMethod.POST);
+        post.setRetryable(true);
+        post.setRetryPolicy(NO_BACKOFF);
+        ScriptedAttempt attempt = new ScriptedAttempt();
+        attempt.failOnce.add(post);
+
+        List<GraphResponse> responses =
+                GraphRequestRetryEngine.execute(new GraphRequestBatch(post), attempt);
+
+        assertEquals(1, attempt.attempts.size());
+        assertNotNull(responses.get(0).getError());
+    }
+
+    @Test
+    public void testRetriesStopAtMaxRetries() {
+        GraphRequest request = new GraphRequest(null, "me");
+        request.setRetryPolicy(NO_BACKOFF);
+        ScriptedAttempt attempt = new ScriptedAttempt();
+        attempt.alwaysFail.add(request);
+
+        List<GraphResponse> responses =
+                GraphRequestRetryEngine.execute(new GraphRequestBatch(request), attempt);
+
+        assertEquals(1 + NO_BACKOFF.getMaxRetries(), attempt.attempts.size());
+        assertNotNull(responses.get(0).getError());
+    }
+
+    @Test
+    public void testRetryBudgetLimitsRetriesAcrossBatches() {
+        int retries = 0;
+        for (int i = 0; i < GraphRequestRetryEngine.BUDGET_MAX_TOKENS; i++) {
+            GraphRequest request = new GraphRequest(null, "me");
+            request.setRetryPolicy(NO_BACKOFF);
+            ScriptedAttempt attempt = new ScriptedAttempt();
+            attempt.alwaysFail.add(request);
+            GraphRequestRetryEngine.execute(new GraphRequestBatch(request), attempt);
+            retries += attempt.attempts.size() - 1;
+        }
+
+        // Retries stop once half of the budget has been spent.
+        assertEquals(GraphRequestRetryEngine.BUDGET_MAX_TOKENS / 2 - 1, retries);
+    }
+
+    @Test
+    public void testRetryableErrors() {
+        assertTrue(GraphRequestRetryEngine.isRetryableError(new FacebookRequestError(
+                FacebookRequestErrorClassification.EC_SERVICE_UNAVAILABLE, null, null)));
+        assertTrue(GraphRequestRetryEngine.isRetryableError(
+                new FacebookRequestError(null, new IOException("connection reset"))));
+        assertFalse(GraphRequestRetryEngine.isRetryableError(new FacebookRequestError(
+                FacebookRequestErrorClassification.EC_INVALID_TOKEN, null, null)));
+        assertFalse(GraphRequestRetryEngine.isRetryableError(null));
+    }
+
+    private static class ScriptedAttempt implements GraphRequestRetryEngine.Attempt {
+        private final List<List<GraphRequest>> attempts = new ArrayList<>();
+        private final Set<GraphRequest> failOnce = new HashSet<>();
+        private final Set<GraphRequest> alwaysFail = new HashSet<>();
+
+        @Override
+        public List<GraphResponse> execute(GraphRequestBatch requests) {
+            attempts.add(new ArrayList<>(requests));
+            List<GraphResponse> responses = new ArrayList<>();
+            for (GraphRequest request : requests) {
+                if (failOnce.remove(request) || alwaysFail.contains(request)) {
+                    responses.add(new GraphResponse(request, null, new FacebookRequestError(
+                            FacebookRequestErrorClassification.EC_SERVICE_UNAVAILABLE,
+                            null,
+                            null)));
+                } else {
+                    JSONObject result = new JSONObject();
+                    responses.add(new GraphResponse(request, null, result.toString(), result));
+                }
+            }
+            return responses;
+        }
+    }
+}
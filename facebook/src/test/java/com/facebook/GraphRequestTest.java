@@ -24,6 +24,7 @@ import android.graphics.Bitmap;
 import android.location.Location;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
 
 import com.facebook.share.internal.ShareInternalUtility;
 
@@ -32,9 +33,15 @@ import org.junit.Before;
 import org.junit.Test;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.net.HttpURLConnection;
+import java.net.URL;
 
 import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
 import static org.powermock.api.mockito.PowerMockito.mockStatic;
 import static org.powermock.api.mockito.PowerMockito.when;
 
@@ -49,6 +56,39 @@ public class GraphRequestTest extends FacebookPowerMockTestCase {
         when(FacebookSdk.getClientToken()).thenReturn("5678");
     }
 
+    @Test
+    public void testSerializeFileRegionAtOffset() throws Exception {
+        File file = createFile(new byte[] {0, 1, 2, 3, 4, 5, 6, 7, 8, 9});
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+        serializeFileRegion(new GraphRequest.ParcelableFileRegion(
+                ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY),
+                3,
+                4,
+                null), body);
+
+        // Exactly the bytes of the region, between the part's headers and its trailing newline.
+        String expected = "Content-Type: content/unknown\r\n\r\n"
+                + new String(new byte[] {3, 4, 5, 6}, "ISO-8859-1")
+                + "\r\n--";
+        assertTrue(body.toString("ISO-8859-1").contains(expected));
+    }
+
+    @Test
+    public void testSerializeFileRegionPastEndOfFileFails() throws Exception {
+        File file = createFile(new byte[] {0, 1, 2, 3, 4, 5, 6, 7, 8, 9});
+
+        try {
+            serializeFileRegion(new GraphRequest.ParcelableFileRegion(
+                    ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY),
+                    8,
+                    5,
+                    null), new ByteArrayOutputStream());
+            fail();
+        } catch (EOFException e) {
+        }
+    }
+
     @Test
     public void testCreateRequest() {
         GraphRequest request = new GraphRequest();
@@ -230,4 +270,29 @@ public class GraphRequestTest extends FacebookPowerMockTestCase {
         assertTrue(accessToken.contains(FacebookSdk.getApplicationId()));
         assertTrue(accessToken.contains(FacebookSdk.getClientToken()));
     }
+
+    private static File createFile(byte[] contents) throws Exception {
+        File file = File.createTempFile("GraphRequestTest", null);
+        file.deleteOnExit();
+        FileOutputStream outputStream = new FileOutputStream(file);
+        try {
+            outputStream.write(contents);
+        } finally {
+            outputStream.close();
+        }
+        return file;
+    }
+
+    private static void serializeFileRegion(
+            GraphRequest.ParcelableFileRegion region,
+            ByteArrayOutputStream body) throws Exception {
+        Bundle parameters = new Bundle();
+        parameters.putParcelable("video_file_chunk", region);
+        GraphRequest request = new GraphRequest(null, "me/videos", parameters, HttpMethod.POST);
+        HttpURLConnection connection = mock(HttpURLConnection.class);
+        when(connection.getURL()).thenReturn(new URL("https://graph.facebook.com/me/videos"));
+        when(connection.getOutputStream()).thenReturn(body);
+
+        GraphRequest.serializeToUrlConnection(new GraphRequestBatch(request), connection, null);
+    }
 }
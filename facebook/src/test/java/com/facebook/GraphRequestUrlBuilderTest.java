@@ -0,0 +1,140 @@
+/**
+ * Copyright (c) 2014-present, Facebook, Inc. All rights reserved.
+ *
+ * You are hereby granted a non-exclusive, worldwide, royalty-free license to use,
+ * copy, modify, and distribute this software in source code or binary form for use
+ * in connection with the web services and APIs provided by Facebook.
+ *
+ * As with any software that integrates with the Facebook platform, your use of
+ * this software is subject to the Facebook Developer Principles and Policies
+ * [http://developers.facebook.com/policy/]. This copyright notice shall be
+ * included in all copies or substantial portions of the software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.facebook;
+
+import android.net.Uri;
+import android.os.Bundle;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.powermock.api.mockito.PowerMockito.mockStatic;
+import static org.powermock.api.mockito.PowerMockito.when;
+
+@PrepareForTest( { FacebookSdk.class })
+public class GraphRequestUrlBuilderTest extends FacebookPowerMockTestCase {
+
+    @Before
+    public void before() {
+        mockStatic(FacebookSdk.class);
+        when(FacebookSdk.isInitialized()).thenReturn(true);
+        when(FacebookSdk.getApplicationId()).thenReturn("1234");
+        when(FacebookSdk.getClientToken()).thenReturn("5678");
+        when(FacebookSdk.getFacebookDomain()).thenReturn("facebook.com");
+        when(FacebookSdk.getGraphApiVersion()).thenReturn("v3.0");
+    }
+
+    @Test
+    public void testVersionPrefixLength() {
+        assertEquals(5, GraphRequestUrlBuilder.getVersionPrefixLength("v2.9/me"));
+        assertEquals(7, GraphRequestUrlBuilder.getVersionPrefixLength("/v12.0/me"));
+        assertEquals(-1, GraphRequestUrlBuilder.getVersionPrefixLength("me"));
+        assertEquals(-1, GraphRequestUrlBuilder.getVersionPrefixLength("v2/me"));
+        assertEquals(-1, GraphRequestUrlBuilder.getVersionPrefixLength("v.1/me"));
+        assertEquals(-1, GraphRequestUrlBuilder.getVersionPrefixLength("v2.9"));
+        assertEquals(-1, GraphRequestUrlBuilder.getVersionPrefixLength("videos/v2.9/"));
+    }
+
+    @Test
+    public void testEncodingMatchesUri() {
+        String[] values = {
+                "plain",
+                "id,name,first_name",
+                "1234|5678",
+                "a b&c=d/e?f#g+h%",
+                "_-!.~'()*",
+                "caf\u00e9 \u4e2d\u6587",
+                "\ud83d\ude00",
+                "\ud83d",
+        };
+        for (String value : values) {
+            StringBuilder builder = new StringBuilder();
+            GraphRequestUrlBuilder.appendEncoded(builder, value);
+            assertEquals(Uri.encode(value), builder.toString());
+        }
+    }
+
+    @Test
+    public void testUrlForSingleRequest() {
+        Bundle parameters = new Bundle();
+        parameters.putString("fields", "id,name");
+        GraphRequest request = new GraphRequest(null, "me", parameters, HttpMethod.GET);
+
+        Uri url = Uri.parse(request.getUrlForSingleRequest());
+        assertEquals("https", url.getScheme());
+        assertEquals("graph.facebook.com", url.getHost());
+        assertEquals("/v3.0/me", url.getPath());
+        assertEquals("id,name", url.getQueryParameter("fields"));
+        assertEquals("1234|5678", url.getQueryParameter("access_token"));
+        assertEquals("android", url.getQueryParameter("sdk"));
+
+        GraphRequest versioned = new GraphRequest(null, "v2.9/me", null, HttpMethod.GET);
+        assertEquals("/v2.9/me", Uri.parse(versioned.getUrlForSingleRequest()).getPath());
+
+        GraphRequest post = new GraphRequest(null, "me/feed", parameters, HttpMethod.POST);
+        assertEquals("https://graph.facebook.com/v3.0/me/feed", post.getUrlForSingleRequest());
+    }
+
+    @Test
+    public void testRelativeUrlForBatchedRequest() {
+        Bundle parameters = new Bundle();
+        parameters.putString("q", "a&b");
+        GraphRequest request = new GraphRequest(null, "search", parameters, HttpMethod.GET);
+
+        String relativeUrl = request.getRelativeUrlForBatchedRequest();
+        assertTrue(relativeUrl.startsWith("/v3.0/search?"));
+        Uri url = Uri.parse("https://graph.facebook.com" + relativeUrl);
+        assertEquals("a&b", url.getQueryParameter("q"));
+        assertEquals("json", url.getQueryParameter("format"));
+    }
+
+    @Test
+    public void testBatchUrlConstructionCost() {
+        List<GraphRequest> requests = new ArrayList<>();
+        for (int i = 0; i < GraphRequest.MAXIMUM_BATCH_SIZE; i++) {
+            Bundle parameters = new Bundle();
+            parameters.putString("fields", "id,name,first_name,middle_name,last_name,link");
+            parameters.putInt("limit", i);
+            requests.add(new GraphRequest(null, "me/friends", parameters, HttpMethod.GET));
+        }
+
+        int iterations = 200;
+        long start = System.nanoTime();
+        int totalLength = 0;
+        for (int i = 0; i < iterations; i++) {
+            for (GraphRequest request : requests) {
+                totalLength += request.getRelativeUrlForBatchedRequest().length();
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+
+        assertTrue(totalLength > 0);
+        System.out.println(String.format(
+                "Relative batch URL construction: %d ns per request",
+                elapsed / (iterations * requests.size())));
+    }
+}
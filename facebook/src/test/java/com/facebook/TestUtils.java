@@ -27,6 +27,7 @@ import android.os.Bundle;
 import android.os.Parcel;
 import android.os.Parcelable;
 
+import com.facebook.internal.FacebookRequestErrorClassification;
 import com.facebook.internal.FileLruCache;
 import com.facebook.internal.Utility;
 
@@ -254,6 +255,18 @@ public class TestUtils {
         return expected.equals(actual);
     }
 
+    // Responses for interceptors in other packages, which can't reach the constructors.
+    public static GraphResponse createResponse(GraphRequest request, JSONObject result) {
+        return new GraphResponse(request, null, result.toString(), result);
+    }
+
+    public static GraphResponse createErrorResponse(GraphRequest request) {
+        return new GraphResponse(request, null, new FacebookRequestError(
+                FacebookRequestErrorClassification.EC_SERVICE_UNAVAILABLE,
+                null,
+                null));
+    }
+
     public static void clearFileLruCache(final FileLruCache cache) throws InterruptedException {
         // since the cache clearing happens in a separate thread, we need to wait until
         // the clear is complete before we can check for the existence of the old files
@@ -275,7 +288,7 @@ public class TestUtils {
 
     public static void deleteLruCacheDirectory(final FileLruCache cache) {
         File directory = new File(cache.getLocation());
-        directory.delete();
+        Utility.deleteDirectory(directory);
     }
 
     public static void clearAndDeleteLruCacheDirectory(final FileLruCache cache)
@@ -0,0 +1,244 @@
+/**
+ * Copyright (c) 2014-present, Facebook, Inc. All rights reserved.
+ *
+ * You are hereby granted a non-exclusive, worldwide, royalty-free license to use,
+ * copy, modify, and distribute this software in source code or binary form for use
+ * in connection with the web services and APIs provided by Facebook.
+ *
+ * As with any software that integrates with the Facebook platform, your use of
+ * this software is subject to the Facebook Developer Principles and Policies
+ * [http://developers.facebook.com/policy/]. This copyright notice shall be
+ * included in all copies or substantial portions of the software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.facebook.internal;
+
+import com.facebook.FacebookException;
+import com.facebook.FacebookTestCase;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CollectionMapperTest extends FacebookTestCase {
+
+    @Test
+    public void testMapsEveryValue() {
+        ListCollection collection = new ListCollection(1, 2, 3);
+        RecordingListener listener = new RecordingListener();
+
+        CollectionMapper.iterate(collection, new CollectionMapper.ValueMapper() {
+            @Override
+            public void mapValue(
+                    Object value,
+                    CollectionMapper.OnMapValueCompleteListener onMapValueCompleteListener) {
+                onMapValueCompleteListener.onComplete((Integer) value * 10);
+            }
+        }, listener);
+
+        assertEquals(Arrays.<Object>asList(10, 20, 30), collection.values);
+        assertEquals(1, listener.completeCount.get());
+        assertNull(listener.error);
+    }
+
+    @Test
+    public void testEmptyCollectionCompletes() {
+        RecordingListener listener = new RecordingListener();
+
+        CollectionMapper.iterate(new ListCollection(), new DeferredMapper(), listener);
+
+        assertEquals(1, listener.completeCount.get());
+    }
+
+    @Test
+    public void testConcurrencyIsBounded() {
+        ListCollection collection = new ListCollection(1, 2, 3, 4, 5);
+        DeferredMapper mapper = new DeferredMapper();
+        RecordingListener listener = new RecordingListener();
+        final List<Integer> progress = new ArrayList<>();
+
+        CollectionMapper.iterate(
+                collection,
+                mapper,
+                listener,
+                2,
+                new CollectionMapper.OnProgressListener() {
+                    @Override
+                    public void onProgress(int mappedCount, int totalCount) {
+                        assertEquals(5, totalCount);
+                        progress.add(mappedCount);
+                    }
+                });
+
+        assertEquals(2, mapper.pending.size());
+        mapper.pending.remove(0).onComplete("a");
+        assertEquals(2, mapper.pending.size());
+        while (!mapper.pending.isEmpty()) {
+            assertTrue(mapper.pending.size() <= 2);
+            mapper.pending.remove(0).onComplete("b");
+        }
+
+        assertEquals(Arrays.asList(1, 2, 3, 4, 5), progress);
+        assertEquals(1, listener.completeCount.get());
+    }
+
+    @Test
+    public void testErrorCancelsOutstandingMappers() {
+        ListCollection collection = new ListCollection(1, 2, 3, 4);
+        DeferredMapper mapper = new DeferredMapper();
+        RecordingListener listener = new RecordingListener();
+        final AtomicInteger cancelCount = new AtomicInteger();
+
+        CollectionMapper.iterate(collection, mapper, listener, 3, null);
+        for (CollectionMapper.OnMapValueCompleteListener pending : mapper.pending) {
+            pending.setOnCancelListener(new CollectionMapper.OnCancelListener() {
+                @Override
+                public void onCancel() {
+                    cancelCount.incrementAndGet();
+                }
+            });
+        }
+        CollectionMapper.OnMapValueCompleteListener failed = mapper.pending.remove(0);
+        failed.onError(new FacebookException("failed"));
+        failed.onError(new FacebookException("again"));
+        mapper.pending.get(0).onComplete("late");
+
+        assertEquals("failed", listener.error.getMessage());
+        assertEquals(1, listener.errorCount.get());
+        assertEquals(0, listener.completeCount.get());
+        assertEquals(2, cancelCount.get());
+        assertTrue(mapper.pending.get(1).isCanceled());
+        // The fourth value was never handed out.
+        assertEquals(2, mapper.pending.size());
+    }
+
+    @Test
+    public void testCancel() {
+        DeferredMapper mapper = new DeferredMapper();
+        RecordingListener listener = new RecordingListener();
+
+        CollectionMapper.Mapping<Integer> mapping =
+                CollectionMapper.iterate(new ListCollection(1, 2), mapper, listener);
+        mapping.cancel();
+        mapper.pending.get(0).onComplete("late");
+
+        assertTrue(mapping.isCanceled());
+        assertTrue(mapper.pending.get(1).isCanceled());
+        assertEquals(0, listener.completeCount.get());
+        assertEquals(0, listener.errorCount.get());
+    }
+
+    @Test
+    public void testCompletionsFromManyThreads() throws Exception {
+        int count = 200;
+        Integer[] values = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = i;
+        }
+        ListCollection collection = new ListCollection(values);
+        final CountDownLatch done = new CountDownLatch(1);
+        final RecordingListener listener = new RecordingListener() {
+            @Override
+            public void onComplete() {
+                super.onComplete();
+                done.countDown();
+            }
+        };
+
+        CollectionMapper.iterate(collection, new CollectionMapper.ValueMapper() {
+            @Override
+            public void mapValue(
+                    final Object value,
+                    final CollectionMapper.OnMapValueCompleteListener onMapValueCompleteListener) {
+                new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        onMapValueCompleteListener.onComplete(value);
+                    }
+                }).start();
+            }
+        }, listener, 8, null);
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(1, listener.completeCount.get());
+        for (int i = 0; i < count; i++) {
+            assertEquals(i, collection.values.get(i));
+        }
+    }
+
+    private static class ListCollection implements CollectionMapper.Collection<Integer> {
+        final List<Object> values;
+
+        ListCollection(Object... values) {
+            this.values = new ArrayList<>(Arrays.asList(values));
+        }
+
+        @Override
+        public Iterator<Integer> keyIterator() {
+            List<Integer> keys = new ArrayList<>();
+            for (int i = 0; i < values.size(); i++) {
+                keys.add(i);
+            }
+            return keys.iterator();
+        }
+
+        @Override
+        public Object get(Integer key) {
+            return values.get(key);
+        }
+
+        @Override
+        public void set(
+                Integer key,
+                Object value,
+                CollectionMapper.OnErrorListener onErrorListener) {
+            values.set(key, value);
+        }
+    }
+
+    private static class DeferredMapper implements CollectionMapper.ValueMapper {
+        final List<CollectionMapper.OnMapValueCompleteListener> pending = new ArrayList<>();
+
+        @Override
+        public void mapValue(
+                Object value,
+                CollectionMapper.OnMapValueCompleteListener onMapValueCompleteListener) {
+            pending.add(onMapValueCompleteListener);
+        }
+    }
+
+    private static class RecordingListener implements CollectionMapper.OnMapperCompleteListener {
+        final AtomicInteger completeCount = new AtomicInteger();
+        final AtomicInteger errorCount = new AtomicInteger();
+        volatile FacebookException error;
+
+        @Override
+        public void onComplete() {
+            completeCount.incrementAndGet();
+        }
+
+        @Override
+        public void onError(FacebookException exception) {
+            errorCount.incrementAndGet();
+            error = exception;
+        }
+    }
+}
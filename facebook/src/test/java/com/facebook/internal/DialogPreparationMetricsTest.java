@@ -0,0 +1,87 @@
+/**
+ * Copyright (c) 2014-present, Facebook, Inc. All rights reserved.
+ *
+ * You are hereby granted a non-exclusive, worldwide, royalty-free license to use,
+ * copy, modify, and distribute this software in source code or binary form for use
+ * in connection with the web services and APIs provided by Facebook.
+ *
+ * As with any software that integrates with the Facebook platform, your use of
+ * this software is subject to the Facebook Developer Principles and Policies
+ * [http://developers.facebook.com/policy/]. This copyright notice shall be
+ * included in all copies or substantial portions of the software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.facebook.internal;
+
+import com.facebook.FacebookTestCase;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DialogPreparationMetricsTest extends FacebookTestCase {
+
+    @Test
+    public void testStagesRecordIntoTheCurrentPreparation() {
+        DialogPreparationMetrics metrics = DialogPreparationMetrics.startPreparation(true);
+        DialogPreparationMetrics.recordValidation(10);
+        DialogPreparationMetrics.recordValidation(5);
+        DialogPreparationMetrics.recordAttachmentStaging(7);
+        metrics.finishPreparation();
+
+        assertTrue(metrics.isAsync());
+        assertEquals(15, metrics.getValidationNanos());
+        assertEquals(7, metrics.getAttachmentStagingNanos());
+        assertEquals(-1, metrics.getProtocolResolutionNanos());
+        assertEquals(-1, metrics.getParameterBuildingNanos());
+        assertTrue(metrics.getPreparationNanos() >= 0);
+        assertEquals(-1, metrics.getTotalNanos());
+    }
+
+    @Test
+    public void testStagesAreNotRecordedAfterThePreparationFinished() {
+        DialogPreparationMetrics metrics = DialogPreparationMetrics.startPreparation(false);
+        metrics.finishPreparation();
+        DialogPreparationMetrics.recordProtocolResolution(10);
+
+        assertFalse(metrics.isAsync());
+        assertEquals(-1, metrics.getProtocolResolutionNanos());
+    }
+
+    @Test
+    public void testStagesOnOtherThreadsAreNotRecorded() throws Exception {
+        DialogPreparationMetrics metrics = DialogPreparationMetrics.startPreparation(true);
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                DialogPreparationMetrics.recordParameterBuilding(10);
+            }
+        });
+        thread.start();
+        thread.join();
+        metrics.finishPreparation();
+
+        assertEquals(-1, metrics.getParameterBuildingNanos());
+    }
+
+    @Test
+    public void testLaunchDelayIsTheTimeAfterPreparation() {
+        DialogPreparationMetrics metrics = DialogPreparationMetrics.startPreparation(true);
+        metrics.finishPreparation();
+        metrics.finishLaunch();
+
+        assertTrue(metrics.getTotalNanos() >= metrics.getPreparationNanos());
+        assertEquals(
+                metrics.getTotalNanos() - metrics.getPreparationNanos(),
+                metrics.getLaunchDelayNanos());
+    }
+}
@@ -0,0 +1,212 @@
+/**
+ * Copyright (c) 2014-present, Facebook, Inc. All rights reserved.
+ *
+ * You are hereby granted a non-exclusive, worldwide, royalty-free license to use,
+ * copy, modify, and distribute this software in source code or binary form for use
+ * in connection with the web services and APIs provided by Facebook.
+ *
+ * As with any software that integrates with the Facebook platform, your use of
+ * this software is subject to the Facebook Developer Principles and Policies
+ * [http://developers.facebook.com/policy/]. This copyright notice shall be
+ * included in all copies or substantial portions of the software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.facebook.internal;
+
+import com.facebook.FacebookSdk;
+import com.facebook.FacebookTestCase;
+import com.facebook.GraphRequest;
+import com.facebook.GraphRequestInterceptor;
+import com.facebook.GraphResponse;
+import com.facebook.TestUtils;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertSame;
+
+public class FetchedAppSettingsManagerTest extends FacebookTestCase {
+    private static final long DEFAULT_TTL_MILLIS = 60 * 60 * 1000;
+    private static final AtomicInteger nextApplicationId = new AtomicInteger();
+
+    private String applicationId;
+    private FakeSettingsServer server;
+
+    @Before
+    public void before() {
+        FacebookSdk.setApplicationId("123456789");
+        FacebookSdk.setAutoLogAppEventsEnabled(false);
+        FacebookSdk.sdkInitialize(RuntimeEnvironment.application);
+
+        // Every test uses its own app, so settings cached by other tests don't interfere.
+        applicationId = "settings_test_app_" + nextApplicationId.incrementAndGet() +
+                "_" + System.nanoTime();
+        server = new FakeSettingsServer(applicationId);
+        GraphRequest.addInterceptor(server);
+    }
+
+    @After
+    public void after() {
+        GraphRequest.removeInterceptor(server);
+        server.release();
+        FetchedAppSettingsManager.setAppSettingsTtl(DEFAULT_TTL_MILLIS);
+    }
+
+    @Test
+    public void testFreshSettingsSkipTheNetwork() {
+        FetchedAppSettings first = FetchedAppSettingsManager.queryAppSettings(
+                applicationId,
+                false);
+        FetchedAppSettings second = FetchedAppSettingsManager.queryAppSettings(
+                applicationId,
+                false);
+
+        assertNotNull(first);
+        assertSame(first, second);
+        assertEquals(1, server.fetches.get());
+    }
+
+    @Test
+    public void testStaleSettingsAreServedWhileOneRefreshRuns() throws Exception {
+        FetchedAppSettingsManager.setAppSettingsTtl(0);
+        FetchedAppSettings first = FetchedAppSettingsManager.queryAppSettings(
+                applicationId,
+                false);
+        assertEquals(1, server.fetches.get());
+
+        server.block();
+        for (int i = 0; i < 3; i++) {
+            assertSame(
+                    first,
+                    FetchedAppSettingsManager.queryAppSettings(applicationId, false));
+        }
+        server.release();
+
+        server.awaitFetches(2);
+        Thread.sleep(200);
+        assertEquals(2, server.fetches.get());
+    }
+
+    @Test
+    public void testConcurrentQueriesShareOneFetch() throws Exception {
+        server.block();
+        final List<FetchedAppSettings> results = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    FetchedAppSettings settings =
+                            FetchedAppSettingsManager.queryAppSettings(applicationId, false);
+                    synchronized (results) {
+                        results.add(settings);
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+
+        // Give every thread time to join the fetch that is blocked on the server.
+        Thread.sleep(200);
+        server.release();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(1, server.fetches.get());
+        assertEquals(3, results.size());
+        assertNotNull(results.get(0));
+        assertSame(results.get(0), results.get(1));
+        assertSame(results.get(0), results.get(2));
+    }
+
+    @Test
+    public void testFailedRefreshBacksOff() throws Exception {
+        FetchedAppSettingsManager.setAppSettingsTtl(0);
+        FetchedAppSettings first = FetchedAppSettingsManager.queryAppSettings(
+                applicationId,
+                false);
+        assertEquals(1, server.fetches.get());
+
+        server.fail = true;
+        assertSame(first, FetchedAppSettingsManager.queryAppSettings(applicationId, false));
+        server.awaitFetches(2);
+        Thread.sleep(200);
+
+        for (int i = 0; i < 3; i++) {
+            assertSame(
+                    first,
+                    FetchedAppSettingsManager.queryAppSettings(applicationId, false));
+        }
+        Thread.sleep(200);
+        assertEquals(2, server.fetches.get());
+    }
+
+    private static class FakeSettingsServer implements GraphRequestInterceptor {
+        private final String applicationId;
+        final AtomicInteger fetches = new AtomicInteger();
+        volatile boolean fail;
+        private volatile CountDownLatch gate = new CountDownLatch(0);
+
+        FakeSettingsServer(String applicationId) {
+            this.applicationId = applicationId;
+        }
+
+        void block() {
+            gate = new CountDownLatch(1);
+        }
+
+        void release() {
+            gate.countDown();
+        }
+
+        void awaitFetches(int count) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 5000;
+            while (fetches.get() < count && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+        }
+
+        @Override
+        public List<GraphResponse> intercept(Chain chain) {
+            GraphRequest request = chain.getRequests().get(0);
+            if (!applicationId.equals(request.getGraphPath())) {
+                return chain.proceed(chain.getRequests());
+            }
+
+            fetches.incrementAndGet();
+            try {
+                gate.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            List<GraphResponse> responses = new ArrayList<>();
+            if (fail) {
+                responses.add(TestUtils.createErrorResponse(request));
+            } else {
+                responses.add(TestUtils.createResponse(request, new JSONObject()));
+            }
+            return responses;
+        }
+    }
+}
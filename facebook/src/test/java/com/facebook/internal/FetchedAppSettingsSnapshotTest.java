@@ -0,0 +1,152 @@
+/**
+ * Copyright (c) 2014-present, Facebook, Inc. All rights reserved.
+ *
+ * You are hereby granted a non-exclusive, worldwide, royalty-free license to use,
+ * copy, modify, and distribute this software in source code or binary form for use
+ * in connection with the web services and APIs provided by Facebook.
+ *
+ * As with any software that integrates with the Facebook platform, your use of
+ * this software is subject to the Facebook Developer Principles and Policies
+ * [http://developers.facebook.com/policy/]. This copyright notice shall be
+ * included in all copies or substantial portions of the software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.facebook.internal;
+
+import android.net.Uri;
+
+import com.facebook.FacebookRequestError;
+import com.facebook.FacebookTestCase;
+
+import org.json.JSONArray;
+import org.junit.Test;
+
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+
+public class FetchedAppSettingsSnapshotTest extends FacebookTestCase {
+    @Test
+    public void testRoundTrip() throws Exception {
+        Map<Integer, Set<Integer>> otherErrors = new HashMap<>();
+        Set<Integer> subcodes = new HashSet<>();
+        subcodes.add(459);
+        subcodes.add(464);
+        otherErrors.put(102, subcodes);
+        Map<Integer, Set<Integer>> transientErrors = new HashMap<>();
+        transientErrors.put(2, null);
+        FacebookRequestErrorClassification errorClassification =
+                new FacebookRequestErrorClassification(
+                        otherErrors,
+                        transientErrors,
+                        null,
+                        null,
+                        "Try again",
+                        null);
+
+        FetchedAppSettings.DialogFeatureConfig dialogConfig =
+                new FetchedAppSettings.DialogFeatureConfig(
+                        "share",
+                        "video",
+                        Uri.parse("https://www.facebook.com/dialog/share"),
+                        new int[] {20140701, 20160327});
+        Map<String, FetchedAppSettings.DialogFeatureConfig> featureMap = new HashMap<>();
+        featureMap.put("video", dialogConfig);
+        Map<String, Map<String, FetchedAppSettings.DialogFeatureConfig>> dialogConfigMap =
+                new HashMap<>();
+        dialogConfigMap.put("share", featureMap);
+
+        JSONArray eventBindings = new JSONArray("[{\"event_name\":\"purchase\"}]");
+
+        FetchedAppSettings appSettings = new FetchedAppSettings(
+                true,
+                "nux",
+                true,
+                false,
+                42,
+                EnumSet.of(SmartLoginOption.Enabled, SmartLoginOption.RequireConfirm),
+                dialogConfigMap,
+                true,
+                errorClassification,
+                "https://bookmark",
+                null,
+                false,
+                true,
+                eventBindings,
+                "update");
+
+        FetchedAppSettingsSnapshot snapshot = FetchedAppSettingsSnapshot.decode(
+                FetchedAppSettingsSnapshot.encode(appSettings, 1234L));
+        FetchedAppSettings decoded = snapshot.getAppSettings();
+
+        assertEquals(1234L, snapshot.getFetchTime());
+        assertTrue(decoded.supportsImplicitLogging());
+        assertEquals("nux", decoded.getNuxContent());
+        assertEquals(42, decoded.getSessionTimeoutInSeconds());
+        assertEquals(appSettings.getSmartLoginOptions(), decoded.getSmartLoginOptions());
+        assertEquals("https://bookmark", decoded.getSmartLoginBookmarkIconURL());
+        assertNull(decoded.getSmartLoginMenuIconURL());
+        assertTrue(decoded.getCodelessEventsEnabled());
+        assertEquals("update", decoded.getSdkUpdateMessage());
+
+        FetchedAppSettings.DialogFeatureConfig decodedDialogConfig =
+                decoded.getDialogConfigurations().get("share").get("video");
+        assertEquals(dialogConfig.getFallbackUrl(), decodedDialogConfig.getFallbackUrl());
+        assertEquals(2, decodedDialogConfig.getVersionSpec().length);
+        assertEquals(20160327, decodedDialogConfig.getVersionSpec()[1]);
+
+        FacebookRequestErrorClassification decodedErrorClassification =
+                decoded.getErrorClassification();
+        assertEquals(otherErrors, decodedErrorClassification.getOtherErrors());
+        assertEquals(transientErrors, decodedErrorClassification.getTransientErrors());
+        assertNull(decodedErrorClassification.getLoginRecoverableErrors());
+        assertEquals("Try again", decodedErrorClassification.getRecoveryMessage(
+                FacebookRequestError.Category.TRANSIENT));
+
+        assertEquals(eventBindings.toString(), decoded.getEventBindings().toString());
+    }
+
+    @Test
+    public void testDefaultErrorClassificationAndNoEventBindings() throws Exception {
+        FetchedAppSettings appSettings = new FetchedAppSettings(
+                false,
+                "",
+                false,
+                false,
+                60,
+                EnumSet.noneOf(SmartLoginOption.class),
+                new HashMap<String, Map<String, FetchedAppSettings.DialogFeatureConfig>>(),
+                false,
+                FacebookRequestErrorClassification.getDefaultErrorClassification(),
+                "",
+                "",
+                false,
+                false,
+                null,
+                null);
+
+        FetchedAppSettings decoded = FetchedAppSettingsSnapshot.decode(
+                FetchedAppSettingsSnapshot.encode(appSettings, 0)).getAppSettings();
+
+        assertSame(
+                FacebookRequestErrorClassification.getDefaultErrorClassification(),
+                decoded.getErrorClassification());
+        assertTrue(decoded.getDialogConfigurations().isEmpty());
+        assertNull(decoded.getEventBindings());
+        assertNull(decoded.getSdkUpdateMessage());
+    }
+}
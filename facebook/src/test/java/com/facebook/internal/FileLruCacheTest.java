@@ -30,9 +30,12 @@ import org.junit.Test;
 import org.robolectric.RuntimeEnvironment;
 
 import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.Random;
 
 import static junit.framework.Assert.assertEquals;
@@ -300,6 +303,139 @@ public final class FileLruCacheTest extends FacebookTestCase {
         }
     }
 
+    @Test
+    public void testGetDoesNotTouchFileByDefault() throws Exception {
+        int dataSize = 64;
+        byte[] data = generateBytes(dataSize);
+        String key = "a";
+
+        FileLruCache cache = new FileLruCache(
+                "testGetDoesNotTouchFileByDefault", limitCacheSize(2*dataSize));
+        try {
+            TestUtils.clearFileLruCache(cache);
+
+            put(cache, key, data);
+            File file = new File(cache.getLocation(), Utility.md5hash(key));
+            long modified = file.lastModified();
+
+            Thread.sleep(1000);
+            checkValue(cache, key, data);
+            assertEquals(modified, file.lastModified());
+        } finally {
+            TestUtils.clearAndDeleteLruCacheDirectory(cache);
+        }
+    }
+
+    @Test
+    public void testGetTouchesFileWhenPersistingAccessTime() throws Exception {
+        int dataSize = 64;
+        byte[] data = generateBytes(dataSize);
+        String key = "a";
+
+        FileLruCache.Limits limits = limitCacheSize(2*dataSize);
+        limits.setPersistAccessTimeOnRead(true);
+        FileLruCache cache = new FileLruCache("testGetTouchesFileWhenPersistingAccessTime", limits);
+        try {
+            TestUtils.clearFileLruCache(cache);
+
+            put(cache, key, data);
+            File file = new File(cache.getLocation(), Utility.md5hash(key));
+            long modified = file.lastModified();
+
+            Thread.sleep(1000);
+            checkValue(cache, key, data);
+            assertTrue(file.lastModified() > modified);
+        } finally {
+            TestUtils.clearAndDeleteLruCacheDirectory(cache);
+        }
+    }
+
+    @Test
+    public void testContentTag() throws Exception {
+        int dataSize = 64;
+        byte[] data = generateBytes(dataSize);
+        String key = "a";
+        String contentTag = "tag";
+
+        FileLruCache cache = new FileLruCache("testContentTag", limitCacheSize(4*dataSize));
+        try {
+            TestUtils.clearFileLruCache(cache);
+
+            OutputStream stream = cache.openPutStream(key, contentTag);
+            stream.write(data);
+            stream.close();
+
+            assertNull(cache.get(key));
+            assertNull(cache.get(key, "other"));
+            InputStream input = cache.get(key, contentTag);
+            assertNotNull(input);
+            checkInputStream(data, input);
+            input.close();
+        } finally {
+            TestUtils.clearAndDeleteLruCacheDirectory(cache);
+        }
+    }
+
+    @Test
+    public void testReadsVersionZeroHeader() throws Exception {
+        int dataSize = 64;
+        byte[] data = generateBytes(dataSize);
+        String key = "a";
+
+        FileLruCache cache = new FileLruCache(
+                "testReadsVersionZeroHeader", limitCacheSize(4*dataSize));
+        try {
+            TestUtils.clearFileLruCache(cache);
+
+            // Write an entry the way earlier versions of the cache did, with a JSON header.
+            byte[] header = "{\"key\":\"a\",\"tag\":\"tag\"}".getBytes("UTF-8");
+            FileOutputStream output = new FileOutputStream(
+                    new File(cache.getLocation(), Utility.md5hash(key)));
+            output.write(0);
+            output.write((header.length >> 16) & 0xff);
+            output.write((header.length >> 8) & 0xff);
+            output.write(header.length & 0xff);
+            output.write(header);
+            output.write(data);
+            output.close();
+
+            assertNull(cache.get(key));
+            InputStream input = cache.get(key, "tag");
+            assertNotNull(input);
+            checkInputStream(data, input);
+            input.close();
+        } finally {
+            TestUtils.clearAndDeleteLruCacheDirectory(cache);
+        }
+    }
+
+    @Test
+    public void testGetBuffer() throws Exception {
+        // One entry small enough to be read onto the heap and one large enough to be mapped.
+        byte[] smallData = generateBytes(1024);
+        byte[] largeData = generateBytes(256 * 1024);
+
+        FileLruCache cache = new FileLruCache(
+                "testGetBuffer", limitCacheSize(2 * (smallData.length + largeData.length)));
+        try {
+            TestUtils.clearFileLruCache(cache);
+
+            put(cache, "small", smallData);
+            put(cache, "large", largeData);
+
+            checkBuffer(smallData, cache.getBuffer("small"));
+            checkBuffer(largeData, cache.getBuffer("large"));
+            assertEquals(smallData.length, cache.getEntryLength("small", null));
+            assertEquals(largeData.length, cache.getEntryLength("large", null));
+
+            assertNull(cache.getBuffer("small", "tag"));
+            assertNull(cache.getBuffer("missing"));
+            assertEquals(-1, cache.getEntryLength("missing", null));
+        } finally {
+            TestUtils.clearAndDeleteLruCacheDirectory(cache);
+        }
+    }
+
     @Test
     public void testConcurrentWritesToSameKey() throws IOException, InterruptedException {
         final int count = 5;
@@ -347,6 +483,170 @@ public final class FileLruCacheTest extends FacebookTestCase {
         }
     }
 
+    @Test
+    public void testShardedConcurrentWrites() throws Exception {
+        final int shardCount = 4;
+        final int threadCount = 16;
+        final int keysPerThread = 32;
+        final int dataSize = 64;
+        final int cacheCount = 64;
+        final byte[] data = generateBytes(dataSize);
+
+        FileLruCache.Limits limits = limitCacheCount(cacheCount);
+        limits.setShardCount(shardCount);
+        final FileLruCache cache = new FileLruCache("testShardedConcurrentWrites", limits);
+        try {
+            TestUtils.clearFileLruCache(cache);
+
+            // Each thread writes and reads back its own keys, spread across all shards.
+            Thread[] threads = new Thread[threadCount];
+            for (int i = 0; i < threads.length; i++) {
+                final int threadIndex = i;
+                threads[i] = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (int k = 0; k < keysPerThread; k++) {
+                            int key = threadIndex * keysPerThread + k;
+                            put(cache, key, data);
+                            if (hasValue(cache, key)) {
+                                checkValue(cache, key, data);
+                            }
+                        }
+                    }
+                });
+            }
+
+            for (Thread thread : threads) {
+                thread.start();
+            }
+
+            for (Thread thread : threads) {
+                thread.join(10 * 1000, 0);
+            }
+
+            // sizeInBytesForTest waits for every shard's trim, after which each shard is within
+            // its share of the file count.
+            long size = cache.sizeInBytesForTest();
+            int remaining = 0;
+            for (int key = 0; key < threadCount * keysPerThread; key++) {
+                if (hasValue(cache, key)) {
+                    checkValue(cache, key, data);
+                    remaining++;
+                }
+            }
+
+            assertTrue(size > 0);
+            assertTrue(remaining > 0);
+            assertTrue(remaining <= cacheCount);
+        } finally {
+            TestUtils.clearAndDeleteLruCacheDirectory(cache);
+        }
+    }
+
+    @Test
+    public void testMigrateFlatToSharded() throws Exception {
+        int count = 16;
+        int dataSize = 64;
+        byte[] data = generateBytes(dataSize);
+
+        FileLruCache flatCache =
+                new FileLruCache("testMigrateFlatToSharded", limitCacheCount(count));
+        TestUtils.clearFileLruCache(flatCache);
+        for (int i = 0; i < count; i++) {
+            put(flatCache, i, data);
+        }
+        flatCache.sizeInBytesForTest();
+
+        // Allow every key to fit even if all of them hash to the same shard.
+        FileLruCache.Limits limits = limitCacheCount(count * 4);
+        limits.setShardCount(4);
+        FileLruCache shardedCache = new FileLruCache("testMigrateFlatToSharded", limits);
+        try {
+            // sleep for a bit to make sure the migration finishes
+            Thread.sleep(200);
+
+            for (int i = 0; i < count; i++) {
+                checkValue(shardedCache, i, data);
+            }
+        } finally {
+            TestUtils.clearAndDeleteLruCacheDirectory(shardedCache);
+        }
+    }
+
+    @Test
+    public void testClearCacheDuringMigration() throws Exception {
+        int count = 16;
+        int dataSize = 64;
+        byte[] data = generateBytes(dataSize);
+
+        FileLruCache flatCache =
+                new FileLruCache("testClearCacheDuringMigration", limitCacheCount(count));
+        TestUtils.clearFileLruCache(flatCache);
+        for (int i = 0; i < count; i++) {
+            put(flatCache, i, data);
+        }
+        flatCache.sizeInBytesForTest();
+
+        FileLruCache.Limits limits = limitCacheCount(count * 4);
+        limits.setShardCount(4);
+        FileLruCache shardedCache = new FileLruCache("testClearCacheDuringMigration", limits);
+        try {
+            // Clear before the migration has had a chance to move anything.
+            shardedCache.clearCache();
+
+            // sleep for a bit to make sure the migration and the clear finish
+            Thread.sleep(200);
+
+            for (int i = 0; i < count; i++) {
+                assertEquals(false, hasValue(shardedCache, i));
+            }
+        } finally {
+            TestUtils.clearAndDeleteLruCacheDirectory(shardedCache);
+        }
+    }
+
+    @Test
+    public void testFrequencyAdmissionSurvivesScan() throws Exception {
+        int hotCount = 8;
+        int scanCount = 32;
+        int dataSize = 32;
+        byte[] data = generateBytes(dataSize);
+
+        FileLruCache.Limits limits = limitCacheCount(hotCount);
+        limits.setEvictionPolicy(new TinyLfuEvictionPolicy(hotCount));
+        FileLruCache cache = new FileLruCache("testFrequencyAdmissionSurvivesScan", limits);
+        try {
+            TestUtils.clearFileLruCache(cache);
+
+            for (int i = 0; i < hotCount; i++) {
+                put(cache, i, data);
+            }
+            for (int round = 0; round < 4; round++) {
+                for (int i = 0; i < hotCount; i++) {
+                    checkValue(cache, i, data);
+                }
+            }
+
+            // A scan through keys that are each used once would flush an LRU cache completely.
+            for (int i = 0; i < scanCount; i++) {
+                int key = hotCount + i;
+                assertEquals(false, hasValue(cache, key));
+                put(cache, key, data);
+                cache.sizeInBytesForTest();
+            }
+
+            for (int i = 0; i < hotCount; i++) {
+                checkValue(cache, i, data);
+            }
+            assertEquals(scanCount, cache.getRejectionCount());
+            assertEquals(0, cache.getEvictionCount());
+            assertEquals(5 * hotCount + scanCount, cache.getLookupCount());
+            assertEquals(5 * hotCount, cache.getHitCount());
+        } finally {
+            TestUtils.clearAndDeleteLruCacheDirectory(cache);
+        }
+    }
+
     byte[] generateBytes(int n) {
         byte[] bytes = new byte[n];
         random.nextBytes(bytes);
@@ -431,6 +731,14 @@ public final class FileLruCacheTest extends FacebookTestCase {
         }
     }
 
+    void checkBuffer(byte[] expected, ByteBuffer actual) {
+        assertNotNull(actual);
+        assertEquals(expected.length, actual.remaining());
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], actual.get());
+        }
+    }
+
     void consumeAndClose(InputStream stream) {
         try {
             byte[] buffer = new byte[1024];
@@ -0,0 +1,113 @@
+/**
+ * Copyright (c) 2014-present, Facebook, Inc. All rights reserved.
+ *
+ * You are hereby granted a non-exclusive, worldwide, royalty-free license to use,
+ * copy, modify, and distribute this software in source code or binary form for use
+ * in connection with the web services and APIs provided by Facebook.
+ *
+ * As with any software that integrates with the Facebook platform, your use of
+ * this software is subject to the Facebook Developer Principles and Policies
+ * [http://developers.facebook.com/policy/]. This copyright notice shall be
+ * included in all copies or substantial portions of the software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.facebook.internal;
+
+import android.net.Uri;
+
+import com.facebook.FacebookSdk;
+import com.facebook.FacebookTestCase;
+import com.facebook.TestUtils;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertTrue;
+
+public final class ImageResponseCacheTest extends FacebookTestCase {
+
+    @Before
+    public void before() {
+        FacebookSdk.setApplicationId("123456789");
+        FacebookSdk.setAutoLogAppEventsEnabled(false);
+        FacebookSdk.sdkInitialize(RuntimeEnvironment.application);
+    }
+
+    @Test
+    public void testLargeImageSurvivesRoundTrip() throws Exception {
+        byte[] image = new byte[300 * 1024];
+        new Random().nextBytes(image);
+        Uri uri = Uri.parse("https://scontent.xx.fbcdn.net/large-image.jpg");
+
+        FileLruCache cache = ImageResponseCache.getCache(RuntimeEnvironment.application);
+        try {
+            OutputStream stream = cache.openPutStream(uri.toString());
+            stream.write(image);
+            stream.close();
+
+            // sleep for a bit to make sure the trim finishes
+            Thread.sleep(200);
+
+            ByteBuffer cached = ImageResponseCache.getCachedImageBuffer(
+                    uri,
+                    RuntimeEnvironment.application);
+            assertNotNull(cached);
+            byte[] cachedImage = new byte[cached.remaining()];
+            cached.get(cachedImage);
+            assertEquals(image.length, cachedImage.length);
+            for (int i = 0; i < image.length; i++) {
+                assertEquals(image[i], cachedImage[i]);
+            }
+        } finally {
+            TestUtils.clearFileLruCache(cache);
+        }
+    }
+
+    @Test
+    public void testMappedImageIsStreamedToTheDecoder() throws Exception {
+        byte[] image = new byte[300 * 1024];
+        new Random().nextBytes(image);
+        Uri uri = Uri.parse("https://scontent.xx.fbcdn.net/streamed-image.jpg");
+
+        FileLruCache cache = ImageResponseCache.getCache(RuntimeEnvironment.application);
+        try {
+            OutputStream stream = cache.openPutStream(uri.toString());
+            stream.write(image);
+            stream.close();
+
+            // sleep for a bit to make sure the trim finishes
+            Thread.sleep(200);
+
+            ByteBuffer cached = ImageResponseCache.getCachedImageBuffer(
+                    uri,
+                    RuntimeEnvironment.application);
+            assertNotNull(cached);
+            assertFalse(cached.hasArray());
+
+            ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+            Utility.copyAndCloseInputStream(
+                    new ImageDownloader.ByteBufferInputStream(cached),
+                    streamed);
+            assertTrue(Arrays.equals(image, streamed.toByteArray()));
+        } finally {
+            TestUtils.clearFileLruCache(cache);
+        }
+    }
+}
@@ -21,7 +21,9 @@
 package com.facebook.internal;
 
 import android.graphics.Bitmap;
+import android.net.Uri;
 
+import com.facebook.FacebookException;
 import com.facebook.FacebookSdk;
 import com.facebook.FacebookTestCase;
 
@@ -30,10 +32,14 @@ import org.junit.Test;
 import org.robolectric.RuntimeEnvironment;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.Future;
 
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
 import static junit.framework.Assert.assertNotNull;
 import static junit.framework.Assert.assertTrue;
 import static junit.framework.Assert.fail;
@@ -114,4 +120,131 @@ public class NativeAppCallAttachmentStoreTest extends FacebookTestCase {
         assertTrue(dir.getAbsolutePath().contains(CALL_ID.toString()));
         assertTrue(dir.getAbsolutePath().contains(ATTACHMENT_NAME.toString()));
     }
+
+    @Test
+    public void testAddAttachmentsStagesEveryBitmap() throws Exception {
+        UUID callId = UUID.randomUUID();
+        List<NativeAppCallAttachmentStore.Attachment> attachments = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            attachments.add(NativeAppCallAttachmentStore.createAttachment(callId, createBitmap()));
+        }
+
+        NativeAppCallAttachmentStore.addAttachments(attachments);
+
+        for (NativeAppCallAttachmentStore.Attachment attachment : attachments) {
+            File file = NativeAppCallAttachmentStore.openAttachment(
+                    callId,
+                    getAttachmentName(attachment));
+            assertTrue(file.exists());
+        }
+        NativeAppCallAttachmentStore.cleanupAttachmentsForCall(callId);
+    }
+
+    @Test
+    public void testAsyncAttachmentCanBeOpenedWhileStaging() throws Exception {
+        UUID callId = UUID.randomUUID();
+        List<NativeAppCallAttachmentStore.Attachment> attachments =
+                createAttachments(callId, createBitmap());
+
+        NativeAppCallAttachmentStore.addAttachmentsAsync(attachments);
+        File file = NativeAppCallAttachmentStore.openAttachment(
+                callId,
+                getAttachmentName(attachments.get(0)));
+
+        assertTrue(file.exists());
+        NativeAppCallAttachmentStore.cleanupAttachmentsForCall(callId);
+    }
+
+    @Test
+    public void testFileAttachmentIsPassedThrough() throws Exception {
+        UUID callId = UUID.randomUUID();
+        File source = File.createTempFile("attachment", ".jpg");
+        FileOutputStream outputStream = new FileOutputStream(source);
+        outputStream.write(new byte[] {1, 2, 3});
+        outputStream.close();
+        List<NativeAppCallAttachmentStore.Attachment> attachments = new ArrayList<>();
+        attachments.add(
+                NativeAppCallAttachmentStore.createAttachment(callId, Uri.fromFile(source)));
+        String attachmentName = getAttachmentName(attachments.get(0));
+
+        NativeAppCallAttachmentStore.addAttachments(attachments);
+
+        assertEquals(source, NativeAppCallAttachmentStore.openAttachment(callId, attachmentName));
+        NativeAppCallAttachmentStore.cleanupAttachmentsForCall(callId);
+        assertFalse(source.equals(
+                NativeAppCallAttachmentStore.openAttachment(callId, attachmentName)));
+        assertTrue(source.exists());
+        source.delete();
+    }
+
+    @Test
+    public void testPassThroughSurvivesRestart() throws Exception {
+        UUID callId = UUID.randomUUID();
+        File source = File.createTempFile("attachment", ".jpg");
+        FileOutputStream outputStream = new FileOutputStream(source);
+        outputStream.write(new byte[] {1, 2, 3});
+        outputStream.close();
+        List<NativeAppCallAttachmentStore.Attachment> attachments = new ArrayList<>();
+        attachments.add(
+                NativeAppCallAttachmentStore.createAttachment(callId, Uri.fromFile(source)));
+        String attachmentName = getAttachmentName(attachments.get(0));
+        NativeAppCallAttachmentStore.addAttachments(attachments);
+
+        // A new process only has what was written to disk.
+        NativeAppCallAttachmentStore.clearMemoryForTest();
+
+        assertEquals(source, NativeAppCallAttachmentStore.openAttachment(callId, attachmentName));
+        NativeAppCallAttachmentStore.cleanupAttachmentsForCall(callId);
+        assertFalse(source.equals(
+                NativeAppCallAttachmentStore.openAttachment(callId, attachmentName)));
+        source.delete();
+    }
+
+    @Test
+    public void testFailedStagingCleansUpWithoutWaiting() throws Exception {
+        UUID callId = UUID.randomUUID();
+        List<NativeAppCallAttachmentStore.Attachment> attachments =
+                createAttachments(callId, createBitmap());
+        // Nothing serves this content, so staging it fails.
+        attachments.add(NativeAppCallAttachmentStore.createAttachment(
+                callId,
+                Uri.parse("content://com.facebook.test.missing/image/1")));
+
+        Future<Void> staging = NativeAppCallAttachmentStore.addAttachmentsAsync(attachments);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!staging.isDone() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        // Let a task that was canceled while writing finish.
+        Thread.sleep(200);
+
+        assertTrue(staging.isDone());
+        File dir = NativeAppCallAttachmentStore.getAttachmentsDirectoryForCall(callId, false);
+        String[] files = dir.list();
+        assertTrue(files == null || files.length == 0);
+    }
+
+    @Test
+    public void testFailedAttachmentThrowsWithoutInterrupting() throws Exception {
+        UUID callId = UUID.randomUUID();
+        List<NativeAppCallAttachmentStore.Attachment> attachments =
+                createAttachments(callId, createBitmap());
+        attachments.add(NativeAppCallAttachmentStore.createAttachment(callId, createBitmap()));
+        // Nothing serves this content, so staging it fails.
+        attachments.add(NativeAppCallAttachmentStore.createAttachment(
+                callId,
+                Uri.parse("content://com.facebook.test.missing/image/1")));
+
+        try {
+            NativeAppCallAttachmentStore.addAttachments(attachments);
+            fail("expected a FacebookException");
+        } catch (FacebookException exception) {
+            // Expected
+        }
+        assertFalse(Thread.interrupted());
+    }
+
+    private static String getAttachmentName(NativeAppCallAttachmentStore.Attachment attachment) {
+        return Uri.parse(attachment.getAttachmentUrl()).getLastPathSegment();
+    }
 }
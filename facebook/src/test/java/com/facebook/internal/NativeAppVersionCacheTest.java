@@ -0,0 +1,178 @@
+/**
+ * Copyright (c) 2014-present, Facebook, Inc. All rights reserved.
+ *
+ * You are hereby granted a non-exclusive, worldwide, royalty-free license to use,
+ * copy, modify, and distribute this software in source code or binary form for use
+ * in connection with the web services and APIs provided by Facebook.
+ *
+ * As with any software that integrates with the Facebook platform, your use of
+ * this software is subject to the Facebook Developer Principles and Policies
+ * [http://developers.facebook.com/policy/]. This copyright notice shall be
+ * included in all copies or substantial portions of the software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.facebook.internal;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+
+import com.facebook.FacebookTestCase;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.TreeSet;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.verifyZeroInteractions;
+
+public class NativeAppVersionCacheTest extends FacebookTestCase {
+    private static final String PACKAGE_NAME = "com.facebook.katana";
+    private static final long TTL = 60 * 1000;
+
+    private SharedPreferences preferences;
+    private PackageManager packageManager;
+    private CountingProber prober;
+
+    @Before
+    public void before() throws Exception {
+        preferences = RuntimeEnvironment.application.getSharedPreferences(
+                "NativeAppVersionCacheTest", Context.MODE_PRIVATE);
+        preferences.edit().clear().commit();
+        packageManager = mock(PackageManager.class);
+        doThrow(new PackageManager.NameNotFoundException())
+                .when(packageManager).getPackageInfo(anyString(), anyInt());
+        prober = new CountingProber();
+    }
+
+    @Test
+    public void testProbesOncePerVersionCode() throws Exception {
+        setInstalledVersionCode(100);
+        NativeAppVersionCache cache = new NativeAppVersionCache(
+                preferences, packageManager, prober, TTL);
+
+        assertNull(cache.getCachedVersions(PACKAGE_NAME));
+        assertEquals(prober.versions, cache.refresh(PACKAGE_NAME, false));
+        assertEquals(prober.versions, cache.refresh(PACKAGE_NAME, false));
+        assertEquals(1, prober.count);
+
+        // A new process reads the persisted entry without probing.
+        NativeAppVersionCache reloaded = new NativeAppVersionCache(
+                preferences, packageManager, prober, TTL);
+        assertEquals(prober.versions, reloaded.getCachedVersions(PACKAGE_NAME));
+        reloaded.refresh(PACKAGE_NAME, false);
+        assertEquals(1, prober.count);
+
+        setInstalledVersionCode(101);
+        reloaded.refresh(PACKAGE_NAME, false);
+        assertEquals(2, prober.count);
+    }
+
+    @Test
+    public void testExpiredAndForcedRefresh() throws Exception {
+        setInstalledVersionCode(100);
+        NativeAppVersionCache cache = new NativeAppVersionCache(
+                preferences, packageManager, prober, 0);
+
+        cache.refresh(PACKAGE_NAME, false);
+        cache.refresh(PACKAGE_NAME, false);
+        assertEquals(2, prober.count);
+
+        cache = new NativeAppVersionCache(preferences, packageManager, prober, TTL);
+        cache.refresh(PACKAGE_NAME, true);
+        assertEquals(3, prober.count);
+    }
+
+    @Test
+    public void testCachedVersionsAreAnsweredFromMemory() throws Exception {
+        setInstalledVersionCode(100);
+        NativeAppVersionCache cache = new NativeAppVersionCache(
+                preferences, packageManager, prober, TTL);
+        cache.refresh(PACKAGE_NAME, false);
+        reset(packageManager);
+
+        assertEquals(prober.versions, cache.getCachedVersions(PACKAGE_NAME));
+        verifyZeroInteractions(packageManager);
+
+        // An expired entry is not used.
+        assertNull(new NativeAppVersionCache(preferences, packageManager, prober, 0)
+                .getCachedVersions(PACKAGE_NAME));
+        assertEquals(1, prober.count);
+    }
+
+    @Test
+    public void testEmptyProbeIsNotPersisted() throws Exception {
+        setInstalledVersionCode(100);
+        prober.versions.clear();
+        NativeAppVersionCache cache = new NativeAppVersionCache(
+                preferences, packageManager, prober, TTL);
+
+        assertTrue(cache.refresh(PACKAGE_NAME, false).isEmpty());
+        assertTrue(cache.getCachedVersions(PACKAGE_NAME).isEmpty());
+        assertNull(new NativeAppVersionCache(preferences, packageManager, prober, TTL)
+                .getCachedVersions(PACKAGE_NAME));
+    }
+
+    @Test
+    public void testNotInstalledIsNotProbed() {
+        NativeAppVersionCache cache = new NativeAppVersionCache(
+                preferences, packageManager, prober, TTL);
+
+        assertTrue(cache.refresh(PACKAGE_NAME, false).isEmpty());
+        assertTrue(cache.getCachedVersions(PACKAGE_NAME).isEmpty());
+        assertEquals(0, prober.count);
+    }
+
+    @Test
+    public void testInvalidate() throws Exception {
+        setInstalledVersionCode(100);
+        NativeAppVersionCache cache = new NativeAppVersionCache(
+                preferences, packageManager, prober, TTL);
+        cache.refresh(PACKAGE_NAME, false);
+
+        cache.invalidate(PACKAGE_NAME);
+        assertNull(cache.getCachedVersions(PACKAGE_NAME));
+        assertNull(new NativeAppVersionCache(preferences, packageManager, prober, TTL)
+                .getCachedVersions(PACKAGE_NAME));
+    }
+
+    private void setInstalledVersionCode(int versionCode) throws Exception {
+        PackageInfo packageInfo = new PackageInfo();
+        packageInfo.versionCode = versionCode;
+        doReturn(packageInfo).when(packageManager).getPackageInfo(PACKAGE_NAME, 0);
+    }
+
+    private static class CountingProber implements NativeAppVersionCache.Prober {
+        final TreeSet<Integer> versions = new TreeSet<>();
+        int count;
+
+        CountingProber() {
+            versions.add(NativeProtocol.PROTOCOL_VERSION_20140701);
+            versions.add(NativeProtocol.PROTOCOL_VERSION_20160327);
+        }
+
+        @Override
+        public TreeSet<Integer> probe(String packageName) {
+            count++;
+            return versions;
+        }
+    }
+}
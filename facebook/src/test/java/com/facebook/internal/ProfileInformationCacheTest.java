@@ -0,0 +1,143 @@
+/**
+ * Copyright (c) 2014-present, Facebook, Inc. All rights reserved.
+ *
+ * You are hereby granted a non-exclusive, worldwide, royalty-free license to use,
+ * copy, modify, and distribute this software in source code or binary form for use
+ * in connection with the web services and APIs provided by Facebook.
+ *
+ * As with any software that integrates with the Facebook platform, your use of
+ * this software is subject to the Facebook Developer Principles and Policies
+ * [http://developers.facebook.com/policy/]. This copyright notice shall be
+ * included in all copies or substantial portions of the software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.facebook.internal;
+
+import android.content.Context;
+
+import com.facebook.AccessToken;
+import com.facebook.AccessTokenSource;
+import com.facebook.FacebookSdk;
+import com.facebook.FacebookTestCase;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.robolectric.RuntimeEnvironment;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ProfileInformationCacheTest extends FacebookTestCase {
+    private static final String APP_ID = "123456789";
+
+    @Before
+    public void before() throws Exception {
+        FacebookSdk.setApplicationId(APP_ID);
+        FacebookSdk.setAutoLogAppEventsEnabled(false);
+        FacebookSdk.sdkInitialize(RuntimeEnvironment.application);
+        ProfileInformationCache.clear();
+    }
+
+    @After
+    public void after() throws Exception {
+        AccessToken.setCurrentAccessToken(null);
+        FacebookSdk.setProfileInformationPersistenceEnabled(false);
+        ProfileInformationCache.clear();
+    }
+
+    @Test
+    public void testRotatedTokenForSameUserHits() throws Exception {
+        ProfileInformationCache.putProfileInformation("token1", createUserInfo("1000"));
+
+        assertEquals("1000", ProfileInformationCache.getProfileInformation("token1")
+                .getString("id"));
+        assertEquals("1000", ProfileInformationCache.getProfileInformation(APP_ID, "1000")
+                .getString("id"));
+        assertNull(ProfileInformationCache.getProfileInformation("token2"));
+        assertNull(ProfileInformationCache.getProfileInformation("other_app", "1000"));
+    }
+
+    @Test
+    public void testEntriesAreKeyedByTheTokensApp() throws Exception {
+        AccessToken.setCurrentAccessToken(new AccessToken(
+                "token", "other_app", "1000", null, null, AccessTokenSource.NONE, null, null));
+        ProfileInformationCache.putProfileInformation("token", createUserInfo("1000"));
+
+        assertEquals("1000", ProfileInformationCache.getProfileInformation("other_app", "1000")
+                .getString("id"));
+        assertNull(ProfileInformationCache.getProfileInformation(APP_ID, "1000"));
+    }
+
+    @Test
+    public void testExpiredEntriesAreDropped() throws Exception {
+        long fetchTime = System.currentTimeMillis() - ProfileInformationCache.TTL_MILLIS;
+        ProfileInformationCache.putProfileInformation("token", createUserInfo("1000"), fetchTime);
+
+        assertNull(ProfileInformationCache.getProfileInformation("token"));
+        assertNull(ProfileInformationCache.getProfileInformation(APP_ID, "1000"));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedUserIsEvicted() throws Exception {
+        for (int i = 0; i < ProfileInformationCache.MAX_USERS; i++) {
+            ProfileInformationCache.putProfileInformation(
+                    "token" + i, createUserInfo(Integer.toString(i)));
+        }
+        // Touch the oldest entry so the second one becomes the eviction candidate.
+        assertNotNull(ProfileInformationCache.getProfileInformation(APP_ID, "0"));
+        ProfileInformationCache.putProfileInformation("token_new", createUserInfo("new"));
+
+        assertNotNull(ProfileInformationCache.getProfileInformation(APP_ID, "0"));
+        assertNull(ProfileInformationCache.getProfileInformation(APP_ID, "1"));
+        assertNotNull(ProfileInformationCache.getProfileInformation(APP_ID, "new"));
+    }
+
+    @Test
+    public void testEntriesAreNotPersistedByDefault() throws Exception {
+        ProfileInformationCache.putProfileInformation("token", createUserInfo("1000"));
+        ProfileInformationCache.clearMemoryForTest();
+
+        assertNull(ProfileInformationCache.getProfileInformation(APP_ID, "1000"));
+        assertTrue(RuntimeEnvironment.application
+                .getSharedPreferences(
+                        "com.facebook.internal.PROFILE_INFORMATION_CACHE",
+                        Context.MODE_PRIVATE)
+                .getAll()
+                .isEmpty());
+    }
+
+    @Test
+    public void testEntriesSurviveRestart() throws Exception {
+        FacebookSdk.setProfileInformationPersistenceEnabled(true);
+        ProfileInformationCache.putProfileInformation("token", createUserInfo("1000"));
+        ProfileInformationCache.clearMemoryForTest();
+
+        JSONObject restored = ProfileInformationCache.getProfileInformation(APP_ID, "1000");
+        assertNotNull(restored);
+        assertEquals("Jane Doe", restored.getString("name"));
+        // The token mapping is not persisted.
+        assertNull(ProfileInformationCache.getProfileInformation("token"));
+
+        ProfileInformationCache.clear();
+        ProfileInformationCache.clearMemoryForTest();
+        assertNull(ProfileInformationCache.getProfileInformation(APP_ID, "1000"));
+    }
+
+    private static JSONObject createUserInfo(String id) throws Exception {
+        JSONObject userInfo = new JSONObject();
+        userInfo.put("id", id);
+        userInfo.put("name", "Jane Doe");
+        return userInfo;
+    }
+}
@@ -0,0 +1,161 @@
+/**
+ * Copyright (c) 2014-present, Facebook, Inc. All rights reserved.
+ *
+ * You are hereby granted a non-exclusive, worldwide, royalty-free license to use,
+ * copy, modify, and distribute this software in source code or binary form for use
+ * in connection with the web services and APIs provided by Facebook.
+ *
+ * As with any software that integrates with the Facebook platform, your use of
+ * this software is subject to the Facebook Developer Principles and Policies
+ * [http://developers.facebook.com/policy/]. This copyright notice shall be
+ * included in all copies or substantial portions of the software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.facebook.share;
+
+import android.graphics.Bitmap;
+
+import com.facebook.AccessToken;
+import com.facebook.AccessTokenSource;
+import com.facebook.FacebookSdk;
+import com.facebook.FacebookTestCase;
+import com.facebook.GraphRequest;
+import com.facebook.GraphRequestInterceptor;
+import com.facebook.GraphResponse;
+import com.facebook.TestUtils;
+import com.facebook.share.model.ShareOpenGraphAction;
+import com.facebook.share.model.ShareOpenGraphContent;
+import com.facebook.share.model.ShareOpenGraphObject;
+import com.facebook.share.model.SharePhoto;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ShareApiTest extends FacebookTestCase {
+    private final List<List<GraphRequest>> executedBatches =
+            Collections.synchronizedList(new ArrayList<List<GraphRequest>>());
+    private final CountDownLatch executed = new CountDownLatch(1);
+    private final GraphRequestInterceptor interceptor = new GraphRequestInterceptor() {
+        @Override
+        public List<GraphResponse> intercept(Chain chain) {
+            executedBatches.add(new ArrayList<>(chain.getRequests()));
+            executed.countDown();
+            List<GraphResponse> responses = new ArrayList<>();
+            for (GraphRequest request : chain.getRequests()) {
+                responses.add(TestUtils.createErrorResponse(request));
+            }
+            return responses;
+        }
+    };
+
+    @Before
+    public void before() {
+        FacebookSdk.setApplicationId("123456789");
+        FacebookSdk.setAutoLogAppEventsEnabled(false);
+        FacebookSdk.sdkInitialize(RuntimeEnvironment.application);
+        AccessToken.setCurrentAccessToken(new AccessToken(
+                "token",
+                "123456789",
+                "1000",
+                Arrays.asList("publish_actions"),
+                null,
+                AccessTokenSource.WEB_VIEW,
+                new Date(System.currentTimeMillis() + 60 * 60 * 1000),
+                new Date()));
+        GraphRequest.addInterceptor(interceptor);
+    }
+
+    @After
+    public void after() {
+        GraphRequest.removeInterceptor(interceptor);
+        AccessToken.setCurrentAccessToken(null);
+    }
+
+    @Test
+    public void testOpenGraphShareIsPlannedAsOneChainedBatch() throws Exception {
+        ShareApi.share(createContent(2), null);
+
+        assertTrue(executed.await(5, TimeUnit.SECONDS));
+        List<GraphRequest> batch = executedBatches.get(0);
+        assertEquals(4, batch.size());
+
+        GraphRequest firstPhoto = batch.get(0);
+        GraphRequest secondPhoto = batch.get(1);
+        GraphRequest object = batch.get(2);
+        GraphRequest action = batch.get(3);
+        assertEquals("staging0", firstPhoto.getBatchEntryName());
+        assertNull(firstPhoto.getBatchEntryDependsOn());
+        assertEquals("staging1", secondPhoto.getBatchEntryName());
+        assertEquals("staging0", secondPhoto.getBatchEntryDependsOn());
+        assertEquals("staging2", object.getBatchEntryName());
+        assertEquals("staging1", object.getBatchEntryDependsOn());
+        assertNull(action.getBatchEntryName());
+        assertEquals("staging2", action.getBatchEntryDependsOn());
+
+        // Later entries refer to the results of the entries they depend on.
+        JSONObject stagedObject = new JSONObject(object.getParameters().getString("object"));
+        assertEquals(
+                "{result=staging0:$.uri}",
+                stagedObject.getJSONArray("og:image").getJSONObject(0).getString("url"));
+        assertEquals(
+                "{result=staging1:$.uri}",
+                stagedObject.getJSONArray("og:image").getJSONObject(1).getString("url"));
+        assertEquals("{result=staging2:$.id}", action.getParameters().getString("book"));
+    }
+
+    @Test
+    public void testOversizedPlanFallsBackToIndividualRequests() throws Exception {
+        // The photos, the object and the action don't fit in one batch.
+        ShareApi.share(createContent(GraphRequest.MAXIMUM_BATCH_SIZE), null);
+
+        assertTrue(executed.await(5, TimeUnit.SECONDS));
+        List<GraphRequest> batch = executedBatches.get(0);
+        assertEquals(1, batch.size());
+        assertNull(batch.get(0).getBatchEntryName());
+        assertNull(batch.get(0).getBatchEntryDependsOn());
+    }
+
+    private static ShareOpenGraphContent createContent(int photoCount) {
+        ArrayList<SharePhoto> photos = new ArrayList<>();
+        for (int i = 0; i < photoCount; i++) {
+            photos.add(new SharePhoto.Builder()
+                    .setBitmap(Bitmap.createBitmap(1, 1, Bitmap.Config.ARGB_8888))
+                    .build());
+        }
+        ShareOpenGraphObject book = new ShareOpenGraphObject.Builder()
+                .putString("og:type", "books.book")
+                .putString("og:title", "A Book")
+                .putPhotoArrayList("og:image", photos)
+                .build();
+        ShareOpenGraphAction action = new ShareOpenGraphAction.Builder()
+                .setActionType("books.reads")
+                .putObject("book", book)
+                .build();
+        return new ShareOpenGraphContent.Builder()
+                .setAction(action)
+                .setPreviewPropertyName("book")
+                .build();
+    }
+}
@@ -0,0 +1,311 @@
+/**
+ * Copyright (c) 2014-present, Facebook, Inc. All rights reserved.
+ *
+ * You are hereby granted a non-exclusive, worldwide, royalty-free license to use,
+ * copy, modify, and distribute this software in source code or binary form for use
+ * in connection with the web services and APIs provided by Facebook.
+ *
+ * As with any software that integrates with the Facebook platform, your use of
+ * this software is subject to the Facebook Developer Principles and Policies
+ * [http://developers.facebook.com/policy/]. This copyright notice shall be
+ * included in all copies or substantial portions of the software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.facebook.share.internal;
+
+import android.os.Bundle;
+import android.text.TextUtils;
+
+import com.facebook.AccessToken;
+import com.facebook.AccessTokenSource;
+import com.facebook.FacebookSdk;
+import com.facebook.FacebookTestCase;
+import com.facebook.GraphRequest;
+import com.facebook.GraphRequestInterceptor;
+import com.facebook.GraphResponse;
+import com.facebook.TestUtils;
+import com.facebook.share.widget.LikeView;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LikeActionControllerTest extends FacebookTestCase {
+    private static final String OG_OBJECT_FIELDS = "og_object.fields(id)";
+    private static final String ENGAGEMENT_FIELDS = "engagement.fields(" +
+            "count_string_with_like," +
+            "count_string_without_like," +
+            "social_sentence_with_like," +
+            "social_sentence_without_like)";
+
+    private final List<List<GraphRequest>> executedBatches =
+            Collections.synchronizedList(new ArrayList<List<GraphRequest>>());
+    private volatile boolean failBulkOgObjectLookup;
+    private volatile boolean failBulkEngagement;
+    private final GraphRequestInterceptor interceptor = new GraphRequestInterceptor() {
+        @Override
+        public List<GraphResponse> intercept(Chain chain) {
+            boolean isLikeBatch = false;
+            List<GraphResponse> responses = new ArrayList<>();
+            for (GraphRequest request : chain.getRequests()) {
+                isLikeBatch |= isLikeRequest(request);
+                responses.add(respond(request));
+            }
+            if (isLikeBatch) {
+                executedBatches.add(new ArrayList<>(chain.getRequests()));
+            }
+            return responses;
+        }
+    };
+
+    @Before
+    public void before() {
+        FacebookSdk.setApplicationId("123456789");
+        FacebookSdk.setAutoLogAppEventsEnabled(false);
+        FacebookSdk.sdkInitialize(RuntimeEnvironment.application);
+        AccessToken.setCurrentAccessToken(new AccessToken(
+                "token",
+                "123456789",
+                "1000",
+                Arrays.asList("public_profile"),
+                null,
+                AccessTokenSource.WEB_VIEW,
+                new Date(System.currentTimeMillis() + 60 * 60 * 1000),
+                new Date()));
+        GraphRequest.addInterceptor(interceptor);
+    }
+
+    @After
+    public void after() {
+        GraphRequest.removeInterceptor(interceptor);
+        AccessToken.setCurrentAccessToken(null);
+    }
+
+    @Test
+    public void testPrefetchUsesMultipleIdRequests() throws Exception {
+        List<String> objectIds = createObjectIds(3);
+        LikeActionController.prefetchControllersForObjectIds(
+                objectIds,
+                LikeView.ObjectType.OPEN_GRAPH);
+
+        awaitBatches(2);
+
+        List<GraphRequest> lookups = executedBatches.get(0);
+        assertEquals(2, lookups.size());
+        assertMultipleIdRequest(lookups.get(0), OG_OBJECT_FIELDS, objectIds);
+        assertMultipleIdRequest(lookups.get(1), "id", objectIds);
+
+        List<GraphRequest> statuses = executedBatches.get(1);
+        assertEquals(objectIds.size() + 1, statuses.size());
+        for (int i = 0; i < objectIds.size(); i++) {
+            GraphRequest likes = statuses.get(i);
+            assertEquals("me/og.likes", likes.getGraphPath());
+            assertEquals(
+                    verifiedId(objectIds.get(i)),
+                    likes.getParameters().getString("object"));
+        }
+        List<String> verifiedIds = new ArrayList<>();
+        for (String objectId : objectIds) {
+            verifiedIds.add(verifiedId(objectId));
+        }
+        assertMultipleIdRequest(statuses.get(objectIds.size()), ENGAGEMENT_FIELDS, verifiedIds);
+    }
+
+    @Test
+    public void testPrefetchIsChunked() throws Exception {
+        LikeActionController.prefetchControllersForObjectIds(
+                createObjectIds(50),
+                LikeView.ObjectType.OPEN_GRAPH);
+
+        // A lookup batch and a status batch for each chunk.
+        awaitBatches(4);
+
+        assertEquals(Arrays.asList(1, 49), getBulkRequestSizes(OG_OBJECT_FIELDS));
+        assertEquals(Arrays.asList(1, 49), getBulkRequestSizes(ENGAGEMENT_FIELDS));
+    }
+
+    @Test
+    public void testFailedOgObjectLookupFallsBackToPerObjectRefresh() throws Exception {
+        failBulkOgObjectLookup = true;
+        List<String> objectIds = createObjectIds(2);
+        LikeActionController.prefetchControllersForObjectIds(
+                objectIds,
+                LikeView.ObjectType.OPEN_GRAPH);
+
+        // The bulk lookup, then an id lookup and a status batch for each object.
+        awaitBatches(5);
+
+        assertEquals(1, getBulkRequestSizes(OG_OBJECT_FIELDS).size());
+        assertEquals(0, getBulkRequestSizes(ENGAGEMENT_FIELDS).size());
+        assertPerObjectRefreshes(objectIds);
+    }
+
+    @Test
+    public void testFailedEngagementFallsBackToPerObjectRefresh() throws Exception {
+        failBulkEngagement = true;
+        List<String> objectIds = createObjectIds(2);
+        LikeActionController.prefetchControllersForObjectIds(
+                objectIds,
+                LikeView.ObjectType.OPEN_GRAPH);
+
+        // The bulk lookup and status batches, then a status batch for each object.
+        awaitBatches(4);
+
+        assertEquals(1, getBulkRequestSizes(ENGAGEMENT_FIELDS).size());
+        assertPerObjectRefreshes(objectIds);
+    }
+
+    private void awaitBatches(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (executedBatches.size() < count && System.currentTimeMillis() < deadline) {
+            ShadowLooper.runUiThreadTasks();
+            Thread.sleep(10);
+        }
+
+        // Give any unexpected batches a chance to show up.
+        Thread.sleep(200);
+        ShadowLooper.runUiThreadTasks();
+        assertEquals(count, executedBatches.size());
+    }
+
+    private void assertPerObjectRefreshes(List<String> objectIds) {
+        List<String> refreshedIds = new ArrayList<>();
+        for (GraphRequest request : getExecutedRequests()) {
+            Bundle parameters = request.getParameters();
+            if (!TextUtils.isEmpty(request.getGraphPath()) &&
+                    ENGAGEMENT_FIELDS.equals(parameters.getString("fields"))) {
+                refreshedIds.add(request.getGraphPath());
+            }
+        }
+        Collections.sort(refreshedIds);
+
+        List<String> expectedIds = new ArrayList<>();
+        for (String objectId : objectIds) {
+            expectedIds.add(verifiedId(objectId));
+        }
+        Collections.sort(expectedIds);
+        assertEquals(expectedIds, refreshedIds);
+    }
+
+    private List<Integer> getBulkRequestSizes(String fields) {
+        List<Integer> sizes = new ArrayList<>();
+        for (GraphRequest request : getExecutedRequests()) {
+            if (isBulkRequest(request) &&
+                    fields.equals(request.getParameters().getString("fields"))) {
+                sizes.add(request.getParameters().getString("ids").split(",").length);
+            }
+        }
+        Collections.sort(sizes);
+        return sizes;
+    }
+
+    private List<GraphRequest> getExecutedRequests() {
+        List<GraphRequest> requests = new ArrayList<>();
+        synchronized (executedBatches) {
+            for (List<GraphRequest> batch : executedBatches) {
+                requests.addAll(batch);
+            }
+        }
+        return requests;
+    }
+
+    private GraphResponse respond(GraphRequest request) {
+        Bundle parameters = request.getParameters();
+        String fields = parameters.getString("fields");
+        String ids = parameters.getString("ids");
+        boolean isBulk = isBulkRequest(request);
+        try {
+            JSONObject result = new JSONObject();
+            if (OG_OBJECT_FIELDS.equals(fields) && ids != null) {
+                if (isBulk && failBulkOgObjectLookup) {
+                    return TestUtils.createErrorResponse(request);
+                }
+                for (String id : ids.split(",")) {
+                    result.put(id, new JSONObject().put(
+                            "og_object",
+                            new JSONObject().put("id", verifiedId(id))));
+                }
+            } else if (ENGAGEMENT_FIELDS.equals(fields)) {
+                if (isBulk && failBulkEngagement) {
+                    return TestUtils.createErrorResponse(request);
+                }
+                JSONObject engagement = new JSONObject().put(
+                        "engagement",
+                        new JSONObject().put("count_string_with_like", "1"));
+                if (ids == null) {
+                    result = engagement;
+                } else {
+                    for (String id : ids.split(",")) {
+                        result.put(id, engagement);
+                    }
+                }
+            } else if ("me/og.likes".equals(request.getGraphPath())) {
+                result.put("data", new JSONArray());
+            } else if (!isLikeRequest(request)) {
+                return TestUtils.createErrorResponse(request);
+            }
+            return TestUtils.createResponse(request, result);
+        } catch (JSONException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void assertMultipleIdRequest(
+            GraphRequest request,
+            String fields,
+            List<String> ids) {
+        assertTrue(isBulkRequest(request));
+        assertEquals(fields, request.getParameters().getString("fields"));
+        assertEquals(TextUtils.join(",", ids), request.getParameters().getString("ids"));
+    }
+
+    private static boolean isLikeRequest(GraphRequest request) {
+        String fields = request.getParameters().getString("fields");
+        return "me/og.likes".equals(request.getGraphPath()) ||
+                OG_OBJECT_FIELDS.equals(fields) ||
+                ENGAGEMENT_FIELDS.equals(fields) ||
+                ("id".equals(fields) && request.getParameters().containsKey("ids"));
+    }
+
+    private static boolean isBulkRequest(GraphRequest request) {
+        // Unlike the per-object id lookups, the multi-id requests are always localized.
+        return TextUtils.isEmpty(request.getGraphPath()) &&
+                request.getParameters().containsKey("ids") &&
+                request.getParameters().containsKey("locale");
+    }
+
+    private static List<String> createObjectIds(int count) {
+        // Fresh ids keep the disk and memory caches of earlier tests out of the way.
+        List<String> objectIds = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            objectIds.add("object" + UUID.randomUUID().toString().replace("-", ""));
+        }
+        return objectIds;
+    }
+
+    private static String verifiedId(String objectId) {
+        return "og_" + objectId;
+    }
+}
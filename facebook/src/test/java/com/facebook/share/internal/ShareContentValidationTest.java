@@ -24,6 +24,7 @@ import android.net.Uri;
 import com.facebook.FacebookException;
 import com.facebook.FacebookPowerMockTestCase;
 import com.facebook.internal.Validate;
+import com.facebook.share.model.ShareContent;
 import com.facebook.share.model.ShareOpenGraphAction;
 import com.facebook.share.model.ShareOpenGraphContent;
 import com.facebook.share.model.SharePhoto;
@@ -33,6 +34,14 @@ import com.facebook.share.model.ShareVideoContent;
 import org.junit.Test;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
 
 /**
  * Tests for {@link ShareContentValidation}
@@ -189,6 +198,74 @@ public class ShareContentValidationTest extends FacebookPowerMockTestCase {
         ShareContentValidation.validateForWebShare(shareOpenGraphContent);
     }
 
+    // Memoization
+    @Test
+    public void testItRemembersValidationErrors() {
+        SharePhotoContent sharePhotoContent = new SharePhotoContent.Builder().build();
+
+        FacebookException firstError = validateForMessageAndGetError(sharePhotoContent);
+        FacebookException secondError = validateForMessageAndGetError(sharePhotoContent);
+
+        assertNotNull(firstError);
+        assertSame(firstError, secondError);
+    }
+
+    @Test
+    public void testItRemembersResultsPerMode() {
+        SharePhoto sharePhoto = buildSharePhoto("https://facebook.com/awesome.gif");
+        SharePhotoContent sharePhotoContent =
+                new SharePhotoContent.Builder().addPhoto(sharePhoto).build();
+
+        ShareContentValidation.validateForWebShare(sharePhotoContent);
+        try {
+            ShareContentValidation.validateForApiShare(sharePhotoContent);
+            fail();
+        } catch (FacebookException expected) {
+        }
+        ShareContentValidation.validateForWebShare(sharePhotoContent);
+    }
+
+    @Test(expected = FacebookException.class)
+    public void testItDoesNotCarryOpenGraphStateIntoLaterValidations() {
+        ShareOpenGraphAction shareOpenGraphAction =
+                new ShareOpenGraphAction.Builder()
+                        .putString("foo", "fooValue")
+                        .setActionType("foo")
+                        .build();
+        ShareOpenGraphContent shareOpenGraphContent =
+                new ShareOpenGraphContent.Builder()
+                        .setPreviewPropertyName("foo")
+                        .setAction(shareOpenGraphAction).build();
+        ShareContentValidation.validateForApiShare(shareOpenGraphContent);
+
+        SharePhoto sharePhoto = buildSharePhoto("https://facebook.com/awesome.gif");
+        SharePhotoContent sharePhotoContent =
+                new SharePhotoContent.Builder().addPhoto(sharePhoto).build();
+        ShareContentValidation.validateForApiShare(sharePhotoContent);
+    }
+
+    @Test
+    public void testItReportsErrorsThroughTheFuture() throws Exception {
+        Future<Void> validation = ShareContentValidation.validateForApiShareAsync(null);
+
+        assertTrue(validation.isDone());
+        try {
+            validation.get();
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof FacebookException);
+        }
+    }
+
+    private FacebookException validateForMessageAndGetError(ShareContent content) {
+        try {
+            ShareContentValidation.validateForMessage(content);
+        } catch (FacebookException e) {
+            return e;
+        }
+        return null;
+    }
+
     private SharePhoto buildSharePhoto(String url) {
         return new SharePhoto.Builder()
                 .setImageUrl(Uri.parse(url))
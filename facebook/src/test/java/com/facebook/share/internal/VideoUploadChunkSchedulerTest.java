@@ -0,0 +1,153 @@
+/**
+ * Copyright (c) 2014-present, Facebook, Inc. All rights reserved.
+ *
+ * You are hereby granted a non-exclusive, worldwide, royalty-free license to use,
+ * copy, modify, and distribute this software in source code or binary form for use
+ * in connection with the web services and APIs provided by Facebook.
+ *
+ * As with any software that integrates with the Facebook platform, your use of
+ * this software is subject to the Facebook Developer Principles and Policies
+ * [http://developers.facebook.com/policy/]. This copyright notice shall be
+ * included in all copies or substantial portions of the software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.facebook.share.internal;
+
+import com.facebook.FacebookTestCase;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class VideoUploadChunkSchedulerTest extends FacebookTestCase {
+    private static final long MB = 1024 * 1024;
+
+    @Test
+    public void testWindowIsBoundedByMaxChunksInFlight() {
+        VideoUploadChunkScheduler scheduler =
+                new VideoUploadChunkScheduler(0, 100 * MB, MB, 3, 0);
+
+        assertNotNull(scheduler.next());
+        assertNotNull(scheduler.next());
+        VideoUploadChunkScheduler.Chunk third = scheduler.next();
+        assertNotNull(third);
+        assertNull(scheduler.next());
+
+        scheduler.onChunkAcknowledged(third, 1000);
+        assertNotNull(scheduler.next());
+    }
+
+    @Test
+    public void testOutOfOrderAcknowledgementsComplete() {
+        VideoUploadChunkScheduler scheduler =
+                new VideoUploadChunkScheduler(0, 3 * MB, MB, 3, 0);
+        VideoUploadChunkScheduler.Chunk first = scheduler.next();
+        VideoUploadChunkScheduler.Chunk second = scheduler.next();
+        VideoUploadChunkScheduler.Chunk third = scheduler.next();
+        assertEquals(3 * MB, third.end);
+        assertNull(scheduler.next());
+
+        assertFalse(scheduler.onChunkAcknowledged(third, 1000));
+        assertEquals(0, scheduler.getContiguousOffset());
+        assertFalse(scheduler.onChunkAcknowledged(first, 1000));
+        assertEquals(MB, scheduler.getContiguousOffset());
+        assertTrue(scheduler.onChunkAcknowledged(second, 1000));
+        assertEquals(3 * MB, scheduler.getContiguousOffset());
+        assertEquals(3 * MB, scheduler.getBytesAcknowledged());
+    }
+
+    @Test
+    public void testChunkSizeFollowsThroughput() {
+        VideoUploadChunkScheduler scheduler =
+                new VideoUploadChunkScheduler(0, 1000 * MB, MB, 1, 0);
+
+        // 1 MB in 50 ms is fast, chunks grow to the largest size allowed.
+        scheduler.onChunkAcknowledged(scheduler.next(), 50);
+        assertEquals(VideoUploadChunkScheduler.MAX_CHUNK_SIZE, scheduler.getChunkSize());
+
+        // A slow link shrinks them back down, within bounds.
+        for (int i = 0; i < 20; i++) {
+            VideoUploadChunkScheduler.Chunk chunk = scheduler.next();
+            scheduler.onChunkAcknowledged(chunk, 1000 * 1000);
+        }
+        assertEquals(VideoUploadChunkScheduler.MIN_CHUNK_SIZE, scheduler.getChunkSize());
+    }
+
+    @Test
+    public void testLongRoundTripsMakeChunksLonger() {
+        long roundTripMillis = 2000;
+        VideoUploadChunkScheduler scheduler =
+                new VideoUploadChunkScheduler(0, 1000 * MB, MB, 1, roundTripMillis);
+
+        // 1 MB transferred in 4 s once the round trip is taken out.
+        scheduler.onChunkAcknowledged(scheduler.next(), 4000 + roundTripMillis);
+
+        long expected = MB * VideoUploadChunkScheduler.ROUND_TRIPS_PER_CHUNK
+                * roundTripMillis / 4000;
+        assertEquals(expected, scheduler.getChunkSize());
+    }
+
+    @Test
+    public void testAbortStopsHandingOutChunks() {
+        VideoUploadChunkScheduler scheduler =
+                new VideoUploadChunkScheduler(0, 2 * MB, MB, 2, 0);
+        VideoUploadChunkScheduler.Chunk first = scheduler.next();
+        VideoUploadChunkScheduler.Chunk second = scheduler.next();
+        scheduler.abort();
+
+        assertNull(scheduler.next());
+        scheduler.onChunkAcknowledged(first, 1000);
+        assertFalse(scheduler.onChunkAcknowledged(second, 1000));
+    }
+
+    @Test
+    public void testServerOffsetsMustCoverAcknowledgedChunks() {
+        VideoUploadChunkScheduler scheduler =
+                new VideoUploadChunkScheduler(0, 2 * MB, MB, 2, 0);
+        VideoUploadChunkScheduler.Chunk first = scheduler.next();
+        VideoUploadChunkScheduler.Chunk second = scheduler.next();
+
+        // Out of order, a session may not have the first chunk yet.
+        scheduler.onChunkAcknowledged(second, 1000);
+        assertTrue(scheduler.isConsistentWithServer(0, MB));
+
+        // Once everything was acknowledged, the server must be done too.
+        assertTrue(scheduler.onChunkAcknowledged(first, 1000));
+        assertTrue(scheduler.isConsistentWithServer(2 * MB, 2 * MB));
+        // A session that discarded the second chunk still asks for it.
+        assertFalse(scheduler.isConsistentWithServer(MB, 2 * MB));
+    }
+
+    @Test
+    public void testTryAbortSucceedsOnce() {
+        VideoUploadChunkScheduler scheduler =
+                new VideoUploadChunkScheduler(0, 2 * MB, MB, 2, 0);
+
+        assertTrue(scheduler.tryAbort());
+        assertFalse(scheduler.tryAbort());
+        assertTrue(scheduler.isAborted());
+        assertNull(scheduler.next());
+    }
+
+    @Test
+    public void testStartsFromResumedOffset() {
+        VideoUploadChunkScheduler scheduler =
+                new VideoUploadChunkScheduler(2 * MB, 3 * MB, MB, 2, 0);
+        VideoUploadChunkScheduler.Chunk chunk = scheduler.next();
+
+        assertEquals(2 * MB, chunk.start);
+        assertNull(scheduler.next());
+        assertTrue(scheduler.onChunkAcknowledged(chunk, 1000));
+    }
+}
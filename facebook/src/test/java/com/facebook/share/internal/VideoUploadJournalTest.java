@@ -0,0 +1,127 @@
+/**
+ * Copyright (c) 2014-present, Facebook, Inc. All rights reserved.
+ *
+ * You are hereby granted a non-exclusive, worldwide, royalty-free license to use,
+ * copy, modify, and distribute this software in source code or binary form for use
+ * in connection with the web services and APIs provided by Facebook.
+ *
+ * As with any software that integrates with the Facebook platform, your use of
+ * this software is subject to the Facebook Developer Principles and Policies
+ * [http://developers.facebook.com/policy/]. This copyright notice shall be
+ * included in all copies or substantial portions of the software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.facebook.share.internal;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import com.facebook.FacebookTestCase;
+
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class VideoUploadJournalTest extends FacebookTestCase {
+    private static final long NOW = 1500000000000L;
+
+    private SharedPreferences preferences;
+    private VideoUploadJournal journal;
+
+    @Before
+    public void before() {
+        preferences = RuntimeEnvironment.application.getSharedPreferences(
+                VideoUploadJournal.PREFERENCES_NAME,
+                Context.MODE_PRIVATE);
+        preferences.edit().clear().commit();
+        journal = new VideoUploadJournal(preferences);
+    }
+
+    @Test
+    public void testEntryRoundTrip() throws Exception {
+        JSONObject params = new JSONObject();
+        params.put("tags", "1,2");
+        VideoUploadJournal.Entry entry = createEntry(NOW, params);
+        entry.sessionId = "session";
+        entry.videoId = "video";
+        entry.startOffset = "1048576";
+        entry.endOffset = "2097152";
+        journal.save(entry);
+
+        List<VideoUploadJournal.Entry> entries = journal.getPendingEntries(NOW + 1000);
+
+        assertEquals(1, entries.size());
+        VideoUploadJournal.Entry restored = entries.get(0);
+        assertEquals(entry.id, restored.id);
+        assertEquals("file:///sdcard/video.mp4", restored.videoUri);
+        assertEquals(4096L, restored.videoSize);
+        assertEquals(1234L, restored.lastModified);
+        assertEquals("me", restored.graphNode);
+        assertEquals("1000", restored.userId);
+        assertEquals("title", restored.title);
+        assertNull(restored.description);
+        assertEquals("1,2", restored.params.getString("tags"));
+        assertEquals("session", restored.sessionId);
+        assertEquals("video", restored.videoId);
+        assertEquals("1048576", restored.startOffset);
+        assertEquals("2097152", restored.endOffset);
+    }
+
+    @Test
+    public void testRemove() {
+        VideoUploadJournal.Entry entry = createEntry(NOW, null);
+        journal.save(entry);
+        journal.remove(entry.id);
+
+        assertTrue(journal.getPendingEntries(NOW).isEmpty());
+    }
+
+    @Test
+    public void testExpiredEntriesAreDropped() {
+        journal.save(createEntry(NOW - VideoUploadJournal.MAX_ENTRY_AGE_MILLIS - 1, null));
+        VideoUploadJournal.Entry fresh = createEntry(NOW, null);
+        journal.save(fresh);
+
+        List<VideoUploadJournal.Entry> entries = journal.getPendingEntries(NOW);
+
+        assertEquals(1, entries.size());
+        assertEquals(fresh.id, entries.get(0).id);
+        assertEquals(1, preferences.getAll().size());
+    }
+
+    @Test
+    public void testUnparseableEntriesAreDropped() {
+        preferences.edit().putString("garbage", "{not json").commit();
+
+        assertTrue(journal.getPendingEntries(NOW).isEmpty());
+        assertTrue(preferences.getAll().isEmpty());
+    }
+
+    private static VideoUploadJournal.Entry createEntry(long createdTime, JSONObject params) {
+        return new VideoUploadJournal.Entry(
+                "file:///sdcard/video.mp4",
+                4096L,
+                1234L,
+                "me",
+                "1000",
+                "title",
+                null,
+                null,
+                params,
+                createdTime);
+    }
+}
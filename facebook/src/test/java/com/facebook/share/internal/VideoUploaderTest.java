@@ -0,0 +1,218 @@
+/**
+ * Copyright (c) 2014-present, Facebook, Inc. All rights reserved.
+ *
+ * You are hereby granted a non-exclusive, worldwide, royalty-free license to use,
+ * copy, modify, and distribute this software in source code or binary form for use
+ * in connection with the web services and APIs provided by Facebook.
+ *
+ * As with any software that integrates with the Facebook platform, your use of
+ * this software is subject to the Facebook Developer Principles and Policies
+ * [http://developers.facebook.com/policy/]. This copyright notice shall be
+ * included in all copies or substantial portions of the software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.facebook.share.internal;
+
+import android.content.ContentProvider;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+
+import com.facebook.AccessToken;
+import com.facebook.AccessTokenSource;
+import com.facebook.FacebookCallback;
+import com.facebook.FacebookException;
+import com.facebook.FacebookSdk;
+import com.facebook.FacebookTestCase;
+import com.facebook.internal.Utility;
+import com.facebook.share.Sharer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.Shadows;
+import org.robolectric.shadows.ShadowContentResolver;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+public class VideoUploaderTest extends FacebookTestCase {
+    private static final String USER_ID = "1000";
+    private static final String REVOKED_AUTHORITY = "com.facebook.test.revoked";
+
+    private VideoUploadJournal journal;
+
+    @Before
+    public void before() {
+        FacebookSdk.setApplicationId("123456789");
+        FacebookSdk.setAutoLogAppEventsEnabled(false);
+        FacebookSdk.sdkInitialize(RuntimeEnvironment.application);
+        AccessToken.setCurrentAccessToken(new AccessToken(
+                "token",
+                "123456789",
+                USER_ID,
+                Arrays.asList("publish_actions"),
+                null,
+                AccessTokenSource.WEB_VIEW,
+                new Date(System.currentTimeMillis() + 60 * 60 * 1000),
+                new Date()));
+        journal = new VideoUploadJournal(RuntimeEnvironment.application.getSharedPreferences(
+                VideoUploadJournal.PREFERENCES_NAME,
+                Context.MODE_PRIVATE));
+    }
+
+    @After
+    public void after() {
+        AccessToken.setCurrentAccessToken(null);
+    }
+
+    @Test
+    public void testUploadWithRevokedGrantIsDiscarded() {
+        ShadowContentResolver.registerProviderInternal(
+                REVOKED_AUTHORITY,
+                new RevokedContentProvider());
+        journal.save(new VideoUploadJournal.Entry(
+                "content://" + REVOKED_AUTHORITY + "/video/1",
+                4096L,
+                0L,
+                "me",
+                USER_ID,
+                null,
+                null,
+                null,
+                null,
+                System.currentTimeMillis()));
+        final List<FacebookException> errors = new ArrayList<>();
+
+        VideoUploader.resumePendingUploads(new FacebookCallback<Sharer.Result>() {
+            @Override
+            public void onSuccess(Sharer.Result result) {
+            }
+
+            @Override
+            public void onCancel() {
+            }
+
+            @Override
+            public void onError(FacebookException error) {
+                errors.add(error);
+            }
+        });
+
+        assertEquals(1, errors.size());
+        assertTrue(journal.getPendingEntries(System.currentTimeMillis()).isEmpty());
+    }
+
+    @Test
+    public void testNonSeekableContentFallsBackToStream() throws Exception {
+        Uri videoUri = Uri.parse("content://com.facebook.test.pipe/video/1");
+        byte[] video = new byte[] {1, 2, 3, 4, 5};
+        ContentResolver contentResolver = RuntimeEnvironment.application.getContentResolver();
+        Shadows.shadowOf(contentResolver)
+                .registerInputStream(videoUri, new ByteArrayInputStream(video));
+        // What a content provider returns for a pipe.
+        ParcelFileDescriptor pipe = mock(ParcelFileDescriptor.class);
+        doReturn(-1L).when(pipe).getStatSize();
+
+        InputStream stream = VideoUploader.openContentStream(contentResolver, videoUri, pipe);
+
+        ByteArrayOutputStream read = new ByteArrayOutputStream();
+        Utility.copyAndCloseInputStream(stream, read);
+        assertArrayEquals(video, read.toByteArray());
+        verify(pipe).close();
+    }
+
+    @Test
+    public void testPartialFileContentFallsBackToStream() throws Exception {
+        Uri videoUri = Uri.parse("content://com.facebook.test.partial/video/1");
+        byte[] video = new byte[] {1, 2, 3, 4, 5};
+        // What a provider returning part of a file through an AssetFileDescriptor looks like.
+        ContentResolver contentResolver = mock(ContentResolver.class);
+        doThrow(new FileNotFoundException("Not a whole file"))
+                .when(contentResolver).openFileDescriptor(videoUri, "r");
+        doReturn(new ByteArrayInputStream(video)).when(contentResolver).openInputStream(videoUri);
+
+        ParcelFileDescriptor descriptor =
+                VideoUploader.openContentDescriptor(contentResolver, videoUri);
+        InputStream stream =
+                VideoUploader.openContentStream(contentResolver, videoUri, descriptor);
+
+        assertNull(descriptor);
+        ByteArrayOutputStream read = new ByteArrayOutputStream();
+        Utility.copyAndCloseInputStream(stream, read);
+        assertArrayEquals(video, read.toByteArray());
+    }
+
+    // Stands in for a provider whose temporary grant ended with the process that received it.
+    private static class RevokedContentProvider extends ContentProvider {
+        @Override
+        public boolean onCreate() {
+            return true;
+        }
+
+        @Override
+        public Cursor query(
+                Uri uri,
+                String[] projection,
+                String selection,
+                String[] selectionArgs,
+                String sortOrder) {
+            throw new SecurityException("Permission Denial: " + uri);
+        }
+
+        @Override
+        public ParcelFileDescriptor openFile(Uri uri, String mode) {
+            throw new SecurityException("Permission Denial: " + uri);
+        }
+
+        @Override
+        public String getType(Uri uri) {
+            return null;
+        }
+
+        @Override
+        public Uri insert(Uri uri, ContentValues values) {
+            return null;
+        }
+
+        @Override
+        public int delete(Uri uri, String selection, String[] selectionArgs) {
+            return 0;
+        }
+
+        @Override
+        public int update(
+                Uri uri,
+                ContentValues values,
+                String selection,
+                String[] selectionArgs) {
+            return 0;
+        }
+    }
+}